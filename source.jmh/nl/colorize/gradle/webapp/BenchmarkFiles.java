@@ -0,0 +1,100 @@
+//-----------------------------------------------------------------------------
+// Colorize Gradle tasks
+// Copyright 2010-2017 Colorize
+// Apache license (http://www.colorize.nl/code_license.txt)
+//-----------------------------------------------------------------------------
+
+package nl.colorize.gradle.webapp;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.gradle.api.Project;
+import org.gradle.testfixtures.ProjectBuilder;
+
+/**
+ * Creates synthetic web application files for the benchmarks. Files are
+ * generated using a fixed random seed, so that every benchmark run uses
+ * exactly the same input and results can be compared between commits.
+ */
+public final class BenchmarkFiles {
+	
+	private static final Charset CHARSET = Charset.forName("UTF-8");
+	private static final String[] WORDS = {"var", "function", "return", "first", "second", "console.log",
+			"DEBUG", "=", "(", ")", "{", "}", ";", "window", "document", "length"};
+	
+	private BenchmarkFiles() {
+	}
+	
+	public static File createTempDir(String name) {
+		try {
+			return Files.createTempDirectory("benchmark-" + name).toFile();
+		} catch (IOException e) {
+			throw new RuntimeException("Cannot create temp directory", e);
+		}
+	}
+	
+	/**
+	 * Creates a project that uses the web app plugin in the specified
+	 * directory, with the source files located in {@code web/}.
+	 */
+	public static Project createProject(File projectDir) {
+		Project project = ProjectBuilder.builder().withProjectDir(projectDir).build();
+		WebAppPlugin plugin = new WebAppPlugin();
+		plugin.apply(project);
+		return project;
+	}
+	
+	/**
+	 * Creates the specified number of files, distributed over a number of
+	 * nested directories. Each file contains lines of JavaScript-like text
+	 * until it reaches approximately the requested size.
+	 */
+	public static List<File> createFiles(File dir, int fileCount, int fileSize, String extension) {
+		Random random = new Random(1234);
+		List<File> files = new ArrayList<>();
+		
+		for (int i = 0; i < fileCount; i++) {
+			File file = new File(dir, "dir" + (i % 10) + "/sub" + (i % 7) + "/file" + i + extension);
+			file.getParentFile().mkdirs();
+			
+			try {
+				Files.write(file.toPath(), generateLines(random, fileSize), CHARSET);
+			} catch (IOException e) {
+				throw new RuntimeException("Cannot create file " + file.getAbsolutePath(), e);
+			}
+			files.add(file);
+		}
+		return files;
+	}
+	
+	private static List<String> generateLines(Random random, int size) {
+		List<String> lines = new ArrayList<>();
+		int length = 0;
+		
+		while (length < size) {
+			StringBuilder line = new StringBuilder();
+			for (int i = 0; i < 4 + random.nextInt(12); i++) {
+				line.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+			}
+			lines.add(line.toString());
+			length += line.length() + 1;
+		}
+		return lines;
+	}
+	
+	public static void delete(File dir) {
+		File[] contents = dir.listFiles();
+		if (contents != null) {
+			for (File file : contents) {
+				delete(file);
+			}
+		}
+		dir.delete();
+	}
+}
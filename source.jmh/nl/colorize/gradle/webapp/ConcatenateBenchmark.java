@@ -0,0 +1,81 @@
+//-----------------------------------------------------------------------------
+// Colorize Gradle tasks
+// Copyright 2010-2017 Colorize
+// Apache license (http://www.colorize.nl/code_license.txt)
+//-----------------------------------------------------------------------------
+
+package nl.colorize.gradle.webapp;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.gradle.api.Project;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures creating the combined JavaScript file, both with and without
+ * rewrite rules being applied to every line.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ConcatenateBenchmark {
+	
+	@Param({"100", "1000"})
+	private int fileCount;
+	
+	@Param({"4096"})
+	private int fileSize;
+	
+	private File projectDir;
+	private WebAppExtension config;
+	private List<File> sourceFiles;
+	private File outputFile;
+	private RewriteFilter filter;
+	
+	@Setup
+	public void setup() {
+		projectDir = BenchmarkFiles.createTempDir("concatenate");
+		Project project = BenchmarkFiles.createProject(projectDir);
+		config = project.getExtensions().getByType(WebAppExtension.class);
+		sourceFiles = BenchmarkFiles.createFiles(config.getSourceDir(project), fileCount, fileSize, ".js");
+		outputFile = new File(projectDir, "combined.js");
+		filter = new RewriteFilter(Arrays.asList(
+				RewriteRule.literal("DEBUG", "RELEASE"),
+				RewriteRule.literal("first", "second"),
+				RewriteRule.pattern("console\\.log\\(.*?\\)", "void 0")), null, null);
+	}
+	
+	@TearDown
+	public void tearDown() {
+		BenchmarkFiles.delete(projectDir);
+	}
+	
+	@Benchmark
+	public long concatenate() {
+		new FileConcatenator(config).concatenate(sourceFiles, outputFile, (RewriteFilter) null, null);
+		return outputFile.length();
+	}
+	
+	@Benchmark
+	public long concatenateWithFilter() {
+		new FileConcatenator(config).concatenate(sourceFiles, outputFile, filter, null);
+		return outputFile.length();
+	}
+}
@@ -0,0 +1,74 @@
+//-----------------------------------------------------------------------------
+// Colorize Gradle tasks
+// Copyright 2010-2017 Colorize
+// Apache license (http://www.colorize.nl/code_license.txt)
+//-----------------------------------------------------------------------------
+
+package nl.colorize.gradle.webapp;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares concatenating large JavaScript libraries using memory-mapped
+ * files against decoding them line-by-line. The rewrite rules do not occur
+ * in the libraries, so the libraries can be copied without decoding. Run
+ * with {@code -PjmhArgs="LargeLibrary -prof gc"} to compare allocation
+ * rates and garbage collection between both strategies.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx512m")
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class LargeLibraryBenchmark {
+	
+	@Param({"mapped", "lines"})
+	private String strategy;
+	
+	@Param({"4194304"})
+	private int librarySize;
+	
+	private File projectDir;
+	private WebAppExtension config;
+	private List<File> sourceFiles;
+	private File outputFile;
+	private RewriteFilter filter;
+	
+	@Setup
+	public void setup() {
+		projectDir = BenchmarkFiles.createTempDir("library");
+		config = BenchmarkFiles.createProject(projectDir).getExtensions().getByType(WebAppExtension.class);
+		sourceFiles = BenchmarkFiles.createFiles(new File(projectDir, "node_modules"), 4, librarySize, ".js");
+		outputFile = new File(projectDir, "combined.js");
+		filter = new RewriteFilter(Arrays.asList(RewriteRule.literal("__DEV__", "false")), null, null);
+	}
+	
+	@TearDown
+	public void tearDown() {
+		BenchmarkFiles.delete(projectDir);
+	}
+	
+	@Benchmark
+	public long concatenate() {
+		long threshold = strategy.equals("mapped") ? 0L : Long.MAX_VALUE;
+		new FileConcatenator(config, threshold).concatenate(sourceFiles, outputFile, filter, null);
+		return outputFile.length();
+	}
+}
@@ -0,0 +1,76 @@
+//-----------------------------------------------------------------------------
+// Colorize Gradle tasks
+// Copyright 2010-2017 Colorize
+// Apache license (http://www.colorize.nl/code_license.txt)
+//-----------------------------------------------------------------------------
+
+package nl.colorize.gradle.webapp;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.gradle.api.Project;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures converting source file locations to paths relative to the source
+ * directory, which is done for every file in the web application.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class RelativePathBenchmark {
+	
+	@Param({"1000"})
+	private int fileCount;
+	
+	private File projectDir;
+	private Project project;
+	private WebAppExtension config;
+	private File sourceDir;
+	private List<File> sourceFiles;
+	
+	@Setup
+	public void setup() {
+		projectDir = BenchmarkFiles.createTempDir("relativepath");
+		project = BenchmarkFiles.createProject(projectDir);
+		config = project.getExtensions().getByType(WebAppExtension.class);
+		sourceDir = config.getSourceDir(project);
+		sourceFiles = BenchmarkFiles.createFiles(sourceDir, fileCount, 16, ".js");
+	}
+	
+	@TearDown
+	public void tearDown() {
+		BenchmarkFiles.delete(projectDir);
+	}
+	
+	@Benchmark
+	public void toRelativePath(Blackhole blackhole) {
+		for (File sourceFile : sourceFiles) {
+			blackhole.consume(config.toRelativePath(sourceFile, sourceDir));
+		}
+	}
+	
+	@Benchmark
+	public void toRelativePathFromProject(Blackhole blackhole) {
+		for (File sourceFile : sourceFiles) {
+			blackhole.consume(config.toRelativePath(project, sourceFile));
+		}
+	}
+}
@@ -0,0 +1,78 @@
+//-----------------------------------------------------------------------------
+// Colorize Gradle tasks
+// Copyright 2010-2017 Colorize
+// Apache license (http://www.colorize.nl/code_license.txt)
+//-----------------------------------------------------------------------------
+
+package nl.colorize.gradle.webapp;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.gradle.api.Project;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures rewriting references in an HTML file that refers to all of the
+ * files that are part of the combined JavaScript file.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class RewriteReferencesBenchmark {
+	
+	@Param({"10", "100", "1000"})
+	private int fileCount;
+	
+	private File projectDir;
+	private PackageWebAppTask task;
+	private List<String> references;
+	private String html;
+	
+	@Setup
+	public void setup() {
+		projectDir = BenchmarkFiles.createTempDir("rewrite");
+		Project project = BenchmarkFiles.createProject(projectDir);
+		task = (PackageWebAppTask) project.getTasks().getByName("packageWebApp");
+		
+		references = new ArrayList<>();
+		StringBuilder buffer = new StringBuilder("<!DOCTYPE html>\n<html>\n<head>\n");
+		for (int i = 0; i < fileCount; i++) {
+			String path = "js/dir" + (i % 10) + "/file" + i + ".js";
+			references.add(path);
+			buffer.append("    <script src=\"" + path + "\"></script>\n");
+		}
+		buffer.append("</head>\n<body>\n");
+		for (int i = 0; i < fileCount; i++) {
+			buffer.append("    <p>Paragraph " + i + " refers to file" + i + ".js</p>\n");
+		}
+		buffer.append("</body>\n</html>\n");
+		html = buffer.toString();
+	}
+	
+	@TearDown
+	public void tearDown() {
+		BenchmarkFiles.delete(projectDir);
+	}
+	
+	@Benchmark
+	public String rewriteSourceFileReferences() {
+		return task.rewriteSourceFileReferences(html, references, "combined.js");
+	}
+}
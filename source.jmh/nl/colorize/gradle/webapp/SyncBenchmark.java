@@ -0,0 +1,108 @@
+//-----------------------------------------------------------------------------
+// Colorize Gradle tasks
+// Copyright 2010-2017 Colorize
+// Apache license (http://www.colorize.nl/code_license.txt)
+//-----------------------------------------------------------------------------
+
+package nl.colorize.gradle.webapp;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.gradle.api.Project;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures synchronizing the packaged web application to another directory.
+ * The full sync starts from an empty directory, the unchanged sync measures
+ * the common case where the other directory is already up-to-date. The
+ * fan-out sync starts from a number of empty directories at the same time.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class SyncBenchmark {
+	
+	@Param({"100", "1000"})
+	private int fileCount;
+	
+	@Param({"4096"})
+	private int fileSize;
+	
+	private File projectDir;
+	private SyncWebAppTask task;
+	private WebAppExtension config;
+	private File buildDir;
+	private File fullSyncDir;
+	private File unchangedSyncDir;
+	private List<File> fanOutSyncDirs;
+	
+	private static final int FAN_OUT_DIRS = 4;
+	
+	@Setup
+	public void setup() {
+		projectDir = BenchmarkFiles.createTempDir("sync");
+		Project project = BenchmarkFiles.createProject(projectDir);
+		task = (SyncWebAppTask) project.getTasks().getByName("syncWebApp");
+		config = project.getExtensions().getByType(WebAppExtension.class);
+		buildDir = config.getBuildDir(project);
+		BenchmarkFiles.createFiles(buildDir, fileCount, fileSize, ".js");
+		
+		unchangedSyncDir = new File(projectDir, "unchanged");
+		task.sync(buildDir, unchangedSyncDir, config);
+	}
+	
+	@Setup(Level.Invocation)
+	public void clearFullSyncDir() {
+		if (fullSyncDir != null) {
+			BenchmarkFiles.delete(fullSyncDir);
+		}
+		fullSyncDir = new File(projectDir, "full");
+		
+		if (fanOutSyncDirs != null) {
+			fanOutSyncDirs.forEach(BenchmarkFiles::delete);
+		}
+		fanOutSyncDirs = new ArrayList<>();
+		for (int i = 0; i < FAN_OUT_DIRS; i++) {
+			fanOutSyncDirs.add(new File(projectDir, "fanOut" + i));
+		}
+	}
+	
+	@TearDown
+	public void tearDown() {
+		BenchmarkFiles.delete(projectDir);
+	}
+	
+	@Benchmark
+	public SyncResult syncFull() {
+		return task.sync(buildDir, fullSyncDir, config);
+	}
+	
+	@Benchmark
+	public SyncResult syncUnchanged() {
+		return task.sync(buildDir, unchangedSyncDir, config);
+	}
+	
+	@Benchmark
+	public Map<File, SyncResult> syncFanOut() {
+		return task.sync(buildDir, fanOutSyncDirs, config, new PackagingReport("syncWebApp"));
+	}
+}
@@ -0,0 +1,117 @@
+//-----------------------------------------------------------------------------
+// Colorize Gradle tasks
+// Copyright 2010-2017 Colorize
+// Apache license (http://www.colorize.nl/code_license.txt)
+//-----------------------------------------------------------------------------
+
+package nl.colorize.gradle.webapp;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.gradle.api.Project;
+import org.gradle.testfixtures.ProjectBuilder;
+import org.junit.Test;
+
+public class TestAssetInliner {
+	
+	@Test
+	public void testInlineCSSReferences() throws Exception {
+		AssetInliner inliner = createInliner();
+		String dataURI = "data:image/png;base64," + Base64.getEncoder().encodeToString(new byte[] { 1, 2, 3 });
+		
+		assertEquals(".a { background: url('" + dataURI + "'); }", 
+				inliner.inlineCSS(".a { background: url('../img/icon.png'); }", "css/style.css"));
+		assertEquals("url(" + dataURI + ") url( \"" + dataURI + "\" )", 
+				inliner.inlineCSS("url(/img/icon.png?v=2) url( \"../img/./icon.png\" )", "css/style.css"));
+		assertEquals(Integer.valueOf(3), inliner.getInlinedReferences().values().iterator().next());
+	}
+	
+	@Test
+	public void testDoNotInlineOtherReferences() throws Exception {
+		AssetInliner inliner = createInliner();
+		String css = "url(img/icon.png) url(../img/large.png) url(../img/icon.png#part) " +
+				"url(http://example.com/img/icon.png) url(../img/readme.txt) url(data:image/png;base64,AAAA)";
+		
+		assertEquals(css, inliner.inlineCSS(css, "css/style.css"));
+		assertTrue(inliner.getInlinedReferences().isEmpty());
+	}
+	
+	@Test
+	public void testInlineImageTags() throws Exception {
+		AssetInliner inliner = createInliner();
+		String html = "<img alt=\"x\" src=\"img/icon.png\" />\n<img src='img/large.png'>\n" +
+				"<script src=\"img/icon.png\"></script>";
+		String expected = "<img alt=\"x\" src=\"data:image/png;base64,AQID\" />\n<img src='img/large.png'>\n" +
+				"<script src=\"img/icon.png\"></script>";
+		
+		assertEquals(expected, inliner.inlineHTML(html, "index.html"));
+	}
+	
+	@Test
+	public void testFindReferencedFiles() throws Exception {
+		AssetInliner inliner = createInliner();
+		Set<File> files = new HashSet<>();
+		inliner.findReferencedFiles("var a = 'img/Icon.PNG'; // large.png, data:image/png;base64,AQID", files);
+		
+		assertEquals(1, files.size());
+		assertEquals("img/icon.png", toRelativePath(files.iterator().next()));
+		
+		files.clear();
+		inliner.findReferencedFiles("var a = '../other/icon.png';", files);
+		
+		assertEquals(1, files.size());
+		assertEquals("other/icon.png", toRelativePath(files.iterator().next()));
+		
+		files.clear();
+		inliner.findReferencedFiles("var a = 'icon.png';", files);
+		
+		assertEquals(2, files.size());
+	}
+	
+	@Test
+	public void testFindInlinedFiles() throws Exception {
+		AssetInliner inliner = createInliner();
+		Set<File> files = new HashSet<>();
+		inliner.findInlinedFiles(".a { background: url(../other/icon.png); }", "css/style.css", files);
+		
+		assertEquals(1, files.size());
+		assertEquals("other/icon.png", toRelativePath(files.iterator().next()));
+		assertTrue(inliner.getInlinedReferences().isEmpty());
+	}
+	
+	private String toRelativePath(File file) {
+		String path = file.getAbsolutePath().replace(File.separatorChar, '/');
+		return path.substring(path.indexOf("/web/") + 5);
+	}
+	
+	private AssetInliner createInliner() throws Exception {
+		File projectDir = Files.createTempDirectory("webapp").toFile();
+		createFile(projectDir, "web/img/icon.png", new byte[] { 1, 2, 3 });
+		createFile(projectDir, "web/other/icon.png", new byte[] { 4, 5, 6 });
+		createFile(projectDir, "web/img/large.png", new byte[200]);
+		createFile(projectDir, "web/img/readme.txt", new byte[] { 1 });
+		createFile(projectDir, "web/css/style.css", new byte[0]);
+		
+		Project project = ProjectBuilder.builder().withProjectDir(projectDir).build();
+		WebAppExtension config = createConfig();
+		config.setInlineAssetsMaxSize(100);
+		return new AssetInliner(config, config.indexFiles(project));
+	}
+	
+	private void createFile(File dir, String path, byte[] contents) throws Exception {
+		File file = new File(dir, path);
+		file.getParentFile().mkdirs();
+		Files.write(file.toPath(), contents);
+	}
+	
+	private WebAppExtension createConfig() {
+		return ProjectBuilder.builder().build().getObjects().newInstance(WebAppExtension.class);
+	}
+}
@@ -0,0 +1,56 @@
+//-----------------------------------------------------------------------------
+// Colorize Gradle tasks
+// Copyright 2010-2017 Colorize
+// Apache license (http://www.colorize.nl/code_license.txt)
+//-----------------------------------------------------------------------------
+
+package nl.colorize.gradle.webapp;
+
+import static org.junit.Assert.*;
+
+import java.io.StringWriter;
+import java.io.Writer;
+
+import org.junit.Test;
+
+public class TestCSSMinifier {
+
+	@Test
+	public void testMinifyRules() throws Exception {
+		assertEquals("body{margin:0;color:red}", minify("body {\n  margin: 0;\n  color: red;\n}\n"));
+		assertEquals("a,b>c{x:1}d{y:2}", minify("a, b > c { x: 1; }\n\n/* comment */\nd { y: 2 }"));
+		assertEquals("p{margin:0 auto!important}", minify("p { margin:  0  auto !important ; }"));
+	}
+	
+	@Test
+	public void testKeepSignificantWhitespace() throws Exception {
+		assertEquals("div :hover{a:b}", minify("div :hover { a: b }"));
+		assertEquals("a{width:calc(100% - 2px + 1em)}", minify("a { width: calc(100% - 2px + 1em); }"));
+		assertEquals("a+b~c{x:1}", minify("a + b ~ c { x: 1 }"));
+		assertEquals("@media screen and (max-width:100px){a{x:1}}", 
+				minify("@media screen and (max-width: 100px) {\n  a { x: 1; }\n}"));
+		assertEquals("a{margin:0 -1px}", minify("a { margin: 0 -1px }"));
+	}
+	
+	@Test
+	public void testPreserveStringsAndURLs() throws Exception {
+		assertEquals("a:before{content:\"  /* x */  ; }\"}", minify("a:before { content: \"  /* x */  ; }\"; }"));
+		assertEquals("a{background:url(data:image/png;base64,AB//CD==)}", 
+				minify("a { background: url( data:image/png;base64,AB//CD== ); }"));
+		assertEquals("a{background:url('a b.png')}", minify("a { background: url( 'a b.png' ) }"));
+		assertEquals("@import \"x.css\";a{x:1}", minify("@import \"x.css\";\na { x: 1 }"));
+	}
+	
+	@Test
+	public void testPreserveLicenseComments() throws Exception {
+		assertEquals("/*! License */\na{x:1}", minify("/*! License */\na { x: 1 }"));
+	}
+	
+	private String minify(String css) throws Exception {
+		StringWriter buffer = new StringWriter();
+		try (Writer writer = new CSSMinifier(buffer)) {
+			writer.write(css);
+		}
+		return buffer.toString();
+	}
+}
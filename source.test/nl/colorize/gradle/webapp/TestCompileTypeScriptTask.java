@@ -0,0 +1,175 @@
+//-----------------------------------------------------------------------------
+// Colorize Gradle tasks
+// Copyright 2010-2017 Colorize
+// Apache license (http://www.colorize.nl/code_license.txt)
+//-----------------------------------------------------------------------------
+
+package nl.colorize.gradle.webapp;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.gradle.api.Project;
+import org.gradle.api.Task;
+import org.gradle.testfixtures.ProjectBuilder;
+import org.gradle.testkit.runner.BuildResult;
+import org.gradle.testkit.runner.GradleRunner;
+import org.gradle.testkit.runner.TaskOutcome;
+import org.junit.Assume;
+import org.junit.Test;
+
+public class TestCompileTypeScriptTask {
+	
+	private static final Charset CHARSET = Charset.forName("UTF-8");
+	
+	@Test
+	public void testDeclarationFilesDoNotTriggerCompilation() throws Exception {
+		File projectDir = Files.createTempDirectory("webapp").toFile();
+		createFile(projectDir, "web/a.ts", "let a = 1;");
+		createFile(projectDir, "web/sub/b.tsx", "let b = 2;");
+		createFile(projectDir, "web/types.d.ts", "declare let c: number;");
+		
+		CompileTypeScriptTask task = createTask(projectDir);
+		
+		assertEquals(2, task.getTypeScriptFiles().getFiles().size());
+		assertEquals(1, task.getDeclarationFiles().getFiles().size());
+	}
+	
+	@Test
+	public void testOutputsFromTypeScriptConfig() throws Exception {
+		File projectDir = Files.createTempDirectory("webapp").toFile();
+		createFile(projectDir, "tsconfig.json", "{\n  // Comment\n  \"compilerOptions\": {\n" +
+				"    \"outFile\": \"build/web/app.js\",\n  },\n}");
+		createFile(projectDir, "admin/tsconfig.json", "{ \"compilerOptions\": { \"outDir\": \"../build/admin\" } }");
+		
+		CompileTypeScriptTask task = createTask(projectDir);
+		getConfig(task).setTypeScriptConfigs(Arrays.asList("tsconfig.json", "admin/tsconfig.json"));
+		
+		assertEquals(Collections.singleton(new File(projectDir, "build/web/app.js").getCanonicalFile()),
+				task.getOutputFiles().getFiles());
+		assertTrue(task.getOutputDirs().getFiles().contains(new File(projectDir, "build/admin").getCanonicalFile()));
+		assertTrue(task.getOutputDirs().getFiles().contains(task.getBuildInfoDir()));
+	}
+	
+	@Test
+	public void testFilesCompiledByTypeScriptConfig() throws Exception {
+		File projectDir = Files.createTempDirectory("webapp").toFile();
+		createFile(projectDir, "web/tsconfig.json", "{ \"include\": [\"src\", \"./lib/**/*.ts\"] }");
+		createFile(projectDir, "admin/tsconfig.json", "{ \"files\": [\"main.ts\"] }");
+		
+		CompileTypeScriptTask task = createTask(projectDir);
+		getConfig(task).setTypeScriptConfigs(Arrays.asList("web/tsconfig.json", "admin/tsconfig.json"));
+		
+		assertTrue(task.isCompiled(new File(projectDir, "web/src/a.ts")));
+		assertTrue(task.isCompiled(new File(projectDir, "web/src/sub/b.tsx")));
+		assertTrue(task.isCompiled(new File(projectDir, "web/lib/c.ts")));
+		assertTrue(task.isCompiled(new File(projectDir, "web/lib/sub/d.ts")));
+		assertTrue(task.isCompiled(new File(projectDir, "admin/main.ts")));
+		assertFalse(task.isCompiled(new File(projectDir, "web/lib/e.tsx")));
+		assertFalse(task.isCompiled(new File(projectDir, "web/other/f.ts")));
+		assertFalse(task.isCompiled(new File(projectDir, "admin/other.ts")));
+		
+		getConfig(task).setTypeScriptConfigs(Arrays.asList("admin/tsconfig.json", "tsconfig.json"));
+		createFile(projectDir, "tsconfig.json", "{}");
+		
+		assertTrue(task.isCompiled(new File(projectDir, "web/other/f.ts")));
+	}
+	
+	@Test
+	public void testCompileEachConfigIncrementally() throws Exception {
+		Assume.assumeFalse(System.getProperty("os.name").startsWith("Windows"));
+		
+		File projectDir = Files.createTempDirectory("webapp").toFile();
+		File compiler = createStubCompiler(projectDir);
+		createFile(projectDir, "web/a.ts", "let a = 1;");
+		createFile(projectDir, "tsconfig.json", "{}");
+		createFile(projectDir, "admin/tsconfig.json", "{}");
+		
+		CompileTypeScriptTask task = createTask(projectDir);
+		getConfig(task).setTypeScriptConfigs(Arrays.asList("tsconfig.json", "admin/tsconfig.json", "missing.json"));
+		getConfig(task).setTypeScriptCompiler(compiler.getAbsolutePath());
+		task.compile();
+		
+		List<String> invocations = Files.readAllLines(new File(projectDir, "tsc.log").toPath(), CHARSET);
+		Collections.sort(invocations);
+		
+		assertEquals(2, invocations.size());
+		assertTrue(invocations.get(0).startsWith("--project " + new File(projectDir, "admin/tsconfig.json")));
+		assertTrue(invocations.get(0).contains("--incremental --tsBuildInfoFile"));
+		assertTrue(invocations.get(0).endsWith("admin_tsconfig_json.tsbuildinfo"));
+		assertTrue(invocations.get(1).startsWith("--project " + new File(projectDir, "tsconfig.json")));
+		assertTrue(invocations.get(1).endsWith("tsconfig_json.tsbuildinfo"));
+	}
+	
+	@Test
+	public void testSkipCompilationWhenUpToDate() throws Exception {
+		Assume.assumeFalse(System.getProperty("os.name").startsWith("Windows"));
+		
+		File projectDir = Files.createTempDirectory("webapp").toFile();
+		File stubDir = new File(projectDir, "stub");
+		createStubCompiler(stubDir);
+		createFile(projectDir, "settings.gradle", "rootProject.name = 'typescript'");
+		createFile(projectDir, "build.gradle", "plugins { id 'nl.colorize.gradle.webapp' }");
+		createFile(projectDir, "web/index.html", "<p>Test</p>");
+		
+		Map<String, String> environment = new HashMap<>(System.getenv());
+		environment.put("PATH", stubDir.getAbsolutePath() + File.pathSeparator + System.getenv("PATH"));
+		
+		BuildResult withoutTypeScript = runBuild(projectDir, environment);
+		createFile(projectDir, "web/a.ts", "let a = 1;");
+		createFile(projectDir, "tsconfig.json", "{}");
+		BuildResult first = runBuild(projectDir, environment);
+		BuildResult second = runBuild(projectDir, environment);
+		
+		assertEquals(TaskOutcome.NO_SOURCE, withoutTypeScript.task(":compileWebAppTypeScript").getOutcome());
+		assertEquals(TaskOutcome.SUCCESS, first.task(":compileWebAppTypeScript").getOutcome());
+		assertEquals(TaskOutcome.UP_TO_DATE, second.task(":compileWebAppTypeScript").getOutcome());
+		assertEquals(1, Files.readAllLines(new File(projectDir, "stub/tsc.log").toPath(), CHARSET).size());
+	}
+	
+	/**
+	 * Creates a stub TypeScript compiler, that logs its arguments instead of
+	 * actually compiling anything.
+	 */
+	private File createStubCompiler(File dir) throws Exception {
+		File log = new File(dir, "tsc.log");
+		File compiler = createFile(dir, "tsc", "#!/bin/sh\necho \"$@\" >> \"" + log.getAbsolutePath() + "\"");
+		assertTrue(compiler.setExecutable(true));
+		return compiler;
+	}
+	
+	private BuildResult runBuild(File projectDir, Map<String, String> environment) {
+		return GradleRunner.create()
+			.withProjectDir(projectDir)
+			.withPluginClasspath()
+			.withEnvironment(environment)
+			.withArguments("packageWebApp")
+			.build();
+	}
+	
+	private CompileTypeScriptTask createTask(File projectDir) {
+		Project project = ProjectBuilder.builder().withProjectDir(projectDir).build();
+		WebAppPlugin plugin = new WebAppPlugin();
+		plugin.apply(project);
+		return (CompileTypeScriptTask) project.getTasks().getByName("compileWebAppTypeScript");
+	}
+	
+	private File createFile(File dir, String path, String contents) throws Exception {
+		File file = new File(dir, path);
+		file.getParentFile().mkdirs();
+		Files.write(file.toPath(), Arrays.asList(contents), CHARSET);
+		return file;
+	}
+	
+	private WebAppExtension getConfig(Task task) {
+		return task.getProject().getExtensions().getByType(WebAppExtension.class);
+	}
+}
@@ -0,0 +1,213 @@
+//-----------------------------------------------------------------------------
+// Colorize Gradle tasks
+// Copyright 2010-2017 Colorize
+// Apache license (http://www.colorize.nl/code_license.txt)
+//-----------------------------------------------------------------------------
+
+package nl.colorize.gradle.webapp;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.gradle.testfixtures.ProjectBuilder;
+import org.junit.Test;
+
+import groovy.lang.Closure;
+
+public class TestFileConcatenator {
+	
+	private static final Charset CHARSET = Charset.forName("UTF-8");
+
+	@Test
+	public void testOutputIdenticalToReadingAllLines() throws Exception {
+		List<File> files = new ArrayList<>();
+		files.add(createFile("first\nsecond\n"));
+		files.add(createFile("no trailing newline"));
+		files.add(createFile(""));
+		files.add(createFile("windows\r\nline\r\nendings\r\n"));
+		files.add(createFile("old\rmac\r"));
+		files.add(createFile("\n\néè unicode 😀\n"));
+		
+		assertArrayEquals(concatenateReference(files, null), concatenate(files, null));
+	}
+	
+	@Test
+	public void testLineSeparatorAcrossBufferBoundary() throws Exception {
+		StringBuilder contents = new StringBuilder();
+		for (int i = 0; i < 65535; i++) {
+			contents.append('x');
+		}
+		contents.append("\r\nnext\r\n");
+		List<File> files = Arrays.asList(createFile(contents.toString()), createFile("a\r"));
+		
+		assertArrayEquals(concatenateReference(files, null), concatenate(files, null));
+	}
+	
+	@Test
+	public void testOutputWithFilterIdenticalToReadingAllLines() throws Exception {
+		Closure<String> filter = new Closure<String>(this) {
+			@Override
+			public String call(Object line) {
+				return line.toString().toUpperCase();
+			}
+		};
+		
+		List<File> files = Arrays.asList(createFile("first\r\nsecond"), createFile("third\n"));
+		
+		assertArrayEquals(concatenateReference(files, filter), concatenate(files, filter));
+	}
+	
+	@Test
+	public void testNothingWrittenWithoutSourceFiles() throws Exception {
+		File outputFile = new File(Files.createTempDirectory("combined").toFile(), "combined.js");
+		new FileConcatenator(createConfig()).concatenate(new ArrayList<File>(), outputFile, null);
+		
+		assertFalse(outputFile.exists());
+	}
+	
+	@Test
+	public void testMinifyWhileConcatenating() throws Exception {
+		List<File> files = Arrays.asList(createFile("var a = 1 // first\n"), createFile("/* second */\nvar b = a\n"));
+		Closure<String> filter = new Closure<String>(this) {
+			@Override
+			public String call(Object line) {
+				return line.toString().replace("1", "2");
+			}
+		};
+		
+		File outputFile = File.createTempFile("combined", ".js");
+		new FileConcatenator(createConfig()).concatenate(files, outputFile, filter, JavaScriptMinifier::new);
+		
+		assertEquals("var a=2\nvar b=a", new String(Files.readAllBytes(outputFile.toPath()), CHARSET));
+	}
+	
+	@Test
+	public void testUnmappableCharactersAreReplaced() throws Exception {
+		List<File> files = Arrays.asList(createFile("var a = 'b';\n"));
+		Closure<String> filter = new Closure<String>(this) {
+			@Override
+			public String call(Object line) {
+				return line.toString().replace("b", "\u2603");
+			}
+		};
+		
+		WebAppExtension config = createConfig();
+		config.setCharset("ISO-8859-1");
+		File outputFile = File.createTempFile("combined", ".js");
+		new FileConcatenator(config).concatenate(files, outputFile, filter);
+		
+		assertEquals("var a = '?';", Files.readAllLines(outputFile.toPath(), CHARSET).get(0));
+	}
+	
+	@Test
+	public void testFilterLargeFileInParallel() throws Exception {
+		StringBuilder contents = new StringBuilder();
+		for (int i = 0; i < 100000; i++) {
+			contents.append("var line" + i + " = 'first';\r\n");
+		}
+		List<File> files = Arrays.asList(createFile(contents.toString()), createFile("first"));
+		RewriteFilter filter = new RewriteFilter(Arrays.asList(RewriteRule.literal("first", "second"),
+				RewriteRule.pattern("line(\\d+)", "x$1")), null, null);
+		
+		WebAppExtension config = createConfig();
+		config.setParallelism(4);
+		File outputFile = File.createTempFile("combined", ".js");
+		new FileConcatenator(config).concatenate(files, outputFile, filter, null);
+		
+		Closure<String> reference = new Closure<String>(this) {
+			@Override
+			public String call(Object line) {
+				return line.toString().replace("first", "second").replaceAll("line(\\d+)", "x$1");
+			}
+		};
+		
+		assertArrayEquals(concatenateReference(files, reference), Files.readAllBytes(outputFile.toPath()));
+	}
+	
+	@Test
+	public void testMappedFilesIdenticalToReadingAllLines() throws Exception {
+		List<File> files = new ArrayList<>();
+		files.add(createFile("first\nsecond\n"));
+		files.add(createFile("no trailing newline"));
+		files.add(createFile(""));
+		files.add(createFile("windows\r\nline\r\nendings\r\n"));
+		files.add(createFile("\n\néè unicode 😀\r"));
+		
+		File outputFile = File.createTempFile("combined", ".js");
+		new FileConcatenator(createConfig(), 0L).concatenate(files, outputFile, (RewriteFilter) null, null);
+		
+		assertArrayEquals(concatenateReference(files, null), Files.readAllBytes(outputFile.toPath()));
+	}
+	
+	@Test
+	public void testCopyLargeFilesThatFilterCannotChange() throws Exception {
+		List<File> files = new ArrayList<>();
+		files.add(createFile("var library = 'unchanged';\r\nvar é = '😀';"));
+		files.add(createFile("var app = 'first';\n"));
+		files.add(createFile("\nvar other = 'firs';\r"));
+		RewriteFilter filter = new RewriteFilter(Arrays.asList(RewriteRule.literal("first", "second")), 
+				null, null);
+		
+		WebAppExtension config = createConfig();
+		config.setContentHashNaming(true);
+		File mappedFile = File.createTempFile("combined", ".js");
+		FileConcatenator mapped = new FileConcatenator(config, 0L);
+		mapped.concatenate(files, mappedFile, filter, null);
+		File decodedFile = File.createTempFile("combined", ".js");
+		FileConcatenator decoded = new FileConcatenator(config, Long.MAX_VALUE);
+		decoded.concatenate(files, decodedFile, filter, null);
+		
+		Closure<String> reference = new Closure<String>(this) {
+			@Override
+			public String call(Object line) {
+				return line.toString().replace("first", "second");
+			}
+		};
+		
+		assertArrayEquals(concatenateReference(files, reference), Files.readAllBytes(mappedFile.toPath()));
+		assertArrayEquals(Files.readAllBytes(decodedFile.toPath()), Files.readAllBytes(mappedFile.toPath()));
+		assertEquals(decoded.getContentHash(), mapped.getContentHash());
+	}
+	
+	private File createFile(String contents) throws Exception {
+		File file = File.createTempFile("source", ".js");
+		Files.write(file.toPath(), contents.getBytes(CHARSET));
+		return file;
+	}
+	
+	private byte[] concatenate(List<File> files, Closure<String> filter) throws Exception {
+		File outputFile = File.createTempFile("combined", ".js");
+		new FileConcatenator(createConfig()).concatenate(files, outputFile, filter);
+		return Files.readAllBytes(outputFile.toPath());
+	}
+	
+	/**
+	 * Produces the combined file by reading the source files in memory, which
+	 * is used as a reference for the expected output.
+	 */
+	private byte[] concatenateReference(List<File> files, Closure<String> filter) throws Exception {
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		try (PrintWriter writer = new PrintWriter(new OutputStreamWriter(buffer, CHARSET))) {
+			for (File file : files) {
+				for (String line : Files.readAllLines(file.toPath(), CHARSET)) {
+					writer.println(filter == null ? line : filter.call(line));
+				}
+				writer.println("");
+			}
+		}
+		return buffer.toByteArray();
+	}
+	
+	private WebAppExtension createConfig() {
+		return ProjectBuilder.builder().build().getObjects().newInstance(WebAppExtension.class);
+	}
+}
@@ -0,0 +1,127 @@
+//-----------------------------------------------------------------------------
+// Colorize Gradle tasks
+// Copyright 2010-2017 Colorize
+// Apache license (http://www.colorize.nl/code_license.txt)
+//-----------------------------------------------------------------------------
+
+package nl.colorize.gradle.webapp;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class TestHTMLReferenceRewriter {
+	
+	@Test
+	public void testRewriteScriptAndStylesheetReferences() {
+		HTMLReferenceRewriter rewriter = createRewriter();
+		String html = "<html>\n" +
+				"<head>\n" +
+				"    <link rel=\"stylesheet\" href=\"css/a.css\" />\n" +
+				"    <script src=\"js/a.js\"></script>\n" +
+				"    <script src=\"js/b.js\"></script>\n" +
+				"</head>\n" +
+				"</html>\n";
+		String expected = "<html>\n" +
+				"<head>\n" +
+				"    <link rel=\"stylesheet\" href=\"combined.css\" />\n" +
+				"    <script src=\"combined.js\"></script>\n" +
+				"</head>\n" +
+				"</html>\n";
+		
+		assertEquals(expected, rewriter.rewrite(html, "index.html"));
+	}
+	
+	@Test
+	public void testTagsSpanningMultipleLines() {
+		HTMLReferenceRewriter rewriter = createRewriter();
+		String html = "<script\n    type=\"text/javascript\"\n    src=\"js/a.js\">\n</script>\n" +
+				"<LINK href='css/a.css'\n  REL=stylesheet>\n";
+		
+		assertEquals("<script src=\"combined.js\"></script>\n<link rel=\"stylesheet\" href=\"combined.css\" />\n",
+				rewriter.rewrite(html, "index.html"));
+	}
+	
+	@Test
+	public void testMultipleTagsOnSameLine() {
+		HTMLReferenceRewriter rewriter = createRewriter();
+		String html = "<p>Test</p><script src=\"js/a.js\"></script><script src=\"js/b.js\"></script><p>X</p>";
+		
+		assertEquals("<p>Test</p><script src=\"combined.js\"></script><p>X</p>",
+				rewriter.rewrite(html, "index.html"));
+	}
+	
+	@Test
+	public void testSameFileNameInDifferentDirectory() {
+		HTMLReferenceRewriter rewriter = createRewriter();
+		String html = "<script src=\"lib/a.js\"></script>\n<script src=\"js/a.js\"></script>\n";
+		
+		assertEquals("<script src=\"lib/a.js\"></script>\n<script src=\"combined.js\"></script>\n",
+				rewriter.rewrite(html, "index.html"));
+	}
+	
+	@Test
+	public void testResolveRelativeToHTMLFile() {
+		HTMLReferenceRewriter rewriter = createRewriter();
+		
+		assertEquals("<script src=\"../combined.js\"></script>",
+				rewriter.rewrite("<script src=\"../js/a.js\"></script>", "pages/test.html"));
+		assertEquals("<script src=\"/combined.js\"></script>",
+				rewriter.rewrite("<script src=\"/js/a.js\"></script>", "pages/test.html"));
+		assertEquals("<script src=\"a.js\"></script>",
+				rewriter.rewrite("<script src=\"a.js\"></script>", "lib/test.html"));
+	}
+	
+	@Test
+	public void testReferenceWithContextPathOrQueryString() {
+		HTMLReferenceRewriter rewriter = createRewriter();
+		
+		assertEquals("<script src=\"/combined.js\"></script>",
+				rewriter.rewrite("<script src=\"/app/js/a.js\"></script>", "index.html"));
+		assertEquals("<script src=\"combined.js\"></script>",
+				rewriter.rewrite("<script src=\"js/a.js?v=2\"></script>", "index.html"));
+	}
+	
+	@Test
+	public void testIgnoreOtherReferences() {
+		HTMLReferenceRewriter rewriter = createRewriter();
+		String html = "<!-- <script src=\"js/a.js\"></script> -->\n" +
+				"<script src=\"https://example.com/js/a.js\"></script>\n" +
+				"<script>var x = '<script src=\"js/a.js\"></script>';</script>\n" +
+				"<script src=\"js/a.js\">console.log(1);</script>\n" +
+				"<link rel=\"icon\" href=\"css/a.css\" />\n" +
+				"<p>js/a.js</p>\n";
+		
+		assertEquals(html, rewriter.rewrite(html, "index.html"));
+	}
+	
+	@Test
+	public void testReferToBundlesPerFile() {
+		Map<String, String> javaScriptReplacements = new HashMap<>();
+		javaScriptReplacements.put("common.js", "app.js");
+		javaScriptReplacements.put("admin/a.js", "app-admin.js");
+		javaScriptReplacements.put("admin/b.js", "app-admin.js");
+		HTMLReferenceRewriter rewriter = new HTMLReferenceRewriter(javaScriptReplacements, 
+				Collections.emptyMap(), javaScriptReplacements.keySet());
+		String html = "<script src=\"../common.js\"></script>\n" +
+				"<script src=\"a.js\"></script>\n" +
+				"<script src=\"b.js\"></script>\n";
+		String expected = "<script src=\"../app.js\"></script>\n" +
+				"<script src=\"../app-admin.js\"></script>\n";
+		
+		assertEquals(expected, rewriter.rewrite(html, "admin/index.html"));
+		assertEquals("<script src=\"app.js\"></script>", 
+				rewriter.rewrite("<script src=\"common.js\"></script>", "index.html"));
+	}
+	
+	private HTMLReferenceRewriter createRewriter() {
+		return new HTMLReferenceRewriter(Arrays.asList("js/a.js", "js/b.js"), "combined.js",
+				Collections.singletonList("css/a.css"), "combined.css",
+				Arrays.asList("index.html", "js/a.js", "js/b.js", "lib/a.js", "css/a.css"));
+	}
+}
@@ -0,0 +1,103 @@
+//-----------------------------------------------------------------------------
+// Colorize Gradle tasks
+// Copyright 2010-2017 Colorize
+// Apache license (http://www.colorize.nl/code_license.txt)
+//-----------------------------------------------------------------------------
+
+package nl.colorize.gradle.webapp;
+
+import static org.junit.Assert.*;
+
+import java.io.StringWriter;
+import java.io.Writer;
+
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineManager;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+public class TestJavaScriptMinifier {
+	
+	@Test
+	public void testRemoveCommentsAndWhitespace() throws Exception {
+		assertEquals("var x=1;var y=x+1;", minify("var  x = 1;  // comment\n\tvar y = x + 1;\n"));
+		assertEquals("function f(a,b){return a*b;}", 
+				minify("function f(a, b) {\n  /* multiply */\n  return a * b;\n}\n"));
+		assertEquals("if(a){b();}", minify("if (a) {\n    b();\n}"));
+	}
+	
+	@Test
+	public void testKeepLineBreaksRequiredForSemicolonInsertion() throws Exception {
+		assertEquals("var a=1\nvar b=2", minify("var a = 1\nvar b = 2\n"));
+		assertEquals("a\n++b", minify("a\n++b"));
+		assertEquals("return\nx", minify("return\nx"));
+		assertEquals("x\ny", minify("x /* multi\nline */ y"));
+	}
+	
+	@Test
+	public void testKeepSpacesBetweenTokens() throws Exception {
+		assertEquals("a- -b", minify("a - -b"));
+		assertEquals("a+ +b", minify("a + +b"));
+		assertEquals("a-+b", minify("a - +b"));
+		assertEquals("1 .toString()", minify("1 .toString()"));
+		assertEquals("typeof x", minify("typeof   x"));
+	}
+	
+	@Test
+	public void testPreserveStringsAndTemplates() throws Exception {
+		assertEquals("var s=\"a  // b /* c */\";", minify("var s = \"a  // b /* c */\";"));
+		assertEquals("var s='it\\'s  here';", minify("var s = 'it\\'s  here';"));
+		assertEquals("var t=`a  ${b+`  ${c}  `}  d`;", minify("var t = `a  ${ b + `  ${c}  ` }  d`;"));
+		assertEquals("var t=`\\${  x}`;", minify("var t = `\\${  x}`;"));
+	}
+	
+	@Test
+	public void testPreserveRegularExpressions() throws Exception {
+		assertEquals("var r=/a \\/ [/ ]b/g;", minify("var r = /a \\/ [/ ]b/g;"));
+		assertEquals("return/ x /.test(s)", minify("return / x /.test(s)"));
+		assertEquals("var x=a/b/c;", minify("var x = a / b / c;"));
+		assertEquals("var x=a/ /b/.source.length;", minify("var x = a / /b/.source.length;"));
+		assertEquals("if(x)/a  b/.test(s)", minify("if (x) /a  b/.test(s)"));
+		assertEquals("while(f(x))/a  b/.exec(s)", minify("while (f(x)) /a  b/.exec(s)"));
+		assertEquals("var y=(a+b)/2/c;", minify("var y = (a + b) / 2 / c;"));
+		assertEquals("var y=f(x)/2/c;", minify("var y = f(x) / 2 / c;"));
+	}
+	
+	@Test
+	public void testPreserveLicenseComments() throws Exception {
+		assertEquals("/*! License */var x=1;", minify("/*! License */\nvar x = 1;"));
+	}
+	
+	@Test
+	public void testSemanticEquivalence() throws Exception {
+		ScriptEngine engine = new ScriptEngineManager().getEngineByName("javascript");
+		Assume.assumeNotNull(engine);
+		
+		String[] samples = {
+			"var a = 1, b = 2\nvar c = a\n+ b\nvar d = a\n++b;\n[c, d, b].join(',')",
+			"function f(x) { return x / 2 / 1 } // half\nf(10) + ' ' + f(3)",
+			"var re = /a\\/b[/]c/g; /* regex */ re.source + '|' + 'a/b/c'.replace(re, 'x')",
+			"var s = \"hello  // not a comment /* nor this */\"; s + '|' + 'it\\'s'",
+			"var a = 3, b = 4; [a - -b, a + +b, a - +b, 1 .toString(), typeof /x/].join('|')",
+			"var i = 0\nvar j = i++\n+1\nvar k = i\n--j;\n[i, j, k].join(',')",
+			"var o = { a: 1,\n b: [1, 2,\n 3] }\nJSON.stringify(o)",
+			"function g() {\n return\n 42\n}\nString(g())",
+			"var y = 10 / 2 /\n5; var z = (1) / 2; [y, z].join()",
+			"var s = 'a  b', n = 0; if (s) /a  b/.test(s) && n++; n + (s.length) / 2 / 1"
+		};
+		
+		for (String sample : samples) {
+			assertEquals(sample, String.valueOf(engine.eval(sample)), 
+					String.valueOf(engine.eval(minify(sample))));
+		}
+	}
+	
+	private String minify(String code) throws Exception {
+		StringWriter buffer = new StringWriter();
+		try (Writer writer = new JavaScriptMinifier(buffer)) {
+			writer.write(code);
+		}
+		return buffer.toString();
+	}
+}
@@ -8,24 +8,39 @@ package nl.colorize.gradle.webapp;
 
 import static org.junit.Assert.*;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.InputStream;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 
+import org.gradle.api.GradleException;
 import org.gradle.api.Project;
+import org.gradle.api.Task;
 import org.gradle.testfixtures.ProjectBuilder;
+import org.gradle.testkit.runner.BuildResult;
+import org.gradle.testkit.runner.GradleRunner;
+import org.gradle.testkit.runner.TaskOutcome;
+import org.gradle.work.ChangeType;
 import org.junit.Test;
 
+import groovy.json.JsonSlurper;
 import groovy.lang.Closure;
 
 public class TestPackageWebAppTask {
 	
 	private static final Charset CHARSET = Charset.forName("UTF-8");
-
+	
 	@Test
 	public void testRewriteJavaScriptFileReferences() throws Exception {
 		PackageWebAppTask task = createTask();
@@ -72,18 +87,23 @@ public class TestPackageWebAppTask {
 	}
 	
 	@Test
-	public void testShouldCopySourceFile() {
-		PackageWebAppTask task = createTask();
-		WebAppExtension config = createConfig(new File("/tmp/test.js"));
+	public void testShouldCopySourceFile() throws Exception {
+		File projectDir = Files.createTempDirectory("webapp").toFile();
+		File testFile = createFile(projectDir, "web/test.js");
+		File libFile = createFile(projectDir, "web/lib/test.js");
+		File nodeModulesFile = createFile(projectDir, "web/node_modules/test.js");
 		
-		assertFalse(task.shouldCopySourceFile(new File("/tmp/test.js"), config));
-		assertTrue(task.shouldCopySourceFile(new File("/tmp/lib/test.js"), config));
-		assertTrue(task.shouldCopySourceFile(new File("/tmp/node_modules/test.js"), config));
+		PackageWebAppTask task = createTask(projectDir);
+		WebAppFileIndex index = getConfig(task).indexFiles(task.getProject());
+		
+		assertFalse(task.shouldCopySourceFile(testFile, index));
+		assertTrue(task.shouldCopySourceFile(libFile, index));
+		assertTrue(task.shouldCopySourceFile(nodeModulesFile, index));
 	}
 	
 	@Test
 	public void testCombineCSS() throws Exception {
-		WebAppExtension config = new WebAppExtension();
+		WebAppExtension config = createConfig();
 		
 		File firstFile = File.createTempFile("first", ".css");
 		Files.write(firstFile.toPath(), Arrays.asList("first", "1"), CHARSET);
@@ -107,15 +127,15 @@ public class TestPackageWebAppTask {
 	@Test
 	public void testCombinedCssFileHasProjectName() {
 		Project project = createTask().getProject();
-		WebAppExtension config = new WebAppExtension();
+		WebAppExtension config = createConfig();
 		File combinedFile = config.getCombinedCSSFile(project);
 		
-		assertEquals("test-" + config.getBuild() + ".css", combinedFile.getName());
+		assertEquals("test.css", combinedFile.getName());
 	}
 	
 	@Test
 	public void testWriteCombinedJavaScriptFile() throws Exception {
-		WebAppExtension config = new WebAppExtension();
+		WebAppExtension config = createConfig();
 		
 		File firstFile = File.createTempFile("first", ".js");
 		Files.write(firstFile.toPath(), Arrays.asList("first", "1"), CHARSET);
@@ -139,24 +159,50 @@ public class TestPackageWebAppTask {
 	@Test
 	public void testExcludeJavaScriptFiles() throws Exception {
 		Project project = ProjectBuilder.builder().withProjectDir(new File("testbuild")).build();
-		WebAppExtension config = new WebAppExtension();
+		WebAppExtension config = createConfig();
 		config.setSourceDir("resources");
-		List<File> jsFiles = config.findCombinableJavaScriptFiles(project);
+		List<File> jsFiles = config.indexFiles(project).getCombinableJavaScriptFiles();
 		
 		assertEquals(2, jsFiles.size());
 		assertEquals("first.js", jsFiles.get(0).getName());
 		assertEquals("second.js", jsFiles.get(1).getName());
 		
 		config.setExcludes(Arrays.asList("*fir*"));
-		jsFiles = config.findCombinableJavaScriptFiles(project);
+		jsFiles = config.indexFiles(project).getCombinableJavaScriptFiles();
 		
 		assertEquals(1, jsFiles.size());
 		assertEquals("second.js", jsFiles.get(0).getName());
 	}
 	
+	@Test
+	public void testIndexFiles() throws Exception {
+		File projectDir = Files.createTempDirectory("webapp").toFile();
+		File htmlFile = createFile(projectDir, "web/index.html");
+		File jsFile = createFile(projectDir, "web/b/test.js");
+		File otherJsFile = createFile(projectDir, "web/a/test.js");
+		File libFile = createFile(projectDir, "web/lib/library.js");
+		File cssFile = createFile(projectDir, "web/style.css");
+		File imageFile = createFile(projectDir, "web/image.png");
+		createFile(projectDir, "web/gulpfile.js");
+		
+		PackageWebAppTask task = createTask(projectDir);
+		getConfig(task).setCombineCSSEnabled(true);
+		WebAppFileIndex index = getConfig(task).indexFiles(task.getProject());
+		
+		assertEquals(6, index.getWebAppFiles().size());
+		assertEquals(Arrays.asList(otherJsFile, jsFile), index.getCombinableJavaScriptFiles());
+		assertEquals(Arrays.asList(cssFile), index.getCombinableCSSFiles());
+		assertEquals(Arrays.asList(libFile), index.getJavaScriptLibraryFiles());
+		assertEquals(Arrays.asList(htmlFile), index.getHTMLFiles());
+		assertTrue(index.isAssetFile(imageFile));
+		assertTrue(index.isAssetFile(libFile));
+		assertFalse(index.isAssetFile(jsFile));
+		assertEquals("b/test.js", index.getRelativePath(jsFile));
+	}
+	
 	@Test
 	public void testRewriteJavaScriptFilter() throws Exception {
-		WebAppExtension config = new WebAppExtension();
+		WebAppExtension config = createConfig();
 		config.setRewriteJavaScriptFilter(new Closure<String>(this) {
 			@Override
 			public String call(Object s) {
@@ -179,19 +225,640 @@ public class TestPackageWebAppTask {
 		assertEquals("", lines.get(3));
 	}
 	
+	@Test
+	public void testRewriteJavaScriptFilterFingerprint() throws Exception {
+		File projectDir = new File("/tmp");
+		Closure<String> first = createReplaceFilter("a", "b");
+		Closure<String> second = createReplaceFilter("a", "c");
+		Closure<String> third = new Closure<String>(this) {
+			@Override
+			public String call(Object line) {
+				return line.toString().trim();
+			}
+		};
+		
+		assertNotNull(ClosureFingerprint.fingerprint(first, projectDir));
+		assertEquals(ClosureFingerprint.fingerprint(first, projectDir), 
+				ClosureFingerprint.fingerprint(createReplaceFilter("a", "b"), projectDir));
+		assertNotEquals(ClosureFingerprint.fingerprint(first, projectDir), 
+				ClosureFingerprint.fingerprint(second, projectDir));
+		assertNotEquals(ClosureFingerprint.fingerprint(first, projectDir), 
+				ClosureFingerprint.fingerprint(third, projectDir));
+	}
+	
+	private Closure<String> createReplaceFilter(String original, String replacement) {
+		return new Closure<String>(this) {
+			private String from = original;
+			private String to = replacement;
+			
+			@Override
+			public String call(Object line) {
+				return line.toString().replace(from, to);
+			}
+		};
+	}
+	
 	@Test
 	public void testDoNotCopyTypeScriptFiles() throws Exception {
-		PackageWebAppTask task = createTask();
-		WebAppExtension config = new WebAppExtension();
+		File projectDir = Files.createTempDirectory("webapp").toFile();
+		File testFile = createFile(projectDir, "web/test.ts");
+		File subFile = createFile(projectDir, "web/sub/test.ts");
+		
+		PackageWebAppTask task = createTask(projectDir);
+		WebAppFileIndex index = getConfig(task).indexFiles(task.getProject());
+		
+		assertFalse(task.shouldCopySourceFile(testFile, index));
+		assertFalse(task.shouldCopySourceFile(subFile, index));
+	}
+	
+	@Test
+	public void testPackageChangedFiles() throws Exception {
+		File projectDir = Files.createTempDirectory("webapp").toFile();
+		File sourceDir = new File(projectDir, "web");
+		sourceDir.mkdir();
+		File htmlFile = new File(sourceDir, "index.html");
+		Files.write(htmlFile.toPath(), Arrays.asList("<script src=\"a.js\"></script>"), CHARSET);
+		File firstFile = new File(sourceDir, "a.js");
+		Files.write(firstFile.toPath(), Arrays.asList("first"), CHARSET);
+		File assetFile = new File(sourceDir, "asset.txt");
+		Files.write(assetFile.toPath(), Arrays.asList("asset"), CHARSET);
+		
+		PackageWebAppTask task = createTask(projectDir);
+		Project project = task.getProject();
+		WebAppExtension config = getConfig(task);
+		File buildDir = config.getBuildDir(project);
+		File combinedFile = config.getCombinedJavaScriptFile(project);
+		
+		Map<File, ChangeType> changes = new LinkedHashMap<>();
+		changes.put(htmlFile, ChangeType.ADDED);
+		changes.put(firstFile, ChangeType.ADDED);
+		changes.put(assetFile, ChangeType.ADDED);
+		task.packageChangedFiles(buildDir, config, changes);
+		
+		assertEquals(Arrays.asList("first", ""), Files.readAllLines(combinedFile.toPath(), CHARSET));
+		assertEquals(Arrays.asList("<script src=\"" + combinedFile.getName() + "\"></script>"), 
+				Files.readAllLines(new File(buildDir, "index.html").toPath(), CHARSET));
+		assertTrue(new File(buildDir, "asset.txt").exists());
+		
+		Files.write(firstFile.toPath(), Arrays.asList("changed"), CHARSET);
+		changes.clear();
+		changes.put(firstFile, ChangeType.MODIFIED);
+		changes.put(assetFile, ChangeType.REMOVED);
+		task.packageChangedFiles(buildDir, config, changes);
+		
+		assertEquals(Arrays.asList("changed", ""), Files.readAllLines(combinedFile.toPath(), CHARSET));
+		assertFalse(new File(buildDir, "asset.txt").exists());
+		assertFalse(new File(buildDir, "a.js").exists());
+		
+		new File(buildDir, "index.html").setLastModified(1000L);
+		changes.clear();
+		changes.put(firstFile, ChangeType.MODIFIED);
+		task.packageChangedFiles(buildDir, config, changes);
+		
+		assertEquals(1000L, new File(buildDir, "index.html").lastModified());
+	}
+	
+	@Test
+	public void testCombineBundles() throws Exception {
+		File projectDir = Files.createTempDirectory("webapp").toFile();
+		createFile(projectDir, "web/common.js");
+		File adminFile = createFile(projectDir, "web/admin/admin.js");
+		createFile(projectDir, "web/shop/shop.js");
+		File adminHTMLFile = new File(projectDir, "web/admin/index.html");
+		Files.write(adminHTMLFile.toPath(), Arrays.asList("<script src=\"../common.js\"></script>", 
+				"<script src=\"admin.js\"></script>"), CHARSET);
+		
+		PackageWebAppTask task = createTask(projectDir);
+		Project project = task.getProject();
+		WebAppExtension config = getConfig(task);
+		config.bundle("admin", bundle -> bundle.include("admin/**"));
+		config.bundle("shop", bundle -> bundle.include("shop/**"));
+		File buildDir = config.getBuildDir(project);
+		File commonBundle = config.getCombinedJavaScriptFile(project);
+		File adminBundle = config.toBundleFile(commonBundle, "admin");
+		File shopBundle = config.toBundleFile(commonBundle, "shop");
+		
+		task.packageWebApp(buildDir, config);
+		
+		assertEquals(Arrays.asList("common.js", ""), Files.readAllLines(commonBundle.toPath(), CHARSET));
+		assertEquals(Arrays.asList("admin.js", ""), Files.readAllLines(adminBundle.toPath(), CHARSET));
+		assertEquals(Arrays.asList("shop.js", ""), Files.readAllLines(shopBundle.toPath(), CHARSET));
+		assertEquals(Arrays.asList("<script src=\"../" + commonBundle.getName() + "\"></script>", 
+				"<script src=\"../" + adminBundle.getName() + "\"></script>"),
+				Files.readAllLines(new File(buildDir, "admin/index.html").toPath(), CHARSET));
+		
+		commonBundle.setLastModified(1000L);
+		shopBundle.setLastModified(1000L);
+		Files.write(adminFile.toPath(), Arrays.asList("changed"), CHARSET);
+		Map<File, ChangeType> changes = new LinkedHashMap<>();
+		changes.put(adminFile, ChangeType.MODIFIED);
+		task.packageChangedFiles(buildDir, config, changes);
+		
+		assertEquals(Arrays.asList("changed", ""), Files.readAllLines(adminBundle.toPath(), CHARSET));
+		assertEquals(1000L, commonBundle.lastModified());
+		assertEquals(1000L, shopBundle.lastModified());
+		assertTrue(config.findGeneratedFiles(project).contains(shopBundle));
+		assertFalse(new File(buildDir, "admin/admin.js").exists());
+	}
+	
+	@Test
+	public void testInvalidBundleName() {
+		WebAppExtension config = createConfig();
+		config.bundle("admin", bundle -> bundle.include("admin/**"));
+		
+		try {
+			config.bundle("admin", bundle -> bundle.include("other/**"));
+			fail("Expected duplicate bundle to be rejected");
+		} catch (IllegalArgumentException e) {
+			assertEquals("Bundle already exists: admin", e.getMessage());
+		}
+		
+		try {
+			config.bundle("../admin", bundle -> {});
+			fail("Expected invalid bundle name to be rejected");
+		} catch (IllegalArgumentException e) {
+			assertEquals("Invalid bundle name: ../admin", e.getMessage());
+		}
+	}
+	
+	@Test
+	public void testInlineSmallAssets() throws Exception {
+		File projectDir = Files.createTempDirectory("webapp").toFile();
+		File htmlFile = new File(projectDir, "web/index.html");
+		htmlFile.getParentFile().mkdirs();
+		Files.write(htmlFile.toPath(), Arrays.asList("<link rel=\"stylesheet\" href=\"css/style.css\" />",
+				"<img src=\"img/icon.png\" />", "<img src=\"img/large.png\" />"), CHARSET);
+		File cssFile = createFile(projectDir, "web/css/style.css");
+		Files.write(cssFile.toPath(), Arrays.asList(".a { background: url('../img/bullet.gif'); }",
+				".b { background: url(../img/shared.png); }"), CHARSET);
+		File jsFile = createFile(projectDir, "web/js/app.js");
+		Files.write(jsFile.toPath(), Arrays.asList("var image = 'img/shared.png';"), CHARSET);
+		File iconFile = createFile(projectDir, "web/img/icon.png");
+		File bulletFile = createFile(projectDir, "web/img/bullet.gif");
+		createFile(projectDir, "web/img/shared.png");
+		createFile(projectDir, "web/img/unused.png");
+		Files.write(new File(projectDir, "web/img/large.png").toPath(), new byte[200]);
+		
+		PackageWebAppTask task = createTask(projectDir);
+		Project project = task.getProject();
+		WebAppExtension config = getConfig(task);
+		config.setCombineCSSEnabled(true);
+		config.setInlineAssetsEnabled(true);
+		config.setInlineAssetsMaxSize(100);
+		File buildDir = config.getBuildDir(project);
+		PackagingReport report = task.packageWebApp(buildDir, config);
+		
+		String css = new String(Files.readAllBytes(config.getCombinedCSSFile(project).toPath()), CHARSET);
+		String html = new String(Files.readAllBytes(new File(buildDir, "index.html").toPath()), CHARSET);
+		
+		assertTrue(css.contains("url('data:image/gif;base64,"));
+		assertTrue(css.contains("url(data:image/png;base64,"));
+		assertTrue(html.contains("<img src=\"data:image/png;base64,"));
+		assertTrue(html.contains("<img src=\"img/large.png\" />"));
+		assertFalse(new File(buildDir, "img/icon.png").exists());
+		assertFalse(new File(buildDir, "img/bullet.gif").exists());
+		assertTrue(new File(buildDir, "img/shared.png").exists());
+		assertTrue(new File(buildDir, "img/unused.png").exists());
+		assertTrue(new File(buildDir, "img/large.png").exists());
+		assertEquals(3L, report.getRequestsSaved());
+		assertEquals(iconFile.length() + bulletFile.length(), report.getBytesSaved());
+		
+		Files.write(iconFile.toPath(), new byte[] { 1, 2, 3 });
+		Map<File, ChangeType> changes = new LinkedHashMap<>();
+		changes.put(iconFile, ChangeType.MODIFIED);
+		task.packageChangedFiles(buildDir, config, changes);
+		html = new String(Files.readAllBytes(new File(buildDir, "index.html").toPath()), CHARSET);
+		
+		assertTrue(html.contains("<img src=\"data:image/png;base64,AQID\" />"));
+		assertFalse(new File(buildDir, "img/icon.png").exists());
+		assertTrue(new File(buildDir, "img/shared.png").exists());
+	}
+	
+	@Test
+	public void testInlinedFilesAreIdentifiedByPath() throws Exception {
+		File projectDir = Files.createTempDirectory("webapp").toFile();
+		Files.write(createFile(projectDir, "web/index.html").toPath(), Arrays.asList(
+				"<img src=\"a/icon.png\" />", "<img src=\"b/icon.png\" />"), CHARSET);
+		File scriptFile = createFile(projectDir, "web/lib/script.js");
+		Files.write(scriptFile.toPath(), Arrays.asList("var icon = 'b/icon.png';"), CHARSET);
+		Files.write(createFile(projectDir, "web/a/icon.png").toPath(), new byte[] { 1, 2, 3 });
+		Files.write(createFile(projectDir, "web/b/icon.png").toPath(), new byte[] { 4, 5, 6 });
+		
+		PackageWebAppTask task = createTask(projectDir);
+		WebAppExtension config = getConfig(task);
+		config.setInlineAssetsEnabled(true);
+		File buildDir = config.getBuildDir(task.getProject());
+		task.packageWebApp(buildDir, config);
+		
+		assertFalse(new File(buildDir, "a/icon.png").exists());
+		assertTrue(new File(buildDir, "b/icon.png").exists());
+		
+		Files.write(scriptFile.toPath(), Arrays.asList("var icon = 'a/icon.png';"), CHARSET);
+		Map<File, ChangeType> changes = new LinkedHashMap<>();
+		changes.put(scriptFile, ChangeType.MODIFIED);
+		task.packageChangedFiles(buildDir, config, changes);
+		
+		assertTrue(new File(buildDir, "a/icon.png").exists());
+		assertTrue(new File(buildDir, "b/icon.png").exists());
+	}
+	
+	@Test
+	public void testParallelPackagingReportsFailuresPerFile() throws Exception {
+		File projectDir = Files.createTempDirectory("webapp").toFile();
+		for (int i = 0; i < 20; i++) {
+			createFile(projectDir, "web/asset" + i + ".txt");
+		}
+		// Existing directories in the build directory prevent these files
+		// from being created.
+		createFile(projectDir, "build/web/asset3.txt/blocked");
+		createFile(projectDir, "build/web/asset7.txt/blocked");
+		
+		PackageWebAppTask task = createTask(projectDir);
+		getConfig(task).setParallelism(4);
+		
+		Map<File, ChangeType> changes = new LinkedHashMap<>();
+		for (File file : getConfig(task).indexFiles(task.getProject()).getWebAppFiles()) {
+			changes.put(file, ChangeType.ADDED);
+		}
+		
+		try {
+			task.packageChangedFiles(task.getBuildDir().get().getAsFile(), getConfig(task), changes);
+			fail("Expected packaging to fail");
+		} catch (GradleException e) {
+			assertTrue(e.getMessage().contains("asset3.txt"));
+			assertTrue(e.getMessage().contains("asset7.txt"));
+			assertFalse(e.getMessage().contains("asset5.txt"));
+		}
+		
+		assertTrue(new File(projectDir, "build/web/asset5.txt").exists());
+		assertTrue(new File(projectDir, "build/web/asset19.txt").exists());
+	}
+	
+	@Test
+	public void testContentHashNaming() throws Exception {
+		File projectDir = Files.createTempDirectory("webapp").toFile();
+		File htmlFile = new File(projectDir, "web/index.html");
+		createFile(projectDir, "web/index.html");
+		Files.write(htmlFile.toPath(), Arrays.asList("<script src=\"a.js\"></script>"), CHARSET);
+		File jsFile = createFile(projectDir, "web/a.js");
+		
+		PackageWebAppTask task = createTask(projectDir);
+		WebAppExtension config = getConfig(task);
+		config.setContentHashNaming(true);
+		config.setCombinedJavaScriptFileName("app.js");
+		
+		Map<File, ChangeType> changes = new LinkedHashMap<>();
+		changes.put(htmlFile, ChangeType.ADDED);
+		changes.put(jsFile, ChangeType.ADDED);
+		task.packageChangedFiles(task.getBuildDir().get().getAsFile(), config, changes);
+		
+		File combinedFile = config.getCombinedJavaScriptFile(task.getProject());
+		List<File> hashedFiles = config.findContentHashFiles(combinedFile);
+		
+		assertEquals(1, hashedFiles.size());
+		assertTrue(hashedFiles.get(0).getName().matches("app-[0-9a-f]{16}\\.js"));
+		assertFalse(combinedFile.exists());
+		assertEquals(Arrays.asList("<script src=\"" + hashedFiles.get(0).getName() + "\"></script>"),
+				Files.readAllLines(new File(task.getBuildDir().get().getAsFile(), "index.html").toPath(), CHARSET));
+		
+		changes.clear();
+		changes.put(jsFile, ChangeType.MODIFIED);
+		task.packageChangedFiles(task.getBuildDir().get().getAsFile(), config, changes);
+		
+		assertEquals(hashedFiles, config.findContentHashFiles(combinedFile));
+		
+		Files.write(jsFile.toPath(), Arrays.asList("changed"), CHARSET);
+		task.packageChangedFiles(task.getBuildDir().get().getAsFile(), config, changes);
+		List<File> changedFiles = config.findContentHashFiles(combinedFile);
+		
+		assertEquals(1, changedFiles.size());
+		assertNotEquals(hashedFiles.get(0), changedFiles.get(0));
+		assertEquals(Arrays.asList("<script src=\"" + changedFiles.get(0).getName() + "\"></script>"),
+				Files.readAllLines(new File(task.getBuildDir().get().getAsFile(), "index.html").toPath(), CHARSET));
+	}
+	
+	@Test
+	public void testHardLinkUnmodifiedFiles() throws Exception {
+		File projectDir = Files.createTempDirectory("webapp").toFile();
+		File htmlFile = createFile(projectDir, "web/index.html");
+		File jsFile = createFile(projectDir, "web/a.js");
+		File assetFile = createFile(projectDir, "web/images/logo.png");
+		
+		PackageWebAppTask task = createTask(projectDir);
+		WebAppExtension config = getConfig(task);
+		config.setLinkStrategy(FileLinker.HARDLINK);
 		
-		assertFalse(task.shouldCopySourceFile(new File("test.ts"), config));
-		assertFalse(task.shouldCopySourceFile(new File("sub/test.ts"), config));
+		Map<File, ChangeType> changes = new LinkedHashMap<>();
+		changes.put(htmlFile, ChangeType.ADDED);
+		changes.put(jsFile, ChangeType.ADDED);
+		changes.put(assetFile, ChangeType.ADDED);
+		task.packageChangedFiles(task.getBuildDir().get().getAsFile(), config, changes);
+		
+		File packagedAsset = new File(task.getBuildDir().get().getAsFile(), "images/logo.png");
+		File packagedHTML = new File(task.getBuildDir().get().getAsFile(), "index.html");
+		
+		assertTrue(Files.isSameFile(assetFile.toPath(), packagedAsset.toPath()));
+		assertFalse(Files.isSameFile(htmlFile.toPath(), packagedHTML.toPath()));
+		
+		Files.write(assetFile.toPath(), Arrays.asList("changed"), CHARSET);
+		changes.clear();
+		changes.put(assetFile, ChangeType.MODIFIED);
+		task.packageChangedFiles(task.getBuildDir().get().getAsFile(), config, changes);
+		
+		assertEquals(Arrays.asList("changed"), Files.readAllLines(packagedAsset.toPath(), CHARSET));
+	}
+	
+	@Test
+	public void testInvalidLinkStrategy() {
+		try {
+			getConfig(createTask()).setLinkStrategy("symlink");
+			fail("Expected invalid link strategy to be rejected");
+		} catch (IllegalArgumentException e) {
+			assertEquals("Invalid link strategy: symlink", e.getMessage());
+		}
+	}
+	
+	@Test
+	public void testCompressPackagedFiles() throws Exception {
+		File projectDir = Files.createTempDirectory("webapp").toFile();
+		File htmlFile = createFile(projectDir, "web/index.html");
+		Files.write(htmlFile.toPath(), repeat("<p>Hello world</p>", 200), CHARSET);
+		File jsFile = createFile(projectDir, "web/a.js");
+		Files.write(jsFile.toPath(), repeat("console.log('test');", 200), CHARSET);
+		File smallFile = createFile(projectDir, "web/small.txt");
+		File randomFile = createFile(projectDir, "web/random.txt");
+		byte[] randomBytes = new byte[4096];
+		new Random(1234L).nextBytes(randomBytes);
+		Files.write(randomFile.toPath(), randomBytes);
+		
+		PackageWebAppTask task = createTask(projectDir);
+		WebAppExtension config = getConfig(task);
+		config.setCompressEnabled(true);
+		config.setCombinedJavaScriptFileName("app.js");
+		
+		Map<File, ChangeType> changes = new LinkedHashMap<>();
+		changes.put(htmlFile, ChangeType.ADDED);
+		changes.put(jsFile, ChangeType.ADDED);
+		changes.put(smallFile, ChangeType.ADDED);
+		changes.put(randomFile, ChangeType.ADDED);
+		task.packageChangedFiles(task.getBuildDir().get().getAsFile(), config, changes);
+		
+		File buildDir = task.getBuildDir().get().getAsFile();
+		
+		assertArrayEquals(Files.readAllBytes(new File(buildDir, "index.html").toPath()), 
+				decompress(new File(buildDir, "index.html.gz")));
+		assertArrayEquals(Files.readAllBytes(new File(buildDir, "app.js").toPath()), 
+				decompress(new File(buildDir, "app.js.gz")));
+		assertFalse(new File(buildDir, "small.txt.gz").exists());
+		assertFalse(new File(buildDir, "random.txt.gz").exists());
+		
+		long htmlSidecarModified = new File(buildDir, "index.html.gz").lastModified();
+		Files.write(jsFile.toPath(), repeat("console.log('changed');", 200), CHARSET);
+		changes.clear();
+		changes.put(jsFile, ChangeType.MODIFIED);
+		task.packageChangedFiles(buildDir, config, changes);
+		
+		assertEquals(htmlSidecarModified, new File(buildDir, "index.html.gz").lastModified());
+		assertArrayEquals(Files.readAllBytes(new File(buildDir, "app.js").toPath()), 
+				decompress(new File(buildDir, "app.js.gz")));
+		
+		htmlFile.delete();
+		changes.clear();
+		changes.put(htmlFile, ChangeType.REMOVED);
+		task.packageChangedFiles(buildDir, config, changes);
+		
+		assertFalse(new File(buildDir, "index.html.gz").exists());
+	}
+	
+	private List<String> repeat(String line, int times) {
+		String[] lines = new String[times];
+		Arrays.fill(lines, line);
+		return Arrays.asList(lines);
+	}
+	
+	private byte[] decompress(File file) throws Exception {
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		try (InputStream stream = new GZIPInputStream(Files.newInputStream(file.toPath()))) {
+			byte[] chunk = new byte[4096];
+			int length = 0;
+			while ((length = stream.read(chunk)) != -1) {
+				buffer.write(chunk, 0, length);
+			}
+		}
+		return buffer.toByteArray();
+	}
+	
+	@Test
+	public void testUpToDateWithDefaultConfiguration() throws Exception {
+		File projectDir = Files.createTempDirectory("checkout").toFile();
+		Files.write(new File(projectDir, "settings.gradle").toPath(), Arrays.asList(
+				"rootProject.name = 'defaults'"), CHARSET);
+		Files.write(new File(projectDir, "build.gradle").toPath(), Arrays.asList(
+				"plugins { id 'nl.colorize.gradle.webapp' }"), CHARSET);
+		File indexFile = createFile(projectDir, "web/index.html");
+		Files.write(indexFile.toPath(), Arrays.asList("<script src=\"first.js\"></script>"), CHARSET);
+		Files.write(createFile(projectDir, "web/other.html").toPath(), 
+				Arrays.asList("<script src=\"first.js\"></script>"), CHARSET);
+		createFile(projectDir, "web/first.js");
+		
+		BuildResult first = runBuild(projectDir, "packageWebApp");
+		BuildResult second = runBuild(projectDir, "packageWebApp");
+		
+		assertEquals(TaskOutcome.SUCCESS, first.task(":packageWebApp").getOutcome());
+		assertEquals(TaskOutcome.UP_TO_DATE, second.task(":packageWebApp").getOutcome());
+		
+		File buildDir = new File(projectDir, "build/web");
+		long otherTime = new File(buildDir, "other.html").lastModified();
+		long scriptTime = new File(buildDir, "defaults.js").lastModified();
+		// Make sure files that are written again get a different timestamp.
+		Thread.sleep(1000);
+		Files.write(indexFile.toPath(), Arrays.asList("<p>changed</p>", "<script src=\"first.js\"></script>"), 
+				CHARSET);
+		BuildResult third = runBuild(projectDir, "packageWebApp");
+		
+		assertEquals(TaskOutcome.SUCCESS, third.task(":packageWebApp").getOutcome());
+		assertEquals(Arrays.asList("<p>changed</p>", "<script src=\"defaults.js\"></script>"),
+				Files.readAllLines(new File(buildDir, "index.html").toPath(), CHARSET));
+		assertEquals(otherTime, new File(buildDir, "other.html").lastModified());
+		assertEquals(scriptTime, new File(buildDir, "defaults.js").lastModified());
+	}
+	
+	@Test
+	public void testLoadPackagedWebAppFromBuildCache() throws Exception {
+		File cacheDir = Files.createTempDirectory("cache").toFile();
+		File firstCheckout = createBuildCacheProject(cacheDir);
+		File secondCheckout = createBuildCacheProject(cacheDir);
+		
+		BuildResult first = runBuild(firstCheckout, "packageWebApp", "--build-cache");
+		BuildResult second = runBuild(secondCheckout, "packageWebApp", "--build-cache");
+		
+		assertEquals(TaskOutcome.SUCCESS, first.task(":packageWebApp").getOutcome());
+		assertEquals(TaskOutcome.FROM_CACHE, second.task(":packageWebApp").getOutcome());
+		assertEquals(Files.readAllLines(new File(firstCheckout, "build/web/index.html").toPath()),
+				Files.readAllLines(new File(secondCheckout, "build/web/index.html").toPath()));
+		assertTrue(new File(secondCheckout, "build/web/cached.js").exists());
+	}
+	
+	@Test
+	public void testWritePackagingReport() throws Exception {
+		File projectDir = createBuildCacheProject(Files.createTempDirectory("cache").toFile());
+		BuildResult result = runBuild(projectDir, "packageWebApp");
+		
+		assertTrue(result.getOutput().contains("Packaged web app: 2 file(s)"));
+		
+		File reportFile = new File(projectDir, "build/reports/webApp/packageWebApp.json");
+		Map<?, ?> report = (Map<?, ?>) new JsonSlurper().parse(reportFile);
+		
+		assertEquals("packageWebApp", report.get("task"));
+		assertEquals(2, report.get("fileCount"));
+		assertEquals(Arrays.asList("scan", "combine", "copy", "clean"), 
+				new ArrayList<>(((Map<?, ?>) report.get("phasesMs")).keySet()));
+		assertEquals(2, ((List<?>) report.get("slowestFiles")).size());
+		assertEquals(1, ((Map<?, ?>) ((Map<?, ?>) report.get("files")).get("rewrite")).get("count"));
+		assertEquals(1, ((Map<?, ?>) ((Map<?, ?>) report.get("files")).get("combine")).get("count"));
+	}
+	
+	@Test
+	public void testPackageToArchive() throws Exception {
+		File projectDir = Files.createTempDirectory("checkout").toFile();
+		Files.write(new File(projectDir, "settings.gradle").toPath(), Arrays.asList(
+				"rootProject.name = 'archived'"), CHARSET);
+		Files.write(new File(projectDir, "build.gradle").toPath(), Arrays.asList(
+				"plugins { id 'nl.colorize.gradle.webapp' }",
+				"webApp.combinedJavaScriptFileName = 'app.js'",
+				"webApp.compressEnabled = true",
+				"webApp.buildDirEnabled = false",
+				"webApp.archiveFile = 'build/dist/archived.zip'"), CHARSET);
+		File htmlFile = createFile(projectDir, "web/index.html");
+		List<String> html = new ArrayList<>(repeat("<p>Paragraph</p>", 100));
+		html.add("<script src=\"first.js\"></script>");
+		Files.write(htmlFile.toPath(), html, CHARSET);
+		createFile(projectDir, "web/first.js");
+		byte[] image = new byte[2000];
+		new Random(1234).nextBytes(image);
+		Files.write(createFile(projectDir, "web/img/logo.png").toPath(), image);
+		
+		runBuild(projectDir, "packageWebApp");
+		
+		assertFalse(new File(projectDir, "build/web").exists());
+		
+		try (ZipFile archive = new ZipFile(new File(projectDir, "build/dist/archived.zip"))) {
+			assertEquals(ZipEntry.DEFLATED, archive.getEntry("index.html").getMethod());
+			assertEquals(ZipEntry.STORED, archive.getEntry("index.html.gz").getMethod());
+			assertEquals(ZipEntry.STORED, archive.getEntry("img/logo.png").getMethod());
+			assertTrue(archive.getEntry("img/").isDirectory());
+			assertNotNull(archive.getEntry("app.js"));
+			
+			ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+			try (InputStream stream = archive.getInputStream(archive.getEntry("img/logo.png"))) {
+				byte[] chunk = new byte[4096];
+				int length = 0;
+				while ((length = stream.read(chunk)) != -1) {
+					buffer.write(chunk, 0, length);
+				}
+			}
+			assertArrayEquals(image, buffer.toByteArray());
+		}
+	}
+	
+	@Test
+	public void testDisableBuildDirRequiresArchive() throws Exception {
+		File projectDir = createBuildCacheProject(Files.createTempDirectory("cache").toFile());
+		Files.write(new File(projectDir, "build.gradle").toPath(), Arrays.asList(
+				"webApp.buildDirEnabled = false"), CHARSET, StandardOpenOption.APPEND);
+		
+		BuildResult result = GradleRunner.create()
+			.withProjectDir(projectDir)
+			.withPluginClasspath()
+			.withArguments("packageWebApp")
+			.buildAndFail();
+		
+		assertTrue(result.getOutput().contains("Cannot disable buildDir without configuring archiveFile"));
+	}
+	
+	@Test
+	public void testUnchangedOutputsAreNotWrittenAgain() throws Exception {
+		File projectDir = Files.createTempDirectory("webapp").toFile();
+		createFile(projectDir, "web/index.html");
+		createFile(projectDir, "web/first.js");
+		createFile(projectDir, "web/img/icon.png");
+		File cssFile = createFile(projectDir, "web/style.css");
+		
+		PackageWebAppTask task = createTask(projectDir);
+		WebAppExtension config = getConfig(task);
+		config.setCombinedJavaScriptFileName("app.js");
+		File buildDir = config.getBuildDir(task.getProject());
+		task.packageWebApp(buildDir, config);
+		
+		assertTrue(new File(buildDir, OutputManifest.FILE_NAME).exists());
+		long indexTime = new File(buildDir, "index.html").lastModified();
+		long scriptTime = new File(buildDir, "app.js").lastModified();
+		long iconTime = new File(buildDir, "img/icon.png").lastModified();
+		long cssTime = new File(buildDir, "style.css").lastModified();
+		
+		// Make sure files that are written again get a different timestamp.
+		Thread.sleep(1000);
+		Files.write(cssFile.toPath(), Arrays.asList("body { color: red; }"), CHARSET);
+		task.packageWebApp(buildDir, config);
+		
+		assertEquals(indexTime, new File(buildDir, "index.html").lastModified());
+		assertEquals(scriptTime, new File(buildDir, "app.js").lastModified());
+		assertEquals(iconTime, new File(buildDir, "img/icon.png").lastModified());
+		assertNotEquals(cssTime, new File(buildDir, "style.css").lastModified());
+		assertEquals(Arrays.asList("body { color: red; }"), 
+				Files.readAllLines(new File(buildDir, "style.css").toPath(), CHARSET));
+	}
+	
+	@Test
+	public void testDeleteStaleOutputsUsingManifest() throws Exception {
+		File projectDir = Files.createTempDirectory("webapp").toFile();
+		createFile(projectDir, "web/index.html");
+		File removedFile = createFile(projectDir, "web/img/removed.png");
+		createFile(projectDir, "web/img/kept.png");
+		
+		PackageWebAppTask task = createTask(projectDir);
+		WebAppExtension config = getConfig(task);
+		File buildDir = config.getBuildDir(task.getProject());
+		task.packageWebApp(buildDir, config);
+		removedFile.delete();
+		task.packageWebApp(buildDir, config);
+		
+		assertFalse(new File(buildDir, "img/removed.png").exists());
+		assertTrue(new File(buildDir, "img/kept.png").exists());
+		assertTrue(new File(buildDir, "index.html").exists());
+		assertFalse(Files.readAllLines(new File(buildDir, OutputManifest.FILE_NAME).toPath(), CHARSET)
+				.stream().anyMatch(line -> line.endsWith("img/removed.png")));
+	}
+	
+	private File createBuildCacheProject(File cacheDir) throws Exception {
+		File projectDir = Files.createTempDirectory("checkout").toFile();
+		Files.write(new File(projectDir, "settings.gradle").toPath(), Arrays.asList(
+				"rootProject.name = 'cached'",
+				"buildCache { local { directory = file('" + cacheDir.getAbsolutePath() + "') } }"), CHARSET);
+		Files.write(new File(projectDir, "build.gradle").toPath(), Arrays.asList(
+				"plugins { id 'nl.colorize.gradle.webapp' }",
+				"webApp.rewriteJavaScriptFilter = { line -> line.replace('first', 'first test') }"), CHARSET);
+		createFile(projectDir, "web/index.html");
+		createFile(projectDir, "web/first.js");
+		return projectDir;
+	}
+	
+	private BuildResult runBuild(File projectDir, String... args) {
+		return GradleRunner.create()
+			.withProjectDir(projectDir)
+			.withPluginClasspath()
+			.withArguments(args)
+			.build();
 	}
 	
 	private Project createProject() {
 		return ProjectBuilder.builder().withProjectDir(new File("/tmp")).build();
 	}
 	
+	private WebAppExtension createConfig() {
+		return ProjectBuilder.builder().build().getObjects().newInstance(WebAppExtension.class);
+	}
+	
 	private PackageWebAppTask createTask() {
 		Project project = createProject();
 		WebAppPlugin plugin = new WebAppPlugin();
@@ -199,22 +866,21 @@ public class TestPackageWebAppTask {
 		return (PackageWebAppTask) project.getTasks().getByName("packageWebApp");
 	}
 	
-	private WebAppExtension createConfig(File... jsFiles) {
-		return new WebAppExtension() {
-			@Override
-			public List<File> findCombinableJavaScriptFiles(Project project) {
-				List<File> result = new ArrayList<>();
-				result.addAll(Arrays.asList(jsFiles));
-				result.removeAll(findJavaScriptLibraryFiles(project));
-				return result;
-			}
-			
-			@Override
-			protected List<File> findJavaScriptLibraryFiles(Project project) {
-				return Arrays.asList(jsFiles).stream()
-					.filter(f -> f.getAbsolutePath().contains("/node_modules/"))
-					.collect(Collectors.toList());
-			}
-		};
+	private PackageWebAppTask createTask(File projectDir) {
+		Project project = ProjectBuilder.builder().withProjectDir(projectDir).build();
+		WebAppPlugin plugin = new WebAppPlugin();
+		plugin.apply(project);
+		return (PackageWebAppTask) project.getTasks().getByName("packageWebApp");
+	}
+	
+	private File createFile(File dir, String path) throws Exception {
+		File file = new File(dir, path);
+		file.getParentFile().mkdirs();
+		Files.write(file.toPath(), Arrays.asList(file.getName()), CHARSET);
+		return file;
+	}
+	
+	private WebAppExtension getConfig(Task task) {
+		return task.getProject().getExtensions().getByType(WebAppExtension.class);
 	}
 }
@@ -0,0 +1,83 @@
+//-----------------------------------------------------------------------------
+// Colorize Gradle tasks
+// Copyright 2010-2017 Colorize
+// Apache license (http://www.colorize.nl/code_license.txt)
+//-----------------------------------------------------------------------------
+
+package nl.colorize.gradle.webapp;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import groovy.json.JsonSlurper;
+
+public class TestPackagingReport {
+	
+	@Test
+	public void testRecordFiles() {
+		PackagingReport report = new PackagingReport("test");
+		report.recordFile("copy", "a.txt", 100L, 100L, 1000L);
+		report.recordFile("copy", "b.txt", 200L, 200L, 3000L);
+		report.recordFile("rewrite", "index.html", 50L, 40L, 2000L);
+		
+		assertEquals(3, report.getFileCount());
+		assertEquals(350L, report.getBytesRead());
+		assertEquals(340L, report.getBytesWritten());
+		assertEquals(Arrays.asList("b.txt", "index.html", "a.txt"), report.getSlowestFiles());
+	}
+	
+	@Test
+	public void testOnlyKeepSlowestFiles() {
+		PackagingReport report = new PackagingReport("test");
+		for (int i = 1; i <= 100; i++) {
+			report.recordFile("copy", "file" + i, 1L, 1L, i);
+		}
+		
+		List<String> slowest = report.getSlowestFiles();
+		
+		assertEquals(10, slowest.size());
+		assertEquals("file100", slowest.get(0));
+		assertEquals("file91", slowest.get(9));
+		assertEquals(100, report.getFileCount());
+	}
+	
+	@Test
+	public void testPhasesAreAccumulated() {
+		PackagingReport report = new PackagingReport("test");
+		report.phase("scan", () -> {});
+		report.phase("copy", () -> {});
+		String result = report.phase("scan", () -> "result");
+		
+		assertEquals("result", result);
+		assertEquals(Arrays.asList("scan", "copy"), new ArrayList<>(report.getPhases().keySet()));
+		assertTrue(report.getSummary().startsWith("0 file(s), 0.0 KB read, 0.0 KB written in "));
+	}
+	
+	@Test
+	public void testWriteJSON() throws Exception {
+		PackagingReport report = new PackagingReport("test");
+		report.phase("copy", () -> report.recordFile("copy", "a.txt", 2048L, 2048L, 1500000L));
+		
+		File reportFile = new File(Files.createTempDirectory("report").toFile(), "reports/test.json");
+		report.write(reportFile);
+		Map<?, ?> json = (Map<?, ?>) new JsonSlurper().parse(reportFile);
+		Map<?, ?> copy = (Map<?, ?>) ((Map<?, ?>) json.get("files")).get("copy");
+		Map<?, ?> slowest = (Map<?, ?>) ((List<?>) json.get("slowestFiles")).get(0);
+		
+		assertEquals("test", json.get("task"));
+		assertEquals(1, json.get("fileCount"));
+		assertEquals(2048, json.get("bytesRead"));
+		assertEquals(1, copy.get("count"));
+		assertEquals("a.txt", slowest.get("path"));
+		assertEquals(1.5, ((Number) slowest.get("timeMs")).doubleValue(), 0.0001);
+		assertTrue(((Map<?, ?>) json.get("phasesMs")).containsKey("copy"));
+	}
+}
@@ -0,0 +1,198 @@
+//-----------------------------------------------------------------------------
+// Colorize Gradle tasks
+// Copyright 2010-2017 Colorize
+// Apache license (http://www.colorize.nl/code_license.txt)
+//-----------------------------------------------------------------------------
+
+package nl.colorize.gradle.webapp;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import groovy.lang.Closure;
+
+public class TestRewriteFilter {
+	
+	@Test
+	public void testReplaceLiterals() {
+		LiteralMatcher matcher = new LiteralMatcher(Arrays.asList("he", "she", "hers", "his"),
+				Arrays.asList("1", "2", "3", "4"));
+		
+		assertEquals("u2rs 4 x", matcher.replace("ushers his x"));
+		assertEquals("nothing", matcher.replace("nothing"));
+		assertEquals("", matcher.replace(""));
+	}
+	
+	@Test
+	public void testLongestLeftmostMatchWins() {
+		LiteralMatcher matcher = new LiteralMatcher(Arrays.asList("bc", "abcd", "a"),
+				Arrays.asList("1", "2", "3"));
+		
+		assertEquals("2", matcher.replace("abcd"));
+		assertEquals("31", matcher.replace("abc"));
+		assertEquals("x1", matcher.replace("xbc"));
+	}
+	
+	@Test
+	public void testReplacementsAreNotMatchedAgain() {
+		LiteralMatcher matcher = new LiteralMatcher(Arrays.asList("a", "b"), Arrays.asList("b", "a"));
+		
+		assertEquals("ba", matcher.replace("ab"));
+	}
+	
+	@Test
+	public void testSameResultAsSequentialReplacement() {
+		Random random = new Random(1234);
+		for (int i = 0; i < 500; i++) {
+			List<String> searches = new ArrayList<>();
+			List<String> replacements = new ArrayList<>();
+			for (int j = 0; j < 1 + random.nextInt(5); j++) {
+				searches.add(randomString(random, 1 + random.nextInt(4)));
+				replacements.add("<" + j + ">");
+			}
+			String text = randomString(random, random.nextInt(40));
+			
+			assertEquals(replaceReference(text, searches, replacements),
+					new LiteralMatcher(searches, replacements).replace(text));
+		}
+	}
+	
+	@Test
+	public void testApplyRulesInOrder() {
+		RewriteFilter filter = new RewriteFilter(Arrays.asList(
+				RewriteRule.literal("DEBUG = true", "DEBUG = false"),
+				RewriteRule.literal("first", "second"),
+				RewriteRule.pattern("console\\.log\\((.*)\\);", "log($1);"),
+				RewriteRule.literal("second", "third")), null, null);
+		
+		assertEquals("var DEBUG = false;", filter.apply("var DEBUG = true;"));
+		assertEquals("log(third);", filter.apply("console.log(first);"));
+		assertEquals("unchanged", filter.apply("unchanged"));
+		assertTrue(filter.isThreadSafe());
+	}
+	
+	@Test
+	public void testConsecutiveLiteralRulesAreAppliedInOrder() {
+		RewriteFilter chained = new RewriteFilter(Arrays.asList(
+				RewriteRule.literal("a", "b"),
+				RewriteRule.literal("b", "c")), null, null);
+		RewriteFilter overlapping = new RewriteFilter(Arrays.asList(
+				RewriteRule.literal("b", "x"),
+				RewriteRule.literal("abc", "y")), null, null);
+		RewriteFilter removed = new RewriteFilter(Arrays.asList(
+				RewriteRule.literal("x", ""),
+				RewriteRule.literal("ab", "c")), null, null);
+		RewriteFilter independent = new RewriteFilter(Arrays.asList(
+				RewriteRule.literal("foo", "bar"),
+				RewriteRule.literal("baz", "qux")), null, null);
+		
+		assertEquals("c", chained.apply("a"));
+		assertEquals("cc", chained.apply("ab"));
+		assertEquals("axc", overlapping.apply("abc"));
+		assertEquals("c", removed.apply("axb"));
+		assertEquals("bar qux", independent.apply("foo baz"));
+		
+		Random random = new Random(1234);
+		for (int i = 0; i < 500; i++) {
+			List<RewriteRule> rules = new ArrayList<>();
+			String expected = randomString(random, random.nextInt(40));
+			String text = expected;
+			for (int j = 0; j < 1 + random.nextInt(5); j++) {
+				RewriteRule rule = RewriteRule.literal(randomString(random, 1 + random.nextInt(3)),
+						randomString(random, random.nextInt(3)));
+				rules.add(rule);
+				expected = expected.replace(rule.getSearch(), rule.getReplacement());
+			}
+			
+			assertEquals(expected, new RewriteFilter(rules, null, null).apply(text));
+		}
+	}
+	
+	@Test
+	public void testOperatorAndClosure() {
+		Closure<String> closure = new Closure<String>(this) {
+			@Override
+			public String call(Object line) {
+				return line + "!";
+			}
+		};
+		
+		RewriteFilter filter = new RewriteFilter(Collections.singletonList(RewriteRule.literal("a", "b")),
+				line -> line.toString().toUpperCase(), closure);
+		
+		assertEquals("BBC!", filter.apply("abc"));
+		assertFalse(filter.isThreadSafe());
+		assertTrue(new RewriteFilter(Collections.emptyList(), null, null).isEmpty());
+	}
+	
+	@Test
+	public void testEmptyRuleNotAllowed() {
+		try {
+			RewriteRule.literal("", "x");
+			fail("Expected empty rule to be rejected");
+		} catch (IllegalArgumentException e) {
+			assertEquals("Empty rewrite rule", e.getMessage());
+		}
+	}
+	
+	@Test
+	public void testMayChangeContents() {
+		Charset utf8 = Charset.forName("UTF-8");
+		ByteBuffer contents = ByteBuffer.wrap("var é = 'first';\nvar x;".getBytes(utf8));
+		RewriteFilter literals = new RewriteFilter(Arrays.asList(RewriteRule.literal("é = 'f", "x"),
+				RewriteRule.literal("other", "y")), null, null);
+		RewriteFilter absent = new RewriteFilter(Arrays.asList(RewriteRule.literal("other", "y"),
+				RewriteRule.literal("x;\n", "y")), null, null);
+		RewriteFilter pattern = new RewriteFilter(Arrays.asList(RewriteRule.pattern("other", "y")), null, null);
+		
+		assertTrue(literals.mayChange(contents, utf8));
+		assertFalse(absent.mayChange(contents, utf8));
+		assertTrue(absent.mayChange(contents, Charset.forName("UTF-16")));
+		assertTrue(pattern.mayChange(contents, utf8));
+		assertEquals(0, contents.position());
+	}
+	
+	private String randomString(Random random, int length) {
+		StringBuilder buffer = new StringBuilder();
+		for (int i = 0; i < length; i++) {
+			buffer.append((char) ('a' + random.nextInt(3)));
+		}
+		return buffer.toString();
+	}
+	
+	/**
+	 * Replaces the leftmost-longest match at every position, which is used as
+	 * a reference for the expected output.
+	 */
+	private String replaceReference(String text, List<String> searches, List<String> replacements) {
+		StringBuilder result = new StringBuilder();
+		int i = 0;
+		while (i < text.length()) {
+			int best = -1;
+			for (int j = 0; j < searches.size(); j++) {
+				if (text.startsWith(searches.get(j), i) &&
+						(best == -1 || searches.get(j).length() > searches.get(best).length())) {
+					best = j;
+				}
+			}
+			
+			if (best == -1) {
+				result.append(text.charAt(i));
+				i++;
+			} else {
+				result.append(replacements.get(best));
+				i += searches.get(best).length();
+			}
+		}
+		return result.toString();
+	}
+}
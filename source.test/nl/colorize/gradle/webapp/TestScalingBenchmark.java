@@ -0,0 +1,308 @@
+//-----------------------------------------------------------------------------
+// Colorize Gradle tasks
+// Copyright 2010-2017 Colorize
+// Apache license (http://www.colorize.nl/code_license.txt)
+//-----------------------------------------------------------------------------
+
+package nl.colorize.gradle.webapp;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+
+import org.gradle.testkit.runner.BuildResult;
+import org.gradle.testkit.runner.GradleRunner;
+import org.gradle.testkit.runner.TaskOutcome;
+import org.junit.Assume;
+import org.junit.Test;
+
+import groovy.json.JsonOutput;
+import groovy.json.JsonSlurper;
+
+/**
+ * End-to-end benchmark that packages and synchronizes generated web
+ * applications of increasing size using TestKit. Unlike the microbenchmarks,
+ * this includes the costs of configuring the project and creating tasks.
+ * Every size is built in three scenarios: a cold build using a new Gradle
+ * daemon, a warm build using an existing daemon, and a build where nothing
+ * has changed.
+ * <p>
+ * The benchmark is skipped during normal test runs, and is performed by the
+ * {@code scalingBenchmark} task. The following system properties are used:
+ * <ul>
+ *   <li>{@code webapp.benchmark} enables the benchmark.
+ *   <li>{@code webapp.benchmark.sizes} the number of files in each of the
+ *       generated web applications.
+ *   <li>{@code webapp.benchmark.template} the project that is used as a
+ *       template, defaults to {@code testbuild}.
+ *   <li>{@code webapp.benchmark.baseline} results from a previous run, the
+ *       benchmark fails if it is slower than this baseline.
+ *   <li>{@code webapp.benchmark.threshold} ratio by which the benchmark may
+ *       be slower than the baseline.
+ * </ul>
+ */
+public class TestScalingBenchmark {
+	
+	private static final Charset CHARSET = Charset.forName("UTF-8");
+	private static final File TEMPLATE_DIR = new File(System.getProperty("webapp.benchmark.template", 
+			"testbuild"));
+	private static final File RESULTS_FILE = new File("build/reports/scaling/results.json");
+	private static final String DEFAULT_SIZES = "1000,10000,100000";
+	private static final double DEFAULT_THRESHOLD = 1.25;
+	// Differences smaller than this are considered noise, regardless of
+	// the threshold, since they are common for smaller web apps.
+	private static final long NOISE_MS = 250L;
+	
+	@Test
+	public void testScaling() throws Exception {
+		Assume.assumeTrue(Boolean.getBoolean("webapp.benchmark"));
+		
+		Map<String, Object> results = new LinkedHashMap<>();
+		for (String size : System.getProperty("webapp.benchmark.sizes", DEFAULT_SIZES).split(",")) {
+			int fileCount = Integer.parseInt(size.trim());
+			File projectDir = generateProject(fileCount);
+			File testKitDir = Files.createTempDirectory("testkit").toFile();
+			
+			deleteDir(new File(projectDir, "build"));
+			results.put(fileCount + "/cold", measure(projectDir, testKitDir, TaskOutcome.SUCCESS));
+			deleteDir(new File(projectDir, "build"));
+			results.put(fileCount + "/warm", measure(projectDir, testKitDir, TaskOutcome.SUCCESS));
+			results.put(fileCount + "/noChange", measure(projectDir, testKitDir, TaskOutcome.UP_TO_DATE));
+			
+			deleteDir(projectDir);
+		}
+		
+		RESULTS_FILE.getParentFile().mkdirs();
+		Files.write(RESULTS_FILE.toPath(), JsonOutput.prettyPrint(JsonOutput.toJson(results)).getBytes(CHARSET));
+		printResults(results);
+		
+		String baseline = System.getProperty("webapp.benchmark.baseline", "");
+		if (!baseline.isEmpty()) {
+			double threshold = Double.parseDouble(System.getProperty("webapp.benchmark.threshold",
+					String.valueOf(DEFAULT_THRESHOLD)));
+			checkRegressions(results, new File(baseline), threshold);
+		}
+	}
+	
+	private Map<String, Object> measure(File projectDir, File testKitDir, TaskOutcome expectedOutcome)
+			throws IOException {
+		long startTime = System.nanoTime();
+		BuildResult result = GradleRunner.create()
+			.withProjectDir(projectDir)
+			.withTestKitDir(testKitDir)
+			.withPluginClasspath()
+			.withArguments("packageWebApp", "syncWebApp", "benchmarkMetrics")
+			.build();
+		long wallTime = (System.nanoTime() - startTime) / 1_000_000L;
+		
+		assertEquals(expectedOutcome, result.task(":packageWebApp").getOutcome());
+		
+		Properties metrics = new Properties();
+		try (InputStream stream = new FileInputStream(new File(projectDir, "build/benchmark-metrics.properties"))) {
+			metrics.load(stream);
+		}
+		
+		Map<String, Object> measurement = new LinkedHashMap<>();
+		measurement.put("wallMs", wallTime);
+		measurement.put("configurationMs", Long.parseLong(metrics.getProperty("configurationMs")));
+		measurement.put("executionMs", Long.parseLong(metrics.getProperty("executionMs")));
+		measurement.put("peakHeapMB", Long.parseLong(metrics.getProperty("peakHeap")) / (1024L * 1024L));
+		return measurement;
+	}
+	
+	private void printResults(Map<String, Object> results) {
+		System.out.println(String.format("%-16s %10s %16s %12s %12s", "Scenario", "Wall (ms)",
+				"Configure (ms)", "Execute (ms)", "Heap (MB)"));
+		for (Map.Entry<String, Object> entry : results.entrySet()) {
+			Map<?, ?> measurement = (Map<?, ?>) entry.getValue();
+			System.out.println(String.format("%-16s %10d %16d %12d %12d", entry.getKey(),
+					measurement.get("wallMs"), measurement.get("configurationMs"),
+					measurement.get("executionMs"), measurement.get("peakHeapMB")));
+		}
+	}
+	
+	private void checkRegressions(Map<String, Object> results, File baselineFile, double threshold) {
+		Map<?, ?> baseline = (Map<?, ?>) new JsonSlurper().parse(baselineFile);
+		List<String> regressions = new ArrayList<>();
+		
+		for (Map.Entry<String, Object> entry : results.entrySet()) {
+			Map<?, ?> expected = (Map<?, ?>) baseline.get(entry.getKey());
+			Map<?, ?> actual = (Map<?, ?>) entry.getValue();
+			if (expected == null) {
+				continue;
+			}
+			
+			for (String metric : Arrays.asList("configurationMs", "executionMs")) {
+				long expectedTime = ((Number) expected.get(metric)).longValue();
+				long actualTime = ((Number) actual.get(metric)).longValue();
+				if (actualTime > expectedTime * threshold && actualTime - expectedTime > NOISE_MS) {
+					regressions.add(entry.getKey() + " " + metric + ": " + expectedTime + " -> " + actualTime);
+				}
+			}
+		}
+		
+		assertTrue("Performance regression exceeds threshold " + threshold + ":\n" +
+				String.join("\n", regressions), regressions.isEmpty());
+	}
+	
+	/**
+	 * Generates a web application with the specified number of files, using
+	 * the {@code testbuild} project as a template. The template's files are
+	 * included, and the remaining files are a mix of HTML, JavaScript, CSS,
+	 * and binary assets, distributed over a number of directories.
+	 */
+	private File generateProject(int fileCount) throws IOException {
+		File projectDir = Files.createTempDirectory("scaling").toFile();
+		File sourceDir = new File(projectDir, "resources");
+		copyDir(new File(TEMPLATE_DIR, "resources"), sourceDir);
+		
+		Files.write(new File(projectDir, "settings.gradle").toPath(), Arrays.asList(
+				"rootProject.name = 'scaling'",
+				"gradle.ext.benchmarkStart = System.nanoTime()",
+				"java.lang.management.ManagementFactory.memoryPoolMXBeans.each { it.resetPeakUsage() }",
+				"gradle.taskGraph.whenReady { gradle.ext.configurationEnd = System.nanoTime() }"), CHARSET);
+		Files.write(new File(projectDir, "gradle.properties").toPath(),
+				Arrays.asList("org.gradle.jvmargs=-Xmx2g"), CHARSET);
+		Files.write(new File(projectDir, "build.gradle").toPath(), generateBuildScript(), CHARSET);
+		
+		Random random = new Random(fileCount);
+		for (int i = 0; i < fileCount; i++) {
+			String dir = "module" + (i / 1000) + "/part" + (i % 10) + "/";
+			int type = i % 50;
+			if (type == 0) {
+				write(sourceDir, dir + "page" + i + ".html", generateHTML(i));
+			} else if (type < 21) {
+				write(sourceDir, dir + "script" + i + ".js", generateJavaScript(i, random));
+			} else if (type < 30) {
+				write(sourceDir, dir + "style" + i + ".css", generateCSS(i, random));
+			} else {
+				File asset = new File(sourceDir, dir + "image" + i + ".png");
+				byte[] contents = new byte[512 + random.nextInt(8192)];
+				random.nextBytes(contents);
+				asset.getParentFile().mkdirs();
+				Files.write(asset.toPath(), contents);
+			}
+		}
+		return projectDir;
+	}
+	
+	/**
+	 * Converts the template's build script to use the plugin under test, and
+	 * adds a task that records the build's metrics.
+	 */
+	private List<String> generateBuildScript() throws IOException {
+		List<String> lines = new ArrayList<>();
+		lines.add("plugins {");
+		lines.add("	id 'java'");
+		lines.add("	id 'war'");
+		lines.add("	id 'nl.colorize.gradle.webapp'");
+		lines.add("}");
+		
+		boolean buildscript = false;
+		for (String line : Files.readAllLines(new File(TEMPLATE_DIR, "build.gradle").toPath(), CHARSET)) {
+			if (line.startsWith("buildscript")) {
+				buildscript = true;
+			} else if (buildscript) {
+				buildscript = !line.equals("}");
+			} else if (line.startsWith("sourceCompatibility") || line.startsWith("targetCompatibility")) {
+				lines.add("java." + line);
+			} else if (!line.startsWith("apply plugin:")) {
+				lines.add(line);
+			}
+		}
+		
+		lines.add("tasks.register('benchmarkMetrics') {");
+		lines.add("	mustRunAfter 'packageWebApp', 'syncWebApp'");
+		lines.add("	doLast {");
+		lines.add("		def end = System.nanoTime()");
+		lines.add("		def heap = java.lang.management.ManagementFactory.memoryPoolMXBeans");
+		lines.add("			.findAll { it.type == java.lang.management.MemoryType.HEAP }");
+		lines.add("			.sum { it.peakUsage.used }");
+		lines.add("		file('build/benchmark-metrics.properties').text = ");
+		lines.add("			\"configurationMs=${(gradle.configurationEnd - gradle.benchmarkStart).intdiv(1000000)}\\n\" +");
+		lines.add("			\"executionMs=${(end - gradle.configurationEnd).intdiv(1000000)}\\n\" +");
+		lines.add("			\"peakHeap=${heap}\\n\"");
+		lines.add("	}");
+		lines.add("}");
+		return lines;
+	}
+	
+	private List<String> generateHTML(int index) {
+		int first = index + 1;
+		return Arrays.asList(
+				"<!DOCTYPE html>",
+				"<html>",
+				"<head>",
+				"    <link rel=\"stylesheet\" href=\"style" + (first + 20) + ".css\" />",
+				"    <script src=\"script" + first + ".js\"></script>",
+				"    <script src=\"script" + (first + 1) + ".js\"></script>",
+				"    <script src=\"../../first.js\"></script>",
+				"</head>",
+				"<body>",
+				"    <h1>Page " + index + "</h1>",
+				"</body>",
+				"</html>");
+	}
+	
+	private List<String> generateJavaScript(int index, Random random) {
+		List<String> lines = new ArrayList<>();
+		for (int i = 0; i < 10 + random.nextInt(40); i++) {
+			lines.add("function script" + index + "_" + i + "(value) {");
+			lines.add("    console.log('first ' + value * " + random.nextInt(1000) + ");");
+			lines.add("}");
+		}
+		return lines;
+	}
+	
+	private List<String> generateCSS(int index, Random random) {
+		List<String> lines = new ArrayList<>();
+		for (int i = 0; i < 5 + random.nextInt(20); i++) {
+			lines.add(".style" + index + "-" + i + " {");
+			lines.add("    margin: " + random.nextInt(20) + "px;");
+			lines.add("    color: #" + Integer.toHexString(random.nextInt(0xFFFFFF)) + ";");
+			lines.add("}");
+		}
+		return lines;
+	}
+	
+	private void write(File dir, String path, List<String> lines) throws IOException {
+		File file = new File(dir, path);
+		file.getParentFile().mkdirs();
+		Files.write(file.toPath(), lines, CHARSET);
+	}
+	
+	private void copyDir(File source, File dest) throws IOException {
+		dest.mkdirs();
+		for (File file : source.listFiles()) {
+			if (file.isDirectory()) {
+				copyDir(file, new File(dest, file.getName()));
+			} else {
+				Files.copy(file.toPath(), new File(dest, file.getName()).toPath(),
+						StandardCopyOption.REPLACE_EXISTING);
+			}
+		}
+	}
+	
+	private void deleteDir(File dir) {
+		File[] contents = dir.listFiles();
+		if (contents != null) {
+			for (File file : contents) {
+				deleteDir(file);
+			}
+		}
+		dir.delete();
+	}
+}
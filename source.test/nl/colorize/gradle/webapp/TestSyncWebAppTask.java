@@ -12,13 +12,14 @@ import java.io.File;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.util.Arrays;
+import java.util.Map;
 
 import org.gradle.api.Project;
 import org.gradle.testfixtures.ProjectBuilder;
 import org.junit.Test;
 
 public class TestSyncWebAppTask {
-
+	
 	@Test
 	public void testSyncPackagedWebAppToDirs() throws Exception {
 		File syncSourceDir = new File(System.getProperty("java.io.tmpdir") + "/sync-source");
@@ -36,11 +37,153 @@ public class TestSyncWebAppTask {
 		task.sync(syncSourceDir, syncDestDir, config);
 		
 		File[] contents = syncDestDir.listFiles();
+		Arrays.sort(contents);
 		assertEquals(2, contents.length);
 		assertEquals("a.txt", contents[0].getName());
 		assertEquals("b.txt", contents[1].getName());
 	}
 	
+	@Test
+	public void testOnlySyncChangedFiles() throws Exception {
+		File buildDir = Files.createTempDirectory("build").toFile();
+		File syncDir = Files.createTempDirectory("sync").toFile();
+		write(new File(buildDir, "a.txt"), "first");
+		write(new File(buildDir, "sub/b.txt"), "second");
+		write(new File(buildDir, "c.txt"), "third");
+		
+		SyncWebAppTask task = createTask();
+		WebAppExtension config = task.getProject().getExtensions().getByType(WebAppExtension.class);
+		SyncResult result = task.sync(buildDir, syncDir, config);
+		
+		assertEquals(3, result.getCopiedFiles());
+		assertEquals(16, result.getCopiedBytes());
+		assertEquals(0, result.getSkippedFiles());
+		
+		result = task.sync(buildDir, syncDir, config);
+		
+		assertEquals(0, result.getCopiedFiles());
+		assertEquals(3, result.getSkippedFiles());
+		assertEquals(16, result.getSkippedBytes());
+		
+		write(new File(buildDir, "a.txt"), "fir5t");
+		new File(buildDir, "a.txt").setLastModified(new File(syncDir, "a.txt").lastModified() + 5000L);
+		new File(buildDir, "c.txt").setLastModified(new File(syncDir, "c.txt").lastModified() + 5000L);
+		new File(buildDir, "sub/b.txt").delete();
+		new File(buildDir, "sub").delete();
+		result = task.sync(buildDir, syncDir, config);
+		
+		assertEquals(1, result.getCopiedFiles());
+		assertEquals(1, result.getSkippedFiles());
+		assertEquals(1, result.getDeletedFiles());
+		assertEquals(6, result.getDeletedBytes());
+		assertEquals("fir5t", new String(Files.readAllBytes(new File(syncDir, "a.txt").toPath()), "UTF-8"));
+		assertEquals(new File(buildDir, "c.txt").lastModified(), new File(syncDir, "c.txt").lastModified());
+		assertFalse(new File(syncDir, "sub").exists());
+	}
+	
+	@Test
+	public void testSyncUsingHardLinks() throws Exception {
+		File buildDir = Files.createTempDirectory("build").toFile();
+		File syncDir = Files.createTempDirectory("sync").toFile();
+		write(new File(buildDir, "index.html"), "<html>");
+		write(new File(buildDir, "images/logo.png"), "logo");
+		
+		SyncWebAppTask task = createTask();
+		WebAppExtension config = task.getProject().getExtensions().getByType(WebAppExtension.class);
+		config.setLinkStrategy(FileLinker.HARDLINK);
+		SyncResult result = task.sync(buildDir, syncDir, config);
+		
+		assertEquals(2, result.getCopiedFiles());
+		assertTrue(Files.isSameFile(new File(buildDir, "images/logo.png").toPath(), 
+				new File(syncDir, "images/logo.png").toPath()));
+		assertFalse(Files.isSameFile(new File(buildDir, "index.html").toPath(), 
+				new File(syncDir, "index.html").toPath()));
+		
+		result = task.sync(buildDir, syncDir, config);
+		
+		assertEquals(0, result.getCopiedFiles());
+		assertEquals(2, result.getSkippedFiles());
+		
+		new File(buildDir, "images/logo.png").delete();
+		write(new File(buildDir, "images/logo.png"), "changed");
+		task.sync(buildDir, syncDir, config);
+		
+		assertEquals("changed", new String(Files.readAllBytes(new File(syncDir, "images/logo.png").toPath()), "UTF-8"));
+	}
+	
+	@Test
+	public void testSyncToMultipleDirsReadsFilesOnce() throws Exception {
+		File buildDir = Files.createTempDirectory("build").toFile();
+		File firstSyncDir = Files.createTempDirectory("sync").toFile();
+		File secondSyncDir = Files.createTempDirectory("sync").toFile();
+		write(new File(buildDir, "index.html"), "<html>");
+		write(new File(buildDir, "sub/b.txt"), "second");
+		write(new File(buildDir, "large.js"), new String(new char[200000]).replace('\0', 'x'));
+		write(new File(secondSyncDir, "obsolete.txt"), "obsolete");
+		
+		SyncWebAppTask task = createTask();
+		WebAppExtension config = task.getProject().getExtensions().getByType(WebAppExtension.class);
+		PackagingReport report = new PackagingReport("syncWebApp");
+		Map<File, SyncResult> results = task.sync(buildDir, Arrays.asList(firstSyncDir, secondSyncDir), config, 
+				report);
+		
+		for (File syncDir : Arrays.asList(firstSyncDir, secondSyncDir)) {
+			assertNull(results.get(syncDir).getFailure());
+			assertEquals(3, results.get(syncDir).getCopiedFiles());
+			assertEquals(200012L, results.get(syncDir).getCopiedBytes());
+			assertEquals("second", new String(Files.readAllBytes(new File(syncDir, "sub/b.txt").toPath()), "UTF-8"));
+			assertEquals(200000L, new File(syncDir, "large.js").length());
+			assertEquals(new File(buildDir, "large.js").lastModified(), new File(syncDir, "large.js").lastModified());
+		}
+		
+		assertEquals(1, results.get(secondSyncDir).getDeletedFiles());
+		assertFalse(new File(secondSyncDir, "obsolete.txt").exists());
+		assertEquals(200012L, report.getBytesRead());
+		assertEquals(400024L, report.getBytesWritten());
+	}
+	
+	@Test
+	public void testFailedSyncDirDoesNotBlockOtherDirs() throws Exception {
+		File buildDir = Files.createTempDirectory("build").toFile();
+		File syncDir = Files.createTempDirectory("sync").toFile();
+		File failingSyncDir = Files.createTempDirectory("sync").toFile();
+		write(new File(buildDir, "a/first.txt"), "first");
+		write(new File(buildDir, "b.js"), new String(new char[4000000]).replace('\0', 'x'));
+		for (int i = 0; i < 100; i++) {
+			write(new File(buildDir, "c/file" + i + ".txt"), "file " + i);
+		}
+		// The link prevents the directory from being created, and is not
+		// deleted since it is not a regular file.
+		File blockingFile = File.createTempFile("sync", ".txt");
+		Files.createSymbolicLink(new File(failingSyncDir, "a").toPath(), blockingFile.toPath());
+		
+		SyncWebAppTask task = createTask();
+		WebAppExtension config = task.getProject().getExtensions().getByType(WebAppExtension.class);
+		Map<File, SyncResult> results = task.sync(buildDir, Arrays.asList(failingSyncDir, syncDir), config,
+				new PackagingReport("syncWebApp"));
+		
+		assertNotNull(results.get(failingSyncDir).getFailure());
+		assertTrue(results.get(failingSyncDir).getFailure().getMessage().startsWith("Cannot sync file"));
+		assertFalse(new File(failingSyncDir, "b.js").exists());
+		assertNull(results.get(syncDir).getFailure());
+		assertEquals(102, results.get(syncDir).getCopiedFiles());
+		assertEquals(4000000L, new File(syncDir, "b.js").length());
+		assertEquals(100, new File(syncDir, "c").listFiles().length);
+		
+		File missingSyncDir = new File(blockingFile, "sync");
+		try {
+			task.sync(buildDir, missingSyncDir, config);
+			fail();
+		} catch (RuntimeException e) {
+			assertTrue(e.getMessage().startsWith("Cannot create directory"));
+		}
+	}
+	
+	private void write(File file, String contents) throws Exception {
+		file.getParentFile().mkdirs();
+		Files.write(file.toPath(), contents.getBytes("UTF-8"));
+	}
+	
 	private SyncWebAppTask createTask() {
 		Project project = ProjectBuilder.builder().withProjectDir(new File("testbuild")).build();
 		WebAppPlugin plugin = new WebAppPlugin();
@@ -0,0 +1,150 @@
+//-----------------------------------------------------------------------------
+// Colorize Gradle tasks
+// Copyright 2010-2017 Colorize
+// Apache license (http://www.colorize.nl/code_license.txt)
+//-----------------------------------------------------------------------------
+
+package nl.colorize.gradle.webapp;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BooleanSupplier;
+
+import org.gradle.api.Project;
+import org.gradle.testfixtures.ProjectBuilder;
+import org.gradle.work.ChangeType;
+import org.junit.Test;
+
+public class TestWatchWebAppTask {
+	
+	private static final Charset CHARSET = Charset.forName("UTF-8");
+	private static final long TIMEOUT = 10000L;
+	
+	@Test
+	public void testRepackageChangedFiles() throws Exception {
+		File projectDir = Files.createTempDirectory("webapp").toFile();
+		File htmlFile = write(new File(projectDir, "web/index.html"), "<script src=\"a.js\"></script>");
+		File jsFile = write(new File(projectDir, "web/a.js"), "first");
+		write(new File(projectDir, "web/gulpfile.js"), "excluded");
+		
+		Project project = ProjectBuilder.builder().withProjectDir(projectDir).build();
+		new WebAppPlugin().apply(project);
+		WebAppExtension config = project.getExtensions().getByType(WebAppExtension.class);
+		config.setCombinedJavaScriptFileName("app.js");
+		PackageWebAppTask packageTask = (PackageWebAppTask) project.getTasks().getByName("packageWebApp");
+		WatchWebAppTask watchTask = (WatchWebAppTask) project.getTasks().getByName("watchWebApp");
+		
+		Map<File, ChangeType> changes = new LinkedHashMap<>();
+		for (File file : config.indexFiles(project).getWebAppFiles()) {
+			changes.put(file, ChangeType.ADDED);
+		}
+		packageTask.packageChangedFiles(packageTask.getBuildDir().get().getAsFile(), config, changes);
+		
+		Thread watchThread = new Thread(() -> {
+			try {
+				watchTask.watch();
+			} catch (InterruptedException e) {
+				// Expected when the test is done.
+			}
+		});
+		watchThread.start();
+		
+		try {
+			// Give the watch service time to register the directories.
+			Thread.sleep(500);
+			File buildDir = packageTask.getBuildDir().get().getAsFile();
+			
+			write(jsFile, "changed");
+			waitFor(() -> readLines(new File(buildDir, "app.js")).contains("changed"));
+			
+			write(htmlFile, "<p>changed</p>");
+			waitFor(() -> readLines(new File(buildDir, "index.html")).contains("<p>changed</p>"));
+			
+			write(new File(projectDir, "web/images/logo.png"), "logo");
+			waitFor(() -> new File(buildDir, "images/logo.png").exists());
+			
+			new File(projectDir, "web/images/logo.png").delete();
+			waitFor(() -> !new File(buildDir, "images/logo.png").exists());
+			
+			assertFalse(new File(buildDir, "gulpfile.js").exists());
+		} finally {
+			watchThread.interrupt();
+			watchThread.join(TIMEOUT);
+		}
+		
+		assertFalse(watchThread.isAlive());
+	}
+	
+	@Test
+	public void testRemoveFilesInMovedDirectory() throws Exception {
+		File projectDir = Files.createTempDirectory("webapp").toFile();
+		write(new File(projectDir, "web/index.html"), "<p>test</p>");
+		write(new File(projectDir, "web/assets/logo.png"), "logo");
+		write(new File(projectDir, "web/assets/icons/icon.png"), "icon");
+		
+		Project project = ProjectBuilder.builder().withProjectDir(projectDir).build();
+		new WebAppPlugin().apply(project);
+		WebAppExtension config = project.getExtensions().getByType(WebAppExtension.class);
+		PackageWebAppTask packageTask = (PackageWebAppTask) project.getTasks().getByName("packageWebApp");
+		WatchWebAppTask watchTask = (WatchWebAppTask) project.getTasks().getByName("watchWebApp");
+		File buildDir = packageTask.getBuildDir().get().getAsFile();
+		packageTask.packageWebApp(buildDir, config);
+		
+		assertTrue(new File(buildDir, "assets/icons/icon.png").exists());
+		
+		Thread watchThread = new Thread(() -> {
+			try {
+				watchTask.watch();
+			} catch (InterruptedException e) {
+				// Expected when the test is done.
+			}
+		});
+		watchThread.start();
+		
+		try {
+			// Give the watch service time to register the directories.
+			Thread.sleep(500);
+			Files.move(new File(projectDir, "web/assets").toPath(), new File(projectDir, "moved").toPath());
+			
+			waitFor(() -> !new File(buildDir, "assets/logo.png").exists() && 
+					!new File(buildDir, "assets/icons/icon.png").exists());
+			assertTrue(new File(buildDir, "index.html").exists());
+		} finally {
+			watchThread.interrupt();
+			watchThread.join(TIMEOUT);
+		}
+		
+		assertFalse(watchThread.isAlive());
+	}
+	
+	private void waitFor(BooleanSupplier condition) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + TIMEOUT;
+		while (!condition.getAsBoolean()) {
+			if (System.currentTimeMillis() > deadline) {
+				fail("Timeout while waiting for web application to be repackaged");
+			}
+			Thread.sleep(20);
+		}
+	}
+	
+	private File write(File file, String contents) throws Exception {
+		file.getParentFile().mkdirs();
+		Files.write(file.toPath(), Arrays.asList(contents), CHARSET);
+		return file;
+	}
+	
+	private List<String> readLines(File file) {
+		try {
+			return Files.readAllLines(file.toPath(), CHARSET);
+		} catch (Exception e) {
+			return Arrays.asList();
+		}
+	}
+}
@@ -0,0 +1,116 @@
+//-----------------------------------------------------------------------------
+// Colorize Gradle tasks
+// Copyright 2010-2017 Colorize
+// Apache license (http://www.colorize.nl/code_license.txt)
+//-----------------------------------------------------------------------------
+
+package nl.colorize.gradle.webapp;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.ZipFile;
+
+import org.gradle.api.Project;
+import org.gradle.api.Task;
+import org.gradle.api.tasks.TaskDependency;
+import org.gradle.testfixtures.ProjectBuilder;
+import org.gradle.testkit.runner.BuildResult;
+import org.gradle.testkit.runner.GradleRunner;
+import org.junit.Test;
+
+public class TestWebAppPlugin {
+	
+	private static final Charset CHARSET = Charset.forName("UTF-8");
+	
+	@Test
+	public void testTasksAreRegisteredLazily() {
+		Project project = ProjectBuilder.builder().build();
+		List<String> createdTasks = new ArrayList<>();
+		project.getTasks().configureEach(task -> createdTasks.add(task.getName()));
+		project.getPluginManager().apply(WebAppPlugin.class);
+		
+		assertTrue(project.getTasks().getNames().containsAll(Arrays.asList("compileWebAppTypeScript",
+				"packageWebApp", "syncWebApp", "watchWebApp")));
+		assertFalse(createdTasks.contains("packageWebApp"));
+		assertFalse(createdTasks.contains("syncWebApp"));
+		
+		project.getTasks().getByName("syncWebApp");
+		
+		assertTrue(createdTasks.contains("syncWebApp"));
+	}
+	
+	@Test
+	public void testWarPluginAppliedAfterWebAppPlugin() {
+		Project project = ProjectBuilder.builder().build();
+		project.getPluginManager().apply(WebAppPlugin.class);
+		project.getPluginManager().apply("war");
+		
+		Task war = project.getTasks().getByName("war");
+		TaskDependency dependencies = war.getTaskDependencies();
+		
+		assertTrue(dependencies.getDependencies(war).contains(project.getTasks().getByName("packageWebApp")));
+	}
+	
+	@Test
+	public void testConfigureUsingProviders() throws Exception {
+		File projectDir = Files.createTempDirectory("checkout").toFile();
+		Files.write(new File(projectDir, "settings.gradle").toPath(), Arrays.asList(
+				"rootProject.name = 'lazy'"), CHARSET);
+		Files.write(new File(projectDir, "build.gradle").toPath(), Arrays.asList(
+				"plugins { id 'nl.colorize.gradle.webapp' }",
+				"webApp.combinedJavaScriptFileName = provider { 'app-' + version + '.js' }",
+				"version = '1.2'"), CHARSET);
+		File jsFile = new File(projectDir, "web/app.js");
+		jsFile.getParentFile().mkdirs();
+		Files.write(jsFile.toPath(), Arrays.asList("var x;"), CHARSET);
+		
+		GradleRunner.create()
+			.withProjectDir(projectDir)
+			.withPluginClasspath()
+			.withArguments("packageWebApp")
+			.build();
+		
+		assertTrue(new File(projectDir, "build/web/app-1.2.js").exists());
+	}
+	
+	@Test
+	public void testConfigurationCache() throws Exception {
+		File projectDir = Files.createTempDirectory("checkout").toFile();
+		Files.write(new File(projectDir, "settings.gradle").toPath(), Arrays.asList(
+				"rootProject.name = 'cached'"), CHARSET);
+		Files.write(new File(projectDir, "build.gradle").toPath(), Arrays.asList(
+				"plugins {",
+				"    id 'war'",
+				"    id 'nl.colorize.gradle.webapp'",
+				"}",
+				"webApp.combinedJavaScriptFileName = 'app.js'",
+				"webApp.rewriteJavaScriptFilter = { line -> line.replace('first', 'second') }",
+				"webApp.syncDirs = ['build/sync']"), CHARSET);
+		File jsFile = new File(projectDir, "web/app.js");
+		jsFile.getParentFile().mkdirs();
+		Files.write(jsFile.toPath(), Arrays.asList("var first;"), CHARSET);
+		Files.write(new File(projectDir, "web/index.html").toPath(), Arrays.asList(
+				"<script src=\"app.js\"></script>"), CHARSET);
+		
+		GradleRunner runner = GradleRunner.create()
+			.withProjectDir(projectDir)
+			.withPluginClasspath()
+			.withArguments("assemble", "--configuration-cache", "--rerun-tasks");
+		runner.build();
+		BuildResult result = runner.build();
+		
+		assertTrue(result.getOutput().contains("Reusing configuration cache."));
+		assertTrue(Files.readAllLines(new File(projectDir, "build/sync/app.js").toPath(), CHARSET)
+				.contains("var second;"));
+		try (ZipFile war = new ZipFile(new File(projectDir, "build/libs/cached.war"))) {
+			assertNotNull(war.getEntry("index.html"));
+			assertNotNull(war.getEntry("app.js"));
+		}
+	}
+}
@@ -0,0 +1,164 @@
+//-----------------------------------------------------------------------------
+// Colorize Gradle tasks
+// Copyright 2010-2017 Colorize
+// Apache license (http://www.colorize.nl/code_license.txt)
+//-----------------------------------------------------------------------------
+
+package nl.colorize.gradle.webapp;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+import org.junit.Test;
+
+public class TestZipArchiveWriter {
+	
+	private static final Charset CHARSET = Charset.forName("UTF-8");
+	
+	@Test
+	public void testWriteEntries() throws Exception {
+		File tempDir = Files.createTempDirectory("archive").toFile();
+		File htmlFile = new File(tempDir, "index.html");
+		Files.write(htmlFile.toPath(), String.join("", Collections.nCopies(100, "<p>Test</p>")).getBytes(CHARSET));
+		byte[] image = randomBytes(1000);
+		
+		ZipArchiveWriter archive = new ZipArchiveWriter(new File(tempDir, "test.zip"), 4);
+		archive.addFile("index.html", htmlFile);
+		archive.addBytes("img/logo.png", image);
+		archive.addBytes("js/app.js", "var x = 1;".getBytes(CHARSET));
+		archive.write();
+		
+		try (ZipFile zip = new ZipFile(new File(tempDir, "test.zip"))) {
+			assertEquals(Arrays.asList("img/", "img/logo.png", "index.html", "js/", "js/app.js"), listEntries(zip));
+			assertEquals(ZipEntry.DEFLATED, zip.getEntry("index.html").getMethod());
+			assertEquals(ZipEntry.STORED, zip.getEntry("img/logo.png").getMethod());
+			assertTrue(zip.getEntry("js/").isDirectory());
+			assertArrayEquals(Files.readAllBytes(htmlFile.toPath()), read(zip, "index.html"));
+			assertArrayEquals(image, read(zip, "img/logo.png"));
+			assertEquals("var x = 1;", new String(read(zip, "js/app.js"), CHARSET));
+		}
+	}
+	
+	@Test
+	public void testStoreEntriesThatDoNotShrink() throws Exception {
+		File archiveFile = new File(Files.createTempDirectory("archive").toFile(), "test.zip");
+		byte[] random = randomBytes(5000);
+		
+		ZipArchiveWriter archive = new ZipArchiveWriter(archiveFile, 2);
+		archive.addBytes("random.txt", random);
+		archive.write();
+		
+		try (ZipFile zip = new ZipFile(archiveFile)) {
+			assertEquals(ZipEntry.STORED, zip.getEntry("random.txt").getMethod());
+			assertArrayEquals(random, read(zip, "random.txt"));
+		}
+	}
+	
+	@Test
+	public void testStreamLargeEntries() throws Exception {
+		File tempDir = Files.createTempDirectory("archive").toFile();
+		File textFile = new File(tempDir, "large.txt");
+		Files.write(textFile.toPath(), Collections.nCopies(500_000, "Line of text"), CHARSET);
+		File videoFile = new File(tempDir, "large.mp4");
+		Files.write(videoFile.toPath(), randomBytes(5_000_000));
+		
+		File archiveFile = new File(tempDir, "test.zip");
+		ZipArchiveWriter archive = new ZipArchiveWriter(archiveFile, 2);
+		archive.addFile("large.txt", textFile);
+		archive.addFile("large.mp4", videoFile);
+		archive.write();
+		
+		try (ZipFile zip = new ZipFile(archiveFile)) {
+			assertEquals(ZipEntry.DEFLATED, zip.getEntry("large.txt").getMethod());
+			assertEquals(ZipEntry.STORED, zip.getEntry("large.mp4").getMethod());
+			assertArrayEquals(Files.readAllBytes(textFile.toPath()), read(zip, "large.txt"));
+			assertArrayEquals(Files.readAllBytes(videoFile.toPath()), read(zip, "large.mp4"));
+		}
+		
+		// The local headers should also be correct, since some tools read
+		// the archive sequentially rather than using the central directory.
+		try (ZipInputStream stream = new ZipInputStream(Files.newInputStream(archiveFile.toPath()))) {
+			assertEquals("large.mp4", stream.getNextEntry().getName());
+			assertEquals(videoFile.length(), readFully(stream).length);
+			assertEquals("large.txt", stream.getNextEntry().getName());
+			assertEquals(textFile.length(), readFully(stream).length);
+		}
+	}
+	
+	@Test
+	public void testMoreThan65535Entries() throws Exception {
+		File archiveFile = new File(Files.createTempDirectory("archive").toFile(), "test.zip");
+		ZipArchiveWriter archive = new ZipArchiveWriter(archiveFile, 4);
+		for (int i = 0; i < 70_000; i++) {
+			archive.addBytes("file" + i + ".txt", ("file " + i).getBytes(CHARSET));
+		}
+		archive.write();
+		
+		try (ZipFile zip = new ZipFile(archiveFile)) {
+			assertEquals(70_000, zip.size());
+			assertEquals("file 69999", new String(read(zip, "file69999.txt"), CHARSET));
+		}
+	}
+	
+	@Test
+	public void testArchiveDoesNotDependOnOrder() throws Exception {
+		File tempDir = Files.createTempDirectory("archive").toFile();
+		File first = new File(tempDir, "first.zip");
+		File second = new File(tempDir, "second.zip");
+		
+		ZipArchiveWriter firstArchive = new ZipArchiveWriter(first, 4);
+		firstArchive.addBytes("b/c.txt", "c".getBytes(CHARSET));
+		firstArchive.addBytes("a.txt", "a".getBytes(CHARSET));
+		firstArchive.write();
+		
+		ZipArchiveWriter secondArchive = new ZipArchiveWriter(second, 1);
+		secondArchive.addBytes("a.txt", "a".getBytes(CHARSET));
+		secondArchive.addBytes("b/c.txt", "c".getBytes(CHARSET));
+		secondArchive.write();
+		
+		assertArrayEquals(Files.readAllBytes(first.toPath()), Files.readAllBytes(second.toPath()));
+	}
+	
+	private List<String> listEntries(ZipFile zip) {
+		List<String> names = new ArrayList<>();
+		for (ZipEntry entry : Collections.list(zip.entries())) {
+			names.add(entry.getName());
+		}
+		return names;
+	}
+	
+	private byte[] read(ZipFile zip, String name) throws Exception {
+		try (InputStream stream = zip.getInputStream(zip.getEntry(name))) {
+			return readFully(stream);
+		}
+	}
+	
+	private byte[] readFully(InputStream stream) throws Exception {
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		byte[] chunk = new byte[4096];
+		int length = 0;
+		while ((length = stream.read(chunk)) != -1) {
+			buffer.write(chunk, 0, length);
+		}
+		return buffer.toByteArray();
+	}
+	
+	private byte[] randomBytes(int length) {
+		byte[] bytes = new byte[length];
+		new Random(1234).nextBytes(bytes);
+		return bytes;
+	}
+}
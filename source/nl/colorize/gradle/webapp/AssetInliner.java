@@ -0,0 +1,293 @@
+//-----------------------------------------------------------------------------
+// Colorize Gradle tasks
+// Copyright 2010-2017 Colorize
+// Apache license (http://www.colorize.nl/code_license.txt)
+//-----------------------------------------------------------------------------
+
+package nl.colorize.gradle.webapp;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Replaces references to small images and fonts with {@code data:} URIs that
+ * contain the file itself, so that browsers do not need a separate request to
+ * load them. References are inlined in CSS {@code url(...)} values and in the
+ * {@code src} attribute of HTML {@code <img>} tags. Only files that are at
+ * most the configured size are inlined, since inlining large files increases
+ * the size of every page or stylesheet that refers to them.
+ * <p>
+ * Files that have been inlined are no longer needed in the packaged web app,
+ * unless they are still referenced from somewhere else. Since references can
+ * also appear in files that are not processed by the build, such as scripts,
+ * this is determined by searching text files for paths that end with the
+ * inlined file's path. References that only consist of the file name match
+ * every file with that name, since it cannot be determined which of those
+ * files is meant.
+ * <p>
+ * This class is thread-safe, so that CSS and HTML files can be processed in
+ * parallel. The number of inlined references is recorded, so that it can be
+ * reported how many requests were saved.
+ */
+public class AssetInliner {
+	
+	private WebAppFileIndex index;
+	private int maxSize;
+	private Map<String, File> candidates;
+	private Set<File> candidateFiles;
+	private Map<String, List<String>> candidatesByName;
+	private Map<File, String> dataURIs;
+	private Map<File, Integer> inlinedReferences;
+	
+	private static final Map<String, String> MEDIA_TYPES = new HashMap<>();
+	static {
+		MEDIA_TYPES.put("png", "image/png");
+		MEDIA_TYPES.put("gif", "image/gif");
+		MEDIA_TYPES.put("jpg", "image/jpeg");
+		MEDIA_TYPES.put("jpeg", "image/jpeg");
+		MEDIA_TYPES.put("svg", "image/svg+xml");
+		MEDIA_TYPES.put("webp", "image/webp");
+		MEDIA_TYPES.put("ico", "image/x-icon");
+		MEDIA_TYPES.put("woff", "font/woff");
+		MEDIA_TYPES.put("woff2", "font/woff2");
+		MEDIA_TYPES.put("ttf", "font/ttf");
+		MEDIA_TYPES.put("otf", "font/otf");
+	}
+	
+	private static final List<String> TEXT_EXTENSIONS = Arrays.asList(
+			"html", "htm", "css", "js", "mjs", "json", "svg", "xml", "txt", "webmanifest");
+	
+	private static final Pattern CSS_URL = Pattern.compile("(url\\(\\s*)([\"']?)([^\"')\\s]+)(\\2\\s*\\))",
+			Pattern.CASE_INSENSITIVE);
+	private static final Pattern IMG_SRC = Pattern.compile("(<img\\b[^>]*?\\ssrc\\s*=\\s*)([\"'])([^\"']+)(\\2)",
+			Pattern.CASE_INSENSITIVE);
+	private static final Pattern FILE_REFERENCE = Pattern.compile("[\\w./-]+\\.(" + 
+			String.join("|", MEDIA_TYPES.keySet()) + ")\\b", Pattern.CASE_INSENSITIVE);
+	
+	public AssetInliner(WebAppExtension config, WebAppFileIndex index) {
+		this.index = index;
+		this.maxSize = config.getInlineAssetsMaxSize();
+		this.candidates = new HashMap<>();
+		this.candidateFiles = new LinkedHashSet<>();
+		this.candidatesByName = new HashMap<>();
+		this.dataURIs = new ConcurrentHashMap<>();
+		this.inlinedReferences = new ConcurrentHashMap<>();
+		
+		for (File file : index.getWebAppFiles()) {
+			if (isCandidate(file)) {
+				String relativePath = index.getRelativePath(file);
+				candidates.put(relativePath, file);
+				candidateFiles.add(file);
+				candidatesByName.computeIfAbsent(file.getName().toLowerCase(Locale.ROOT), 
+						name -> new ArrayList<>()).add(relativePath);
+			}
+		}
+	}
+	
+	/**
+	 * Returns true if the file is small enough to be inlined, and is of a type
+	 * that can be represented as a {@code data:} URI.
+	 */
+	public boolean isCandidate(File file) {
+		return index.isAssetFile(file) && isInlineableType(file.getName()) && file.length() <= maxSize;
+	}
+	
+	/**
+	 * Returns true if files with the specified name could be inlined, 
+	 * regardless of their size.
+	 */
+	public static boolean isInlineableType(String name) {
+		return MEDIA_TYPES.containsKey(getExtension(name));
+	}
+	
+	/**
+	 * Returns true if files with the specified name are text files that might
+	 * contain references to other files.
+	 */
+	public static boolean isTextFile(String name) {
+		return TEXT_EXTENSIONS.contains(getExtension(name));
+	}
+	
+	public List<File> getCandidates() {
+		return new ArrayList<>(candidateFiles);
+	}
+	
+	/**
+	 * Returns a filter that inlines references in a CSS file, which can be
+	 * used while combining CSS files. References are resolved relative to
+	 * the location of the original CSS file.
+	 */
+	public RewriteFilter createCSSFilter(File cssFile) {
+		String cssPath = index.getRelativePath(cssFile);
+		return new RewriteFilter(Collections.emptyList(), line -> inlineCSS(line.toString(), cssPath), null);
+	}
+	
+	/**
+	 * Inlines all references to small files in CSS {@code url(...)} values.
+	 * @param cssPath Path of the CSS file relative to the source directory.
+	 */
+	public String inlineCSS(String css, String cssPath) {
+		if (css.indexOf('(') == -1) {
+			return css;
+		}
+		return inline(css, cssPath, CSS_URL);
+	}
+	
+	/**
+	 * Inlines all references to small files in the {@code src} attribute of
+	 * {@code <img>} tags.
+	 * @param htmlPath Path of the HTML file relative to the source directory.
+	 */
+	public String inlineHTML(String html, String htmlPath) {
+		return inline(html, htmlPath, IMG_SRC);
+	}
+	
+	private String inline(String text, String path, Pattern referencePattern) {
+		String dir = getDir(path);
+		Matcher matcher = referencePattern.matcher(text);
+		StringBuffer result = null;
+		
+		while (matcher.find()) {
+			File file = resolve(matcher.group(3), dir);
+			if (file != null) {
+				if (result == null) {
+					result = new StringBuffer(text.length());
+				}
+				String replacement = matcher.group(1) + matcher.group(2) + getDataURI(file) + matcher.group(4);
+				matcher.appendReplacement(result, Matcher.quoteReplacement(replacement));
+				inlinedReferences.merge(file, 1, Integer::sum);
+			}
+		}
+		
+		if (result == null) {
+			return text;
+		}
+		matcher.appendTail(result);
+		return result.toString();
+	}
+	
+	/**
+	 * Returns the file that is referenced, or {@code null} if the reference
+	 * does not refer to a file that should be inlined. References with a
+	 * fragment identifier are never inlined, since they usually refer to part
+	 * of an image or font.
+	 */
+	private File resolve(String reference, String dir) {
+		if (reference.startsWith("//") || reference.contains(":") || reference.contains("#")) {
+			return null;
+		}
+		
+		String path = reference.indexOf('?') == -1 ? reference : reference.substring(0, reference.indexOf('?'));
+		path = reference.startsWith("/") ? path.substring(1) : dir + path;
+		return candidates.get(normalizePath(path));
+	}
+	
+	private String getDir(String path) {
+		return path.lastIndexOf('/') == -1 ? "" : path.substring(0, path.lastIndexOf('/') + 1);
+	}
+	
+	private String normalizePath(String path) {
+		List<String> segments = new ArrayList<>();
+		for (String segment : path.split("/")) {
+			if (segment.equals("..")) {
+				if (!segments.isEmpty()) {
+					segments.remove(segments.size() - 1);
+				}
+			} else if (!segment.isEmpty() && !segment.equals(".")) {
+				segments.add(segment);
+			}
+		}
+		return String.join("/", segments);
+	}
+	
+	private String getDataURI(File file) {
+		return dataURIs.computeIfAbsent(file, f -> {
+			try {
+				String mediaType = MEDIA_TYPES.get(getExtension(f.getName()));
+				byte[] contents = Files.readAllBytes(f.toPath());
+				return "data:" + mediaType + ";base64," + Base64.getEncoder().encodeToString(contents);
+			} catch (IOException e) {
+				throw new RuntimeException("Cannot inline file " + f.getAbsolutePath(), e);
+			}
+		});
+	}
+	
+	/**
+	 * Returns the number of references that were inlined for each file. Files
+	 * that were not inlined are not included.
+	 */
+	public Map<File, Integer> getInlinedReferences() {
+		Map<File, Integer> sorted = new LinkedHashMap<>();
+		for (File file : candidateFiles) {
+			if (inlinedReferences.containsKey(file)) {
+				sorted.put(file, inlinedReferences.get(file));
+			}
+		}
+		return sorted;
+	}
+	
+	/**
+	 * Returns the size of the {@code data:} URI for the specified file, which
+	 * is added to the CSS or HTML for every inlined reference.
+	 */
+	public long getDataURISize(File file) {
+		return getDataURI(file).length();
+	}
+	
+	/**
+	 * Adds the files that will be inlined in the specified HTML or CSS file to
+	 * a set, without actually inlining them.
+	 * @param path Path of the HTML or CSS file relative to the source directory.
+	 */
+	public void findInlinedFiles(CharSequence text, String path, Set<File> inlinedFiles) {
+		Pattern referencePattern = path.toLowerCase(Locale.ROOT).endsWith(".css") ? CSS_URL : IMG_SRC;
+		String dir = getDir(path);
+		Matcher matcher = referencePattern.matcher(text);
+		
+		while (matcher.find()) {
+			File file = resolve(matcher.group(3), dir);
+			if (file != null) {
+				inlinedFiles.add(file);
+			}
+		}
+	}
+	
+	/**
+	 * Adds all inlining candidates that are referenced in the specified text
+	 * to a set. This is used to determine whether files are still needed after
+	 * their references have been inlined.
+	 */
+	public void findReferencedFiles(CharSequence text, Set<File> referencedFiles) {
+		Matcher matcher = FILE_REFERENCE.matcher(text);
+		while (matcher.find()) {
+			String reference = normalizePath(matcher.group()).toLowerCase(Locale.ROOT);
+			String name = reference.substring(reference.lastIndexOf('/') + 1);
+			
+			for (String candidatePath : candidatesByName.getOrDefault(name, Collections.emptyList())) {
+				String path = candidatePath.toLowerCase(Locale.ROOT);
+				if (path.equals(reference) || path.endsWith("/" + reference)) {
+					referencedFiles.add(candidates.get(candidatePath));
+				}
+			}
+		}
+	}
+	
+	private static String getExtension(String name) {
+		return name.substring(name.lastIndexOf('.') + 1).toLowerCase(Locale.ROOT);
+	}
+}
@@ -0,0 +1,253 @@
+//-----------------------------------------------------------------------------
+// Colorize Gradle tasks
+// Copyright 2010-2017 Colorize
+// Apache license (http://www.colorize.nl/code_license.txt)
+//-----------------------------------------------------------------------------
+
+package nl.colorize.gradle.webapp;
+
+import java.io.FilterWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Minifies CSS while it is being written, by removing comments, whitespace,
+ * and redundant semicolons. The contents of strings and URLs are not modified.
+ * Comments starting with "/*!" are preserved, as these are commonly used for
+ * license information.
+ * <p>
+ * Whitespace is significant in some places in CSS, for example in selectors
+ * ("a :hover" is not the same as "a:hover") and in expressions ("calc(1px +
+ * 2px)"). Whitespace is therefore only removed around characters where it
+ * is never significant.
+ */
+public class CSSMinifier extends FilterWriter {
+	
+	private State state;
+	private boolean pendingWhitespace;
+	private boolean pendingSlash;
+	private boolean pendingSemicolon;
+	private boolean escape;
+	private char quote;
+	private char lastChar;
+	private StringBuilder lastWord;
+	private boolean commentStart;
+	private boolean commentEnd;
+	private int parenDepth;
+	
+	private static final String NO_SPACE_BEFORE = "{};,>)!";
+	private static final String NO_SPACE_AFTER = "{};,>(:";
+	private static final String COMBINATORS = "+~";
+	
+	private enum State {
+		CODE,
+		COMMENT,
+		LICENSE_COMMENT,
+		STRING,
+		URL_START,
+		URL
+	}
+	
+	public CSSMinifier(Writer out) {
+		super(out);
+		state = State.CODE;
+		lastWord = new StringBuilder();
+	}
+	
+	@Override
+	public void write(int c) throws IOException {
+		process((char) c);
+	}
+	
+	@Override
+	public void write(char[] buffer, int offset, int length) throws IOException {
+		for (int i = offset; i < offset + length; i++) {
+			process(buffer[i]);
+		}
+	}
+	
+	@Override
+	public void write(String str, int offset, int length) throws IOException {
+		for (int i = offset; i < offset + length; i++) {
+			process(str.charAt(i));
+		}
+	}
+	
+	private void process(char c) throws IOException {
+		switch (state) {
+			case CODE : processCode(c); break;
+			case COMMENT : processComment(c); break;
+			case LICENSE_COMMENT : processLicenseComment(c); break;
+			case STRING : processString(c); break;
+			case URL_START : processURLStart(c); break;
+			case URL : processURL(c); break;
+			default : throw new AssertionError();
+		}
+	}
+	
+	private void processCode(char c) throws IOException {
+		if (pendingSlash) {
+			pendingSlash = false;
+			if (c == '*') {
+				state = State.COMMENT;
+				commentStart = true;
+				commentEnd = false;
+				return;
+			}
+			emit('/');
+		}
+		
+		if (c == '/') {
+			pendingSlash = true;
+		} else if (Character.isWhitespace(c)) {
+			pendingWhitespace = true;
+		} else if (c == ';' && parenDepth == 0) {
+			// Semicolons are written when the next character is known, so
+			// that the last semicolon in a block can be omitted.
+			pendingSemicolon = true;
+			pendingWhitespace = false;
+		} else if (c == '"' || c == '\'') {
+			emit(c);
+			state = State.STRING;
+			quote = c;
+		} else if (c == '(') {
+			boolean url = lastWord.toString().equalsIgnoreCase("url");
+			emit(c);
+			parenDepth++;
+			if (url) {
+				state = State.URL_START;
+			}
+		} else if (c == ')') {
+			emit(c);
+			parenDepth = Math.max(parenDepth - 1, 0);
+		} else {
+			emit(c);
+		}
+	}
+	
+	/**
+	 * Writes a character that is part of the CSS, preceded by a space or a
+	 * semicolon if those are necessary.
+	 */
+	private void emit(char c) throws IOException {
+		if (pendingSemicolon) {
+			if (c != '}') {
+				out.write(';');
+				lastChar = ';';
+			}
+			pendingSemicolon = false;
+			pendingWhitespace = false;
+		}
+		
+		if (pendingWhitespace && lastChar != 0 && needsSpace(lastChar, c)) {
+			out.write(' ');
+		}
+		
+		out.write(c);
+		lastChar = c;
+		pendingWhitespace = false;
+		
+		if (Character.isLetterOrDigit(c) || c == '-' || c == '_') {
+			if (lastWord.length() < 4) {
+				lastWord.append(c);
+			}
+		} else {
+			lastWord.setLength(0);
+		}
+	}
+	
+	private boolean needsSpace(char before, char after) {
+		if (NO_SPACE_AFTER.indexOf(before) != -1 || NO_SPACE_BEFORE.indexOf(after) != -1) {
+			return false;
+		}
+		// The "+" and "~" characters are combinators in selectors, but are
+		// also used as operators within expressions such as calc().
+		return parenDepth > 0 || (COMBINATORS.indexOf(before) == -1 && COMBINATORS.indexOf(after) == -1);
+	}
+	
+	private void processComment(char c) throws IOException {
+		if (commentStart && c == '!') {
+			if (pendingSemicolon) {
+				out.write(';');
+				pendingSemicolon = false;
+			}
+			out.write("/*!");
+			state = State.LICENSE_COMMENT;
+		} else if (commentEnd && c == '/') {
+			state = State.CODE;
+		}
+		commentEnd = c == '*';
+		commentStart = false;
+	}
+	
+	private void processLicenseComment(char c) throws IOException {
+		out.write(c);
+		if (commentEnd && c == '/') {
+			out.write('\n');
+			state = State.CODE;
+		}
+		commentEnd = c == '*';
+	}
+	
+	private void processString(char c) throws IOException {
+		out.write(c);
+		if (escape) {
+			escape = false;
+		} else if (c == '\\') {
+			escape = true;
+		} else if (c == quote) {
+			lastChar = c;
+			state = State.CODE;
+		}
+	}
+	
+	private void processURLStart(char c) throws IOException {
+		if (Character.isWhitespace(c)) {
+			return;
+		}
+		
+		if (c == '"' || c == '\'') {
+			state = State.CODE;
+		} else {
+			state = State.URL;
+		}
+		process(c);
+	}
+	
+	/**
+	 * Unquoted URLs are written as-is, since they may contain characters
+	 * that would otherwise be interpreted as CSS syntax.
+	 */
+	private void processURL(char c) throws IOException {
+		if (escape) {
+			out.write(c);
+			escape = false;
+		} else if (c == '\\') {
+			out.write(c);
+			escape = true;
+		} else if (c == ')') {
+			state = State.CODE;
+			process(c);
+		} else if (!Character.isWhitespace(c)) {
+			out.write(c);
+		}
+	}
+	
+	@Override
+	public void flush() throws IOException {
+		out.flush();
+	}
+	
+	@Override
+	public void close() throws IOException {
+		if (pendingSlash) {
+			emit('/');
+			pendingSlash = false;
+		}
+		if (pendingSemicolon) {
+			out.write(';');
+			pendingSemicolon = false;
+		}
+		super.close();
+	}
+}
@@ -0,0 +1,167 @@
+//-----------------------------------------------------------------------------
+// Colorize Gradle tasks
+// Copyright 2010-2017 Colorize
+// Apache license (http://www.colorize.nl/code_license.txt)
+//-----------------------------------------------------------------------------
+
+package nl.colorize.gradle.webapp;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+import groovy.lang.Closure;
+import groovy.lang.Reference;
+
+/**
+ * Creates a fingerprint for a Groovy closure defined in a build script, so
+ * that the closure can be used as a task input. The fingerprint is based on
+ * the closure's bytecode and on the values of the variables it captures.
+ * <p>
+ * The name of the class that defines the closure, and the location of the
+ * build script, are not included in the fingerprint. Gradle derives the names
+ * of build script classes from the location of the build script, which would
+ * otherwise prevent the fingerprint from being the same for different 
+ * checkouts of the project.
+ */
+public class ClosureFingerprint {
+	
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	
+	private ClosureFingerprint() {
+	}
+	
+	/**
+	 * Returns the fingerprint for the specified closure, or {@code null} if
+	 * no fingerprint can be created because the closure's bytecode is not
+	 * available. References to the project directory are ignored.
+	 */
+	public static String fingerprint(Closure<?> closure, File projectDir) {
+		Class<?> closureClass = closure.getClass();
+		byte[] bytecode = readBytecode(closureClass);
+		if (bytecode == null) {
+			return null;
+		}
+		
+		String className = closureClass.getName();
+		String definingClassName = className.contains("$") ?
+				className.substring(0, className.indexOf('$')) : className;
+		
+		MessageDigest digest = createDigest();
+		try {
+			digestBytecode(bytecode, digest, definingClassName.replace('.', '/'), 
+					projectDir.getAbsolutePath());
+		} catch (BufferUnderflowException | IllegalArgumentException e) {
+			return null;
+		}
+		digest.update(describeCapturedValues(closure).getBytes(UTF8));
+		return toHex(digest.digest());
+	}
+	
+	/**
+	 * Adds the class file to the digest. String constants in the class file's
+	 * constant pool are normalized before they are added, to remove the name
+	 * of the build script class and the location of the build script.
+	 * @throws IllegalArgumentException if the class file cannot be parsed.
+	 */
+	private static void digestBytecode(byte[] bytecode, MessageDigest digest, 
+			String definingClassName, String projectDirPath) {
+		ByteBuffer buffer = ByteBuffer.wrap(bytecode);
+		buffer.position(8);
+		int constantPoolCount = buffer.getShort() & 0xFFFF;
+		
+		for (int i = 1; i < constantPoolCount; i++) {
+			int tag = buffer.get() & 0xFF;
+			int start = buffer.position();
+			
+			switch (tag) {
+				case 1 :
+					byte[] value = new byte[buffer.getShort() & 0xFFFF];
+					buffer.get(value);
+					String constant = new String(value, UTF8)
+						.replace(definingClassName, "")
+						.replace(projectDirPath, "");
+					digest.update(constant.getBytes(UTF8));
+					digest.update((byte) 0);
+					continue;
+				case 3 : case 4 : buffer.position(start + 4); break;
+				case 5 : case 6 : buffer.position(start + 8); i++; break;
+				case 7 : case 8 : case 16 : case 19 : case 20 : buffer.position(start + 2); break;
+				case 9 : case 10 : case 11 : case 12 : case 17 : case 18 : buffer.position(start + 4); break;
+				case 15 : buffer.position(start + 3); break;
+				default : throw new IllegalArgumentException("Unknown constant pool tag " + tag);
+			}
+			
+			digest.update(bytecode, start - 1, buffer.position() - start + 1);
+		}
+		
+		digest.update(bytecode, buffer.position(), bytecode.length - buffer.position());
+	}
+	
+	private static byte[] readBytecode(Class<?> closureClass) {
+		String resource = "/" + closureClass.getName().replace('.', '/') + ".class";
+		try (InputStream stream = closureClass.getResourceAsStream(resource)) {
+			if (stream == null) {
+				return null;
+			}
+			
+			ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+			byte[] chunk = new byte[4096];
+			int length = 0;
+			while ((length = stream.read(chunk)) != -1) {
+				buffer.write(chunk, 0, length);
+			}
+			return buffer.toByteArray();
+		} catch (IOException e) {
+			return null;
+		}
+	}
+	
+	private static String describeCapturedValues(Closure<?> closure) {
+		Field[] fields = closure.getClass().getDeclaredFields();
+		Arrays.sort(fields, Comparator.comparing(Field::getName));
+		
+		StringBuilder description = new StringBuilder();
+		for (Field field : fields) {
+			if (!Modifier.isStatic(field.getModifiers()) && !field.isSynthetic()) {
+				try {
+					field.setAccessible(true);
+					Object value = field.get(closure);
+					if (value instanceof Reference) {
+						value = ((Reference<?>) value).get();
+					}
+					description.append(field.getName() + "=" + value + "\n");
+				} catch (ReflectiveOperationException | RuntimeException e) {
+					description.append(field.getName() + "=?\n");
+				}
+			}
+		}
+		return description.toString();
+	}
+	
+	private static MessageDigest createDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new UnsupportedOperationException("SHA-256 not supported", e);
+		}
+	}
+	
+	private static String toHex(byte[] bytes) {
+		StringBuilder hex = new StringBuilder();
+		for (byte b : bytes) {
+			hex.append(String.format("%02x", b));
+		}
+		return hex.toString();
+	}
+}
@@ -0,0 +1,351 @@
+//-----------------------------------------------------------------------------
+// Colorize Gradle tasks
+// Copyright 2010-2017 Colorize
+// Apache license (http://www.colorize.nl/code_license.txt)
+//-----------------------------------------------------------------------------
+
+package nl.colorize.gradle.webapp;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import javax.inject.Inject;
+
+import org.gradle.api.DefaultTask;
+import org.gradle.api.file.Directory;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.file.FileCollection;
+import org.gradle.api.model.ObjectFactory;
+import org.gradle.api.provider.ListProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.provider.Provider;
+import org.gradle.api.tasks.IgnoreEmptyDirectories;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.InputFiles;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.OutputDirectories;
+import org.gradle.api.tasks.OutputFiles;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
+import org.gradle.api.tasks.SkipWhenEmpty;
+import org.gradle.api.tasks.TaskAction;
+import org.gradle.process.ExecOperations;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import groovy.json.JsonParserType;
+import groovy.json.JsonSlurper;
+
+/**
+ * Compiles the TypeScript files in the web application's source directory by
+ * invoking the TypeScript compiler. The task is skipped when the source
+ * directory does not contain any TypeScript files, and is up-to-date when
+ * neither the TypeScript files nor the TypeScript configuration have changed
+ * since the previous build.
+ * <p>
+ * The compiler is invoked in incremental mode, so that it only needs to check
+ * and emit the files affected by a change. The incremental build information
+ * is stored in the project's build directory. When multiple TypeScript
+ * configuration files are used, they are compiled in parallel.
+ * <p>
+ * The outputs of this task are determined from the "outDir" and "outFile"
+ * compiler options in the TypeScript configuration. Files emitted next to
+ * the TypeScript files, which happens when neither option is used, are not
+ * tracked as outputs.
+ * <p>
+ * Settings are exposed as task properties, which the plugin connects to the
+ * "webApp" extension, so that the task does not access the project or the
+ * extension while it is running.
+ */
+public abstract class CompileTypeScriptTask extends DefaultTask {
+	
+	private ProjectPaths paths;
+	private Provider<Directory> buildInfoDir;
+	
+	private static final Logger LOGGER = LoggerFactory.getLogger(CompileTypeScriptTask.class);
+	
+	public CompileTypeScriptTask() {
+		paths = new ProjectPaths(getProject());
+		buildInfoDir = getProject().getLayout().getBuildDirectory().dir("tsbuildinfo");
+	}
+	
+	@Inject
+	protected abstract ExecOperations getExecOperations();
+	
+	@Inject
+	protected abstract ObjectFactory getObjectFactory();
+	
+	@Internal
+	public abstract DirectoryProperty getSourceDir();
+	
+	@Internal
+	public abstract ListProperty<String> getExcludes();
+	
+	@Internal
+	public abstract Property<String> getCharset();
+	
+	@Internal
+	public abstract Property<Integer> getParallelism();
+	
+	/**
+	 * The configuration files themselves are tracked using 
+	 * {@link #getConfigFiles()}.
+	 */
+	@Internal
+	public abstract ListProperty<String> getTypeScriptConfigs();
+	
+	@Input
+	public abstract Property<String> getCompiler();
+	
+	@InputFiles
+	@SkipWhenEmpty
+	@IgnoreEmptyDirectories
+	@PathSensitive(PathSensitivity.RELATIVE)
+	public FileCollection getTypeScriptFiles() {
+		return createConfig().getWebAppFileTree(getObjectFactory(), paths).matching(pattern -> {
+			pattern.include("**/*.ts", "**/*.tsx");
+			pattern.exclude("**/*.d.ts");
+		});
+	}
+	
+	@InputFiles
+	@IgnoreEmptyDirectories
+	@PathSensitive(PathSensitivity.RELATIVE)
+	public FileCollection getDeclarationFiles() {
+		return createConfig().getWebAppFileTree(getObjectFactory(), paths).matching(pattern -> 
+				pattern.include("**/*.d.ts"));
+	}
+	
+	@InputFiles
+	@PathSensitive(PathSensitivity.RELATIVE)
+	public FileCollection getConfigFiles() {
+		return getObjectFactory().fileCollection().from(findConfigFiles());
+	}
+	
+	@OutputDirectories
+	public FileCollection getOutputDirs() {
+		List<File> outputDirs = new ArrayList<>();
+		outputDirs.add(getBuildInfoDir());
+		for (File configFile : findConfigFiles()) {
+			File outDir = getCompilerOption(configFile, "outDir");
+			if (outDir != null) {
+				outputDirs.add(outDir);
+			}
+		}
+		return getObjectFactory().fileCollection().from(outputDirs);
+	}
+	
+	@OutputFiles
+	public FileCollection getOutputFiles() {
+		List<File> outputFiles = new ArrayList<>();
+		for (File configFile : findConfigFiles()) {
+			File outFile = getCompilerOption(configFile, "outFile");
+			if (outFile != null) {
+				outputFiles.add(outFile);
+			}
+		}
+		return getObjectFactory().fileCollection().from(outputFiles);
+	}
+	
+	@Internal
+	protected File getBuildInfoDir() {
+		return buildInfoDir.get().getAsFile();
+	}
+	
+	/**
+	 * Creates the configuration that is used while the task is running from
+	 * the task's properties. This only includes the settings that are needed
+	 * to compile the TypeScript files.
+	 */
+	protected WebAppExtension createConfig() {
+		WebAppExtension config = getObjectFactory().newInstance(WebAppExtension.class);
+		config.setSourceDir(getSourceDir().get().getAsFile().getAbsolutePath());
+		config.setExcludes(getExcludes().get());
+		config.setCharset(getCharset().get());
+		config.setParallelism(getParallelism().get());
+		config.setTypeScriptConfigs(getTypeScriptConfigs().get());
+		config.setTypeScriptCompiler(getCompiler().get());
+		return config;
+	}
+	
+	@TaskAction
+	public void run() {
+		compile();
+	}
+	
+	/**
+	 * Invokes the TypeScript compiler for every TypeScript configuration file.
+	 * If none of the configured files exist, the compiler is invoked without
+	 * specifying a configuration, in which case it will search for one itself.
+	 */
+	protected void compile() {
+		WebAppExtension config = createConfig();
+		File projectDir = paths.getProjectDir();
+		Map<String, Runnable> workItems = new LinkedHashMap<>();
+		
+		for (File configFile : findConfigFiles()) {
+			workItems.put(config.toRelativePath(configFile, projectDir),
+					() -> runCompiler(configFile, projectDir, config));
+		}
+		
+		if (workItems.isEmpty()) {
+			workItems.put(config.getTypeScriptCompiler(), () -> runCompiler(null, projectDir, config));
+		}
+		
+		ParallelExecutor.run(workItems, config.getParallelism(), "compile", "TypeScript configuration(s)");
+	}
+	
+	private void runCompiler(File configFile, File projectDir, WebAppExtension config) {
+		List<String> commandLine = new ArrayList<>();
+		commandLine.add(config.getTypeScriptCompiler());
+		if (configFile != null) {
+			commandLine.add("--project");
+			commandLine.add(configFile.getAbsolutePath());
+		}
+		commandLine.add("--incremental");
+		commandLine.add("--tsBuildInfoFile");
+		commandLine.add(getBuildInfoFile(configFile, projectDir, config).getAbsolutePath());
+		
+		LOGGER.debug("Compiling TypeScript using " + commandLine);
+		getExecOperations().exec(spec -> {
+			spec.setWorkingDir(projectDir);
+			spec.commandLine(commandLine);
+		});
+	}
+	
+	private File getBuildInfoFile(File configFile, File projectDir, WebAppExtension config) {
+		String name = "tsconfig";
+		if (configFile != null) {
+			name = config.toRelativePath(configFile, projectDir).replaceAll("[/\\\\.]", "_");
+		}
+		return new File(getBuildInfoDir(), name + ".tsbuildinfo");
+	}
+	
+	private List<File> findConfigFiles() {
+		List<File> configFiles = new ArrayList<>();
+		for (String path : getTypeScriptConfigs().get()) {
+			File configFile = paths.resolve(path);
+			if (configFile.exists()) {
+				configFiles.add(configFile);
+			}
+		}
+		return configFiles;
+	}
+	
+	/**
+	 * Returns true if the specified file is compiled using one of the 
+	 * TypeScript configuration files. This uses the "files" and "include"
+	 * properties in the configuration, or includes all files in the directory
+	 * containing the configuration file when neither property is used. The
+	 * "exclude" property is not taken into account, so this might also return
+	 * true for files that are not compiled.
+	 */
+	protected boolean isCompiled(File file) {
+		List<File> configFiles = findConfigFiles();
+		if (configFiles.isEmpty()) {
+			// The compiler will search for a configuration file itself.
+			return true;
+		}
+		
+		for (File configFile : configFiles) {
+			Map<String, Object> json = parseConfig(configFile);
+			String relativePath = configFile.getParentFile().toPath().relativize(file.toPath()).toString()
+					.replace(File.separatorChar, '/');
+			
+			if (!json.containsKey("files") && !json.containsKey("include")) {
+				if (!relativePath.startsWith("../")) {
+					return true;
+				}
+				continue;
+			}
+			
+			for (Object path : toList(json.get("files"))) {
+				if (normalizePattern(path.toString()).equals(relativePath)) {
+					return true;
+				}
+			}
+			
+			for (Object pattern : toList(json.get("include"))) {
+				if (toRegex(normalizePattern(pattern.toString())).matcher(relativePath).matches()) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+	
+	private List<?> toList(Object value) {
+		return value instanceof List ? (List<?>) value : Collections.emptyList();
+	}
+	
+	private String normalizePattern(String pattern) {
+		String normalized = pattern.replace('\\', '/');
+		while (normalized.startsWith("./")) {
+			normalized = normalized.substring(2);
+		}
+		// The last part of the pattern refers to a directory if it does not
+		// contain a file extension or wildcard.
+		String lastPart = normalized.substring(normalized.lastIndexOf('/') + 1);
+		if (!lastPart.contains(".") && !lastPart.contains("*") && !lastPart.contains("?")) {
+			normalized = normalized + (normalized.isEmpty() || normalized.endsWith("/") ? "" : "/") + "**/*";
+		}
+		return normalized;
+	}
+	
+	/**
+	 * Converts a TypeScript "include" pattern to a regular expression. In these
+	 * patterns, a "**" directory matches any number of nested directories, "*"
+	 * matches zero or more characters within a directory name or file name, and
+	 * "?" matches a single character.
+	 */
+	private Pattern toRegex(String pattern) {
+		StringBuilder regex = new StringBuilder();
+		for (int i = 0; i < pattern.length(); i++) {
+			if (pattern.startsWith("**/", i)) {
+				regex.append("(.*/)?");
+				i += 2;
+			} else if (pattern.charAt(i) == '*') {
+				regex.append("[^/]*");
+			} else if (pattern.charAt(i) == '?') {
+				regex.append("[^/]");
+			} else {
+				regex.append(Pattern.quote(String.valueOf(pattern.charAt(i))));
+			}
+		}
+		return Pattern.compile(regex.toString());
+	}
+	
+	/**
+	 * Returns the value of a compiler option that refers to a file, resolved
+	 * relative to the directory containing the configuration file. Returns
+	 * {@code null} if the configuration file does not specify the option.
+	 */
+	@SuppressWarnings("unchecked")
+	protected File getCompilerOption(File configFile, String option) {
+		Object compilerOptions = parseConfig(configFile).get("compilerOptions");
+		if (!(compilerOptions instanceof Map)) {
+			return null;
+		}
+		
+		Object value = ((Map<String, Object>) compilerOptions).get(option);
+		return value == null ? null : new File(configFile.getParentFile(), value.toString());
+	}
+	
+	@SuppressWarnings("unchecked")
+	private Map<String, Object> parseConfig(File configFile) {
+		try {
+			// TypeScript configuration files can contain comments and trailing
+			// commas, which are supported by the lax parser.
+			JsonSlurper parser = new JsonSlurper().setType(JsonParserType.LAX);
+			Object json = parser.parse(configFile, getCharset().get());
+			return json instanceof Map ? (Map<String, Object>) json : Collections.emptyMap();
+		} catch (RuntimeException e) {
+			throw new RuntimeException("Cannot parse TypeScript configuration " + configFile.getAbsolutePath(), e);
+		}
+	}
+}
@@ -6,67 +6,481 @@
 
 package nl.colorize.gradle.webapp;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
-import java.io.PrintWriter;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.Charset;
 import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
 
 import groovy.lang.Closure;
 
 /**
- * Concatenates a number of source files into a single output file.
+ * Concatenates a number of source files into a single output file. Files are
+ * processed in a streaming fashion, so that only a small buffer is kept in
+ * memory regardless of the size of the files. Line separators are normalized
+ * to the platform line separator, and an empty line is added after each file.
+ * <p>
+ * If no filter is used, and line separators can be detected without decoding
+ * the file contents, the files are copied byte-for-byte. Otherwise, the files
+ * are read line-by-line so that the filter can be applied to each line. Large
+ * files are split into chunks of lines that are filtered in parallel, unless
+ * the filter is not thread-safe.
+ * <p>
+ * Large files, such as JavaScript libraries, are memory-mapped rather than
+ * read into a buffer. If the filter cannot change a large file, which can be
+ * determined without decoding it when the filter only consists of literal 
+ * rules, the file is also copied byte-for-byte. This avoids creating a 
+ * {@code String} for every line in the file.
+ * <p>
+ * The combined file can optionally be minified. Minification is applied while
+ * the combined file is being written, after the filter has been applied.
+ * <p>
+ * When content hash naming is enabled, a hash of the combined file is
+ * calculated while it is being written.
  */
 public class FileConcatenator {
 	
 	private WebAppExtension config;
+	private long mappedFileThreshold;
+	private MessageDigest digest;
+	private String contentHash;
+	
+	private static final int BUFFER_SIZE = 65536;
+	private static final long MAPPED_FILE_THRESHOLD = 256 * 1024;
+	private static final long PARALLEL_FILTER_THRESHOLD = 1024 * 1024;
+	private static final int CHUNK_SIZE = 256 * 1024;
+	private static final byte CR = '\r';
+	private static final byte LF = '\n';
 	
 	public FileConcatenator(WebAppExtension config) {
+		this(config, MAPPED_FILE_THRESHOLD);
+	}
+	
+	/**
+	 * Creates a {@code FileConcatenator} that memory-maps files larger than
+	 * the specified size. This is used to compare the memory-mapped and 
+	 * line-by-line strategies.
+	 */
+	protected FileConcatenator(WebAppExtension config, long mappedFileThreshold) {
 		this.config = config;
+		this.mappedFileThreshold = mappedFileThreshold;
 	}
-
+	
 	public void concatenate(List<File> sourceFiles, File outputFile, Closure<String> filter) {
+		concatenate(sourceFiles, outputFile, filter, null);
+	}
+	
+	public void concatenate(List<File> sourceFiles, File outputFile, Closure<String> filter,
+			Function<Writer, Writer> minifier) {
+		concatenate(sourceFiles, outputFile, filter == null ? null : new RewriteFilter(filter), minifier);
+	}
+	
+	/**
+	 * Concatenates the source files into the output file. If a minifier is
+	 * provided, it will be used to wrap the writer for the combined file.
+	 */
+	public void concatenate(List<File> sourceFiles, File outputFile, RewriteFilter filter,
+			Function<Writer, Writer> minifier) {
+		if (filter != null && filter.isEmpty()) {
+			filter = null;
+		}
+		
+		RewriteFilter sharedFilter = filter;
+		concatenatePerFile(sourceFiles, outputFile, filter == null ? null : file -> sharedFilter, minifier);
+	}
+	
+	/**
+	 * Concatenates the source files into the output file, using a different
+	 * filter for each source file. This is needed for filters that depend on
+	 * the location of the source file. The function may return {@code null}
+	 * for files that do not need to be filtered.
+	 */
+	public void concatenatePerFile(List<File> sourceFiles, File outputFile, 
+			Function<File, RewriteFilter> filters, Function<Writer, Writer> minifier) {
 		if (!sourceFiles.isEmpty()) {
-			List<String> contents = readSourceFileContents(sourceFiles);
-			contents = rewriteContents(contents, filter);
-			
 			config.prepareOutputFile(outputFile);
+			digest = config.getContentHashNaming() ? createDigest() : null;
+			contentHash = null;
 			
-			try (PrintWriter writer = new PrintWriter(outputFile, config.getCharset())) {
-				for (String line : contents) {
-					writer.println(line);
+			try {
+				if (filters == null && minifier == null && isByteCompatible(config.getCharsetObject())) {
+					concatenateBytes(sourceFiles, outputFile);
+				} else {
+					concatenateLines(sourceFiles, outputFile, filters, minifier);
 				}
 			} catch (IOException e) {
 				throw new RuntimeException("Cannot write to combined file", e);
 			}
+			
+			if (digest != null) {
+				contentHash = toHex(digest.digest()).substring(0, WebAppExtension.CONTENT_HASH_LENGTH);
+			}
 		}
 	}
 	
-	private List<String> readSourceFileContents(List<File> sourceFiles) {
-		List<String> combinedContents = new ArrayList<>();
-		for (File sourceFile : sourceFiles) {
-			try {
-				List<String> fileContents = Files.readAllLines(sourceFile.toPath(), 
-						config.getCharsetObject());
-				combinedContents.addAll(fileContents);
+	/**
+	 * Returns the hash of the contents of the most recently created combined
+	 * file. Returns {@code null} if content hash naming is not enabled, or if
+	 * no combined file was created.
+	 */
+	public String getContentHash() {
+		return contentHash;
+	}
+	
+	private MessageDigest createDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new UnsupportedOperationException("SHA-256 not supported", e);
+		}
+	}
+	
+	private String toHex(byte[] bytes) {
+		StringBuilder hex = new StringBuilder();
+		for (byte b : bytes) {
+			hex.append(String.format("%02x", b));
+		}
+		return hex.toString();
+	}
+	
+	/**
+	 * Returns true if line separators can be detected in files using the
+	 * specified character encoding without decoding the file contents. This
+	 * is the case for encodings where the CR and LF characters are encoded
+	 * as the corresponding single bytes.
+	 */
+	private boolean isByteCompatible(Charset charset) {
+		return Arrays.equals("\r\n".getBytes(charset), new byte[] { CR, LF }) &&
+				Arrays.equals(System.lineSeparator().getBytes(charset),
+				System.lineSeparator().getBytes(Charset.forName("US-ASCII")));
+	}
+	
+	private void concatenateLines(List<File> sourceFiles, File outputFile,
+			Function<File, RewriteFilter> filters, Function<Writer, Writer> minifier) throws IOException {
+		Charset charset = config.getCharsetObject();
+		String lineSeparator = System.lineSeparator();
+		boolean byteCompatible = minifier == null && isByteCompatible(charset);
+		
+		FileChannel output = FileChannel.open(outputFile.toPath(),
+				StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+		OutputStream stream = Channels.newOutputStream(output);
+		if (digest != null) {
+			stream = new DigestOutputStream(stream, digest);
+		}
+		
+		Writer writer = new BufferedWriter(new OutputStreamWriter(stream, charset));
+		if (minifier != null) {
+			writer = minifier.apply(writer);
+		}
+		
+		ExecutorService executor = null;
+		ByteBuffer outputBuffer = null;
+		
+		try {
+			for (File sourceFile : sourceFiles) {
+				RewriteFilter filter = filters == null ? null : filters.apply(sourceFile);
+				if (filter != null && filter.isEmpty()) {
+					filter = null;
+				}
+				
+				if (byteCompatible && sourceFile.length() >= mappedFileThreshold) {
+					if (outputBuffer == null) {
+						outputBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+					}
+					// Everything written so far needs to be in the output
+					// file before bytes can be written to it directly.
+					writer.flush();
+					if (copyUnfiltered(sourceFile, filter, output, outputBuffer)) {
+						writer.write(lineSeparator);
+						continue;
+					}
+				}
+				
+				try (BufferedReader reader = Files.newBufferedReader(sourceFile.toPath(), charset)) {
+					if (filter != null && filter.isThreadSafe() && config.getParallelism() > 1 &&
+							sourceFile.length() >= PARALLEL_FILTER_THRESHOLD) {
+						if (executor == null) {
+							executor = Executors.newFixedThreadPool(config.getParallelism());
+						}
+						filterInParallel(reader, writer, filter, executor);
+					} else {
+						String line = null;
+						while ((line = reader.readLine()) != null) {
+							writer.write(filter == null ? line : filter.apply(line));
+							writer.write(lineSeparator);
+						}
+					}
+				} catch (IOException e) {
+					throw new RuntimeException("Cannot read file " + sourceFile.getAbsolutePath(), e);
+				}
 				// Add an empty line between files in the combined file.
-				combinedContents.add("");
-			} catch (IOException e) {
-				throw new RuntimeException("Cannot read file " + sourceFile.getAbsolutePath(), e);
+				writer.write(lineSeparator);
+			}
+		} finally {
+			if (executor != null) {
+				executor.shutdownNow();
 			}
+			writer.close();
 		}
-		return combinedContents;
 	}
 	
-	private List<String> rewriteContents(List<String> contents, Closure<String> filter) {
-		if (filter == null) {
-			return contents;
+	/**
+	 * Splits the file into chunks of lines that are filtered in parallel. The
+	 * filtered chunks are written in their original order. The number of 
+	 * chunks that are in progress is limited, so that the memory usage does 
+	 * not depend on the size of the file.
+	 */
+	private void filterInParallel(BufferedReader reader, Writer writer, RewriteFilter filter,
+			ExecutorService executor) throws IOException {
+		Deque<Future<String>> pending = new ArrayDeque<>();
+		int maxPending = config.getParallelism() * 2;
+		List<String> chunk = new ArrayList<>();
+		int chunkSize = 0;
+		
+		String line = null;
+		while ((line = reader.readLine()) != null) {
+			chunk.add(line);
+			chunkSize += line.length();
+			
+			if (chunkSize >= CHUNK_SIZE) {
+				pending.add(submitChunk(chunk, filter, executor));
+				chunk = new ArrayList<>();
+				chunkSize = 0;
+				if (pending.size() >= maxPending) {
+					writer.write(await(pending.poll()));
+				}
+			}
 		}
 		
-		return contents.stream()
-			.map(line -> filter.call(line))
-			.collect(Collectors.toList());
+		if (!chunk.isEmpty()) {
+			pending.add(submitChunk(chunk, filter, executor));
+		}
+		
+		while (!pending.isEmpty()) {
+			writer.write(await(pending.poll()));
+		}
+	}
+	
+	private Future<String> submitChunk(List<String> lines, RewriteFilter filter, ExecutorService executor) {
+		String lineSeparator = System.lineSeparator();
+		return executor.submit(() -> {
+			StringBuilder result = new StringBuilder(CHUNK_SIZE + lines.size() * lineSeparator.length());
+			for (String line : lines) {
+				result.append(filter.apply(line));
+				result.append(lineSeparator);
+			}
+			return result.toString();
+		});
+	}
+	
+	private String await(Future<String> chunk) throws IOException {
+		try {
+			return chunk.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while filtering file", e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException("Cannot filter file: " + e.getCause().getMessage(), e.getCause());
+		}
+	}
+	
+	/**
+	 * Copies a large file to the output without decoding it, provided that 
+	 * applying the filter would not change its contents. Returns false if
+	 * the file needs to be decoded instead.
+	 */
+	private boolean copyUnfiltered(File sourceFile, RewriteFilter filter, FileChannel output, 
+			ByteBuffer outputBuffer) throws IOException {
+		try (FileChannel input = FileChannel.open(sourceFile.toPath(), StandardOpenOption.READ)) {
+			if (input.size() > Integer.MAX_VALUE) {
+				return false;
+			}
+			
+			ByteBuffer contents = input.map(MapMode.READ_ONLY, 0, input.size());
+			if (filter != null && filter.mayChange(contents, config.getCharsetObject())) {
+				return false;
+			}
+			
+			LineNormalizer normalizer = new LineNormalizer(output, outputBuffer);
+			normalizer.write(contents);
+			normalizer.finish();
+			flush(output, outputBuffer);
+			return true;
+		} catch (IOException e) {
+			throw new RuntimeException("Cannot read file " + sourceFile.getAbsolutePath(), e);
+		}
+	}
+	
+	private void concatenateBytes(List<File> sourceFiles, File outputFile) throws IOException {
+		ByteBuffer inputBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+		ByteBuffer outputBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+		
+		try (FileChannel output = FileChannel.open(outputFile.toPath(),
+				StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+			for (File sourceFile : sourceFiles) {
+				try (FileChannel input = FileChannel.open(sourceFile.toPath(), StandardOpenOption.READ)) {
+					copyNormalized(input, new LineNormalizer(output, outputBuffer), inputBuffer);
+				} catch (IOException e) {
+					throw new RuntimeException("Cannot read file " + sourceFile.getAbsolutePath(), e);
+				}
+				// Add an empty line between files in the combined file.
+				put(getLineSeparatorBytes(), output, outputBuffer);
+			}
+			flush(output, outputBuffer);
+		}
+	}
+	
+	/**
+	 * Copies the contents of the input channel to the output channel, while
+	 * normalizing all line separators. Large files are memory-mapped, smaller
+	 * files are read using the input buffer.
+	 */
+	private void copyNormalized(FileChannel input, LineNormalizer normalizer, ByteBuffer inputBuffer) 
+			throws IOException {
+		if (input.size() >= mappedFileThreshold && input.size() <= Integer.MAX_VALUE) {
+			normalizer.write(input.map(MapMode.READ_ONLY, 0, input.size()));
+		} else {
+			inputBuffer.clear();
+			while (input.read(inputBuffer) != -1) {
+				inputBuffer.flip();
+				normalizer.write(inputBuffer);
+				inputBuffer.clear();
+			}
+		}
+		normalizer.finish();
+	}
+	
+	private static byte[] getLineSeparatorBytes() {
+		return System.lineSeparator().getBytes(Charset.forName("US-ASCII"));
+	}
+	
+	private boolean contains(ByteBuffer buffer, byte value) {
+		for (int i = buffer.position(); i < buffer.limit(); i++) {
+			if (buffer.get(i) == value) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	private void put(byte value, FileChannel output, ByteBuffer outputBuffer) throws IOException {
+		if (!outputBuffer.hasRemaining()) {
+			flush(output, outputBuffer);
+		}
+		outputBuffer.put(value);
+	}
+	
+	private void put(byte[] values, FileChannel output, ByteBuffer outputBuffer) throws IOException {
+		for (byte value : values) {
+			put(value, output, outputBuffer);
+		}
+	}
+	
+	private void flush(FileChannel output, ByteBuffer outputBuffer) throws IOException {
+		outputBuffer.flip();
+		if (digest != null) {
+			digest.update(outputBuffer.duplicate());
+		}
+		while (outputBuffer.hasRemaining()) {
+			output.write(outputBuffer);
+		}
+		outputBuffer.clear();
+	}
+	
+	/**
+	 * Writes blocks of bytes to the output channel, while normalizing all line
+	 * separators. Blocks that do not contain anything that needs to be 
+	 * normalized are written to the output as-is. CRLF sequences that are
+	 * split across two blocks are also normalized.
+	 */
+	private class LineNormalizer {
+		
+		private FileChannel output;
+		private ByteBuffer outputBuffer;
+		private byte[] lineSeparator;
+		private boolean lfOnly;
+		private boolean pendingCR;
+		private byte last;
+		
+		public LineNormalizer(FileChannel output, ByteBuffer outputBuffer) {
+			this.output = output;
+			this.outputBuffer = outputBuffer;
+			this.lineSeparator = getLineSeparatorBytes();
+			this.lfOnly = lineSeparator.length == 1 && lineSeparator[0] == LF;
+			this.pendingCR = false;
+			this.last = LF;
+		}
+		
+		public void write(ByteBuffer block) throws IOException {
+			if (!block.hasRemaining()) {
+				return;
+			}
+			
+			if (pendingCR && block.get(block.position()) == LF) {
+				block.get();
+			}
+			pendingCR = false;
+			
+			if (lfOnly && !contains(block, CR)) {
+				if (block.hasRemaining()) {
+					last = block.get(block.limit() - 1);
+					flush(output, outputBuffer);
+					if (digest != null) {
+						digest.update(block.duplicate());
+					}
+					while (block.hasRemaining()) {
+						output.write(block);
+					}
+				}
+			} else {
+				while (block.hasRemaining()) {
+					byte b = block.get();
+					if (b == CR) {
+						put(lineSeparator, output, outputBuffer);
+						pendingCR = !block.hasRemaining();
+						if (block.hasRemaining() && block.get(block.position()) == LF) {
+							block.get();
+						}
+					} else if (b == LF) {
+						put(lineSeparator, output, outputBuffer);
+					} else {
+						put(b, output, outputBuffer);
+					}
+					last = b;
+				}
+			}
+		}
+		
+		/**
+		 * Files that do not end with a line separator are still terminated
+		 * by one in the combined file.
+		 */
+		public void finish() throws IOException {
+			if (last != LF && last != CR) {
+				put(lineSeparator, output, outputBuffer);
+			}
+		}
 	}
 }
@@ -0,0 +1,158 @@
+//-----------------------------------------------------------------------------
+// Colorize Gradle tasks
+// Copyright 2010-2017 Colorize
+// Apache license (http://www.colorize.nl/code_license.txt)
+//-----------------------------------------------------------------------------
+
+package nl.colorize.gradle.webapp;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.CopyOption;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Creates files in an output directory that are identical to a source file.
+ * Depending on the link strategy, the output file is either a copy, a hard
+ * link, or a reflink (a copy-on-write clone) of the source file. If the file
+ * system does not support the link strategy, files are copied instead.
+ * <p>
+ * Links should only be used for files that are not modified during packaging.
+ * Since hard links share their contents with the source file, tools that
+ * modify files in the output directory in-place would also modify the source
+ * file. Files produced by the build are therefore always copied using
+ * {@link #copy(Path, Path, CopyOption...)}.
+ * <p>
+ * Instances of this class are intended to be used for a single output
+ * directory. Once linking fails for one file, all subsequent files are copied.
+ */
+public class FileLinker {
+	
+	private String linkStrategy;
+	private volatile boolean fallbackToCopy;
+	
+	public static final String COPY = "copy";
+	public static final String HARDLINK = "hardlink";
+	public static final String REFLINK = "reflink";
+	public static final List<String> LINK_STRATEGIES = Arrays.asList(COPY, HARDLINK, REFLINK);
+	
+	/**
+	 * Creating a reflink requires starting a separate process, which is more
+	 * expensive than simply copying small files.
+	 */
+	private static final long REFLINK_MIN_SIZE = 65536L;
+	
+	private static final Logger LOGGER = LoggerFactory.getLogger(FileLinker.class);
+	
+	public FileLinker(String linkStrategy) {
+		if (!LINK_STRATEGIES.contains(linkStrategy)) {
+			throw new IllegalArgumentException("Invalid link strategy: " + linkStrategy);
+		}
+		this.linkStrategy = linkStrategy;
+	}
+	
+	/**
+	 * Creates the output file using the link strategy. Returns true if the
+	 * output file is a link, or false if the file was copied using the
+	 * specified copy options. Existing output files are replaced.
+	 */
+	public boolean link(Path sourceFile, Path outputFile, CopyOption... options) throws IOException {
+		if (!fallbackToCopy) {
+			if (linkStrategy.equals(HARDLINK) && createHardLink(sourceFile, outputFile)) {
+				return true;
+			}
+			
+			if (linkStrategy.equals(REFLINK) && Files.size(sourceFile) >= REFLINK_MIN_SIZE &&
+					createReflink(sourceFile, outputFile)) {
+				return true;
+			}
+		}
+		
+		copy(sourceFile, outputFile, options);
+		return false;
+	}
+	
+	/**
+	 * Copies the source file to the output file, regardless of the link
+	 * strategy. Existing output files are replaced rather than overwritten,
+	 * so that the contents of files they are linked to are not affected.
+	 */
+	public void copy(Path sourceFile, Path outputFile, CopyOption... options) throws IOException {
+		Files.deleteIfExists(outputFile);
+		Files.copy(sourceFile, outputFile, options);
+	}
+	
+	private boolean createHardLink(Path sourceFile, Path outputFile) throws IOException {
+		try {
+			Files.deleteIfExists(outputFile);
+			Files.createLink(outputFile, sourceFile);
+			return true;
+		} catch (IOException | UnsupportedOperationException e) {
+			// Hard links are not supported across file systems, or by some
+			// file systems (e.g. FAT).
+			disableLinks(outputFile, e.getMessage());
+			return false;
+		}
+	}
+	
+	/**
+	 * Creates a reflink using the {@code cp} command, since Java does not
+	 * provide an API for copy-on-write clones.
+	 */
+	private boolean createReflink(Path sourceFile, Path outputFile) throws IOException {
+		List<String> command = getReflinkCommand(sourceFile, outputFile);
+		if (command == null) {
+			disableLinks(outputFile, "not supported on " + System.getProperty("os.name"));
+			return false;
+		}
+		
+		Files.deleteIfExists(outputFile);
+		try {
+			Process process = new ProcessBuilder(command)
+				.redirectErrorStream(true)
+				.redirectOutput(new File("/dev/null"))
+				.start();
+			if (process.waitFor() == 0) {
+				return true;
+			}
+			disableLinks(outputFile, "cp exited with status " + process.exitValue());
+		} catch (IOException e) {
+			disableLinks(outputFile, e.getMessage());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while creating reflink", e);
+		}
+		
+		Files.deleteIfExists(outputFile);
+		return false;
+	}
+	
+	private List<String> getReflinkCommand(Path sourceFile, Path outputFile) {
+		String os = System.getProperty("os.name").toLowerCase(Locale.ROOT);
+		String source = sourceFile.toAbsolutePath().toString();
+		String output = outputFile.toAbsolutePath().toString();
+		
+		if (os.contains("linux")) {
+			return Arrays.asList("cp", "--reflink=always", "--preserve=timestamps", source, output);
+		} else if (os.contains("mac")) {
+			return Arrays.asList("cp", "-c", "-p", source, output);
+		} else {
+			return null;
+		}
+	}
+	
+	private void disableLinks(Path outputFile, String reason) {
+		if (!fallbackToCopy) {
+			fallbackToCopy = true;
+			LOGGER.info("Cannot create " + linkStrategy + " for " + outputFile.toAbsolutePath() +
+					" (" + reason + "), copying files instead");
+		}
+	}
+}
@@ -0,0 +1,135 @@
+//-----------------------------------------------------------------------------
+// Colorize Gradle tasks
+// Copyright 2010-2017 Colorize
+// Apache license (http://www.colorize.nl/code_license.txt)
+//-----------------------------------------------------------------------------
+
+package nl.colorize.gradle.webapp;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Locale;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Creates precompressed gzip versions of files in the packaged web application,
+ * so that web servers can serve those instead of compressing the files for
+ * every request. The compressed file is created next to the original file,
+ * with the ".gz" extension appended to the file name.
+ * <p>
+ * Compressed files are only kept if they are actually smaller than the
+ * original file. The last modified time of the compressed file is set to that
+ * of the original file, which is used to detect whether the compressed file
+ * is still up-to-date.
+ */
+public class GzipCompressor {
+	
+	private WebAppExtension config;
+	
+	public static final String SIDECAR_EXTENSION = ".gz";
+	private static final int BUFFER_SIZE = 65536;
+	
+	public GzipCompressor(WebAppExtension config) {
+		this.config = config;
+	}
+	
+	/**
+	 * Returns true if files with the specified name should be compressed,
+	 * based on their file extension.
+	 */
+	public boolean isCompressible(File file) {
+		String name = file.getName().toLowerCase(Locale.ROOT);
+		int extIndex = name.lastIndexOf('.');
+		return extIndex != -1 && config.getCompressExtensions().contains(name.substring(extIndex + 1));
+	}
+	
+	public File getSidecarFile(File file) {
+		return new File(file.getParentFile(), file.getName() + SIDECAR_EXTENSION);
+	}
+	
+	/**
+	 * Creates the compressed version of the specified file. If an up-to-date
+	 * compressed version already exists the file is not compressed again.
+	 * Returns true if a compressed version of the file exists afterwards, or
+	 * false if the file is too small or would not be smaller when compressed.
+	 */
+	public boolean compress(File file) {
+		return compress(file, getSidecarFile(file));
+	}
+	
+	/**
+	 * Creates the compressed version of the specified file at another location,
+	 * which is used for files that are not copied to the build directory.
+	 */
+	public boolean compress(File file, File sidecarFile) {
+		try {
+			if (!file.exists() || file.length() < config.getCompressMinSize()) {
+				Files.deleteIfExists(sidecarFile.toPath());
+				return false;
+			}
+			
+			FileTime lastModified = Files.getLastModifiedTime(file.toPath());
+			if (sidecarFile.exists() && Files.getLastModifiedTime(sidecarFile.toPath()).equals(lastModified)) {
+				return true;
+			}
+			
+			sidecarFile.getParentFile().mkdirs();
+			File tempFile = new File(sidecarFile.getParentFile(), sidecarFile.getName() + ".tmp");
+			writeCompressed(file, tempFile);
+			
+			if (tempFile.length() >= file.length()) {
+				Files.delete(tempFile.toPath());
+				Files.deleteIfExists(sidecarFile.toPath());
+				return false;
+			}
+			
+			Files.move(tempFile.toPath(), sidecarFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			Files.setLastModifiedTime(sidecarFile.toPath(), lastModified);
+			return true;
+		} catch (IOException e) {
+			throw new RuntimeException("Cannot create compressed file " + sidecarFile.getAbsolutePath(), e);
+		}
+	}
+	
+	private void writeCompressed(File file, File outputFile) throws IOException {
+		byte[] buffer = new byte[BUFFER_SIZE];
+		
+		try (InputStream input = Files.newInputStream(file.toPath());
+				OutputStream output = new MaxCompressionOutputStream(Files.newOutputStream(outputFile.toPath()))) {
+			int length = 0;
+			while ((length = input.read(buffer)) != -1) {
+				output.write(buffer, 0, length);
+			}
+		}
+	}
+	
+	/**
+	 * Deletes the compressed version of the specified file, if it exists.
+	 */
+	public void deleteSidecar(File file) {
+		File sidecarFile = getSidecarFile(file);
+		try {
+			Files.deleteIfExists(sidecarFile.toPath());
+		} catch (IOException e) {
+			throw new RuntimeException("Cannot delete compressed file " + sidecarFile.getAbsolutePath(), e);
+		}
+	}
+	
+	/**
+	 * Gzip output stream that uses the highest compression level, since files
+	 * are compressed once during the build but downloaded many times.
+	 */
+	private static class MaxCompressionOutputStream extends GZIPOutputStream {
+		
+		public MaxCompressionOutputStream(OutputStream out) throws IOException {
+			super(out, BUFFER_SIZE);
+			def.setLevel(Deflater.BEST_COMPRESSION);
+		}
+	}
+}
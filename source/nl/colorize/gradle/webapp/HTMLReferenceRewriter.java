@@ -0,0 +1,364 @@
+//-----------------------------------------------------------------------------
+// Colorize Gradle tasks
+// Copyright 2010-2017 Colorize
+// Apache license (http://www.colorize.nl/code_license.txt)
+//-----------------------------------------------------------------------------
+
+package nl.colorize.gradle.webapp;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Rewrites references to JavaScript and CSS files in HTML files, so that they
+ * refer to the combined files instead. The HTML is scanned once for script and
+ * stylesheet tags, tags can span multiple lines and multiple tags can appear
+ * on the same line. Only the first reference to each combined file is kept,
+ * later references to files that are part of the same combined file are
+ * removed.
+ * <p>
+ * References are matched based on their path, relative to the location of
+ * the HTML file. This means that files with the same name in different
+ * directories are not confused with each other. References that do not point
+ * to a file in the web application (for example because the web application
+ * is deployed with a context path) are matched by their last path segments
+ * instead. References to other hosts are never rewritten.
+ */
+public class HTMLReferenceRewriter {
+	
+	private Map<String, String> javaScriptReplacements;
+	private Map<String, String> cssReplacements;
+	private Set<String> webAppFiles;
+	
+	/**
+	 * Creates a rewriter for the specified references. The references are
+	 * file paths relative to the web application's source directory.
+	 * @param webAppFiles Paths of all files in the web application, used to
+	 *        prevent references to other files from being matched by their
+	 *        last path segments.
+	 */
+	public HTMLReferenceRewriter(Collection<String> javaScriptFiles, String combinedJavaScriptFileName,
+			Collection<String> cssFiles, String combinedCSSFileName, Collection<String> webAppFiles) {
+		this(toReplacements(javaScriptFiles, combinedJavaScriptFileName), 
+				toReplacements(cssFiles, combinedCSSFileName), webAppFiles);
+	}
+	
+	/**
+	 * Creates a rewriter where files can be part of different combined files.
+	 * The maps contain the combined file name for each file path, so that HTML
+	 * files only refer to the combined files that they actually need.
+	 */
+	public HTMLReferenceRewriter(Map<String, String> javaScriptReplacements, 
+			Map<String, String> cssReplacements, Collection<String> webAppFiles) {
+		this.javaScriptReplacements = normalizeReplacements(javaScriptReplacements);
+		this.cssReplacements = normalizeReplacements(cssReplacements);
+		this.webAppFiles = new HashSet<>();
+		for (String webAppFile : webAppFiles) {
+			this.webAppFiles.add(normalizePath(webAppFile));
+		}
+	}
+	
+	private static Map<String, String> toReplacements(Collection<String> files, String replacement) {
+		Map<String, String> replacements = new HashMap<>();
+		for (String file : files) {
+			replacements.put(file, replacement);
+		}
+		return replacements;
+	}
+	
+	private static Map<String, String> normalizeReplacements(Map<String, String> replacements) {
+		Map<String, String> normalized = new HashMap<>();
+		for (Map.Entry<String, String> entry : replacements.entrySet()) {
+			normalized.put(normalizePath(entry.getKey()), entry.getValue());
+		}
+		return normalized;
+	}
+	
+	/**
+	 * Rewrites all references in the specified HTML.
+	 * @param htmlPath Path of the HTML file relative to the web application's
+	 *        source directory, used to resolve relative references.
+	 */
+	public String rewrite(String html, String htmlPath) {
+		String htmlDir = htmlPath.lastIndexOf('/') == -1 ? "" : htmlPath.substring(0, htmlPath.lastIndexOf('/') + 1);
+		StringBuilder result = new StringBuilder(html.length());
+		Set<String> inserted = new HashSet<>();
+		int position = 0;
+		int copied = 0;
+		
+		while ((position = html.indexOf('<', position)) != -1) {
+			if (html.startsWith("<!--", position)) {
+				int commentEnd = html.indexOf("-->", position + 4);
+				position = commentEnd == -1 ? html.length() : commentEnd + 3;
+			} else if (isTag(html, position, "script") || isTag(html, position, "link")) {
+				Tag tag = parseTag(html, position);
+				String replacement = getReplacement(tag, htmlDir);
+				
+				if (replacement != null) {
+					result.append(html, copied, position);
+					if (inserted.add(replacement)) {
+						result.append(replacement);
+						copied = tag.elementEnd;
+					} else {
+						copied = removeLine(html, result, tag.elementEnd);
+					}
+				}
+				
+				position = tag.elementEnd;
+			} else {
+				position++;
+			}
+		}
+		
+		if (copied == 0) {
+			return html;
+		}
+		result.append(html, copied, html.length());
+		return result.toString();
+	}
+	
+	/**
+	 * Returns the tag that should replace the specified tag, or {@code null}
+	 * if the tag does not refer to a file that is part of a combined file.
+	 */
+	private String getReplacement(Tag tag, String htmlDir) {
+		if (tag.name.equals("script") && tag.attributes.containsKey("src") && tag.emptyElement) {
+			String combinedFile = lookup(tag.attributes.get("src"), htmlDir, javaScriptReplacements);
+			if (combinedFile != null) {
+				return "<script src=\"" + combinedFile + "\"></script>";
+			}
+		}
+		
+		if (tag.name.equals("link") && tag.attributes.containsKey("href") &&
+				"stylesheet".equalsIgnoreCase(tag.attributes.get("rel"))) {
+			String combinedFile = lookup(tag.attributes.get("href"), htmlDir, cssReplacements);
+			if (combinedFile != null) {
+				return "<link rel=\"stylesheet\" href=\"" + combinedFile + "\" />";
+			}
+		}
+		
+		return null;
+	}
+	
+	/**
+	 * Returns the reference to the combined file that should replace the
+	 * specified reference, or {@code null} if the reference is not part of
+	 * a combined file.
+	 */
+	private String lookup(String reference, String htmlDir, Map<String, String> replacements) {
+		if (replacements.isEmpty() || reference.startsWith("//") || reference.contains(":")) {
+			return null;
+		}
+		
+		boolean absolute = reference.startsWith("/");
+		String path = stripQuery(reference);
+		path = normalizePath(absolute ? path.substring(1) : htmlDir + path);
+		
+		String combinedFile = replacements.get(path);
+		if (combinedFile == null && !webAppFiles.contains(path)) {
+			for (int i = path.indexOf('/'); i != -1 && combinedFile == null; i = path.indexOf('/', i + 1)) {
+				combinedFile = replacements.get(path.substring(i + 1));
+			}
+		}
+		
+		if (combinedFile == null) {
+			return null;
+		}
+		// Combined files are always created in the root of the build directory.
+		return (absolute ? "/" : toRootPath(htmlDir)) + combinedFile;
+	}
+	
+	private String stripQuery(String reference) {
+		int end = reference.length();
+		if (reference.indexOf('?') != -1) {
+			end = reference.indexOf('?');
+		}
+		if (reference.indexOf('#') != -1) {
+			end = Math.min(end, reference.indexOf('#'));
+		}
+		return reference.substring(0, end);
+	}
+	
+	/**
+	 * Normalizes a path by resolving "." and ".." segments. Paths are compared
+	 * case-insensitively, so the normalized path is lower case.
+	 */
+	private static String normalizePath(String path) {
+		List<String> segments = new ArrayList<>();
+		for (String segment : path.replace('\\', '/').split("/")) {
+			if (segment.equals("..")) {
+				if (!segments.isEmpty()) {
+					segments.remove(segments.size() - 1);
+				}
+			} else if (!segment.isEmpty() && !segment.equals(".")) {
+				segments.add(segment);
+			}
+		}
+		return String.join("/", segments).toLowerCase(Locale.ROOT);
+	}
+	
+	private String toRootPath(String htmlDir) {
+		StringBuilder rootPath = new StringBuilder();
+		for (int i = 0; i < htmlDir.length(); i++) {
+			if (htmlDir.charAt(i) == '/') {
+				rootPath.append("../");
+			}
+		}
+		return rootPath.toString();
+	}
+	
+	/**
+	 * Removes a duplicate reference. If the reference was the only thing on
+	 * its line, the entire line is removed. Returns the position in the HTML
+	 * from which copying should continue.
+	 */
+	private int removeLine(String html, StringBuilder result, int elementEnd) {
+		int lineStart = result.length();
+		while (lineStart > 0 && isBlank(result.charAt(lineStart - 1))) {
+			lineStart--;
+		}
+		
+		int lineEnd = elementEnd;
+		while (lineEnd < html.length() && isBlank(html.charAt(lineEnd))) {
+			lineEnd++;
+		}
+		
+		boolean startOfLine = lineStart == 0 || result.charAt(lineStart - 1) == '\n';
+		boolean endOfLine = lineEnd == html.length() || html.charAt(lineEnd) == '\r' || html.charAt(lineEnd) == '\n';
+		
+		if (!startOfLine || !endOfLine) {
+			return elementEnd;
+		}
+		
+		result.setLength(lineStart);
+		if (html.startsWith("\r\n", lineEnd)) {
+			return lineEnd + 2;
+		}
+		return Math.min(lineEnd + 1, html.length());
+	}
+	
+	private boolean isBlank(char c) {
+		return c == ' ' || c == '\t';
+	}
+	
+	private boolean isTag(String html, int position, String name) {
+		int end = position + 1 + name.length();
+		return html.regionMatches(true, position + 1, name, 0, name.length()) && end < html.length() &&
+				(Character.isWhitespace(html.charAt(end)) || html.charAt(end) == '>' || html.charAt(end) == '/');
+	}
+	
+	/**
+	 * Parses the start tag at the specified position. For script elements, the
+	 * end of the element is the end of the corresponding end tag.
+	 */
+	private Tag parseTag(String html, int start) {
+		Tag tag = new Tag();
+		int position = start + 1;
+		while (position < html.length() && Character.isLetter(html.charAt(position))) {
+			position++;
+		}
+		tag.name = html.substring(start + 1, position).toLowerCase(Locale.ROOT);
+		
+		while (position < html.length()) {
+			char c = html.charAt(position);
+			if (c == '>') {
+				position++;
+				break;
+			} else if (Character.isWhitespace(c) || c == '/') {
+				position++;
+			} else {
+				position = parseAttribute(html, position, tag.attributes);
+			}
+		}
+		
+		tag.elementEnd = position;
+		if (tag.name.equals("script")) {
+			parseScriptContents(html, tag);
+		}
+		return tag;
+	}
+	
+	private int parseAttribute(String html, int start, Map<String, String> attributes) {
+		int position = start;
+		while (position < html.length() && !isAttributeNameEnd(html.charAt(position))) {
+			position++;
+		}
+		String name = html.substring(start, position).toLowerCase(Locale.ROOT);
+		
+		while (position < html.length() && Character.isWhitespace(html.charAt(position))) {
+			position++;
+		}
+		
+		if (position >= html.length() || html.charAt(position) != '=') {
+			attributes.put(name, "");
+			return position;
+		}
+		
+		position++;
+		while (position < html.length() && Character.isWhitespace(html.charAt(position))) {
+			position++;
+		}
+		
+		if (position < html.length() && (html.charAt(position) == '"' || html.charAt(position) == '\'')) {
+			int valueEnd = html.indexOf(html.charAt(position), position + 1);
+			if (valueEnd == -1) {
+				valueEnd = html.length();
+			}
+			attributes.put(name, html.substring(position + 1, valueEnd).trim());
+			return Math.min(valueEnd + 1, html.length());
+		}
+		
+		int valueStart = position;
+		while (position < html.length() && !Character.isWhitespace(html.charAt(position)) &&
+				html.charAt(position) != '>') {
+			position++;
+		}
+		attributes.put(name, html.substring(valueStart, position));
+		return position;
+	}
+	
+	private boolean isAttributeNameEnd(char c) {
+		return Character.isWhitespace(c) || c == '=' || c == '>' || c == '/';
+	}
+	
+	/**
+	 * Skips the contents of a script element, since those should not be
+	 * parsed as HTML. The element is considered empty if it contains only
+	 * whitespace, which is the case for references to external scripts.
+	 */
+	private void parseScriptContents(String html, Tag tag) {
+		int position = tag.elementEnd;
+		while (position < html.length() && !isTag(html, position, "/script")) {
+			position = html.indexOf('<', position + 1);
+			if (position == -1) {
+				return;
+			}
+		}
+		
+		int endTag = html.indexOf('>', position);
+		if (endTag == -1) {
+			return;
+		}
+		
+		tag.emptyElement = html.substring(tag.elementEnd, position).trim().isEmpty();
+		tag.elementEnd = endTag + 1;
+	}
+	
+	/**
+	 * HTML start tag, including the attributes and the position where the
+	 * element ends.
+	 */
+	private static class Tag {
+		
+		private String name;
+		private Map<String, String> attributes = new HashMap<>();
+		private int elementEnd;
+		private boolean emptyElement;
+	}
+}
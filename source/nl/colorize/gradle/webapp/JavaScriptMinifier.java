@@ -0,0 +1,375 @@
+//-----------------------------------------------------------------------------
+// Colorize Gradle tasks
+// Copyright 2010-2017 Colorize
+// Apache license (http://www.colorize.nl/code_license.txt)
+//-----------------------------------------------------------------------------
+
+package nl.colorize.gradle.webapp;
+
+import java.io.FilterWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Removes comments and unnecessary whitespace from JavaScript code while it is
+ * being written. The contents of strings, template literals, and regular
+ * expressions are not modified. Comments starting with "/*!" are preserved,
+ * as these are commonly used for license information.
+ * <p>
+ * Line breaks are only removed when this cannot change the meaning of the
+ * code through automatic semicolon insertion. This is deliberately more
+ * conservative than full JavaScript minification, which would need to parse
+ * the code. It does mean that the minified code will still contain line
+ * breaks between statements that do not end with a semicolon.
+ * <p>
+ * Whether a slash starts a regular expression or is the division operator
+ * is determined from the preceding token. After a closing parenthesis it is
+ * the division operator, unless the parentheses contain the condition of an
+ * {@code if}, {@code while}, {@code for}, or {@code with} statement. For 
+ * example, {@code if (x) /a  b/.test(s)} contains a regular expression.
+ */
+public class JavaScriptMinifier extends FilterWriter {
+	
+	private State state;
+	private Whitespace pendingWhitespace;
+	private boolean pendingSlash;
+	private boolean escape;
+	private char quote;
+	private char lastChar;
+	private StringBuilder lastWord;
+	private boolean lastWasRegex;
+	private boolean commentStart;
+	private boolean commentHasLineBreak;
+	private boolean commentEnd;
+	private boolean dollar;
+	private int braceDepth;
+	private Deque<Integer> templateBraceDepths;
+	private Deque<Boolean> conditionParens;
+	private boolean lastWasCondition;
+	
+	private static final String REGEX_PRECEDING_CHARS = "(,=:[!&|?+-~*%<>^{};/";
+	private static final String NEWLINE_SAFE_BEFORE = "{;,([=:?&|!~*%<>^";
+	private static final String NEWLINE_SAFE_AFTER = "})],;:?.=&|*%<>^";
+	private static final Set<String> REGEX_PRECEDING_KEYWORDS = new HashSet<>(Arrays.asList(
+			"return", "typeof", "instanceof", "in", "of", "new", "delete", "void", "throw",
+			"case", "do", "else", "yield", "await"));
+	private static final Set<String> CONDITION_KEYWORDS = new HashSet<>(Arrays.asList(
+			"if", "while", "for", "with"));
+	
+	private enum State {
+		CODE,
+		LINE_COMMENT,
+		BLOCK_COMMENT,
+		LICENSE_COMMENT,
+		STRING,
+		TEMPLATE,
+		REGEX,
+		REGEX_CLASS
+	}
+	
+	private enum Whitespace {
+		NONE,
+		SPACE,
+		LINE_BREAK
+	}
+	
+	public JavaScriptMinifier(Writer out) {
+		super(out);
+		state = State.CODE;
+		pendingWhitespace = Whitespace.NONE;
+		lastWord = new StringBuilder();
+		templateBraceDepths = new ArrayDeque<>();
+		conditionParens = new ArrayDeque<>();
+	}
+	
+	@Override
+	public void write(int c) throws IOException {
+		process((char) c);
+	}
+	
+	@Override
+	public void write(char[] buffer, int offset, int length) throws IOException {
+		for (int i = offset; i < offset + length; i++) {
+			process(buffer[i]);
+		}
+	}
+	
+	@Override
+	public void write(String str, int offset, int length) throws IOException {
+		for (int i = offset; i < offset + length; i++) {
+			process(str.charAt(i));
+		}
+	}
+	
+	private void process(char c) throws IOException {
+		switch (state) {
+			case CODE : processCode(c); break;
+			case LINE_COMMENT : processLineComment(c); break;
+			case BLOCK_COMMENT : processBlockComment(c); break;
+			case LICENSE_COMMENT : processLicenseComment(c); break;
+			case STRING : processString(c); break;
+			case TEMPLATE : processTemplate(c); break;
+			case REGEX : processRegex(c); break;
+			case REGEX_CLASS : processRegexClass(c); break;
+			default : throw new AssertionError();
+		}
+	}
+	
+	private void processCode(char c) throws IOException {
+		if (pendingSlash) {
+			pendingSlash = false;
+			if (c == '/') {
+				state = State.LINE_COMMENT;
+				return;
+			} else if (c == '*') {
+				state = State.BLOCK_COMMENT;
+				commentStart = true;
+				commentHasLineBreak = false;
+				commentEnd = false;
+				return;
+			} else if (isRegexAllowed()) {
+				emit('/');
+				state = State.REGEX;
+				process(c);
+				return;
+			} else {
+				emit('/');
+			}
+		}
+		
+		if (c == '/') {
+			pendingSlash = true;
+		} else if (isLineBreak(c)) {
+			pendingWhitespace = Whitespace.LINE_BREAK;
+		} else if (Character.isWhitespace(c) || c == '\u00A0' || c == '\uFEFF') {
+			if (pendingWhitespace == Whitespace.NONE) {
+				pendingWhitespace = Whitespace.SPACE;
+			}
+		} else if (c == '"' || c == '\'') {
+			emit(c);
+			state = State.STRING;
+			quote = c;
+		} else if (c == '`') {
+			emit(c);
+			state = State.TEMPLATE;
+		} else if (c == '(') {
+			// Statements cannot start with a slash, so after the condition
+			// of a statement a slash always starts a regular expression.
+			boolean condition = isIdentifierChar(lastChar) && CONDITION_KEYWORDS.contains(lastWord.toString());
+			emit(c);
+			conditionParens.push(condition);
+		} else if (c == ')') {
+			emit(c);
+			lastWasCondition = !conditionParens.isEmpty() && conditionParens.pop();
+		} else if (c == '{') {
+			emit(c);
+			braceDepth++;
+		} else if (c == '}') {
+			braceDepth--;
+			if (!templateBraceDepths.isEmpty() && templateBraceDepths.peek() == braceDepth) {
+				// End of an expression embedded in a template literal.
+				templateBraceDepths.pop();
+				out.write(c);
+				pendingWhitespace = Whitespace.NONE;
+				state = State.TEMPLATE;
+			} else {
+				emit(c);
+			}
+		} else {
+			emit(c);
+		}
+	}
+	
+	/**
+	 * Writes a character that is part of the code, preceded by whitespace if
+	 * that is necessary to keep the same meaning.
+	 */
+	private void emit(char c) throws IOException {
+		if (lastChar != 0) {
+			if (pendingWhitespace == Whitespace.LINE_BREAK && !canRemoveLineBreak(lastChar, c)) {
+				out.write('\n');
+			} else if (pendingWhitespace != Whitespace.NONE && needsSpace(lastChar, c)) {
+				out.write(' ');
+			}
+		}
+		
+		out.write(c);
+		pendingWhitespace = Whitespace.NONE;
+		lastWasRegex = false;
+		lastWasCondition = false;
+		
+		if (!isIdentifierChar(c)) {
+			lastWord.setLength(0);
+		} else if (!isIdentifierChar(lastChar)) {
+			lastWord.setLength(0);
+			lastWord.append(c);
+		} else if (lastWord.length() < 16) {
+			lastWord.append(c);
+		}
+		
+		lastChar = c;
+	}
+	
+	private boolean canRemoveLineBreak(char before, char after) {
+		return NEWLINE_SAFE_BEFORE.indexOf(before) != -1 || NEWLINE_SAFE_AFTER.indexOf(after) != -1;
+	}
+	
+	private boolean needsSpace(char before, char after) {
+		return (isIdentifierChar(before) && isIdentifierChar(after)) ||
+				(before == after && (before == '+' || before == '-')) ||
+				(before == '/' && (after == '/' || after == '*')) ||
+				(before == '<' && after == '!') ||
+				(Character.isDigit(before) && after == '.');
+	}
+	
+	/**
+	 * Returns true if a slash at the current position starts a regular
+	 * expression rather than being the division operator. This is based on
+	 * the preceding token, in the same way as other JavaScript minifiers.
+	 */
+	private boolean isRegexAllowed() {
+		if (lastChar == 0) {
+			return true;
+		} else if (lastWasRegex) {
+			return false;
+		} else if (lastChar == ')') {
+			return lastWasCondition;
+		} else if (isIdentifierChar(lastChar)) {
+			return REGEX_PRECEDING_KEYWORDS.contains(lastWord.toString());
+		} else {
+			return REGEX_PRECEDING_CHARS.indexOf(lastChar) != -1;
+		}
+	}
+	
+	private void processLineComment(char c) {
+		if (isLineBreak(c)) {
+			pendingWhitespace = Whitespace.LINE_BREAK;
+			state = State.CODE;
+		}
+	}
+	
+	private void processBlockComment(char c) throws IOException {
+		if (commentStart && c == '!') {
+			if (lastChar != 0 && pendingWhitespace != Whitespace.NONE) {
+				out.write(pendingWhitespace == Whitespace.LINE_BREAK ? '\n' : ' ');
+			}
+			out.write("/*!");
+			pendingWhitespace = Whitespace.NONE;
+			state = State.LICENSE_COMMENT;
+		} else if (commentEnd && c == '/') {
+			// Comments containing line breaks are treated as line breaks
+			// for the purpose of automatic semicolon insertion.
+			if (commentHasLineBreak) {
+				pendingWhitespace = Whitespace.LINE_BREAK;
+			} else if (pendingWhitespace == Whitespace.NONE) {
+				pendingWhitespace = Whitespace.SPACE;
+			}
+			state = State.CODE;
+		} else {
+			commentHasLineBreak |= isLineBreak(c);
+			commentEnd = c == '*';
+		}
+		commentStart = false;
+	}
+	
+	private void processLicenseComment(char c) throws IOException {
+		out.write(c);
+		if (commentEnd && c == '/') {
+			state = State.CODE;
+		}
+		commentEnd = c == '*';
+	}
+	
+	private void processString(char c) throws IOException {
+		out.write(c);
+		if (escape) {
+			escape = false;
+		} else if (c == '\\') {
+			escape = true;
+		} else if (c == quote) {
+			state = State.CODE;
+		}
+	}
+	
+	private void processTemplate(char c) throws IOException {
+		boolean escaped = escape;
+		out.write(c);
+		if (escape) {
+			escape = false;
+		} else if (c == '\\') {
+			escape = true;
+		} else if (c == '`') {
+			lastChar = '`';
+			state = State.CODE;
+		} else if (dollar && c == '{') {
+			// Start of an expression embedded in the template literal.
+			templateBraceDepths.push(braceDepth);
+			braceDepth++;
+			lastChar = '{';
+			pendingWhitespace = Whitespace.NONE;
+			state = State.CODE;
+		}
+		dollar = !escaped && c == '$';
+	}
+	
+	private void processRegex(char c) throws IOException {
+		out.write(c);
+		if (escape) {
+			escape = false;
+		} else if (c == '\\') {
+			escape = true;
+		} else if (c == '[') {
+			state = State.REGEX_CLASS;
+		} else if (c == '/') {
+			lastChar = '/';
+			lastWasRegex = true;
+			state = State.CODE;
+		} else if (isLineBreak(c)) {
+			// Regular expressions cannot contain line breaks, so this
+			// was actually the division operator.
+			lastChar = '/';
+			state = State.CODE;
+		}
+	}
+	
+	private void processRegexClass(char c) throws IOException {
+		out.write(c);
+		if (escape) {
+			escape = false;
+		} else if (c == '\\') {
+			escape = true;
+		} else if (c == ']') {
+			state = State.REGEX;
+		} else if (isLineBreak(c)) {
+			lastChar = '/';
+			state = State.CODE;
+		}
+	}
+	
+	private boolean isLineBreak(char c) {
+		return c == '\n' || c == '\r' || c == '\u2028' || c == '\u2029';
+	}
+	
+	private boolean isIdentifierChar(char c) {
+		return Character.isLetterOrDigit(c) || c == '_' || c == '$' || c == '\\' || c > 127;
+	}
+	
+	@Override
+	public void flush() throws IOException {
+		out.flush();
+	}
+	
+	@Override
+	public void close() throws IOException {
+		if (pendingSlash) {
+			emit('/');
+			pendingSlash = false;
+		}
+		super.close();
+	}
+}
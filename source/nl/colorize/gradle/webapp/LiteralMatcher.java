@@ -0,0 +1,199 @@
+//-----------------------------------------------------------------------------
+// Colorize Gradle tasks
+// Copyright 2010-2017 Colorize
+// Apache license (http://www.colorize.nl/code_license.txt)
+//-----------------------------------------------------------------------------
+
+package nl.colorize.gradle.webapp;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Replaces any number of literal strings in a single pass over the text, using
+ * an Aho-Corasick automaton built from the strings that should be replaced.
+ * When multiple strings match at the same position the longest one is used,
+ * and matches never overlap. Replacements are not matched again, so all
+ * literal strings are effectively replaced simultaneously.
+ * <p>
+ * Instances of this class are immutable after they have been created, and
+ * can be used from multiple threads.
+ */
+public class LiteralMatcher {
+	
+	private char[][] transitionChars;
+	private int[][] transitionTargets;
+	private int[] failure;
+	private int[] depth;
+	private int[] output;
+	private int[] dictionaryLink;
+	private String[] replacements;
+	
+	private static final int ROOT = 0;
+	private static final int NONE = -1;
+	
+	public LiteralMatcher(List<String> searches, List<String> replacements) {
+		if (searches.size() != replacements.size()) {
+			throw new IllegalArgumentException("Searches and replacements do not match");
+		}
+		
+		this.replacements = replacements.toArray(new String[0]);
+		build(searches);
+	}
+	
+	private void build(List<String> searches) {
+		List<StringBuilder> chars = new ArrayList<>();
+		List<List<Integer>> targets = new ArrayList<>();
+		List<Integer> depths = new ArrayList<>();
+		List<Integer> outputs = new ArrayList<>();
+		chars.add(new StringBuilder());
+		targets.add(new ArrayList<>());
+		depths.add(0);
+		outputs.add(NONE);
+		
+		for (int i = 0; i < searches.size(); i++) {
+			String search = searches.get(i);
+			int state = ROOT;
+			for (int j = 0; j < search.length(); j++) {
+				int index = chars.get(state).indexOf(String.valueOf(search.charAt(j)));
+				if (index == -1) {
+					chars.get(state).append(search.charAt(j));
+					targets.get(state).add(chars.size());
+					chars.add(new StringBuilder());
+					targets.add(new ArrayList<>());
+					depths.add(j + 1);
+					outputs.add(NONE);
+					state = chars.size() - 1;
+				} else {
+					state = targets.get(state).get(index);
+				}
+			}
+			// When the same string is used multiple times, the first one wins.
+			if (outputs.get(state) == NONE) {
+				outputs.set(state, i);
+			}
+		}
+		
+		int states = chars.size();
+		transitionChars = new char[states][];
+		transitionTargets = new int[states][];
+		depth = new int[states];
+		output = new int[states];
+		for (int state = 0; state < states; state++) {
+			sortTransitions(state, chars.get(state).toString().toCharArray(), targets.get(state));
+			depth[state] = depths.get(state);
+			output[state] = outputs.get(state);
+		}
+		
+		buildFailureLinks(states);
+	}
+	
+	private void sortTransitions(int state, char[] stateChars, List<Integer> stateTargets) {
+		Integer[] order = new Integer[stateChars.length];
+		for (int i = 0; i < order.length; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, (a, b) -> Character.compare(stateChars[a], stateChars[b]));
+		
+		transitionChars[state] = new char[order.length];
+		transitionTargets[state] = new int[order.length];
+		for (int i = 0; i < order.length; i++) {
+			transitionChars[state][i] = stateChars[order[i]];
+			transitionTargets[state][i] = stateTargets.get(order[i]);
+		}
+	}
+	
+	/**
+	 * Creates the failure links using a breadth-first traversal of the trie.
+	 * The dictionary links point to the nearest state along the failure links
+	 * that completes one of the strings.
+	 */
+	private void buildFailureLinks(int states) {
+		failure = new int[states];
+		dictionaryLink = new int[states];
+		Arrays.fill(dictionaryLink, NONE);
+		Deque<Integer> queue = new ArrayDeque<>();
+		
+		for (int child : transitionTargets[ROOT]) {
+			failure[child] = ROOT;
+			queue.add(child);
+		}
+		
+		while (!queue.isEmpty()) {
+			int state = queue.poll();
+			for (int i = 0; i < transitionChars[state].length; i++) {
+				char c = transitionChars[state][i];
+				int child = transitionTargets[state][i];
+				int fallback = failure[state];
+				while (fallback != ROOT && transition(fallback, c) == NONE) {
+					fallback = failure[fallback];
+				}
+				int target = transition(fallback, c);
+				failure[child] = target == NONE ? ROOT : target;
+				dictionaryLink[child] = output[failure[child]] != NONE ?
+						failure[child] : dictionaryLink[failure[child]];
+				queue.add(child);
+			}
+		}
+	}
+	
+	private int transition(int state, char c) {
+		int index = Arrays.binarySearch(transitionChars[state], c);
+		return index >= 0 ? transitionTargets[state][index] : NONE;
+	}
+	
+	/**
+	 * Replaces all literal strings in the text. Returns the original text if
+	 * it does not contain any of the literal strings.
+	 */
+	public String replace(String text) {
+		int[] matches = null;
+		int state = ROOT;
+		
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			int next = transition(state, c);
+			while (next == NONE && state != ROOT) {
+				state = failure[state];
+				next = transition(state, c);
+			}
+			state = next == NONE ? ROOT : next;
+			
+			for (int match = output[state] != NONE ? state : dictionaryLink[state]; match != NONE;
+					match = dictionaryLink[match]) {
+				if (matches == null) {
+					matches = new int[text.length()];
+					Arrays.fill(matches, NONE);
+				}
+				// Only the longest string starting at each position is kept.
+				int start = i - depth[match] + 1;
+				if (matches[start] == NONE || depth[matches[start]] < depth[match]) {
+					matches[start] = match;
+				}
+			}
+		}
+		
+		if (matches == null) {
+			return text;
+		}
+		return applyMatches(text, matches);
+	}
+	
+	private String applyMatches(String text, int[] matches) {
+		StringBuilder result = new StringBuilder(text.length());
+		int i = 0;
+		while (i < text.length()) {
+			if (matches[i] == NONE) {
+				result.append(text.charAt(i));
+				i++;
+			} else {
+				result.append(replacements[output[matches[i]]]);
+				i += depth[matches[i]];
+			}
+		}
+		return result.toString();
+	}
+}
@@ -0,0 +1,209 @@
+//-----------------------------------------------------------------------------
+// Colorize Gradle tasks
+// Copyright 2010-2017 Colorize
+// Apache license (http://www.colorize.nl/code_license.txt)
+//-----------------------------------------------------------------------------
+
+package nl.colorize.gradle.webapp;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Records the files produced by packaging the web application, with their
+ * size, last modified time, and a hash of their contents. The manifest is
+ * stored in the build directory, so that the next build can determine which
+ * files are no longer produced, and which files do not need to be written
+ * again because their contents have not changed.
+ * <p>
+ * Files are identified by their path relative to the build directory. The
+ * last modified time is used to detect files that were changed after they
+ * were recorded, in which case the recorded hash can no longer be trusted.
+ * <p>
+ * Files can be recorded from multiple threads at the same time.
+ */
+public class OutputManifest {
+	
+	private Map<String, Entry> entries;
+	
+	public static final String FILE_NAME = ".webapp-manifest";
+	private static final Charset CHARSET = Charset.forName("UTF-8");
+	private static final int BUFFER_SIZE = 65536;
+	
+	public OutputManifest() {
+		entries = new ConcurrentHashMap<>();
+	}
+	
+	/**
+	 * Records a file that was produced by the build, using its current size
+	 * and last modified time.
+	 */
+	public void record(String path, File file, String hash) {
+		entries.put(path, new Entry(file.length(), file.lastModified(), hash));
+	}
+	
+	public void remove(String path) {
+		entries.remove(path);
+	}
+	
+	public boolean contains(String path) {
+		return entries.containsKey(path);
+	}
+	
+	public Set<String> getPaths() {
+		return entries.keySet();
+	}
+	
+	/**
+	 * Returns the recorded hash for the file, or {@code null} if the file has
+	 * not been recorded or has been changed since it was recorded.
+	 */
+	public String getHash(String path, File file) {
+		Entry entry = entries.get(path);
+		if (entry == null || !file.isFile() || file.length() != entry.size ||
+				file.lastModified() != entry.lastModified) {
+			return null;
+		}
+		return entry.hash;
+	}
+	
+	/**
+	 * Returns true if the file has been recorded with the specified hash, and
+	 * has not been changed since. This means the file does not need to be
+	 * written again.
+	 */
+	public boolean isUnchanged(String path, File file, String hash) {
+		return hash.equals(getHash(path, file));
+	}
+	
+	/**
+	 * Removes all files from the manifest that no longer exist in the
+	 * specified directory.
+	 */
+	public void removeMissing(File dir) {
+		entries.keySet().removeIf(path -> !new File(dir, path).exists());
+	}
+	
+	public OutputManifest copy() {
+		OutputManifest copy = new OutputManifest();
+		copy.entries.putAll(entries);
+		return copy;
+	}
+	
+	/**
+	 * Writes the manifest to the specified directory. Files are written in
+	 * sorted order, so that the manifest does not depend on the order in
+	 * which files were recorded.
+	 */
+	public void save(File dir) {
+		List<String> lines = new ArrayList<>();
+		for (Map.Entry<String, Entry> entry : new TreeMap<>(entries).entrySet()) {
+			Entry value = entry.getValue();
+			lines.add(value.hash + "\t" + value.size + "\t" + value.lastModified + "\t" + entry.getKey());
+		}
+		
+		try {
+			dir.mkdirs();
+			Files.write(new File(dir, FILE_NAME).toPath(), lines, CHARSET);
+		} catch (IOException e) {
+			throw new RuntimeException("Cannot write output manifest to " + dir.getAbsolutePath(), e);
+		}
+	}
+	
+	/**
+	 * Loads the manifest from the specified directory. Returns {@code null} if
+	 * the directory does not contain a manifest, or if the manifest cannot be
+	 * parsed.
+	 */
+	public static OutputManifest load(File dir) {
+		File manifestFile = new File(dir, FILE_NAME);
+		if (!manifestFile.exists()) {
+			return null;
+		}
+		
+		try {
+			OutputManifest manifest = new OutputManifest();
+			for (String line : Files.readAllLines(manifestFile.toPath(), CHARSET)) {
+				String[] fields = line.split("\t", 4);
+				if (fields.length != 4) {
+					return null;
+				}
+				manifest.entries.put(fields[3], new Entry(Long.parseLong(fields[1]),
+						Long.parseLong(fields[2]), fields[0]));
+			}
+			return manifest;
+		} catch (IOException | NumberFormatException e) {
+			return null;
+		}
+	}
+	
+	public static boolean exists(File dir) {
+		return new File(dir, FILE_NAME).exists();
+	}
+	
+	public static String hash(byte[] contents) {
+		MessageDigest digest = createDigest();
+		digest.update(contents);
+		return toHex(digest.digest());
+	}
+	
+	public static String hash(File file) {
+		MessageDigest digest = createDigest();
+		byte[] buffer = new byte[BUFFER_SIZE];
+		
+		try (InputStream stream = Files.newInputStream(file.toPath())) {
+			int length = 0;
+			while ((length = stream.read(buffer)) != -1) {
+				digest.update(buffer, 0, length);
+			}
+		} catch (IOException e) {
+			throw new RuntimeException("Cannot read file " + file.getAbsolutePath(), e);
+		}
+		
+		return toHex(digest.digest());
+	}
+	
+	private static MessageDigest createDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new UnsupportedOperationException("SHA-256 not supported", e);
+		}
+	}
+	
+	private static String toHex(byte[] bytes) {
+		StringBuilder hex = new StringBuilder(bytes.length * 2);
+		for (byte b : bytes) {
+			hex.append(Character.forDigit((b >> 4) & 0xF, 16));
+			hex.append(Character.forDigit(b & 0xF, 16));
+		}
+		return hex.toString();
+	}
+	
+	/**
+	 * Size, last modified time, and hash of a recorded file.
+	 */
+	private static class Entry {
+		
+		private long size;
+		private long lastModified;
+		private String hash;
+		
+		public Entry(long size, long lastModified, String hash) {
+			this.size = size;
+			this.lastModified = lastModified;
+			this.hash = hash;
+		}
+	}
+}
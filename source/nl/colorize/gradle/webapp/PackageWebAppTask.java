@@ -8,18 +8,61 @@ package nl.colorize.gradle.webapp;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
 import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
-import java.util.function.Consumer;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
 import java.util.stream.Collectors;
 
+import javax.inject.Inject;
+
 import org.gradle.api.DefaultTask;
-import org.gradle.api.Project;
+import org.gradle.api.GradleException;
+import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.file.ConfigurableFileTree;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.file.FileCollection;
+import org.gradle.api.file.FileSystemOperations;
+import org.gradle.api.file.FileTree;
+import org.gradle.api.file.FileType;
+import org.gradle.api.file.RegularFile;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.model.ObjectFactory;
+import org.gradle.api.provider.ListProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.provider.Provider;
+import org.gradle.api.tasks.CacheableTask;
+import org.gradle.api.tasks.Classpath;
+import org.gradle.api.tasks.IgnoreEmptyDirectories;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.InputFile;
+import org.gradle.api.tasks.InputFiles;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.Optional;
+import org.gradle.api.tasks.OutputDirectory;
+import org.gradle.api.tasks.OutputFile;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
 import org.gradle.api.tasks.TaskAction;
+import org.gradle.work.ChangeType;
+import org.gradle.work.FileChange;
+import org.gradle.work.Incremental;
+import org.gradle.work.InputChanges;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -29,122 +72,1096 @@ import groovy.lang.Closure;
  * Packages the web application. This will process the HTML/CSS/JavaScript files
  * in the web app's source directory, and copies the results to the build
  * directory.
+ * <p>
+ * The task supports incremental execution. When only a number of source files
+ * have changed since the previous build, only those files will be processed
+ * again. The combined JavaScript and CSS files are only recreated when one of
+ * the files they consist of has been changed. When bundles are used, each
+ * bundle is recreated independently of the other bundles.
+ * <p>
+ * Small images and fonts can optionally be inlined into the combined CSS and
+ * the HTML files. Inlined files are not copied to the build directory if they
+ * are no longer referenced anywhere else.
+ * <p>
+ * The task's output can be stored in the build cache. All inputs use paths
+ * relative to the source directory, so that cached output can be reused
+ * between different checkouts of the same project. The rewrite filter is
+ * included in the inputs using a fingerprint of the closure. If no such 
+ * fingerprint can be created the output will not be cached.
+ * <p>
+ * The packaged web application can also be written to a ZIP archive. When
+ * the build directory is disabled, files that do not need to be processed
+ * are added to the archive directly from the source directory, and only the
+ * files generated by the build are written to a temporary directory. When the
+ * WAR plugin is used, the archive also includes the contents of the WAR file
+ * and replaces the WAR file.
+ * <p>
+ * Every time the task is performed it records the duration of each phase, 
+ * and the number of files and bytes that were processed. These statistics
+ * are written to {@code build/reports/webApp/packageWebApp.json}, and a 
+ * summary is displayed in the console.
+ * <p>
+ * The task is compatible with the configuration cache. Settings are exposed as
+ * task properties, which the plugin connects to the "webApp" extension. While
+ * the task is running it works on a copy of the configuration created from
+ * these properties, and does not access the project or the extension. State
+ * for a single run, such as the statistics and the manifest of the files that
+ * were produced, is not stored in the task.
  */
-public class PackageWebAppTask extends DefaultTask {
+@CacheableTask
+public abstract class PackageWebAppTask extends DefaultTask {
+	
+	private ProjectPaths paths;
+	private FileCollection typeScriptOutputs;
+	private Provider<RegularFile> reportFile;
+	private FileCollection warClasspath;
+	private File webXml;
 	
 	private static final Logger LOGGER = LoggerFactory.getLogger(PackageWebAppTask.class);
-
+	
+	public PackageWebAppTask() {
+		paths = new ProjectPaths(getProject());
+		typeScriptOutputs = getProject().files(getProject().getTasks().withType(CompileTypeScriptTask.class));
+		reportFile = getProject().getLayout().getBuildDirectory().file("reports/webApp/" + getName() + ".json");
+		getSourceFiles().from((Callable<FileTree>) () -> createConfig().getWebAppFileTree(getObjectFactory(), paths));
+		
+		getOutputs().cacheIf("rewriteJavaScriptFilter cannot be fingerprinted", task -> 
+				!getRewriteJavaScriptFilter().isPresent() || getRewriteJavaScriptFilterFingerprint() != null);
+		// Operators are arbitrary Java objects, so there is no way to detect
+		// whether they have been changed since the previous build.
+		getOutputs().cacheIf("rewriteJavaScriptOperator is used", task ->
+				!getRewriteJavaScriptOperator().isPresent());
+		getOutputs().upToDateWhen(task -> !getRewriteJavaScriptOperator().isPresent());
+	}
+	
+	@Inject
+	protected abstract ObjectFactory getObjectFactory();
+	
+	@Inject
+	protected abstract FileSystemOperations getFileSystemOperations();
+	
+	/**
+	 * Returns the web application's source files. This always returns the
+	 * same file collection, since Gradle uses it to look up the changes to
+	 * this input during incremental builds.
+	 */
+	@InputFiles
+	@Incremental
+	@PathSensitive(PathSensitivity.RELATIVE)
+	@IgnoreEmptyDirectories
+	public abstract ConfigurableFileCollection getSourceFiles();
+	
+	/**
+	 * The source directory itself is not an input, since the source files
+	 * are tracked relative to this directory.
+	 */
+	@Internal
+	public abstract DirectoryProperty getSourceDir();
+	
+	@Input
+	public abstract ListProperty<String> getExcludes();
+	
+	@Input
+	public abstract Property<String> getCharset();
+	
+	@Internal
+	public abstract Property<Integer> getParallelism();
+	
+	@Internal
+	public abstract Property<String> getLinkStrategy();
+	
+	@Input
+	public abstract Property<Boolean> getCombineJavaScriptEnabled();
+	
+	@Input
+	public abstract Property<Boolean> getCombineJavaScriptLibraries();
+	
+	@Input
+	public abstract ListProperty<String> getCombineJavaScriptExcludes();
+	
+	@Input
+	public abstract Property<String> getCombinedJavaScriptFileName();
+	
+	/**
+	 * Closures cannot be used as inputs, the closure's fingerprint is used
+	 * instead.
+	 */
+	@Internal
+	public abstract Property<Closure<String>> getRewriteJavaScriptFilter();
+	
+	@Input
+	@Optional
+	public String getRewriteJavaScriptFilterFingerprint() {
+		Closure<String> filter = getRewriteJavaScriptFilter().getOrNull();
+		return filter == null ? null : ClosureFingerprint.fingerprint(filter, paths.getProjectDir());
+	}
+	
+	@Input
+	public abstract ListProperty<RewriteRule> getRewriteJavaScriptRules();
+	
+	@Internal
+	public abstract Property<UnaryOperator<CharSequence>> getRewriteJavaScriptOperator();
+	
+	@Input
+	public abstract Property<Boolean> getMinifyJavaScript();
+	
+	@Input
+	public abstract Property<Boolean> getMinifyCSS();
+	
+	@Input
+	public abstract Property<Boolean> getContentHashNaming();
+	
+	@Input
+	public abstract Property<Boolean> getCombineCSSEnabled();
+	
+	@Input
+	public abstract ListProperty<String> getCombineCSSExcludes();
+	
+	@Input
+	public abstract Property<String> getCombinedCSSFileName();
+	
+	@Input
+	public abstract ListProperty<WebAppBundle> getBundles();
+	
+	@Input
+	public abstract Property<Boolean> getInlineAssetsEnabled();
+	
+	@Input
+	public abstract Property<Integer> getInlineAssetsMaxSize();
+	
+	@Input
+	public abstract Property<Boolean> getCompressEnabled();
+	
+	@Input
+	public abstract Property<Integer> getCompressMinSize();
+	
+	@Input
+	public abstract ListProperty<String> getCompressExtensions();
+	
+	@Input
+	public abstract Property<Boolean> getBuildDirEnabled();
+	
+	@OutputDirectory
+	public abstract DirectoryProperty getBuildDir();
+	
+	@OutputFile
+	@Optional
+	public abstract RegularFileProperty getArchiveFile();
+	
+	/**
+	 * Sets the classes and libraries that are added to the archive's 
+	 * {@code WEB-INF} directory, when the archive replaces the WAR file.
+	 */
+	public void setWarClasspath(FileCollection warClasspath) {
+		this.warClasspath = warClasspath;
+	}
+	
+	@Classpath
+	@Optional
+	public FileCollection getWarClasspath() {
+		return warClasspath;
+	}
+	
+	public void setWebXml(File webXml) {
+		this.webXml = webXml;
+	}
+	
+	@InputFile
+	@Optional
+	@PathSensitive(PathSensitivity.NONE)
+	public File getWebXml() {
+		return webXml;
+	}
+	
+	@Internal
+	protected File getReportFile() {
+		return reportFile.get().getAsFile();
+	}
+	
+	/**
+	 * Creates the configuration that is used while the task is running from
+	 * the task's properties. The returned configuration is a copy, so that it
+	 * is not affected by changes to the "webApp" extension.
+	 */
+	protected WebAppExtension createConfig() {
+		WebAppExtension config = getObjectFactory().newInstance(WebAppExtension.class);
+		config.setSourceDir(getSourceDir().get().getAsFile().getAbsolutePath());
+		config.setBuildDir(getBuildDir().get().getAsFile().getAbsolutePath());
+		config.setBuildDirEnabled(getBuildDirEnabled().get());
+		if (getArchiveFile().isPresent()) {
+			config.setArchiveFile(getArchiveFile().get().getAsFile().getAbsolutePath());
+		}
+		config.setExcludes(getExcludes().get());
+		config.setCharset(getCharset().get());
+		config.setParallelism(getParallelism().get());
+		config.setLinkStrategy(getLinkStrategy().get());
+		
+		config.setCombineJavaScriptEnabled(getCombineJavaScriptEnabled().get());
+		config.setCombinedJavaScriptFileName(getCombinedJavaScriptFileName());
+		config.setCombineJavaScriptExcludes(getCombineJavaScriptExcludes().get());
+		config.setCombineJavaScriptLibraries(getCombineJavaScriptLibraries().get());
+		config.setRewriteJavaScriptFilter(getRewriteJavaScriptFilter().getOrNull());
+		config.setRewriteJavaScriptRules(getRewriteJavaScriptRules().get());
+		config.setRewriteJavaScriptOperator(getRewriteJavaScriptOperator().getOrNull());
+		config.setMinifyJavaScript(getMinifyJavaScript().get());
+		
+		config.setCombineCSSEnabled(getCombineCSSEnabled().get());
+		config.setCombinedCSSFileName(getCombinedCSSFileName());
+		config.setCombineCSSExcludes(getCombineCSSExcludes().get());
+		config.setMinifyCSS(getMinifyCSS().get());
+		
+		config.setBundles(getBundles().get());
+		config.setContentHashNaming(getContentHashNaming().get());
+		config.setInlineAssetsEnabled(getInlineAssetsEnabled().get());
+		config.setInlineAssetsMaxSize(getInlineAssetsMaxSize().get());
+		config.setCompressEnabled(getCompressEnabled().get());
+		config.setCompressMinSize(getCompressMinSize().get());
+		config.setCompressExtensions(getCompressExtensions().get());
+		return config;
+	}
+	
 	@TaskAction
-	public void run() {
-		WebAppExtension config = getProject().getExtensions().getByType(WebAppExtension.class);
-		File webAppSourceDir = config.getSourceDir(getProject());
-		File buildDir = config.getBuildDir(getProject());
+	public void run(InputChanges inputChanges) {
+		WebAppExtension config = createConfig();
+		File webAppSourceDir = config.getSourceDir(paths);
+		File buildDir = config.getBuildDir(paths);
+		File archiveFile = config.getArchiveFile(paths);
+		
+		if (!config.getBuildDirEnabled() && archiveFile == null) {
+			throw new GradleException("Cannot disable buildDir without configuring archiveFile");
+		}
+		
+		PackagingRun run = new PackagingRun(getName());
 		
 		if (webAppSourceDir.exists()) {
-			cleanBuildDir(buildDir, config);
-			packageWebApp(buildDir, config);
+			// Without the build directory the files that were copied during the
+			// previous build are not available, so everything is packaged again.
+			// The same applies if the build directory is not known to contain
+			// the outputs of the previous build.
+			if (inputChanges.isIncremental() && config.getBuildDirEnabled() && OutputManifest.exists(buildDir)) {
+				packageChangedFiles(run, buildDir, config, inputChanges);
+			} else {
+				packageWebApp(run, buildDir, config);
+			}
 			
-			// Configure the WAR plugin to use the packaged web app, by
-			// pointing the "webAppDirName" property to the build dir.
-			File warWebAppDir = (File) getProject().getProperties().get("webAppDir");
-			if (warWebAppDir != null) {
-				getProject().setProperty("webAppDirName", config.getBuildDir());
+			if (archiveFile != null) {
+				run.report.phase("archive", () -> writeArchive(run, archiveFile, buildDir, config));
 			}
 		}
+		
+		run.report.write(getReportFile());
+		getLogger().lifecycle("Packaged web app: " + run.report.getSummary());
 	}
 	
+	/**
+	 * Deletes all files in the build directory that have not been produced by
+	 * the current build. 
+	 */
 	protected void cleanBuildDir(File buildDir, WebAppExtension config) {
-		final List<File> generatedFiles = new ArrayList<>();
-		generatedFiles.add(config.getCombinedJavaScriptFile(getProject()));
-		generatedFiles.add(config.getCombinedCSSFile(getProject()));
-		
-		getProject().fileTree(buildDir).forEach(new Consumer<File>() {
-			public void accept(File file) {
-				if (!generatedFiles.contains(file)) {
-					file.delete();
+		deleteObsoleteFiles(new PackagingRun(getName()), buildDir, config, Collections.emptySet());
+	}
+	
+	/**
+	 * Deletes the files produced by the previous build that are no longer 
+	 * produced by the current build, based on the manifest of the previous
+	 * build. Files that are processed after this point are kept, so they are
+	 * only replaced if their contents have changed. If there is no manifest
+	 * for the previous build, all files in the build directory are deleted
+	 * except for those produced by the current build.
+	 * @param pendingPaths Paths relative to the build directory of files that
+	 *        are processed after this point.
+	 */
+	private void deleteObsoleteFiles(PackagingRun run, File buildDir, WebAppExtension config, 
+			Set<String> pendingPaths) {
+		OutputManifest currentManifest = run.manifest == null ? new OutputManifest() : run.manifest;
+		Set<String> candidates = new HashSet<>();
+		if (run.previousManifest != null) {
+			candidates.addAll(run.previousManifest.getPaths());
+		} else {
+			// Files created by the TypeScript compiler are kept, since the
+			// compiler is not invoked again if the TypeScript is up-to-date.
+			List<String> typeScriptOutputs = findTypeScriptOutputs();
+			for (File file : listFiles(buildDir)) {
+				if (!isTypeScriptOutput(file, typeScriptOutputs)) {
+					candidates.add(toOutputPath(file, buildDir, config));
 				}
 			}
-		});
+			candidates.remove(OutputManifest.FILE_NAME);
+		}
+		
+		List<File> obsoleteFiles = new ArrayList<>();
+		for (String path : candidates) {
+			if (!currentManifest.contains(path) && !pendingPaths.contains(path) &&
+					!isPendingSidecar(path, currentManifest, pendingPaths, config)) {
+				obsoleteFiles.add(new File(buildDir, path));
+				run.report.recordFile("delete", path, 0L, 0L, 0L);
+			}
+		}
+		getFileSystemOperations().delete(spec -> spec.delete(obsoleteFiles));
+	}
+	
+	/**
+	 * Returns true if the path refers to the compressed version of a file that
+	 * is produced by the current build. Compressed versions are kept, since 
+	 * they are only recreated if the original file has changed.
+	 */
+	private boolean isPendingSidecar(String path, OutputManifest currentManifest, Set<String> pendingPaths,
+			WebAppExtension config) {
+		if (!config.getCompressEnabled() || !path.endsWith(GzipCompressor.SIDECAR_EXTENSION)) {
+			return false;
+		}
+		String originalPath = path.substring(0, path.length() - GzipCompressor.SIDECAR_EXTENSION.length());
+		return currentManifest.contains(originalPath) || pendingPaths.contains(originalPath);
+	}
+	
+	private List<String> findTypeScriptOutputs() {
+		List<String> outputs = new ArrayList<>();
+		for (File output : typeScriptOutputs) {
+			outputs.add(output.getAbsolutePath());
+		}
+		return outputs;
+	}
+	
+	/**
+	 * Returns all files in the specified directory, excluding the manifest of
+	 * the files produced by the previous build.
+	 */
+	private Set<File> listFiles(File dir) {
+		ConfigurableFileTree fileTree = getObjectFactory().fileTree().from(dir);
+		fileTree.exclude(OutputManifest.FILE_NAME);
+		return fileTree.getFiles();
+	}
+	
+	private String toOutputPath(File outputFile, File buildDir, WebAppExtension config) {
+		return config.toRelativePath(outputFile, buildDir).replace(File.separatorChar, '/');
+	}
+	
+	protected WebAppFileIndex indexFiles(WebAppExtension config) {
+		return config.indexFiles(config.getWebAppFileTree(getObjectFactory(), paths));
+	}
+	
+	private boolean isTypeScriptOutput(File file, List<String> typeScriptOutputs) {
+		String path = file.getAbsolutePath();
+		for (String output : typeScriptOutputs) {
+			if (path.equals(output) || path.startsWith(output + File.separator)) {
+				return true;
+			}
+		}
+		return false;
 	}
 	
-	private void packageWebApp(File buildDir, WebAppExtension config) {
-		if (config.getCombineJavaScriptEnabled()) {
-			combineJavaScript(buildDir, config);
+	/**
+	 * Packages the entire web application. Files produced by the previous build
+	 * are only replaced if their contents have changed, and are otherwise kept
+	 * as-is so that their last modified time does not change. Files that are
+	 * no longer produced are deleted. Returns the statistics for packaging the
+	 * web application.
+	 */
+	protected PackagingReport packageWebApp(File buildDir, WebAppExtension config) {
+		PackagingRun run = new PackagingRun(getName());
+		packageWebApp(run, buildDir, config);
+		return run.report;
+	}
+	
+	private void packageWebApp(PackagingRun run, File buildDir, WebAppExtension config) {
+		run.previousManifest = OutputManifest.load(buildDir);
+		run.manifest = new OutputManifest();
+		run.manifestDir = buildDir;
+		
+		PackagingReport report = run.report;
+		WebAppFileIndex index = report.phase("scan", () -> indexFiles(config));
+		run.inliner = config.getInlineAssetsEnabled() ? new AssetInliner(config, index) : null;
+		
+		List<String> bundleNames = config.getBundleNames();
+		report.phase("combine", () -> combineFiles(run, config, index, 
+				config.getCombineJavaScriptEnabled() ? bundleNames : Collections.emptyList(), 
+				config.getCombineCSSEnabled() ? bundleNames : Collections.emptyList()));
+		report.phase("copy", () -> copyFiles(run, buildDir, config, index));
+		
+		Set<String> pendingPaths = new HashSet<>();
+		if (run.inliner != null) {
+			for (File candidate : run.inliner.getCandidates()) {
+				pendingPaths.add(index.getRelativePath(candidate));
+			}
 		}
+		report.phase("clean", () -> deleteObsoleteFiles(run, buildDir, config, pendingPaths));
 		
-		if (config.getCombineCSSEnabled()) {
-			combineCSS(buildDir, config);
+		if (run.inliner != null) {
+			// All files that are still needed are processed again, but are
+			// only copied if they have changed since the previous build.
+			report.phase("inline", () -> copyReferencedAssets(run, buildDir, config, index, 
+					new HashSet<>(run.inliner.getCandidates())));
 		}
 		
-		if (isTypeScriptWebApp(config)) {
-			compileTypeScript();
+		if (config.getCompressEnabled()) {
+			report.phase("compress", () -> compressFiles(run, listPackagedFiles(run, buildDir, config), 
+					buildDir, config));
 		}
 		
-		copyFiles(buildDir, config);
+		run.manifest.save(buildDir);
 	}
-
-	protected void combineJavaScript(File buildDir, WebAppExtension config) {
-		List<File> jsFiles = config.findCombinableJavaScriptFiles(getProject());
-		File combinedFile = config.getCombinedJavaScriptFile(getProject());
+	
+	/**
+	 * Returns all files in the packaged web application, indexed by their path
+	 * relative to the build directory. This includes files that are added to
+	 * the archive without being copied to the build directory.
+	 */
+	private Map<String, File> listPackagedFiles(PackagingRun run, File buildDir, WebAppExtension config) {
+		Map<String, File> packagedFiles = new TreeMap<>();
+		for (File file : listFiles(buildDir)) {
+			packagedFiles.put(toOutputPath(file, buildDir, config), file);
+		}
+		packagedFiles.putAll(run.archivedAssets);
+		return packagedFiles;
+	}
+	
+	/**
+	 * Creates the combined JavaScript and/or CSS files for the specified 
+	 * bundles, with {@code null} indicating the main combined files. All files
+	 * are created in parallel, since they are independent of each other.
+	 */
+	private void combineFiles(PackagingRun run, WebAppExtension config, WebAppFileIndex index, 
+			Collection<String> javaScriptBundles, Collection<String> cssBundles) {
+		Map<String, Runnable> workItems = new LinkedHashMap<>();
+		
+		for (String bundleName : javaScriptBundles) {
+			File combinedFile = config.toBundleFile(config.getCombinedJavaScriptFile(paths), bundleName);
+			workItems.put(combinedFile.getName(), () -> combineJavaScript(run, combinedFile, config, 
+					index.getCombinableJavaScriptFiles(bundleName)));
+		}
 		
+		for (String bundleName : cssBundles) {
+			File combinedFile = config.toBundleFile(config.getCombinedCSSFile(paths), bundleName);
+			workItems.put(combinedFile.getName(), () -> combineCSS(run, combinedFile, config, 
+					index.getCombinableCSSFiles(bundleName)));
+		}
+		
+		runInParallel(workItems, config);
+	}
+	
+	private void combineJavaScript(PackagingRun run, File combinedFile, WebAppExtension config, 
+			List<File> jsFiles) {
 		LOGGER.debug("Combining JavaScript files " + jsFiles);
 		LOGGER.debug("Creating combined JavaScript file " + combinedFile.getAbsolutePath());
 		
-		combineFiles(jsFiles, combinedFile, config, config.getRewriteJavaScriptFilter());
+		RewriteFilter filter = new RewriteFilter(config.getRewriteJavaScriptRules(), 
+				config.getRewriteJavaScriptOperator(), config.getRewriteJavaScriptFilter());
+		combineFiles(run, jsFiles, combinedFile, config, filter.isEmpty() ? null : file -> filter,
+				config.getMinifyJavaScript() ? JavaScriptMinifier::new : null);
 	}
 	
-	protected void combineCSS(File buildDir, WebAppExtension config) {
-		List<File> cssFiles = config.findCombinableCSSFiles(getProject());
-		File combinedFile = config.getCombinedCSSFile(getProject());
-		
+	private void combineCSS(PackagingRun run, File combinedFile, WebAppExtension config, List<File> cssFiles) {
 		LOGGER.debug("Combining CSS files " + cssFiles);
 		LOGGER.debug("Creating combined CSS file " + combinedFile.getAbsolutePath());
 		
-		combineFiles(cssFiles, combinedFile, config, null);
+		// References in CSS files are relative to the original file, so
+		// each file needs its own filter when inlining.
+		combineFiles(run, cssFiles, combinedFile, config, 
+				run.inliner == null ? null : run.inliner::createCSSFilter, 
+				config.getMinifyCSS() ? CSSMinifier::new : null);
 	}
 	
 	protected void combineFiles(List<File> sourceFiles, File outputFile, 
 			WebAppExtension config, Closure<String> filter) {
+		RewriteFilter rewriteFilter = filter == null ? null : new RewriteFilter(filter);
+		combineFiles(new PackagingRun(getName()), sourceFiles, outputFile, config, 
+				filter == null ? null : file -> rewriteFilter, null);
+	}
+	
+	private void combineFiles(PackagingRun run, List<File> sourceFiles, File outputFile, WebAppExtension config, 
+			Function<File, RewriteFilter> filters, Function<Writer, Writer> minifier) {
 		FileConcatenator fileConcatenator = new FileConcatenator(config);
-		fileConcatenator.concatenate(sourceFiles, outputFile, config.getRewriteJavaScriptFilter());
+		long startTime = System.nanoTime();
+		File resultFile = outputFile;
+		File tempFile = new File(outputFile.getParentFile(), outputFile.getName() + ".tmp");
+		fileConcatenator.concatenatePerFile(sourceFiles, tempFile, filters, minifier);
+		
+		if (tempFile.exists()) {
+			if (config.getContentHashNaming()) {
+				resultFile = config.toContentHashFile(outputFile, fileConcatenator.getContentHash());
+				replaceContentHashFile(outputFile, resultFile, tempFile, config);
+				recordOutputFile(run, resultFile, null, config);
+			} else {
+				replaceOutputFile(run, outputFile, tempFile, config);
+			}
+		}
+		
+		long bytesRead = sourceFiles.stream().mapToLong(File::length).sum();
+		run.report.recordFile("combine", resultFile.getName(), bytesRead, resultFile.length(), 
+				System.nanoTime() - startTime);
+	}
+	
+	/**
+	 * Replaces the combined file from the previous build with a newly created
+	 * combined file. If the contents are identical, which means the file name
+	 * is also identical, the existing file is kept as-is.
+	 */
+	private void replaceContentHashFile(File combinedFile, File hashedFile, File tempFile, 
+			WebAppExtension config) {
+		try {
+			for (File previousFile : config.findContentHashFiles(combinedFile)) {
+				if (!previousFile.equals(hashedFile)) {
+					Files.delete(previousFile.toPath());
+					new GzipCompressor(config).deleteSidecar(previousFile);
+				}
+			}
+			
+			if (hashedFile.exists()) {
+				Files.delete(tempFile.toPath());
+			} else {
+				Files.move(tempFile.toPath(), hashedFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+		} catch (IOException e) {
+			throw new RuntimeException("Cannot create combined file " + hashedFile.getAbsolutePath(), e);
+		}
 	}
 	
-	private boolean isTypeScriptWebApp(WebAppExtension config) {
-		List<File> tsFiles = config.findWebAppFiles(getProject()).stream()
-			.filter(file -> isTypeScriptFile(file))
-			.filter(file -> !file.getName().endsWith(".d.ts"))
+	/**
+	 * Replaces an output file with a newly created temporary file, unless the
+	 * existing file was produced by the previous build and has the same 
+	 * contents. In that case the existing file is kept, so that its last
+	 * modified time does not change.
+	 */
+	private void replaceOutputFile(PackagingRun run, File outputFile, File tempFile, WebAppExtension config) {
+		String hash = OutputManifest.hash(tempFile);
+		try {
+			if (isUnchangedOutputFile(run, outputFile, hash, config)) {
+				Files.delete(tempFile.toPath());
+			} else {
+				Files.move(tempFile.toPath(), outputFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+		} catch (IOException e) {
+			throw new RuntimeException("Cannot create file " + outputFile.getAbsolutePath(), e);
+		}
+		recordOutputFile(run, outputFile, hash, config);
+	}
+	
+	/**
+	 * Returns true if the output file was produced by the previous build with
+	 * the specified contents, and has not been changed since.
+	 */
+	private boolean isUnchangedOutputFile(PackagingRun run, File outputFile, String hash, 
+			WebAppExtension config) {
+		return run.previousManifest != null && 
+				run.previousManifest.isUnchanged(toManifestPath(run, outputFile, config), outputFile, hash);
+	}
+	
+	/**
+	 * Adds an output file to the manifest for the current build. If the hash
+	 * is {@code null}, it is taken from the previous build's manifest if the
+	 * file has not been changed since, or calculated from the file otherwise.
+	 */
+	private void recordOutputFile(PackagingRun run, File outputFile, String hash, WebAppExtension config) {
+		if (run.manifest == null) {
+			return;
+		}
+		
+		String path = toManifestPath(run, outputFile, config);
+		if (hash == null && run.previousManifest != null) {
+			hash = run.previousManifest.getHash(path, outputFile);
+		}
+		run.manifest.record(path, outputFile, hash == null ? OutputManifest.hash(outputFile) : hash);
+	}
+	
+	private String toManifestPath(PackagingRun run, File outputFile, WebAppExtension config) {
+		return config.toRelativePath(outputFile, run.manifestDir).replace(File.separatorChar, '/');
+	}
+	
+	/**
+	 * Returns the hash of a source file that is copied to the build directory.
+	 * If the output file is a hard link to the source file, and it has not 
+	 * been changed since the previous build, the hash from the previous build
+	 * is used instead of reading the file.
+	 */
+	private String hashSourceFile(PackagingRun run, File sourceFile, File outputFile, WebAppExtension config) {
+		String previousHash = run.previousManifest == null ? null : 
+				run.previousManifest.getHash(toManifestPath(run, outputFile, config), outputFile);
+		try {
+			if (previousHash != null && Files.isSameFile(sourceFile.toPath(), outputFile.toPath())) {
+				return previousHash;
+			}
+		} catch (IOException e) {
+			throw new RuntimeException("Cannot read file " + sourceFile.getAbsolutePath(), e);
+		}
+		return OutputManifest.hash(sourceFile);
+	}
+	
+	/**
+	 * Returns the combined file that should be referenced by HTML files. When
+	 * content hash naming is used, this is the file that was created by the
+	 * most recent build.
+	 */
+	private File resolveCombinedFile(File combinedFile, WebAppExtension config) {
+		if (config.getContentHashNaming()) {
+			List<File> hashedFiles = config.findContentHashFiles(combinedFile);
+			if (!hashedFiles.isEmpty()) {
+				return hashedFiles.get(0);
+			}
+		}
+		return combinedFile;
+	}
+	
+	private void copyFiles(PackagingRun run, File buildDir, WebAppExtension config, WebAppFileIndex index) {
+		copyFiles(run, index.getWebAppFiles(), buildDir, config, index);
+	}
+	
+	/**
+	 * Rewrites or copies the specified source files to the build directory.
+	 * Files are processed in parallel, using the configured number of threads.
+	 */
+	private void copyFiles(PackagingRun run, Collection<File> sourceFiles, File buildDir, 
+			WebAppExtension config, WebAppFileIndex index) {
+		ReferenceNames referenceNames = new ReferenceNames(config, index);
+		FileLinker fileLinker = new FileLinker(config.getLinkStrategy());
+		Map<String, Runnable> workItems = new LinkedHashMap<>();
+		
+		for (File sourceFile : sourceFiles) {
+			workItems.put(index.getRelativePath(sourceFile), () -> processSourceFile(run, sourceFile, 
+					buildDir, config, index, referenceNames, fileLinker));
+		}
+		
+		runInParallel(workItems, config);
+	}
+	
+	/**
+	 * Performs a number of independent work items using a thread pool, with
+	 * the number of threads determined by the configured parallelism. This
+	 * waits until all work items have been completed, even if some of them
+	 * fail. All failures are then reported together, indicating the work item
+	 * that caused each failure.
+	 * @throws GradleException if one or more of the work items failed.
+	 */
+	protected void runInParallel(Map<String, Runnable> workItems, WebAppExtension config) {
+		ParallelExecutor.run(workItems, config.getParallelism(), "package", "web application file(s)");
+	}
+	
+	/**
+	 * Creates compressed versions of the specified files in the build directory,
+	 * if they are eligible for compression. Files are compressed in parallel. 
+	 * Files that were already compressed during a previous build, and have not
+	 * changed since, are not compressed again.
+	 * @param packagedFiles Files to compress, indexed by their path relative
+	 *        to the build directory.
+	 */
+	private void compressFiles(PackagingRun run, Map<String, File> packagedFiles, File buildDir, 
+			WebAppExtension config) {
+		GzipCompressor compressor = new GzipCompressor(config);
+		Map<String, Runnable> workItems = new LinkedHashMap<>();
+		
+		for (Map.Entry<String, File> entry : packagedFiles.entrySet()) {
+			File packagedFile = entry.getValue();
+			if (compressor.isCompressible(packagedFile)) {
+				String relativePath = entry.getKey();
+				File sidecarFile = new File(buildDir, relativePath + GzipCompressor.SIDECAR_EXTENSION);
+				workItems.put(relativePath, () -> compressFile(run, packagedFile, sidecarFile, relativePath, 
+						compressor, config));
+			}
+		}
+		
+		LOGGER.debug("Compressing " + workItems.size() + " packaged web app files");
+		runInParallel(workItems, config);
+	}
+	
+	private void compressFile(PackagingRun run, File packagedFile, File sidecarFile, String relativePath, 
+			GzipCompressor compressor, WebAppExtension config) {
+		long startTime = System.nanoTime();
+		boolean compressed = compressor.compress(packagedFile, sidecarFile);
+		long bytesWritten = compressed ? sidecarFile.length() : 0L;
+		if (compressed) {
+			recordOutputFile(run, sidecarFile, null, config);
+		}
+		run.report.recordFile("compress", relativePath, packagedFile.length(), bytesWritten, 
+				System.nanoTime() - startTime);
+	}
+	
+	private void processSourceFile(PackagingRun run, File sourceFile, File buildDir, WebAppExtension config, 
+			WebAppFileIndex index, ReferenceNames referenceNames, FileLinker fileLinker) {
+		File outputFile = getOutputFile(sourceFile, buildDir, config, index);
+		long startTime = System.nanoTime();
+		
+		if (shouldRewriteSourceFile(sourceFile)) {
+			boolean written = rewriteSourceFile(run, sourceFile, outputFile, config, index, referenceNames);
+			run.report.recordFile("rewrite", index.getRelativePath(sourceFile), sourceFile.length(), 
+					written ? outputFile.length() : 0L, System.nanoTime() - startTime);
+		} else if (run.inliner != null && run.inliner.isCandidate(sourceFile)) {
+			// Files that might be inlined are only copied once it is known
+			// whether they are still needed, see copyReferencedAssets().
+			return;
+		} else if (shouldCopySourceFile(sourceFile, index)) {
+			copyAsset(run, sourceFile, outputFile, config, index, fileLinker);
+		}
+	}
+	
+	private void copyAsset(PackagingRun run, File sourceFile, File outputFile, WebAppExtension config, 
+			WebAppFileIndex index, FileLinker fileLinker) {
+		if (!config.getBuildDirEnabled()) {
+			// The file is added to the archive directly from the source 
+			// directory, see writeArchive().
+			run.archivedAssets.put(index.getRelativePath(sourceFile), sourceFile);
+			return;
+		}
+		
+		long startTime = System.nanoTime();
+		String hash = run.manifest == null ? null : hashSourceFile(run, sourceFile, outputFile, config);
+		if (hash != null && isUnchangedOutputFile(run, outputFile, hash, config)) {
+			recordOutputFile(run, outputFile, hash, config);
+			run.report.recordFile("skip", index.getRelativePath(sourceFile), sourceFile.length(), 0L,
+					System.nanoTime() - startTime);
+			return;
+		}
+		
+		boolean linked = copyFile(sourceFile, outputFile, config, fileLinker);
+		recordOutputFile(run, outputFile, hash, config);
+		// Linked files share their contents with the source file, so 
+		// nothing is actually read or written.
+		long bytes = linked ? 0L : sourceFile.length();
+		run.report.recordFile(linked ? "link" : "copy", index.getRelativePath(sourceFile), bytes, bytes,
+				System.nanoTime() - startTime);
+	}
+	
+	/**
+	 * Copies the files that could have been inlined, but are still needed in
+	 * the packaged web app. Files that were referenced from HTML or CSS files,
+	 * but are no longer referenced after inlining, are dropped instead. Since
+	 * files might also be referenced from scripts or other files that are not
+	 * processed by the build, all text files in the build directory are 
+	 * searched for references to the inlined files. Returns the files that 
+	 * were copied.
+	 */
+	private List<File> copyReferencedAssets(PackagingRun run, File buildDir, WebAppExtension config, 
+			WebAppFileIndex index, Set<File> changedFiles) {
+		AssetInliner inliner = run.inliner;
+		List<File> sourceTextFiles = new ArrayList<>(index.getHTMLFiles());
+		sourceTextFiles.addAll(index.getCombinableCSSFiles());
+		Set<File> inlinedFiles = findReferencedFiles(sourceTextFiles, config, 
+				(text, file, result) -> inliner.findInlinedFiles(text, index.getRelativePath(file), result));
+		
+		List<File> candidates = inliner.getCandidates();
+		Set<File> candidateOutputs = new HashSet<>();
+		for (File candidate : candidates) {
+			candidateOutputs.add(getOutputFile(candidate, buildDir, config, index));
+		}
+		
+		List<File> outputTextFiles = listFiles(buildDir).stream()
+			.filter(file -> AssetInliner.isTextFile(file.getName()) && !candidateOutputs.contains(file))
+			.collect(Collectors.toList());
+		Set<File> referencedFiles = findReferencedFiles(outputTextFiles, config, 
+				(text, file, result) -> inliner.findReferencedFiles(text, result));
+		
+		FileLinker fileLinker = new FileLinker(config.getLinkStrategy());
+		GzipCompressor compressor = new GzipCompressor(config);
+		Map<String, Runnable> workItems = new LinkedHashMap<>();
+		List<File> copiedFiles = new ArrayList<>();
+		int droppedFiles = 0;
+		long droppedBytes = 0L;
+		
+		for (File candidate : candidates) {
+			File outputFile = getOutputFile(candidate, buildDir, config, index);
+			
+			if (inlinedFiles.contains(candidate) && !referencedFiles.contains(candidate)) {
+				LOGGER.debug("Dropping inlined web app file " + candidate.getAbsolutePath());
+				outputFile.delete();
+				compressor.deleteSidecar(outputFile);
+				droppedFiles++;
+				droppedBytes += candidate.length();
+			} else if (!outputFile.exists() || changedFiles.contains(candidate)) {
+				workItems.put(index.getRelativePath(candidate), () -> copyAsset(run, candidate, outputFile, 
+						config, index, fileLinker));
+				copiedFiles.add(candidate);
+			}
+		}
+		
+		runInParallel(workItems, config);
+		recordInlining(run, droppedFiles, droppedBytes);
+		return copiedFiles;
+	}
+	
+	/**
+	 * Copies the files that could have been inlined, and are referenced from
+	 * the specified files in the build directory, but were dropped by the 
+	 * previous build. This is used instead of searching the entire build
+	 * directory when none of the files that could have been inlined changed.
+	 * Files that are no longer needed are not dropped, that only happens when
+	 * the entire web application is packaged.
+	 */
+	private List<File> copyNewlyReferencedAssets(PackagingRun run, File buildDir, WebAppExtension config, 
+			WebAppFileIndex index, Collection<File> changedOutputs) {
+		AssetInliner inliner = run.inliner;
+		List<File> outputTextFiles = changedOutputs.stream()
+			.filter(file -> AssetInliner.isTextFile(file.getName()) && file.exists())
 			.collect(Collectors.toList());
+		Set<File> referencedFiles = findReferencedFiles(outputTextFiles, config, 
+				(text, file, result) -> inliner.findReferencedFiles(text, result));
+		
+		FileLinker fileLinker = new FileLinker(config.getLinkStrategy());
+		Map<String, Runnable> workItems = new LinkedHashMap<>();
+		List<File> copiedFiles = new ArrayList<>();
 		
-		return !tsFiles.isEmpty();
+		for (File candidate : inliner.getCandidates()) {
+			File outputFile = getOutputFile(candidate, buildDir, config, index);
+			if (referencedFiles.contains(candidate) && !outputFile.exists()) {
+				workItems.put(index.getRelativePath(candidate), () -> copyAsset(run, candidate, outputFile, 
+						config, index, fileLinker));
+				copiedFiles.add(candidate);
+			}
+		}
+		
+		runInParallel(workItems, config);
+		recordInlining(run, 0, 0L);
+		return copiedFiles;
 	}
 	
-	private void compileTypeScript() {
-		getProject().exec(spec -> spec.commandLine("tsc"));
+	private void recordInlining(PackagingRun run, int droppedFiles, long droppedBytes) {
+		Map<File, Integer> inlinedReferences = run.inliner.getInlinedReferences();
+		long dataURIBytes = 0L;
+		for (Map.Entry<File, Integer> entry : inlinedReferences.entrySet()) {
+			dataURIBytes += entry.getValue() * run.inliner.getDataURISize(entry.getKey());
+		}
+		run.report.recordInlining(inlinedReferences.values().stream().mapToInt(Integer::intValue).sum(), 
+				inlinedReferences.size(), droppedFiles, droppedBytes, dataURIBytes);
 	}
 	
-	private void copyFiles(File buildDir, WebAppExtension config) {
-		for (File sourceFile : config.findWebAppFiles(getProject())) {
-			File outputFile = new File(buildDir.getAbsolutePath() + "/" + 
-					config.toRelativePath(getProject(), sourceFile));
+	private Set<File> findReferencedFiles(List<File> textFiles, WebAppExtension config, 
+			ReferenceFinder finder) {
+		Set<File> referencedFiles = ConcurrentHashMap.newKeySet();
+		Map<String, Runnable> workItems = new LinkedHashMap<>();
+		
+		for (File textFile : textFiles) {
+			workItems.put(textFile.getAbsolutePath(), () -> {
+				try {
+					String text = new String(Files.readAllBytes(textFile.toPath()), config.getCharsetObject());
+					finder.find(text, textFile, referencedFiles);
+				} catch (IOException e) {
+					throw new RuntimeException("Cannot read file " + textFile.getAbsolutePath(), e);
+				}
+			});
+		}
+		
+		runInParallel(workItems, config);
+		return referencedFiles;
+	}
+	
+	private File getOutputFile(File sourceFile, File buildDir, WebAppExtension config,
+			WebAppFileIndex index) {
+		String relativePath = index.getRelativePath(sourceFile);
+		if (relativePath == null) {
+			relativePath = config.toRelativePath(paths, sourceFile);
+		}
+		return new File(buildDir.getAbsolutePath() + "/" + relativePath);
+	}
+	
+	private void packageChangedFiles(PackagingRun run, File buildDir, WebAppExtension config, 
+			InputChanges inputChanges) {
+		Map<File, ChangeType> changes = new LinkedHashMap<>();
+		for (FileChange change : inputChanges.getFileChanges(getSourceFiles())) {
+			if (change.getFileType() != FileType.DIRECTORY) {
+				changes.put(change.getFile(), change.getChangeType());
+			}
+		}
+		WebAppFileIndex index = run.report.phase("scan", () -> indexFiles(config));
+		packageChangedFiles(run, buildDir, config, index, changes);
+	}
+	
+	/**
+	 * Processes only the source files that have been changed since the previous
+	 * build, and updates the build directory accordingly. The combined JavaScript
+	 * and CSS files are only recreated if they are affected by the changes. If 
+	 * files were added to or removed from the combined files, all HTML files are
+	 * rewritten since they might refer to those files. Returns the statistics
+	 * for packaging the changed files.
+	 */
+	protected PackagingReport packageChangedFiles(File buildDir, WebAppExtension config, 
+			Map<File, ChangeType> changes) {
+		PackagingRun run = new PackagingRun(getName());
+		WebAppFileIndex index = run.report.phase("scan", () -> indexFiles(config));
+		packageChangedFiles(run, buildDir, config, index, changes);
+		return run.report;
+	}
+	
+	/**
+	 * Processes only the source files that have been changed, using an existing
+	 * index of the source directory instead of scanning the source directory 
+	 * again. The index should reflect the source directory after the changes.
+	 */
+	protected PackagingReport packageChangedFiles(File buildDir, WebAppExtension config, 
+			WebAppFileIndex index, Map<File, ChangeType> changes) {
+		PackagingRun run = new PackagingRun(getName());
+		packageChangedFiles(run, buildDir, config, index, changes);
+		return run.report;
+	}
+	
+	private void packageChangedFiles(PackagingRun run, File buildDir, WebAppExtension config, 
+			WebAppFileIndex index, Map<File, ChangeType> changes) {
+		run.previousManifest = OutputManifest.load(buildDir);
+		run.manifest = run.previousManifest == null ? null : run.previousManifest.copy();
+		run.manifestDir = buildDir;
+		
+		PackagingReport report = run.report;
+		Set<String> changedJavaScriptBundles = new LinkedHashSet<>();
+		Set<String> changedCSSBundles = new LinkedHashSet<>();
+		boolean referencesChanged = false;
+		AssetInliner inliner = config.getInlineAssetsEnabled() ? new AssetInliner(config, index) : null;
+		run.inliner = inliner;
+		
+		for (Map.Entry<File, ChangeType> change : changes.entrySet()) {
+			File sourceFile = change.getKey();
+			
+			if (inliner != null && AssetInliner.isInlineableType(sourceFile.getName())) {
+				// The file might have been inlined in any of the HTML or CSS
+				// files, and its size might have crossed the threshold.
+				changedCSSBundles.addAll(config.getBundleNames());
+				referencesChanged = true;
+			}
 			
-			if (shouldRewriteSourceFile(sourceFile)) {
-				rewriteSourceFile(sourceFile, outputFile, config);
-			} else if (shouldCopySourceFile(sourceFile, config)) {
-				copyFile(sourceFile, outputFile, config);
+			if (change.getValue() == ChangeType.REMOVED) {
+				LOGGER.debug("Removing deleted web app source file " + sourceFile.getAbsolutePath());
+				File outputFile = getOutputFile(sourceFile, buildDir, config, index);
+				outputFile.delete();
+				new GzipCompressor(config).deleteSidecar(outputFile);
+				// The file no longer exists, so it is not possible to determine 
+				// whether it was part of one of the combined files, or which 
+				// bundle it belonged to.
+				if (sourceFile.getName().endsWith(".js")) {
+					changedJavaScriptBundles.addAll(config.getBundleNames());
+				} else if (sourceFile.getName().endsWith(".css")) {
+					changedCSSBundles.addAll(config.getBundleNames());
+				}
+				referencesChanged = true;
+			} else if (index.isCombinableJavaScriptFile(sourceFile)) {
+				changedJavaScriptBundles.add(index.getBundle(sourceFile));
+				referencesChanged |= change.getValue() == ChangeType.ADDED;
+			} else if (index.isCombinableCSSFile(sourceFile)) {
+				changedCSSBundles.add(index.getBundle(sourceFile));
+				referencesChanged |= change.getValue() == ChangeType.ADDED;
 			}
 		}
+		
+		ReferenceNames previousReferenceNames = new ReferenceNames(config, index);
+		if (!config.getCombineJavaScriptEnabled()) {
+			changedJavaScriptBundles.clear();
+		}
+		if (!config.getCombineCSSEnabled()) {
+			changedCSSBundles.clear();
+		}
+		report.phase("combine", () -> combineFiles(run, config, index, changedJavaScriptBundles, 
+				changedCSSBundles));
+		// When using content hash naming, the combined file name changes when
+		// its contents change, so all references need to be updated.
+		referencesChanged |= !previousReferenceNames.hasSameCombinedFiles(new ReferenceNames(config, index));
+		
+		List<File> combinedOutputs = new ArrayList<>();
+		for (String bundleName : changedCSSBundles) {
+			combinedOutputs.add(resolveCombinedFile(config.toBundleFile(
+					config.getCombinedCSSFile(paths), bundleName), config));
+		}
+		for (String bundleName : changedJavaScriptBundles) {
+			combinedOutputs.add(resolveCombinedFile(config.toBundleFile(
+					config.getCombinedJavaScriptFile(paths), bundleName), config));
+		}
+		
+		Set<File> processedFiles = new LinkedHashSet<>();
+		for (Map.Entry<File, ChangeType> change : changes.entrySet()) {
+			if (change.getValue() != ChangeType.REMOVED) {
+				processedFiles.add(change.getKey());
+			}
+		}
+		
+		if (referencesChanged) {
+			processedFiles.addAll(index.getHTMLFiles());
+		}
+		
+		report.phase("copy", () -> copyFiles(run, processedFiles, buildDir, config, index));
+		
+		if (inliner != null) {
+			boolean inlineableFilesChanged = changes.keySet().stream()
+				.anyMatch(file -> AssetInliner.isInlineableType(file.getName()));
+			
+			if (inlineableFilesChanged) {
+				processedFiles.addAll(report.phase("inline", () -> copyReferencedAssets(run, buildDir, config, 
+						index, changes.keySet())));
+			} else {
+				List<File> changedOutputs = new ArrayList<>();
+				for (File processedFile : processedFiles) {
+					changedOutputs.add(getOutputFile(processedFile, buildDir, config, index));
+				}
+				changedOutputs.addAll(combinedOutputs);
+				processedFiles.addAll(report.phase("inline", () -> copyNewlyReferencedAssets(run, buildDir, 
+						config, index, changedOutputs)));
+			}
+		}
+		
+		if (config.getCompressEnabled()) {
+			report.phase("compress", () -> {
+				List<File> packagedFiles = new ArrayList<>();
+				for (File processedFile : processedFiles) {
+					packagedFiles.add(getOutputFile(processedFile, buildDir, config, index));
+				}
+				// Only the combined files that have actually been rebuilt
+				// need to be compressed again.
+				packagedFiles.addAll(combinedOutputs);
+				
+				Map<String, File> relativePackagedFiles = new LinkedHashMap<>();
+				for (File packagedFile : packagedFiles) {
+					relativePackagedFiles.put(toOutputPath(packagedFile, buildDir, config), packagedFile);
+				}
+				compressFiles(run, relativePackagedFiles, buildDir, config);
+			});
+		}
+		
+		// Without a manifest for the previous build, the manifest would only
+		// contain the changed files, so the next build will package the
+		// entire web application instead.
+		if (run.manifest != null) {
+			run.manifest.removeMissing(buildDir);
+			run.manifest.save(buildDir);
+		}
 	}
-
-	protected boolean shouldCopySourceFile(File sourceFile, WebAppExtension config) {
+	
+	/**
+	 * Writes the packaged web application to a ZIP archive. Entries are 
+	 * compressed in parallel, and files that are already compressed are 
+	 * stored as-is. When the archive replaces the WAR file, the classes,
+	 * libraries, and deployment descriptor are also added to the archive.
+	 */
+	private void writeArchive(PackagingRun run, File archiveFile, File buildDir, WebAppExtension config) {
+		long startTime = System.nanoTime();
+		ZipArchiveWriter archive = new ZipArchiveWriter(archiveFile, config.getParallelism());
+		
+		for (Map.Entry<String, File> entry : listPackagedFiles(run, buildDir, config).entrySet()) {
+			archive.addFile(entry.getKey(), entry.getValue());
+		}
+		
+		if (warClasspath != null) {
+			archive.addBytes("META-INF/MANIFEST.MF", "Manifest-Version: 1.0\r\n\r\n"
+					.getBytes(Charset.forName("UTF-8")));
+			for (File file : warClasspath) {
+				if (file.isDirectory()) {
+					for (File classFile : listFiles(file)) {
+						archive.addFile("WEB-INF/classes/" + config.toRelativePath(classFile, file), classFile);
+					}
+				} else if (file.exists()) {
+					archive.addFile("WEB-INF/lib/" + file.getName(), file);
+				}
+			}
+		}
+		
+		if (webXml != null) {
+			archive.addFile("WEB-INF/web.xml", webXml);
+		}
+		
+		LOGGER.debug("Writing " + archive.getEntryCount() + " entries to " + archiveFile.getAbsolutePath());
+		archive.write();
+		run.report.recordFile("archive", archiveFile.getName(), archive.getBytesRead(), archive.getBytesWritten(),
+				System.nanoTime() - startTime);
+	}
+	
+	protected boolean shouldCopySourceFile(File sourceFile, WebAppFileIndex index) {
 		if (sourceFile.getName().endsWith(".js")) {
-			List<File> combinableJavaScriptFiles = config.findCombinableJavaScriptFiles(getProject());
-			boolean isGenerated = config.getCombinedJavaScriptFile(getProject()).equals(sourceFile);
-			
-			return !combinableJavaScriptFiles.contains(sourceFile) && !isGenerated;
+			return !index.isCombinableJavaScriptFile(sourceFile);
 		} else if (isTypeScriptFile(sourceFile)) {
 			return false;
 		} else if (sourceFile.getName().endsWith(".css")) {
-			return !config.findCombinableCSSFiles(getProject()).contains(sourceFile);
+			return !index.isCombinableCSSFile(sourceFile);
 		} else {
 			return true;
 		}
@@ -153,101 +1170,146 @@ public class PackageWebAppTask extends DefaultTask {
 	private boolean isTypeScriptFile(File sourceFile) {
 		return sourceFile.getName().endsWith(".ts") || sourceFile.getName().endsWith(".tsx");
 	}
-
+	
 	private boolean shouldRewriteSourceFile(File sourceFile) {
 		return sourceFile.getName().endsWith(".html");
 	}
 	
-	private void copyFile(File sourceFile, File outputFile, WebAppExtension config) {
+	/**
+	 * Copies a source file to the build directory without modifying it. 
+	 * Depending on the configured link strategy, the file in the build 
+	 * directory might be a link to the source file. Returns true if the file
+	 * in the build directory is a link.
+	 */
+	private boolean copyFile(File sourceFile, File outputFile, WebAppExtension config, 
+			FileLinker fileLinker) {
 		config.prepareOutputFile(outputFile);
 		
 		try {
-			Files.copy(sourceFile.toPath(), outputFile.toPath());
+			return fileLinker.link(sourceFile.toPath(), outputFile.toPath());
 		} catch (IOException e) {
 			throw new RuntimeException("Cannot create file " + outputFile.getAbsolutePath(), e);
 		}
 	}
 	
-	private void rewriteSourceFile(File sourceFile, File outputFile, WebAppExtension config) {
-		config.prepareOutputFile(outputFile);
-
+	/**
+	 * Rewrites an HTML file to refer to the combined files. The rewritten file
+	 * is only written if it differs from the file produced by the previous
+	 * build. Returns true if the file was written.
+	 */
+	private boolean rewriteSourceFile(PackagingRun run, File sourceFile, File outputFile, 
+			WebAppExtension config, WebAppFileIndex index, ReferenceNames referenceNames) {
 		LOGGER.debug("Rewriting web app source file " + sourceFile.getAbsolutePath());
 		try {
-			List<String> lines = Files.readAllLines(sourceFile.toPath(), config.getCharsetObject());
-			List<String> rewrittenLines = rewriteSourceFile(lines, config);
+			String html = new String(Files.readAllBytes(sourceFile.toPath()), config.getCharsetObject());
+			String rewrittenHTML = referenceNames.rewriter.rewrite(html, index.getRelativePath(sourceFile));
+			if (run.inliner != null) {
+				rewrittenHTML = run.inliner.inlineHTML(rewrittenHTML, index.getRelativePath(sourceFile));
+			}
 			
-			PrintWriter writer = new PrintWriter(outputFile, config.getCharset());
-			for (String line : rewrittenLines) {
-				writer.println(line);
+			byte[] contents = rewrittenHTML.getBytes(config.getCharsetObject());
+			String hash = run.manifest == null ? null : OutputManifest.hash(contents);
+			if (hash != null && isUnchangedOutputFile(run, outputFile, hash, config)) {
+				recordOutputFile(run, outputFile, hash, config);
+				return false;
 			}
-			writer.close();
+			
+			config.prepareOutputFile(outputFile);
+			Files.write(outputFile.toPath(), contents);
+			recordOutputFile(run, outputFile, hash, config);
+			return true;
 		} catch (IOException e) {
 			throw new RuntimeException("Cannot create file " + outputFile.getAbsolutePath(), e);
 		}
 	}
 	
-	private List<String> rewriteSourceFile(List<String> lines, WebAppExtension config) {
-		List<String> result = new ArrayList<>();
-		Set<String> inserted = new HashSet<>();
-		
-		for (String line : lines) {
-			String rewrittenLine = rewriteSourceFileReferences(line, config);
-			
-			if (line.equals(rewrittenLine)) {
-				result.add(line);
-			} else if (!inserted.contains(rewrittenLine)) {
-				result.add(rewrittenLine);
-				inserted.add(rewrittenLine);
-			}
-		}
-		
-		return result;
-	}
-	
-	private String rewriteSourceFileReferences(String line, WebAppExtension config) {
-		Project project = getProject();
-		//TODO support replacement file in relative path (currently assumes the
-		//     combined file is always created in the web build directory root.
-		line = rewriteSourceFileReferences(line, config.findCombinableJavaScriptFiles(project), 
-				config.getCombinedJavaScriptFile(project));
-		line = rewriteSourceFileReferences(line, config.findCombinableCSSFiles(project), 
-				config.getCombinedCSSFile(project));
-		return line;
+	protected String rewriteSourceFileReferences(String line, List<File> sourceFiles, File replacement) {
+		return rewriteSourceFileReferences(line, toFileNames(sourceFiles), replacement.getName());
 	}
 	
-	protected String rewriteSourceFileReferences(String line, List<File> sourceFiles, File replacement) {
-		//TODO this check is based on the file name, meaning it will not work
-		//     if there are multiple source files in different directories
-		//     with the same name.
-		List<String> sourceFileNames = sourceFiles.stream()
+	private static List<String> toFileNames(List<File> sourceFiles) {
+		return sourceFiles.stream()
 			.map(f -> f.getName())
 			.collect(Collectors.toList());
-		
-		return rewriteSourceFileReferences(line, sourceFileNames, replacement.getName());
 	}
 	
 	protected String rewriteSourceFileReferences(String line, List<String> sourceFileNames, 
 			String replacementFileName) {
-		for (String sourceFileName : sourceFileNames) {
-			if (isJavaScriptFileReference(line, sourceFileName)) {
-				return "<script src=\"" + replacementFileName + "\"></script>";
-			}
+		HTMLReferenceRewriter rewriter = new HTMLReferenceRewriter(sourceFileNames, replacementFileName,
+				sourceFileNames, replacementFileName, Collections.emptyList());
+		return rewriter.rewrite(line, "");
+	}
+	
+	/**
+	 * The names of the files that should be replaced with references to the
+	 * combined files when rewriting HTML files. These are determined once,
+	 * rather than for every HTML file. Each file is replaced with the combined
+	 * file for the bundle it is part of.
+	 */
+	private class ReferenceNames {
+		
+		private List<String> combinedFileNames;
+		private HTMLReferenceRewriter rewriter;
+		
+		public ReferenceNames(WebAppExtension config, WebAppFileIndex index) {
+			combinedFileNames = new ArrayList<>();
+			Map<String, String> javaScriptReplacements = new LinkedHashMap<>();
+			Map<String, String> cssReplacements = new LinkedHashMap<>();
 			
-			if (isCSSFileReference(line, sourceFileName)) {
-				return "<link rel=\"stylesheet\" href=\"" + replacementFileName + "\" />";
+			for (String bundleName : config.getBundleNames()) {
+				String javaScriptFileName = resolveCombinedFile(config.toBundleFile(
+						config.getCombinedJavaScriptFile(paths), bundleName), config).getName();
+				String cssFileName = resolveCombinedFile(config.toBundleFile(
+						config.getCombinedCSSFile(paths), bundleName), config).getName();
+				combinedFileNames.add(javaScriptFileName);
+				combinedFileNames.add(cssFileName);
+				
+				for (File file : index.getCombinableJavaScriptFiles(bundleName)) {
+					javaScriptReplacements.put(index.getRelativePath(file), javaScriptFileName);
+				}
+				for (File file : index.getCombinableCSSFiles(bundleName)) {
+					cssReplacements.put(index.getRelativePath(file), cssFileName);
+				}
 			}
+			
+			List<String> webAppFiles = index.getWebAppFiles().stream()
+				.map(index::getRelativePath)
+				.collect(Collectors.toList());
+			rewriter = new HTMLReferenceRewriter(javaScriptReplacements, cssReplacements, webAppFiles);
 		}
 		
-		return line;
+		public boolean hasSameCombinedFiles(ReferenceNames other) {
+			return combinedFileNames.equals(other.combinedFileNames);
+		}
 	}
-
-	private boolean isJavaScriptFileReference(String line, String sourceFileName) {
-		return line.trim().startsWith("<script ") && line.contains(" src=\"") && 
-				line.toLowerCase().contains(sourceFileName.toLowerCase());
+	
+	/**
+	 * State for a single time the web application is packaged. This is created
+	 * every time the task is performed, and every time changed files are 
+	 * packaged while watching, so that the task itself is not changed.
+	 */
+	private static class PackagingRun {
+		
+		private PackagingReport report;
+		private Map<String, File> archivedAssets;
+		private OutputManifest manifest;
+		private OutputManifest previousManifest;
+		private File manifestDir;
+		private AssetInliner inliner;
+		
+		public PackagingRun(String taskName) {
+			report = new PackagingReport(taskName);
+			archivedAssets = new ConcurrentHashMap<>();
+		}
 	}
 	
-	private boolean isCSSFileReference(String line, String sourceFileName) {
-		return line.trim().startsWith("<link ") && line.contains("rel=\"stylesheet\"") &&
-				line.contains(" href=\"") && line.toLowerCase().contains(sourceFileName.toLowerCase());
+	/**
+	 * Searches the contents of a text file for references to files that could
+	 * have been inlined.
+	 */
+	@FunctionalInterface
+	private interface ReferenceFinder {
+		
+		public void find(String text, File textFile, Set<File> referencedFiles);
 	}
 }
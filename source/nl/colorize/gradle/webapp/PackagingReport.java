@@ -0,0 +1,315 @@
+//-----------------------------------------------------------------------------
+// Colorize Gradle tasks
+// Copyright 2010-2017 Colorize
+// Apache license (http://www.colorize.nl/code_license.txt)
+//-----------------------------------------------------------------------------
+
+package nl.colorize.gradle.webapp;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.function.Supplier;
+
+import groovy.json.JsonOutput;
+
+/**
+ * Records how long the different phases of packaging or synchronizing the web
+ * application take, and how many files and bytes were processed. Files are
+ * grouped by category, for example files that were copied versus files that
+ * were rewritten. The slowest files are also recorded individually.
+ * <p>
+ * The results can be written to a JSON file, so that they can be tracked
+ * over time, and can be summarized in a single line for the console. This
+ * class is thread-safe, so files that are processed in parallel can be
+ * recorded from multiple threads.
+ */
+public class PackagingReport {
+	
+	private String taskName;
+	private long startTime;
+	private Map<String, Long> phases;
+	private Map<String, FileStats> categories;
+	private PriorityQueue<FileTiming> slowestFiles;
+	private Map<String, Long> inlining;
+	private Map<String, Map<String, Object>> targets;
+	
+	private static final int SLOWEST_FILES = 10;
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	
+	public PackagingReport(String taskName) {
+		this.taskName = taskName;
+		this.startTime = System.nanoTime();
+		this.phases = new LinkedHashMap<>();
+		this.categories = new LinkedHashMap<>();
+		this.slowestFiles = new PriorityQueue<>(Comparator.comparingLong(file -> file.time));
+		this.inlining = new LinkedHashMap<>();
+		this.targets = new LinkedHashMap<>();
+	}
+	
+	/**
+	 * Performs an action and records its duration as part of the specified
+	 * phase. When the same phase is performed multiple times, the total
+	 * duration is recorded.
+	 */
+	public void phase(String name, Runnable action) {
+		phase(name, () -> {
+			action.run();
+			return null;
+		});
+	}
+	
+	public <T> T phase(String name, Supplier<T> action) {
+		long phaseStartTime = System.nanoTime();
+		try {
+			return action.get();
+		} finally {
+			long duration = System.nanoTime() - phaseStartTime;
+			synchronized (this) {
+				phases.merge(name, duration, Long::sum);
+			}
+		}
+	}
+	
+	/**
+	 * Records that a file has been processed.
+	 * @param time The time it took to process the file, in nanoseconds.
+	 */
+	public synchronized void recordFile(String category, String path, long bytesRead, long bytesWritten,
+			long time) {
+		FileStats stats = categories.computeIfAbsent(category, c -> new FileStats());
+		stats.count++;
+		stats.bytesRead += bytesRead;
+		stats.bytesWritten += bytesWritten;
+		stats.time += time;
+		
+		slowestFiles.add(new FileTiming(category, path, bytesRead, bytesWritten, time));
+		if (slowestFiles.size() > SLOWEST_FILES) {
+			slowestFiles.poll();
+		}
+	}
+	
+	/**
+	 * Records the results of inlining small files. Every inlined reference 
+	 * saves a request, and files that are no longer referenced after inlining
+	 * are dropped from the packaged web app.
+	 * @param dataURIBytes The number of bytes added to CSS and HTML files by
+	 *        replacing references with {@code data:} URIs.
+	 */
+	public synchronized void recordInlining(int references, int files, int droppedFiles, long droppedBytes,
+			long dataURIBytes) {
+		inlining.merge("references", (long) references, Long::sum);
+		inlining.merge("files", (long) files, Long::sum);
+		inlining.merge("droppedFiles", (long) droppedFiles, Long::sum);
+		inlining.merge("droppedBytes", droppedBytes, Long::sum);
+		inlining.merge("dataURIBytes", dataURIBytes, Long::sum);
+	}
+	
+	/**
+	 * Records the throughput for one of the locations that files were written
+	 * to, when the same files are written to multiple locations.
+	 * @param time The time spent writing to the location, in nanoseconds.
+	 * @param failure The reason the location failed, or {@code null}.
+	 */
+	public synchronized void recordTarget(String target, int files, long bytesWritten, long time, 
+			Exception failure) {
+		Map<String, Object> json = new LinkedHashMap<>();
+		json.put("files", files);
+		json.put("bytesWritten", bytesWritten);
+		json.put("timeMs", toPreciseMillis(time));
+		json.put("bytesPerSecond", time == 0L ? 0L : Math.round(bytesWritten / (time / 1_000_000_000.0)));
+		if (failure != null) {
+			json.put("failure", String.valueOf(failure.getMessage()));
+		}
+		targets.put(target, json);
+	}
+	
+	/**
+	 * Returns the number of requests saved by inlining small files, which is
+	 * the number of references that were replaced.
+	 */
+	public synchronized long getRequestsSaved() {
+		return inlining.getOrDefault("references", 0L);
+	}
+	
+	public synchronized long getBytesSaved() {
+		return inlining.getOrDefault("droppedBytes", 0L);
+	}
+	
+	public synchronized int getFileCount() {
+		return categories.values().stream().mapToInt(stats -> stats.count).sum();
+	}
+	
+	public synchronized long getBytesRead() {
+		return categories.values().stream().mapToLong(stats -> stats.bytesRead).sum();
+	}
+	
+	public synchronized long getBytesWritten() {
+		return categories.values().stream().mapToLong(stats -> stats.bytesWritten).sum();
+	}
+	
+	public synchronized Map<String, Long> getPhases() {
+		return new LinkedHashMap<>(phases);
+	}
+	
+	/**
+	 * Returns the slowest files that have been recorded, with the slowest file
+	 * first.
+	 */
+	public synchronized List<String> getSlowestFiles() {
+		List<FileTiming> sorted = new ArrayList<>(slowestFiles);
+		sorted.sort(Comparator.comparingLong((FileTiming file) -> file.time).reversed());
+		
+		List<String> paths = new ArrayList<>();
+		for (FileTiming file : sorted) {
+			paths.add(file.path);
+		}
+		return paths;
+	}
+	
+	/**
+	 * Returns a single-line summary of the report, intended to be displayed
+	 * in the console.
+	 */
+	public synchronized String getSummary() {
+		StringBuilder summary = new StringBuilder();
+		summary.append(getFileCount() + " file(s), ");
+		summary.append(formatSize(getBytesRead()) + " read, ");
+		summary.append(formatSize(getBytesWritten()) + " written in ");
+		summary.append(toMillis(System.nanoTime() - startTime) + " ms");
+		
+		List<String> phaseSummaries = new ArrayList<>();
+		for (Map.Entry<String, Long> phase : phases.entrySet()) {
+			phaseSummaries.add(phase.getKey() + " " + toMillis(phase.getValue()) + " ms");
+		}
+		if (!phaseSummaries.isEmpty()) {
+			summary.append(" (" + String.join(", ", phaseSummaries) + ")");
+		}
+		
+		if (!inlining.isEmpty()) {
+			summary.append(", inlining saved " + getRequestsSaved() + " request(s) and " + 
+					formatSize(getBytesSaved()));
+		}
+		return summary.toString();
+	}
+	
+	private String formatSize(long bytes) {
+		if (bytes < 1024 * 1024) {
+			return String.format(Locale.ROOT, "%.1f KB", bytes / 1024.0);
+		}
+		return String.format(Locale.ROOT, "%.1f MB", bytes / (1024.0 * 1024.0));
+	}
+	
+	private static long toMillis(long nanos) {
+		return nanos / 1_000_000L;
+	}
+	
+	private static double toPreciseMillis(long nanos) {
+		return Math.round(nanos / 1000.0) / 1000.0;
+	}
+	
+	/**
+	 * Writes the report to a JSON file.
+	 */
+	public synchronized void write(File reportFile) {
+		Map<String, Object> json = new LinkedHashMap<>();
+		json.put("task", taskName);
+		json.put("timeMs", toPreciseMillis(System.nanoTime() - startTime));
+		json.put("fileCount", getFileCount());
+		json.put("bytesRead", getBytesRead());
+		json.put("bytesWritten", getBytesWritten());
+		
+		Map<String, Object> phasesJson = new LinkedHashMap<>();
+		for (Map.Entry<String, Long> phase : phases.entrySet()) {
+			phasesJson.put(phase.getKey(), toPreciseMillis(phase.getValue()));
+		}
+		json.put("phasesMs", phasesJson);
+		
+		Map<String, Object> categoriesJson = new LinkedHashMap<>();
+		for (Map.Entry<String, FileStats> category : categories.entrySet()) {
+			categoriesJson.put(category.getKey(), category.getValue().toJson());
+		}
+		json.put("files", categoriesJson);
+		
+		List<FileTiming> sorted = new ArrayList<>(slowestFiles);
+		sorted.sort(Comparator.comparingLong((FileTiming file) -> file.time).reversed());
+		List<Object> slowestJson = new ArrayList<>();
+		for (FileTiming file : sorted) {
+			slowestJson.add(file.toJson());
+		}
+		json.put("slowestFiles", slowestJson);
+		
+		if (!inlining.isEmpty()) {
+			json.put("inlining", new LinkedHashMap<>(inlining));
+		}
+		
+		if (!targets.isEmpty()) {
+			json.put("targets", new LinkedHashMap<>(targets));
+		}
+		
+		try {
+			reportFile.getParentFile().mkdirs();
+			Files.write(reportFile.toPath(), JsonOutput.prettyPrint(JsonOutput.toJson(json)).getBytes(UTF8));
+		} catch (IOException e) {
+			throw new RuntimeException("Cannot write report " + reportFile.getAbsolutePath(), e);
+		}
+	}
+	
+	/**
+	 * Totals for all files within the same category.
+	 */
+	private static class FileStats {
+		
+		private int count;
+		private long bytesRead;
+		private long bytesWritten;
+		private long time;
+		
+		public Map<String, Object> toJson() {
+			Map<String, Object> json = new LinkedHashMap<>();
+			json.put("count", count);
+			json.put("bytesRead", bytesRead);
+			json.put("bytesWritten", bytesWritten);
+			json.put("timeMs", toPreciseMillis(time));
+			return json;
+		}
+	}
+	
+	/**
+	 * Processing time for an individual file.
+	 */
+	private static class FileTiming {
+		
+		private String category;
+		private String path;
+		private long bytesRead;
+		private long bytesWritten;
+		private long time;
+		
+		public FileTiming(String category, String path, long bytesRead, long bytesWritten, long time) {
+			this.category = category;
+			this.path = path;
+			this.bytesRead = bytesRead;
+			this.bytesWritten = bytesWritten;
+			this.time = time;
+		}
+		
+		public Map<String, Object> toJson() {
+			Map<String, Object> json = new LinkedHashMap<>();
+			json.put("path", path);
+			json.put("category", category);
+			json.put("bytesRead", bytesRead);
+			json.put("bytesWritten", bytesWritten);
+			json.put("timeMs", toPreciseMillis(time));
+			return json;
+		}
+	}
+}
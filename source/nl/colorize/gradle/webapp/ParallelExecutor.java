@@ -0,0 +1,82 @@
+//-----------------------------------------------------------------------------
+// Colorize Gradle tasks
+// Copyright 2010-2017 Colorize
+// Apache license (http://www.colorize.nl/code_license.txt)
+//-----------------------------------------------------------------------------
+
+package nl.colorize.gradle.webapp;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.gradle.api.GradleException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Performs a number of independent work items using a thread pool. This is
+ * shared by the tasks that process multiple files or invoke multiple
+ * external processes.
+ */
+public final class ParallelExecutor {
+	
+	private static final Logger LOGGER = LoggerFactory.getLogger(ParallelExecutor.class);
+	
+	private ParallelExecutor() {
+	}
+	
+	/**
+	 * Performs the work items using a thread pool, with at most the specified
+	 * number of threads. This waits until all work items have been completed,
+	 * even if some of them fail. All failures are then reported together,
+	 * indicating the work item that caused each failure.
+	 * @param action Describes the work, used in the error message.
+	 * @param subject Describes the work items, used in the error message.
+	 * @throws GradleException if one or more of the work items failed.
+	 */
+	public static void run(Map<String, Runnable> workItems, int parallelism, String action, String subject) {
+		if (workItems.isEmpty()) {
+			return;
+		}
+		
+		int threads = Math.max(1, Math.min(parallelism, workItems.size()));
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		Map<String, Future<?>> results = new LinkedHashMap<>();
+		List<String> failures = new ArrayList<>();
+		Throwable firstFailure = null;
+		
+		try {
+			for (Map.Entry<String, Runnable> workItem : workItems.entrySet()) {
+				results.put(workItem.getKey(), executor.submit(workItem.getValue()));
+			}
+			
+			for (Map.Entry<String, Future<?>> result : results.entrySet()) {
+				try {
+					result.getValue().get();
+				} catch (ExecutionException e) {
+					LOGGER.debug("Failed to " + action + " " + result.getKey(), e.getCause());
+					failures.add(result.getKey() + ": " + e.getCause().getMessage());
+					if (firstFailure == null) {
+						firstFailure = e.getCause();
+					}
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new GradleException("Interrupted while trying to " + action + " " + subject, e);
+		} finally {
+			executor.shutdownNow();
+		}
+		
+		if (!failures.isEmpty()) {
+			throw new GradleException("Cannot " + action + " " + failures.size() + " " + subject + ":\n" +
+					String.join("\n", failures), firstFailure);
+		}
+	}
+}
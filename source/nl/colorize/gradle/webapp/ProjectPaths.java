@@ -0,0 +1,64 @@
+//-----------------------------------------------------------------------------
+// Colorize Gradle tasks
+// Copyright 2010-2017 Colorize
+// Apache license (http://www.colorize.nl/code_license.txt)
+//-----------------------------------------------------------------------------
+
+package nl.colorize.gradle.webapp;
+
+import java.io.File;
+
+import org.gradle.api.Project;
+import org.gradle.api.file.Directory;
+import org.gradle.api.provider.Provider;
+
+/**
+ * Locations of the project that contains the web application. These are
+ * captured while configuring the project, so that tasks do not need to access
+ * the project while they are running. This is required when using Gradle's
+ * configuration cache, which stores the task's state rather than the project.
+ */
+public class ProjectPaths {
+
+	private File projectDir;
+	private Provider<Directory> buildDirectory;
+	private String rootProjectName;
+
+	public ProjectPaths(Project project) {
+		this.projectDir = project.getProjectDir();
+		this.buildDirectory = project.getLayout().getBuildDirectory();
+		this.rootProjectName = project.getRootProject().getName();
+	}
+
+	public File getProjectDir() {
+		return projectDir;
+	}
+
+	/**
+	 * Returns the project's build directory. This is resolved every time, since
+	 * the build directory can be changed after the project has been created.
+	 */
+	public File getBuildDirectory() {
+		return buildDirectory.get().getAsFile();
+	}
+
+	public String getRootProjectName() {
+		return rootProjectName;
+	}
+
+	/**
+	 * Resolves a path relative to the project directory, in the same way as
+	 * {@link Project#file(Object)}. Absolute paths are returned as-is.
+	 */
+	public File resolve(String path) {
+		File file = new File(path);
+		if (!file.isAbsolute()) {
+			file = new File(projectDir, path);
+		}
+		return file.toPath().normalize().toFile();
+	}
+
+	public File resolveBuildFile(String path) {
+		return new File(getBuildDirectory(), path);
+	}
+}
@@ -0,0 +1,213 @@
+//-----------------------------------------------------------------------------
+// Colorize Gradle tasks
+// Copyright 2010-2017 Colorize
+// Apache license (http://www.colorize.nl/code_license.txt)
+//-----------------------------------------------------------------------------
+
+package nl.colorize.gradle.webapp;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.UnaryOperator;
+import java.util.regex.Matcher;
+
+import groovy.lang.Closure;
+
+/**
+ * Filter that is applied to every line in the combined JavaScript file. The
+ * filter consists of the rewrite rules, the rewrite operator, and the rewrite
+ * closure, which are applied in that order.
+ * <p>
+ * Rewrite rules are applied in the order in which they were defined. Literal
+ * rules that are defined consecutively are combined into a single pass over
+ * the line, but only when the result is the same as applying them one by one.
+ * Rules that could affect each other, for example because one rule's
+ * replacement contains another rule's search string, are applied separately.
+ * Rewrite rules and operators are thread-safe, which allows large files to be
+ * filtered in parallel. This is not the case for closures, which are always
+ * called for one line at a time.
+ */
+public class RewriteFilter {
+	
+	private List<UnaryOperator<String>> steps;
+	private List<String> literals;
+	private UnaryOperator<CharSequence> operator;
+	private Closure<String> closure;
+	
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	
+	public RewriteFilter(List<RewriteRule> rules, UnaryOperator<CharSequence> operator, Closure<String> closure) {
+		this.steps = compileRules(rules);
+		this.literals = findLiterals(rules);
+		this.operator = operator;
+		this.closure = closure;
+	}
+	
+	public RewriteFilter(Closure<String> closure) {
+		this(Collections.emptyList(), null, closure);
+	}
+	
+	private List<UnaryOperator<String>> compileRules(List<RewriteRule> rules) {
+		List<UnaryOperator<String>> compiled = new ArrayList<>();
+		List<String> literals = new ArrayList<>();
+		List<String> replacements = new ArrayList<>();
+		
+		for (RewriteRule rule : rules) {
+			if (rule.isLiteral()) {
+				if (!canCombine(rule, literals, replacements)) {
+					compiled.add(compileLiterals(literals, replacements));
+				}
+				literals.add(rule.getSearch());
+				replacements.add(rule.getReplacement());
+			} else {
+				if (!literals.isEmpty()) {
+					compiled.add(compileLiterals(literals, replacements));
+				}
+				compiled.add(line -> replacePattern(line, rule));
+			}
+		}
+		
+		if (!literals.isEmpty()) {
+			compiled.add(compileLiterals(literals, replacements));
+		}
+		return compiled;
+	}
+	
+	/**
+	 * Returns true if the literal rule can be applied in the same pass as the
+	 * previous literal rules without changing the result. This is not the case
+	 * when the rule's search string overlaps with one of the previous search
+	 * strings, or when it could match (part of) a previous replacement.
+	 */
+	private boolean canCombine(RewriteRule rule, List<String> literals, List<String> replacements) {
+		for (int i = 0; i < literals.size(); i++) {
+			if (overlaps(rule.getSearch(), literals.get(i)) || overlaps(rule.getSearch(), replacements.get(i))) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Returns true if one string contains the other, or if the end of one 
+	 * string is the start of the other. Empty strings overlap with anything.
+	 */
+	private static boolean overlaps(String a, String b) {
+		if (a.contains(b) || b.contains(a)) {
+			return true;
+		}
+		
+		for (int i = 1; i < Math.min(a.length(), b.length()); i++) {
+			if (a.endsWith(b.substring(0, i)) || b.endsWith(a.substring(0, i))) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Returns the search strings for all literal rules, or {@code null} if
+	 * there are also rules that use regular expressions.
+	 */
+	private List<String> findLiterals(List<RewriteRule> rules) {
+		List<String> result = new ArrayList<>();
+		for (RewriteRule rule : rules) {
+			if (!rule.isLiteral()) {
+				return null;
+			}
+			result.add(rule.getSearch());
+		}
+		return result;
+	}
+	
+	private UnaryOperator<String> compileLiterals(List<String> literals, List<String> replacements) {
+		LiteralMatcher matcher = new LiteralMatcher(new ArrayList<>(literals), new ArrayList<>(replacements));
+		literals.clear();
+		replacements.clear();
+		return matcher::replace;
+	}
+	
+	private String replacePattern(String line, RewriteRule rule) {
+		Matcher matcher = rule.getPattern().matcher(line);
+		if (!matcher.find()) {
+			return line;
+		}
+		return matcher.replaceAll(rule.getReplacement());
+	}
+	
+	public String apply(String line) {
+		String result = line;
+		for (UnaryOperator<String> step : steps) {
+			result = step.apply(result);
+		}
+		if (operator != null) {
+			result = operator.apply(result).toString();
+		}
+		if (closure != null) {
+			result = closure.call(result);
+		}
+		return result;
+	}
+	
+	public boolean isEmpty() {
+		return steps.isEmpty() && operator == null && closure == null;
+	}
+	
+	/**
+	 * Returns true if applying this filter to the specified file contents
+	 * might change them. When the filter only consists of literal rules,
+	 * this is determined by searching for the encoded literals without 
+	 * decoding the contents. In all other cases this returns true, since 
+	 * the filter could change any line.
+	 * <p>
+	 * Searching for encoded literals is only used for UTF-8 and single-byte
+	 * character encodings, where the encoded literal can never be part of a
+	 * different multi-byte character.
+	 */
+	public boolean mayChange(ByteBuffer contents, Charset charset) {
+		if (literals == null || operator != null || closure != null) {
+			return true;
+		}
+		
+		if (!charset.equals(UTF8) && charset.newEncoder().maxBytesPerChar() != 1f) {
+			return true;
+		}
+		
+		for (String literal : literals) {
+			if (indexOf(contents, literal.getBytes(charset)) != -1) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	private static int indexOf(ByteBuffer contents, byte[] search) {
+		int end = contents.limit() - search.length;
+		for (int i = contents.position(); i <= end; i++) {
+			if (contents.get(i) == search[0] && matches(contents, i, search)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+	
+	private static boolean matches(ByteBuffer contents, int offset, byte[] search) {
+		for (int i = 1; i < search.length; i++) {
+			if (contents.get(offset + i) != search[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Returns true if this filter can be applied to multiple lines at the
+	 * same time from different threads.
+	 */
+	public boolean isThreadSafe() {
+		return closure == null;
+	}
+}
@@ -0,0 +1,67 @@
+//-----------------------------------------------------------------------------
+// Colorize Gradle tasks
+// Copyright 2010-2017 Colorize
+// Apache license (http://www.colorize.nl/code_license.txt)
+//-----------------------------------------------------------------------------
+
+package nl.colorize.gradle.webapp;
+
+import java.io.Serializable;
+import java.util.regex.Pattern;
+
+/**
+ * Declarative rule for rewriting lines in the combined JavaScript file. Rules
+ * either replace a literal string, or replace matches of a regular expression.
+ * Regular expressions are compiled once when the rule is created. Replacements
+ * for regular expressions can refer to groups using the same syntax as
+ * {@link java.util.regex.Matcher#replaceAll(String)}. Rules are serializable,
+ * since they are used as task inputs.
+ */
+public final class RewriteRule implements Serializable {
+	
+	private static final long serialVersionUID = 1L;
+	
+	private String search;
+	private String replacement;
+	private Pattern pattern;
+	
+	private RewriteRule(String search, String replacement, Pattern pattern) {
+		if (search.isEmpty()) {
+			throw new IllegalArgumentException("Empty rewrite rule");
+		}
+		
+		this.search = search;
+		this.replacement = replacement;
+		this.pattern = pattern;
+	}
+	
+	public static RewriteRule literal(String search, String replacement) {
+		return new RewriteRule(search, replacement, null);
+	}
+	
+	public static RewriteRule pattern(String regex, String replacement) {
+		return new RewriteRule(regex, replacement, Pattern.compile(regex));
+	}
+	
+	public String getSearch() {
+		return search;
+	}
+	
+	public String getReplacement() {
+		return replacement;
+	}
+	
+	public boolean isLiteral() {
+		return pattern == null;
+	}
+	
+	public Pattern getPattern() {
+		return pattern;
+	}
+	
+	@Override
+	public String toString() {
+		return (isLiteral() ? "literal" : "pattern") + ":" + search.length() + ":" + search +
+				":" + replacement;
+	}
+}
@@ -0,0 +1,107 @@
+//-----------------------------------------------------------------------------
+// Colorize Gradle tasks
+// Copyright 2010-2017 Colorize
+// Apache license (http://www.colorize.nl/code_license.txt)
+//-----------------------------------------------------------------------------
+
+package nl.colorize.gradle.webapp;
+
+import java.util.Locale;
+
+/**
+ * Describes the changes that were made to a directory while synchronizing the
+ * packaged web application to that directory.
+ */
+public class SyncResult {
+	
+	private int copiedFiles;
+	private long copiedBytes;
+	private int skippedFiles;
+	private long skippedBytes;
+	private int deletedFiles;
+	private long deletedBytes;
+	private long time;
+	private RuntimeException failure;
+	
+	protected void fileCopied(long size) {
+		copiedFiles++;
+		copiedBytes += size;
+	}
+	
+	protected void fileSkipped(long size) {
+		skippedFiles++;
+		skippedBytes += size;
+	}
+	
+	protected void fileDeleted(long size) {
+		deletedFiles++;
+		deletedBytes += size;
+	}
+	
+	protected void fileFailed(RuntimeException failure) {
+		this.failure = failure;
+	}
+	
+	protected void addTime(long nanos) {
+		time += nanos;
+	}
+	
+	public int getCopiedFiles() {
+		return copiedFiles;
+	}
+	
+	public long getCopiedBytes() {
+		return copiedBytes;
+	}
+	
+	public int getSkippedFiles() {
+		return skippedFiles;
+	}
+	
+	public long getSkippedBytes() {
+		return skippedBytes;
+	}
+	
+	public int getDeletedFiles() {
+		return deletedFiles;
+	}
+	
+	public long getDeletedBytes() {
+		return deletedBytes;
+	}
+	
+	/**
+	 * Returns the time spent synchronizing this directory, in nanoseconds.
+	 * This does not include time spent waiting for files to be read, which
+	 * is shared between all directories that are synchronized together.
+	 */
+	public long getTime() {
+		return time;
+	}
+	
+	/**
+	 * Returns the number of bytes copied per second, based on the time spent
+	 * synchronizing this directory.
+	 */
+	public double getThroughput() {
+		if (time == 0L) {
+			return 0.0;
+		}
+		return copiedBytes / (time / 1_000_000_000.0);
+	}
+	
+	/**
+	 * Returns the reason synchronizing this directory failed, or {@code null}
+	 * if the directory was synchronized successfully.
+	 */
+	public RuntimeException getFailure() {
+		return failure;
+	}
+	
+	@Override
+	public String toString() {
+		return String.format(Locale.ROOT, "%d files copied (%d bytes), %d files unchanged (%d bytes), " + 
+				"%d files deleted (%d bytes), %.1f MB/s", copiedFiles, copiedBytes, skippedFiles, skippedBytes,
+				deletedFiles, deletedBytes, getThroughput() / (1024.0 * 1024.0));
+	}
+}
@@ -8,53 +8,780 @@ package nl.colorize.gradle.webapp;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+import javax.inject.Inject;
 
 import org.gradle.api.DefaultTask;
+import org.gradle.api.GradleException;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.file.RegularFile;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+import org.gradle.api.model.ObjectFactory;
+import org.gradle.api.provider.ListProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.provider.Provider;
+import org.gradle.api.tasks.Internal;
 import org.gradle.api.tasks.TaskAction;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
 /**
- * Synchronized the packages web application from the build directory to a 
+ * Synchronized the packages web application from the build directory to a
  * number of other directories. An example of where this task can be used
- * is when the web application is embedded in another (native, mobile) app. 
+ * is when the web application is embedded in another (native, mobile) app.
+ * <p>
+ * Only files that are new or have been changed since the previous sync are
+ * copied, and only files that no longer exist in the build directory are
+ * deleted. Files are considered unchanged if they have the same size and
+ * last modified time. If the size is the same but the last modified time
+ * is not, the file contents are compared.
+ * <p>
+ * All sync directories are updated at the same time. Each file in the build
+ * directory is read once, and its contents are passed to a worker thread for
+ * every sync directory that needs the file. The workers use bounded buffers,
+ * so reading files cannot run ahead of writing them by more than a fixed
+ * amount of memory. When one of the sync directories fails, for example
+ * because its disk is full, the other sync directories are still updated.
+ * <p>
+ * Files are copied to the sync directories using the configured link strategy.
+ * This does not apply to files that are generated or rewritten by the build,
+ * those files are always copied. This includes the compressed versions of 
+ * files, which are synchronized along with the original files.
+ * <p>
+ * Statistics on the number of files and bytes that were synchronized, and
+ * the time it took, are written to {@code build/reports/webApp/syncWebApp.json}.
+ * This includes the throughput for each sync directory.
+ * <p>
+ * Like the "packageWebApp" task, this task is compatible with the configuration
+ * cache. Settings are exposed as task properties that are connected to the
+ * "webApp" extension, and the task does not access the project while it is
+ * running.
  */
-public class SyncWebAppTask extends DefaultTask {
+public abstract class SyncWebAppTask extends DefaultTask {
+	
+	private ProjectPaths paths;
+	private Provider<RegularFile> reportFile;
+	
+	private static final Logger LOGGER = Logging.getLogger(SyncWebAppTask.class);
+	private static final int BUFFER_SIZE = 65536;
+	private static final int QUEUE_CAPACITY = 16;
+	
+	public SyncWebAppTask() {
+		paths = new ProjectPaths(getProject());
+		reportFile = getProject().getLayout().getBuildDirectory().file("reports/webApp/" + getName() + ".json");
+	}
+	
+	@Inject
+	protected abstract ObjectFactory getObjectFactory();
+	
+	@Internal
+	public abstract DirectoryProperty getBuildDir();
+	
+	@Internal
+	public abstract Property<Boolean> getBuildDirEnabled();
+	
+	@Internal
+	public abstract ListProperty<String> getSyncDirs();
 	
-	private static final Logger LOGGER = LoggerFactory.getLogger(SyncWebAppTask.class);
+	@Internal
+	public abstract Property<String> getLinkStrategy();
+	
+	@Internal
+	public abstract Property<String> getCombinedJavaScriptFileName();
+	
+	@Internal
+	public abstract Property<String> getCombinedCSSFileName();
+	
+	@Internal
+	public abstract ListProperty<WebAppBundle> getBundles();
+	
+	/**
+	 * Creates the configuration that is used while the task is running from
+	 * the task's properties. This only includes the settings that are needed
+	 * to synchronize the packaged web application.
+	 */
+	protected WebAppExtension createConfig() {
+		WebAppExtension config = getObjectFactory().newInstance(WebAppExtension.class);
+		config.setBuildDir(getBuildDir().get().getAsFile().getAbsolutePath());
+		config.setBuildDirEnabled(getBuildDirEnabled().get());
+		config.setSyncDirs(getSyncDirs().get());
+		config.setLinkStrategy(getLinkStrategy().get());
+		config.setCombinedJavaScriptFileName(getCombinedJavaScriptFileName());
+		config.setCombinedCSSFileName(getCombinedCSSFileName());
+		config.setBundles(getBundles().get());
+		return config;
+	}
 	
 	@TaskAction
 	public void run() {
-		WebAppExtension config = getProject().getExtensions().getByType(WebAppExtension.class);
-		File buildDir = config.getBuildDir(getProject());
+		WebAppExtension config = createConfig();
+		if (config.getSyncDirs().isEmpty()) {
+			return;
+		}
+		
+		if (!config.getBuildDirEnabled()) {
+			throw new GradleException("Cannot synchronize web app when buildDir is disabled");
+		}
 		
+		File buildDir = config.getBuildDir(paths);
+		PackagingReport report = new PackagingReport(getName());
+		
+		Map<String, File> syncDirs = new LinkedHashMap<>();
 		for (String syncDirPath : config.getSyncDirs()) {
-			File syncDir = getProject().file(syncDirPath);
-			LOGGER.debug("Synchronizing packaged web application to " + syncDir.getAbsolutePath());
-			sync(buildDir, syncDir, config);
+			syncDirs.putIfAbsent(syncDirPath, paths.resolve(syncDirPath));
+		}
+		
+		LOGGER.debug("Synchronizing packaged web application to " + syncDirs.values());
+		Map<File, SyncResult> results = sync(buildDir, new ArrayList<>(new LinkedHashSet<>(syncDirs.values())), 
+				config, report);
+		List<String> failures = new ArrayList<>();
+		RuntimeException firstFailure = null;
+		
+		for (Map.Entry<String, File> syncDir : syncDirs.entrySet()) {
+			SyncResult result = results.get(syncDir.getValue());
+			if (result.getFailure() == null) {
+				LOGGER.lifecycle("Synchronized " + syncDir.getKey() + ": " + result);
+			} else {
+				LOGGER.error("Failed to synchronize " + syncDir.getKey() + ": " + result.getFailure().getMessage());
+				failures.add(syncDir.getKey() + ": " + result.getFailure().getMessage());
+				if (firstFailure == null) {
+					firstFailure = result.getFailure();
+				}
+			}
+		}
+		
+		report.write(reportFile.get().getAsFile());
+		LOGGER.info("Synchronized web app: " + report.getSummary());
+		
+		if (!failures.isEmpty()) {
+			throw new GradleException("Cannot synchronize web app to " + failures.size() + " dir(s):\n" +
+					String.join("\n", failures), firstFailure);
+		}
+	}
+	
+	/**
+	 * Synchronizes the build directory to a single directory.
+	 * @throws RuntimeException if the directory could not be synchronized.
+	 */
+	protected SyncResult sync(File buildDir, File syncDir, WebAppExtension config) {
+		SyncResult result = sync(buildDir, Collections.singletonList(syncDir), config, 
+				new PackagingReport(getName())).get(syncDir);
+		if (result.getFailure() != null) {
+			throw result.getFailure();
+		}
+		return result;
+	}
+	
+	/**
+	 * Synchronizes the build directory to all of the specified directories at
+	 * the same time. Failures are not thrown, but are included in the result
+	 * for the directory that failed. The other directories are still updated.
+	 * Statistics for the sync are recorded in the specified report.
+	 */
+	protected Map<File, SyncResult> sync(File buildDir, List<File> syncDirs, WebAppExtension config,
+			PackagingReport report) {
+		Map<File, SyncResult> results = new LinkedHashMap<>();
+		if (syncDirs.isEmpty()) {
+			return results;
+		}
+		
+		boolean useLinks = !FileLinker.COPY.equals(config.getLinkStrategy());
+		Set<String> generatedFiles = config.findGeneratedFiles(paths).stream()
+			.map(file -> file.getName())
+			.collect(Collectors.toSet());
+		List<SyncTarget> targets = new ArrayList<>();
+		for (File syncDir : syncDirs) {
+			// Each directory uses its own linker, since directories can be on 
+			// different file systems that do not all support links.
+			SyncTarget target = new SyncTarget(syncDir, new FileLinker(config.getLinkStrategy()), report);
+			targets.add(target);
+			results.put(syncDir, target.result);
+		}
+		
+		Map<String, Path> sourceFiles = report.phase("scan", () -> {
+			Map<String, Path> files = listFiles(buildDir.toPath());
+			// The manifest is used by the "packageWebApp" task, it is not
+			// part of the packaged web application.
+			files.remove(OutputManifest.FILE_NAME);
+			forEachTarget(targets, target -> target.scan(files, generatedFiles, useLinks));
+			return files;
+		});
+		report.phase("delete", () -> forEachTarget(targets, target -> target.deleteObsoleteFiles(buildDir, 
+				sourceFiles)));
+		report.phase("copy", () -> fanOut(sourceFiles, targets));
+		
+		for (SyncTarget target : targets) {
+			report.recordTarget(target.syncDir.getAbsolutePath(), target.result.getCopiedFiles(),
+					target.result.getCopiedBytes(), target.result.getTime(), target.result.getFailure());
+		}
+		return results;
+	}
+	
+	/**
+	 * Performs an action for every sync directory in parallel. When the action
+	 * fails for one of the directories, that directory is skipped for the
+	 * remainder of the sync.
+	 */
+	private void forEachTarget(List<SyncTarget> targets, Consumer<SyncTarget> action) {
+		Map<String, Runnable> workItems = new LinkedHashMap<>();
+		for (SyncTarget target : targets) {
+			workItems.put(target.syncDir.getAbsolutePath(), () -> target.perform(action));
+		}
+		ParallelExecutor.run(workItems, targets.size(), "synchronize", "dir(s)");
+	}
+	
+	/**
+	 * Reads every file that needs to be copied once, and passes its contents
+	 * to the workers for the sync directories that need the file. Files that
+	 * are linked do not need to be read, so these are passed to the workers
+	 * without their contents.
+	 */
+	private void fanOut(Map<String, Path> sourceFiles, List<SyncTarget> targets) {
+		ExecutorService executor = Executors.newFixedThreadPool(targets.size());
+		List<Future<?>> workers = new ArrayList<>();
+		
+		try {
+			for (SyncTarget target : targets) {
+				workers.add(executor.submit(target::processQueue));
+			}
+			
+			for (Map.Entry<String, Path> entry : sourceFiles.entrySet()) {
+				String relativePath = entry.getKey();
+				List<SyncTarget> copyTargets = new ArrayList<>();
+				
+				for (SyncTarget target : targets) {
+					if (target.isFailed()) {
+						continue;
+					}
+					
+					if (target.filesToLink.contains(relativePath)) {
+						target.enqueue(new SyncOperation(SyncOperation.Type.LINK, relativePath, entry.getValue()));
+					} else if (target.filesToCopy.contains(relativePath)) {
+						copyTargets.add(target);
+					}
+				}
+				
+				if (!copyTargets.isEmpty()) {
+					readFile(relativePath, entry.getValue(), copyTargets);
+				}
+			}
+			
+			for (SyncTarget target : targets) {
+				target.enqueue(new SyncOperation(SyncOperation.Type.END, null, null));
+			}
+			
+			for (Future<?> worker : workers) {
+				worker.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new GradleException("Interrupted while synchronizing web app", e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException("Cannot synchronize web app", e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+	
+	private void readFile(String relativePath, Path sourceFile, List<SyncTarget> copyTargets) 
+			throws InterruptedException {
+		try (InputStream stream = Files.newInputStream(sourceFile)) {
+			BasicFileAttributes attr = Files.readAttributes(sourceFile, BasicFileAttributes.class);
+			for (int i = 0; i < copyTargets.size(); i++) {
+				// The bytes read are only attributed to one of the directories,
+				// since the file is only read once.
+				SyncOperation open = new SyncOperation(SyncOperation.Type.OPEN, relativePath, sourceFile);
+				open.size = attr.size();
+				open.lastModified = attr.lastModifiedTime();
+				open.bytesRead = (i == 0) ? attr.size() : 0L;
+				copyTargets.get(i).enqueue(open);
+			}
+			
+			long remaining = attr.size();
+			while (true) {
+				// Buffers are handed over to the other threads, so each chunk
+				// needs a new buffer. These are sized for the remaining part 
+				// of the file, so small files do not allocate a full buffer.
+				// The last read uses a single byte to detect the end of the
+				// file, in case the file has grown.
+				byte[] buffer = new byte[(int) Math.max(1L, Math.min(BUFFER_SIZE, remaining))];
+				int length = readFully(stream, buffer);
+				if (length > 0) {
+					SyncOperation write = new SyncOperation(SyncOperation.Type.WRITE, relativePath, sourceFile);
+					write.buffer = buffer;
+					write.length = length;
+					enqueueAll(copyTargets, write);
+				}
+				
+				remaining -= length;
+				if (length < buffer.length) {
+					break;
+				}
+			}
+			
+			enqueueAll(copyTargets, new SyncOperation(SyncOperation.Type.CLOSE, relativePath, sourceFile));
+		} catch (IOException e) {
+			SyncOperation abort = new SyncOperation(SyncOperation.Type.ABORT, relativePath, sourceFile);
+			abort.failure = new RuntimeException("Cannot read file " + sourceFile.toAbsolutePath(), e);
+			enqueueAll(copyTargets, abort);
+		}
+	}
+	
+	private void enqueueAll(List<SyncTarget> targets, SyncOperation operation) throws InterruptedException {
+		for (SyncTarget target : targets) {
+			if (!target.isFailed()) {
+				target.enqueue(operation);
+			}
 		}
 	}
 	
-	protected void sync(File buildDir, File syncDir, WebAppExtension config) {
-		if (!syncDir.exists()) {
-			syncDir.mkdir();
+	/**
+	 * Returns all files in the specified directory, indexed by their path
+	 * relative to that directory. Returns an empty map if the directory does
+	 * not exist.
+	 */
+	private Map<String, Path> listFiles(Path dir) {
+		if (!Files.exists(dir)) {
+			return Collections.emptyMap();
 		}
 		
-		for (File existingFile : getProject().fileTree(syncDir)) {
-			existingFile.delete();
+		Map<String, Path> files = new TreeMap<>();
+		try {
+			Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+				@Override
+				public FileVisitResult visitFile(Path file, BasicFileAttributes attr) {
+					if (attr.isRegularFile()) {
+						files.put(toRelativePath(dir, file), file);
+					}
+					return FileVisitResult.CONTINUE;
+				}
+			});
+		} catch (IOException e) {
+			throw new RuntimeException("Cannot list files in " + dir.toAbsolutePath(), e);
 		}
+		return files;
+	}
+	
+	private String toRelativePath(Path dir, Path file) {
+		return dir.relativize(file).toString().replace(File.separatorChar, '/');
+	}
+	
+	/**
+	 * Returns true if the output file is identical to the source file. Files
+	 * with the same size and last modified time are assumed to be identical,
+	 * if only the last modified time is different the file contents are
+	 * compared.
+	 */
+	private boolean isUnchanged(Path sourceFile, Path outputFile) throws IOException {
+		BasicFileAttributes sourceAttr = Files.readAttributes(sourceFile, BasicFileAttributes.class);
+		BasicFileAttributes outputAttr = Files.readAttributes(outputFile, BasicFileAttributes.class);
 		
-		for (File sourceFile : getProject().fileTree(buildDir)) {
-			File outputFile = new File(syncDir.getAbsolutePath() + "/" + 
-					config.toRelativePath(sourceFile, buildDir));
+		if (!outputAttr.isRegularFile() || sourceAttr.size() != outputAttr.size()) {
+			return false;
+		}
+		
+		if (sourceAttr.lastModifiedTime().equals(outputAttr.lastModifiedTime())) {
+			return true;
+		}
+		
+		if (hasSameContents(sourceFile, outputFile)) {
+			// Update the timestamp so that the contents do not need to be
+			// compared again during the next sync.
+			Files.setLastModifiedTime(outputFile, sourceAttr.lastModifiedTime());
+			return true;
+		}
+		
+		return false;
+	}
+	
+	private boolean hasSameContents(Path first, Path second) throws IOException {
+		byte[] firstBuffer = new byte[BUFFER_SIZE];
+		byte[] secondBuffer = new byte[BUFFER_SIZE];
+		
+		try (InputStream firstStream = Files.newInputStream(first);
+				InputStream secondStream = Files.newInputStream(second)) {
+			while (true) {
+				int firstLength = readFully(firstStream, firstBuffer);
+				int secondLength = readFully(secondStream, secondBuffer);
+				
+				if (firstLength != secondLength) {
+					return false;
+				}
+				
+				for (int i = 0; i < firstLength; i++) {
+					if (firstBuffer[i] != secondBuffer[i]) {
+						return false;
+					}
+				}
+				
+				if (firstLength < BUFFER_SIZE) {
+					return true;
+				}
+			}
+		}
+	}
+	
+	private int readFully(InputStream stream, byte[] buffer) throws IOException {
+		int total = 0;
+		while (total < buffer.length) {
+			int read = stream.read(buffer, total, buffer.length - total);
+			if (read == -1) {
+				break;
+			}
+			total += read;
+		}
+		return total;
+	}
+	
+	/**
+	 * Returns true if the file was created or modified by the build, rather than
+	 * copied from the web application's source directory. 
+	 */
+	private boolean isTransformedFile(String relativePath, Set<String> generatedFiles) {
+		return relativePath.endsWith(".html") || relativePath.endsWith(GzipCompressor.SIDECAR_EXTENSION) ||
+				generatedFiles.contains(relativePath);
+	}
+	
+	/**
+	 * Copies a file to the sync directory. Files that were copied unmodified
+	 * from the web application's source directory are created using the link
+	 * strategy. Files that were transformed are always copied, so that they 
+	 * are not affected by changes to the build directory, and vice versa.
+	 * Returns true if the file in the sync directory is a link.
+	 */
+	private boolean copyFile(Path sourceFile, Path outputFile, FileLinker fileLinker) throws IOException {
+		Files.createDirectories(outputFile.getParent());
+		if (fileLinker == null) {
+			Files.copy(sourceFile, outputFile, StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.COPY_ATTRIBUTES);
+			return false;
+		} else {
+			return fileLinker.link(sourceFile, outputFile, StandardCopyOption.COPY_ATTRIBUTES);
+		}
+	}
+	
+	private void deleteFile(Path file, String relativePath, SyncResult result, PackagingReport report) {
+		try {
+			long startTime = System.nanoTime();
+			long size = Files.size(file);
+			Files.delete(file);
+			result.fileDeleted(size);
+			report.recordFile("delete", relativePath, 0L, 0L, 
+					System.nanoTime() - startTime);
+		} catch (IOException e) {
+			throw new RuntimeException("Cannot delete file " + file.toAbsolutePath(), e);
+		}
+	}
+	
+	/**
+	 * Deletes directories in the sync directory that do not exist in the build
+	 * directory, and that are empty after obsolete files have been deleted.
+	 */
+	private void deleteEmptyDirs(Path buildDir, Path syncDir) {
+		List<Path> dirs = new ArrayList<>();
+		try {
+			Files.walkFileTree(syncDir, new SimpleFileVisitor<Path>() {
+				@Override
+				public FileVisitResult postVisitDirectory(Path dir, IOException e) {
+					if (!dir.equals(syncDir)) {
+						dirs.add(dir);
+					}
+					return FileVisitResult.CONTINUE;
+				}
+			});
+			
+			for (Path dir : dirs) {
+				Path sourceDir = buildDir.resolve(syncDir.relativize(dir).toString());
+				if (!Files.isDirectory(sourceDir) && isEmptyDir(dir)) {
+					Files.delete(dir);
+				}
+			}
+		} catch (IOException e) {
+			throw new RuntimeException("Cannot delete directories in " + syncDir.toAbsolutePath(), e);
+		}
+	}
+	
+	private boolean isEmptyDir(Path dir) throws IOException {
+		try (DirectoryStream<Path> contents = Files.newDirectoryStream(dir)) {
+			return !contents.iterator().hasNext();
+		}
+	}
+	
+	/**
+	 * Synchronizes the packaged web application to one of the sync directories.
+	 * Files that need to be copied are written by a worker thread, which takes
+	 * the file contents from a bounded queue. When an operation fails, the
+	 * worker keeps taking operations from the queue without performing them,
+	 * so that reading files is never blocked by a directory that has failed.
+	 */
+	private class SyncTarget {
+		
+		private File syncDir;
+		private FileLinker fileLinker;
+		private PackagingReport report;
+		private SyncResult result;
+		private BlockingQueue<SyncOperation> queue;
+		private Set<String> filesToLink;
+		private Set<String> filesToCopy;
+		private Map<String, Path> existingFiles;
+		private volatile boolean failed;
+		
+		private SyncOperation current;
+		private OutputStream currentStream;
+		private long currentStartTime;
+		
+		public SyncTarget(File syncDir, FileLinker fileLinker, PackagingReport report) {
+			this.syncDir = syncDir;
+			this.fileLinker = fileLinker;
+			this.report = report;
+			this.result = new SyncResult();
+			this.queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+			this.filesToLink = new HashSet<>();
+			this.filesToCopy = new HashSet<>();
+			this.existingFiles = Collections.emptyMap();
+		}
+		
+		public boolean isFailed() {
+			return failed;
+		}
+		
+		private void fail(RuntimeException e) {
+			if (!failed) {
+				LOGGER.debug("Failed to synchronize " + syncDir.getAbsolutePath(), e);
+				result.fileFailed(e);
+				failed = true;
+			}
+		}
+		
+		/**
+		 * Performs an action for this sync directory, unless it has already
+		 * failed. The time taken by the action is included in the statistics
+		 * for this directory.
+		 */
+		public void perform(Consumer<SyncTarget> action) {
+			if (failed) {
+				return;
+			}
+			
+			long startTime = System.nanoTime();
 			try {
-				config.prepareOutputFile(outputFile);
-				Files.copy(sourceFile.toPath(), outputFile.toPath());
+				action.accept(this);
+			} catch (RuntimeException e) {
+				fail(e);
+			} finally {
+				result.addTime(System.nanoTime() - startTime);
+			}
+		}
+		
+		/**
+		 * Determines which files need to be copied or linked to this sync
+		 * directory. Unchanged files are skipped.
+		 */
+		public void scan(Map<String, Path> sourceFiles, Set<String> generatedFiles, boolean useLinks) {
+			if (!syncDir.exists() && !syncDir.mkdirs()) {
+				throw new RuntimeException("Cannot create directory " + syncDir.getAbsolutePath());
+			}
+			
+			existingFiles = listFiles(syncDir.toPath());
+			
+			for (Map.Entry<String, Path> entry : sourceFiles.entrySet()) {
+				String relativePath = entry.getKey();
+				Path sourceFile = entry.getValue();
+				Path outputFile = syncDir.toPath().resolve(relativePath);
+				long startTime = System.nanoTime();
+				
+				try {
+					if (existingFiles.containsKey(relativePath) && isUnchanged(sourceFile, outputFile)) {
+						result.fileSkipped(Files.size(sourceFile));
+						report.recordFile("skip", relativePath, 0L, 0L, System.nanoTime() - startTime);
+					} else if (useLinks && !isTransformedFile(relativePath, generatedFiles)) {
+						filesToLink.add(relativePath);
+					} else {
+						filesToCopy.add(relativePath);
+					}
+				} catch (IOException e) {
+					throw new RuntimeException("Cannot sync file from " + sourceFile.toAbsolutePath() +
+							" to " + outputFile.toAbsolutePath(), e);
+				}
+			}
+		}
+		
+		public void deleteObsoleteFiles(File buildDir, Map<String, Path> sourceFiles) {
+			for (Map.Entry<String, Path> entry : existingFiles.entrySet()) {
+				if (!sourceFiles.containsKey(entry.getKey())) {
+					deleteFile(entry.getValue(), entry.getKey(), result, report);
+				}
+			}
+			
+			deleteEmptyDirs(buildDir.toPath(), syncDir.toPath());
+		}
+		
+		public void enqueue(SyncOperation operation) throws InterruptedException {
+			queue.put(operation);
+		}
+		
+		/**
+		 * Performs the operations in the queue, until the end of the sync is
+		 * reached. 
+		 */
+		public void processQueue() {
+			boolean ended = false;
+			
+			try {
+				while (!ended) {
+					SyncOperation operation = queue.take();
+					if (operation.type == SyncOperation.Type.END) {
+						ended = true;
+					} else if (!failed) {
+						// Only the time spent on writing files is included,
+						// not the time spent waiting for the next operation.
+						long startTime = System.nanoTime();
+						try {
+							process(operation);
+						} catch (IOException e) {
+							fail(new RuntimeException("Cannot sync file from " + 
+									operation.sourceFile.toAbsolutePath() + " to " + 
+									syncDir.toPath().resolve(operation.relativePath).toAbsolutePath(), e));
+							closeCurrentFile(false);
+						} catch (RuntimeException e) {
+							fail(e);
+							closeCurrentFile(false);
+						} finally {
+							result.addTime(System.nanoTime() - startTime);
+						}
+					}
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} finally {
+				if (!ended) {
+					// Prevents the thread reading files from waiting for
+					// this worker, since it has stopped unexpectedly.
+					failed = true;
+					queue.clear();
+				}
+				closeCurrentFile(false);
+			}
+		}
+		
+		private void process(SyncOperation operation) throws IOException {
+			switch (operation.type) {
+				case LINK : link(operation); break;
+				case OPEN : openFile(operation); break;
+				case WRITE : currentStream.write(operation.buffer, 0, operation.length); break;
+				case CLOSE : closeCurrentFile(true); break;
+				case ABORT : throw operation.failure;
+				default : throw new IllegalArgumentException("Unknown operation: " + operation.type);
+			}
+		}
+		
+		private void link(SyncOperation operation) throws IOException {
+			long startTime = System.nanoTime();
+			long size = Files.size(operation.sourceFile);
+			Path outputFile = syncDir.toPath().resolve(operation.relativePath);
+			boolean linked = copyFile(operation.sourceFile, outputFile, fileLinker);
+			result.fileCopied(size);
+			long bytes = linked ? 0L : size;
+			report.recordFile(linked ? "link" : "copy", operation.relativePath, bytes, bytes, 
+					System.nanoTime() - startTime);
+		}
+		
+		private void openFile(SyncOperation operation) throws IOException {
+			Path outputFile = syncDir.toPath().resolve(operation.relativePath);
+			currentStartTime = System.nanoTime();
+			Files.createDirectories(outputFile.getParent());
+			// The existing file is deleted rather than overwritten, since it
+			// might be a link that shares its contents with another file.
+			Files.deleteIfExists(outputFile);
+			currentStream = Files.newOutputStream(outputFile);
+			current = operation;
+		}
+		
+		/**
+		 * Closes the file that is currently being written. If the file has not
+		 * been written completely it is deleted, so that it is copied again
+		 * during the next sync.
+		 */
+		private void closeCurrentFile(boolean completed) {
+			if (current == null) {
+				return;
+			}
+			
+			SyncOperation operation = current;
+			Path outputFile = syncDir.toPath().resolve(operation.relativePath);
+			current = null;
+			
+			try {
+				currentStream.close();
+				if (completed) {
+					Files.setLastModifiedTime(outputFile, operation.lastModified);
+					result.fileCopied(operation.size);
+					report.recordFile("copy", operation.relativePath, operation.bytesRead, operation.size,
+							System.nanoTime() - currentStartTime);
+				} else {
+					Files.deleteIfExists(outputFile);
+				}
 			} catch (IOException e) {
-				throw new RuntimeException("Cannot sync file from " + sourceFile.getAbsolutePath() + 
-						" to " + outputFile.getAbsolutePath(), e);
+				if (completed) {
+					throw new RuntimeException("Cannot sync file from " + operation.sourceFile.toAbsolutePath() +
+							" to " + outputFile.toAbsolutePath(), e);
+				}
+				LOGGER.debug("Cannot delete incomplete file " + outputFile.toAbsolutePath(), e);
 			}
 		}
 	}
+	
+	/**
+	 * Instructions passed from the thread reading files to the workers for
+	 * each sync directory. Buffers are shared between all workers, so they
+	 * must not be modified after they have been added to the queue.
+	 */
+	private static class SyncOperation {
+		
+		private Type type;
+		private String relativePath;
+		private Path sourceFile;
+		private long size;
+		private FileTime lastModified;
+		private long bytesRead;
+		private byte[] buffer;
+		private int length;
+		private RuntimeException failure;
+		
+		public SyncOperation(Type type, String relativePath, Path sourceFile) {
+			this.type = type;
+			this.relativePath = relativePath;
+			this.sourceFile = sourceFile;
+		}
+		
+		private enum Type {
+			LINK, OPEN, WRITE, CLOSE, ABORT, END
+		}
+	}
 }
@@ -0,0 +1,291 @@
+//-----------------------------------------------------------------------------
+// Colorize Gradle tasks
+// Copyright 2010-2017 Colorize
+// Apache license (http://www.colorize.nl/code_license.txt)
+//-----------------------------------------------------------------------------
+
+package nl.colorize.gradle.webapp;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.gradle.api.DefaultTask;
+import org.gradle.api.GradleException;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+import org.gradle.api.provider.Property;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.Optional;
+import org.gradle.api.tasks.TaskAction;
+import org.gradle.work.ChangeType;
+
+/**
+ * Watches the web application's source directory for changes, and repackages
+ * the web application every time files are changed. Only the files that have
+ * been changed are processed again, in the same way as incremental builds of
+ * the "packageWebApp" task. Since this task keeps running, it avoids the
+ * overhead of starting a new build for every change.
+ * <p>
+ * Changes are batched: after a change is detected, the task waits until no
+ * further changes have been made during the debounce time before repackaging.
+ * The source directory is only scanned again when files are added or removed,
+ * changes to existing files reuse the results of the previous scan.
+ * <p>
+ * TypeScript files are compiled again when they are changed, if they are
+ * part of one of the TypeScript configurations. This task runs until the 
+ * build is cancelled.
+ * <p>
+ * Files are packaged using the settings of the "packageWebApp" task, which
+ * the plugin connects to this task. Like the other tasks, this task does not
+ * access the project or the "webApp" extension while it is running.
+ */
+public abstract class WatchWebAppTask extends DefaultTask {
+	
+	private static final Logger LOGGER = Logging.getLogger(WatchWebAppTask.class);
+	
+	@Internal
+	public abstract Property<PackageWebAppTask> getPackageTask();
+	
+	@Internal
+	@Optional
+	public abstract Property<CompileTypeScriptTask> getCompileTask();
+	
+	@Internal
+	public abstract Property<Integer> getDebounceTime();
+	
+	@TaskAction
+	public void run() {
+		WebAppExtension config = getPackageTask().get().createConfig();
+		
+		if (!config.getBuildDirEnabled()) {
+			throw new GradleException("Cannot watch web app when buildDir is disabled");
+		}
+		
+		LOGGER.lifecycle("Watching " + config.getSourceDir() + " for changes");
+		try {
+			watch();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			LOGGER.lifecycle("Stopped watching " + config.getSourceDir());
+		}
+	}
+	
+	/**
+	 * Watches the source directory and repackages changed files, until the
+	 * current thread is interrupted.
+	 */
+	protected void watch() throws InterruptedException {
+		PackageWebAppTask packageTask = getPackageTask().get();
+		WebAppExtension config = packageTask.createConfig();
+		File sourceDir = new File(config.getSourceDir());
+		File buildDir = new File(config.getBuildDir());
+		
+		try (WatchService watchService = FileSystems.getDefault().newWatchService()) {
+			Map<WatchKey, Path> watchedDirs = new LinkedHashMap<>();
+			registerDirs(sourceDir.toPath(), watchService, watchedDirs, null);
+			WebAppFileIndex index = packageTask.indexFiles(config);
+			
+			while (!Thread.currentThread().isInterrupted()) {
+				Map<File, ChangeType> changes = new LinkedHashMap<>();
+				boolean overflow = waitForChanges(watchService, watchedDirs, changes);
+				
+				long startTime = System.currentTimeMillis();
+				WebAppFileIndex previousIndex = index;
+				if (overflow || changes.containsValue(ChangeType.ADDED) ||
+						changes.containsValue(ChangeType.REMOVED)) {
+					index = packageTask.indexFiles(config);
+				}
+				
+				try {
+					if (overflow) {
+						packageTask.packageWebApp(buildDir, config);
+					} else {
+						changes = filterChanges(changes, index, previousIndex);
+						if (changes.isEmpty()) {
+							continue;
+						}
+						compileTypeScript(changes);
+						packageTask.packageChangedFiles(buildDir, config, index, changes);
+					}
+					
+					LOGGER.lifecycle("Repackaged " + (overflow ? "all" : changes.size()) + " file(s) in " +
+							(System.currentTimeMillis() - startTime) + " ms");
+				} catch (RuntimeException e) {
+					// Keep watching, the error might be fixed by the next change.
+					LOGGER.error("Cannot repackage web application: " + e.getMessage(), e);
+				}
+			}
+		} catch (IOException e) {
+			throw new RuntimeException("Cannot watch directory " + sourceDir.getAbsolutePath(), e);
+		}
+	}
+	
+	/**
+	 * Registers the specified directory and all of its subdirectories with the
+	 * watch service. When a map of changes is provided, all files in the
+	 * directories are added to it, since they might have been created before
+	 * the directories were registered.
+	 */
+	private void registerDirs(Path dir, WatchService watchService, Map<WatchKey, Path> watchedDirs,
+			Map<File, ChangeType> changes) throws IOException {
+		if (!Files.isDirectory(dir)) {
+			return;
+		}
+		
+		Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult preVisitDirectory(Path subDir, BasicFileAttributes attr) throws IOException {
+				WatchKey key = subDir.register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE);
+				watchedDirs.put(key, subDir);
+				return FileVisitResult.CONTINUE;
+			}
+			
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attr) {
+				if (changes != null && attr.isRegularFile()) {
+					recordChange(changes, file.toFile(), ChangeType.ADDED);
+				}
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+	
+	/**
+	 * Blocks until one or more changes are detected, then keeps collecting
+	 * changes until no new changes have been made during the debounce time.
+	 * Returns true if the watch service reported that events were lost.
+	 */
+	private boolean waitForChanges(WatchService watchService, Map<WatchKey, Path> watchedDirs,
+			Map<File, ChangeType> changes) throws InterruptedException, IOException {
+		boolean overflow = false;
+		WatchKey key = watchService.take();
+		
+		while (key != null) {
+			Path dir = watchedDirs.get(key);
+			
+			for (WatchEvent<?> event : key.pollEvents()) {
+				if (event.kind() == OVERFLOW) {
+					overflow = true;
+				} else if (dir != null) {
+					Path file = dir.resolve((Path) event.context());
+					if (event.kind() == ENTRY_CREATE && Files.isDirectory(file)) {
+						registerDirs(file, watchService, watchedDirs, changes);
+					} else if (!Files.isDirectory(file)) {
+						recordChange(changes, file.toFile(), toChangeType(event.kind()));
+					}
+				}
+			}
+			
+			if (!key.reset()) {
+				watchedDirs.remove(key);
+			}
+			
+			key = watchService.poll(getDebounceTime().get(), TimeUnit.MILLISECONDS);
+		}
+		
+		return overflow;
+	}
+	
+	private ChangeType toChangeType(WatchEvent.Kind<?> kind) {
+		if (kind == ENTRY_CREATE) {
+			return ChangeType.ADDED;
+		} else if (kind == ENTRY_DELETE) {
+			return ChangeType.REMOVED;
+		} else {
+			return ChangeType.MODIFIED;
+		}
+	}
+	
+	/**
+	 * Merges a change with earlier changes to the same file within the same
+	 * batch. For example, a file that is created and then modified is still
+	 * considered as added.
+	 */
+	private void recordChange(Map<File, ChangeType> changes, File file, ChangeType change) {
+		ChangeType previous = changes.get(file);
+		
+		if (previous == ChangeType.ADDED && change == ChangeType.MODIFIED) {
+			return;
+		} else if (previous == ChangeType.REMOVED && change == ChangeType.ADDED) {
+			changes.put(file, ChangeType.MODIFIED);
+		} else {
+			changes.put(file, change);
+		}
+	}
+	
+	/**
+	 * Compiles the TypeScript files again, but only if the changes include
+	 * TypeScript files that are part of one of the TypeScript configurations.
+	 */
+	private void compileTypeScript(Map<File, ChangeType> changes) {
+		CompileTypeScriptTask compileTask = getCompileTask().getOrNull();
+		if (compileTask == null) {
+			return;
+		}
+		
+		for (File file : changes.keySet()) {
+			if ((file.getName().endsWith(".ts") || file.getName().endsWith(".tsx")) && 
+					compileTask.isCompiled(file)) {
+				compileTask.compile();
+				return;
+			}
+		}
+	}
+	
+	/**
+	 * Removes changes to files that are not part of the web application, such
+	 * as excluded files. Removed files are checked against the index from
+	 * before the change, since they are no longer included in the new index.
+	 * <p>
+	 * When a directory is deleted or moved out of the source directory, only
+	 * a single change is reported for the directory itself. This is replaced
+	 * with changes for all files that were located in that directory.
+	 */
+	private Map<File, ChangeType> filterChanges(Map<File, ChangeType> changes, WebAppFileIndex index,
+			WebAppFileIndex previousIndex) {
+		Map<File, ChangeType> filtered = new LinkedHashMap<>();
+		for (Map.Entry<File, ChangeType> change : changes.entrySet()) {
+			File file = change.getKey();
+			if (change.getValue() == ChangeType.REMOVED ? previousIndex.isWebAppFile(file) : index.isWebAppFile(file)) {
+				filtered.put(file, change.getValue());
+			} else if (change.getValue() == ChangeType.REMOVED) {
+				for (File removedFile : findFilesInDir(previousIndex, file)) {
+					if (!index.isWebAppFile(removedFile)) {
+						filtered.put(removedFile, ChangeType.REMOVED);
+					}
+				}
+			}
+		}
+		return filtered;
+	}
+	
+	private List<File> findFilesInDir(WebAppFileIndex index, File dir) {
+		String dirPath = dir.getAbsolutePath() + File.separator;
+		List<File> files = new ArrayList<>();
+		for (File file : index.getWebAppFiles()) {
+			if (file.getAbsolutePath().startsWith(dirPath)) {
+				files.add(file);
+			}
+		}
+		return files;
+	}
+}
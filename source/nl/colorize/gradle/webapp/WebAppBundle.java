@@ -0,0 +1,80 @@
+//-----------------------------------------------------------------------------
+// Colorize Gradle tasks
+// Copyright 2010-2017 Colorize
+// Apache license (http://www.colorize.nl/code_license.txt)
+//-----------------------------------------------------------------------------
+
+package nl.colorize.gradle.webapp;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.gradle.api.tasks.util.PatternSet;
+
+/**
+ * Named subset of the combinable JavaScript and CSS files, which are combined
+ * into their own files instead of the main combined files. The files that are
+ * part of the bundle are selected using include and exclude patterns, relative
+ * to the web application's source directory. Bundles allow sections of the web
+ * application to only load the files they actually need. Bundles are 
+ * serializable, since they are used as task inputs.
+ */
+public class WebAppBundle implements Serializable {
+	
+	private static final long serialVersionUID = 1L;
+	
+	private String name;
+	private List<String> includes;
+	private List<String> excludes;
+	
+	private static final Pattern VALID_NAME = Pattern.compile("[a-zA-Z0-9_]+(-[a-zA-Z0-9_]+)*");
+	// Names ending with something that looks like a content hash would be
+	// confused with the content hash naming of other combined files.
+	private static final Pattern CONTENT_HASH_SUFFIX = Pattern.compile(
+			"(.*-)?[0-9a-f]{" + WebAppExtension.CONTENT_HASH_LENGTH + "}");
+	
+	public WebAppBundle(String name) {
+		if (!VALID_NAME.matcher(name).matches() || CONTENT_HASH_SUFFIX.matcher(name).matches()) {
+			throw new IllegalArgumentException("Invalid bundle name: " + name);
+		}
+		
+		this.name = name;
+		this.includes = new ArrayList<>();
+		this.excludes = new ArrayList<>();
+	}
+	
+	public String getName() {
+		return name;
+	}
+	
+	public void include(String... patterns) {
+		includes.addAll(Arrays.asList(patterns));
+	}
+	
+	public List<String> getIncludes() {
+		return includes;
+	}
+	
+	public void exclude(String... patterns) {
+		excludes.addAll(Arrays.asList(patterns));
+	}
+	
+	public List<String> getExcludes() {
+		return excludes;
+	}
+	
+	protected PatternSet toPatternSet() {
+		PatternSet patterns = new PatternSet();
+		patterns.include(includes);
+		patterns.exclude(excludes);
+		return patterns;
+	}
+	
+	@Override
+	public String toString() {
+		return name + " " + includes + " " + excludes;
+	}
+}
@@ -12,43 +12,83 @@ import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.UUID;
+import java.util.Map;
+import java.util.function.UnaryOperator;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 
+import javax.inject.Inject;
+
+import org.gradle.api.Action;
 import org.gradle.api.Project;
 import org.gradle.api.file.ConfigurableFileTree;
+import org.gradle.api.file.FileTree;
+import org.gradle.api.model.ObjectFactory;
+import org.gradle.api.provider.ListProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.provider.Provider;
+import org.gradle.api.tasks.util.PatternSet;
 
 import groovy.lang.Closure;
 
 /**
  * Configuration for the web application, including the locations of the source
- * files and information for how it should be packaged.
+ * files and information for how it should be packaged. Settings are backed by
+ * Gradle properties, and are only resolved when they are used by one of the
+ * tasks.
  */
 public class WebAppExtension {
-
-	private String sourceDir;
-	private String buildDir;
-	private List<String> excludes;
-	private String charset;
-	private List<String> syncDirs;
-	
-	private boolean combineJavaScriptEnabled;
-	private String combinedJavaScriptFileName;
-	private List<String> combineJavaScriptExcludes;
-	private boolean combineJavaScriptLibraries;
-	private Closure<String> rewriteJavaScriptFilter;
-	
-	private boolean combineCSSEnabled;
-	private String combinedCSSFileName;
-	private List<String> combineCSSExcludes;
 	
-	private String build;
+	private Property<String> sourceDir;
+	private Property<String> buildDir;
+	private Property<Boolean> buildDirEnabled;
+	private Property<String> archiveFile;
+	private ListProperty<String> excludes;
+	private Property<String> charset;
+	private ListProperty<String> syncDirs;
+	private Property<Integer> parallelism;
+	private Property<String> linkStrategy;
+	private Property<Integer> watchDebounceTime;
+	
+	private Property<Boolean> combineJavaScriptEnabled;
+	private Property<String> combinedJavaScriptFileName;
+	private ListProperty<String> combineJavaScriptExcludes;
+	private Property<Boolean> combineJavaScriptLibraries;
+	private Property<Closure<String>> rewriteJavaScriptFilter;
+	private ListProperty<RewriteRule> rewriteJavaScriptRules;
+	private Property<UnaryOperator<CharSequence>> rewriteJavaScriptOperator;
+	private Property<Boolean> minifyJavaScript;
+	
+	private Property<Boolean> combineCSSEnabled;
+	private Property<String> combinedCSSFileName;
+	private ListProperty<String> combineCSSExcludes;
+	private Property<Boolean> minifyCSS;
+	
+	private List<WebAppBundle> bundles;
+	private Property<Boolean> contentHashNaming;
+	
+	private Property<Boolean> inlineAssetsEnabled;
+	private Property<Integer> inlineAssetsMaxSize;
+	
+	private Property<Boolean> compressEnabled;
+	private Property<Integer> compressMinSize;
+	private ListProperty<String> compressExtensions;
+	
+	private ListProperty<String> typeScriptConfigs;
+	private Property<String> typeScriptCompiler;
 	
 	private static final List<String> JAVASCRIPT_LIBRARY_PATTERNS = Arrays.asList(
 			"**/lib/**", 
 			"**/node_modules/**", 
 			"**/bower_components/**");
 	
+	protected static final int CONTENT_HASH_LENGTH = 16;
+	
+	private static final List<String> DEFAULT_COMPRESS_EXTENSIONS = Arrays.asList(
+			"html", "css", "js", "json", "svg", "xml", "txt");
+	
 	private static final List<String> DEFAULT_EXCLUDES = Arrays.asList(
 			"**/index.js", 
 			"**/*.min.js", 
@@ -56,166 +96,545 @@ public class WebAppExtension {
 			"Gruntfile.js",
 			"gulpfile.js");
 	
-	public WebAppExtension() {
-		sourceDir = "web";
-		buildDir = "build/web";
-		excludes = new ArrayList<>();
-		charset = "UTF-8";
-		syncDirs = new ArrayList<>();
+	/**
+	 * Creates the configuration with its default values. All settings are 
+	 * stored as lazy properties, so that they can also be set to values that
+	 * are only determined when the web app is packaged.
+	 */
+	@Inject
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	public WebAppExtension(ObjectFactory objects) {
+		sourceDir = objects.property(String.class).convention("web");
+		buildDir = objects.property(String.class).convention("build/web");
+		buildDirEnabled = objects.property(Boolean.class).convention(true);
+		archiveFile = objects.property(String.class);
+		excludes = objects.listProperty(String.class).empty();
+		charset = objects.property(String.class).convention("UTF-8");
+		syncDirs = objects.listProperty(String.class).empty();
+		parallelism = objects.property(Integer.class).convention(Runtime.getRuntime().availableProcessors());
+		linkStrategy = objects.property(String.class).convention(FileLinker.COPY);
+		watchDebounceTime = objects.property(Integer.class).convention(50);
 		
-		combineJavaScriptEnabled = true;
-		combineJavaScriptExcludes = new ArrayList<>();
-		combineJavaScriptLibraries = false;
+		combineJavaScriptEnabled = objects.property(Boolean.class).convention(true);
+		combinedJavaScriptFileName = objects.property(String.class);
+		combineJavaScriptExcludes = objects.listProperty(String.class).empty();
+		combineJavaScriptLibraries = objects.property(Boolean.class).convention(false);
+		rewriteJavaScriptFilter = (Property) objects.property(Closure.class);
+		rewriteJavaScriptRules = objects.listProperty(RewriteRule.class).empty();
+		rewriteJavaScriptOperator = (Property) objects.property(UnaryOperator.class);
+		minifyJavaScript = objects.property(Boolean.class).convention(false);
 		
-		combineCSSEnabled = false;
-		combineCSSExcludes = new ArrayList<>();
+		combineCSSEnabled = objects.property(Boolean.class).convention(false);
+		combinedCSSFileName = objects.property(String.class);
+		combineCSSExcludes = objects.listProperty(String.class).empty();
+		minifyCSS = objects.property(Boolean.class).convention(false);
 		
-		build = UUID.randomUUID().toString();
+		bundles = new ArrayList<>();
+		contentHashNaming = objects.property(Boolean.class).convention(false);
+		
+		inlineAssetsEnabled = objects.property(Boolean.class).convention(false);
+		inlineAssetsMaxSize = objects.property(Integer.class).convention(4096);
+		
+		compressEnabled = objects.property(Boolean.class).convention(false);
+		compressMinSize = objects.property(Integer.class).convention(1024);
+		compressExtensions = objects.listProperty(String.class).convention(DEFAULT_COMPRESS_EXTENSIONS);
+		
+		typeScriptConfigs = objects.listProperty(String.class).convention(Arrays.asList("tsconfig.json"));
+		typeScriptCompiler = objects.property(String.class).convention("tsc");
 	}
 	
 	public void setSourceDir(String sourceDir) {
-		this.sourceDir = sourceDir;
+		this.sourceDir.set(sourceDir);
+	}
+	
+	public void setSourceDir(Provider<String> sourceDir) {
+		this.sourceDir.set(sourceDir);
 	}
 	
 	public String getSourceDir() {
-		return sourceDir;
+		return sourceDir.get();
 	}
 	
 	public File getSourceDir(Project project) {
-		return project.file(sourceDir);
+		return getSourceDir(new ProjectPaths(project));
+	}
+	
+	public File getSourceDir(ProjectPaths paths) {
+		return paths.resolve(sourceDir.get());
 	}
 	
 	public void setBuildDir(String buildDir) {
-		this.buildDir = buildDir;
+		this.buildDir.set(buildDir);
+	}
+	
+	public void setBuildDir(Provider<String> buildDir) {
+		this.buildDir.set(buildDir);
 	}
 	
 	public String getBuildDir() {
-		return buildDir;
+		return buildDir.get();
 	}
 	
+	/**
+	 * Returns the directory that the packaged web application is written to.
+	 * If the build directory has been disabled, this returns a temporary
+	 * directory that only contains the files generated by the build, with all
+	 * other files being added to the archive directly from the source
+	 * directory.
+	 */
 	public File getBuildDir(Project project) {
-		return project.file(buildDir);
+		return getBuildDir(new ProjectPaths(project));
+	}
+	
+	public File getBuildDir(ProjectPaths paths) {
+		if (!getBuildDirEnabled()) {
+			return paths.resolveBuildFile("tmp/webApp");
+		}
+		return paths.resolve(buildDir.get());
+	}
+	
+	/**
+	 * Configures whether the packaged web application is written to the build
+	 * directory. This can only be disabled when the web application is written
+	 * to an archive, since it would otherwise not be written anywhere.
+	 */
+	public void setBuildDirEnabled(boolean buildDirEnabled) {
+		this.buildDirEnabled.set(buildDirEnabled);
+	}
+	
+	public boolean getBuildDirEnabled() {
+		return buildDirEnabled.get();
+	}
+	
+	/**
+	 * Sets the ZIP archive that the packaged web application is written to,
+	 * relative to the project directory. When the WAR plugin is used, the 
+	 * archive replaces the WAR file created by the "war" task. 
+	 */
+	public void setArchiveFile(String archiveFile) {
+		this.archiveFile.set(archiveFile);
+	}
+	
+	public void setArchiveFile(Provider<String> archiveFile) {
+		this.archiveFile.set(archiveFile);
+	}
+	
+	public String getArchiveFile() {
+		return archiveFile.getOrNull();
+	}
+	
+	public File getArchiveFile(Project project) {
+		return getArchiveFile(new ProjectPaths(project));
+	}
+	
+	public File getArchiveFile(ProjectPaths paths) {
+		return archiveFile.isPresent() ? paths.resolve(archiveFile.get()) : null;
 	}
 	
 	public List<String> getExcludes() {
-		return excludes;
+		return excludes.get();
 	}
 	
 	public void setExcludes(List<String> excludes) {
-		this.excludes = excludes;
+		this.excludes.set(excludes);
 	}
 	
 	public void setCharset(String charset) {
-		this.charset = charset;
+		this.charset.set(charset);
 	}
 	
 	public String getCharset() {
-		return charset;
+		return charset.get();
 	}
 	
 	public Charset getCharsetObject() {
-		return Charset.forName(charset);
+		return Charset.forName(charset.get());
 	}
 	
 	public void setSyncDirs(List<String> syncDirs) {
-		this.syncDirs = syncDirs;
+		this.syncDirs.set(syncDirs);
 	}
 	
 	public List<String> getSyncDirs() {
-		return syncDirs;
+		return syncDirs.get();
+	}
+	
+	/**
+	 * Sets the maximum number of files that are processed in parallel while
+	 * packaging the web application. Setting this to 1 will process all files
+	 * sequentially.
+	 */
+	public void setParallelism(int parallelism) {
+		if (parallelism < 1) {
+			throw new IllegalArgumentException("Invalid parallelism: " + parallelism);
+		}
+		this.parallelism.set(parallelism);
+	}
+	
+	public int getParallelism() {
+		return parallelism.get();
+	}
+	
+	/**
+	 * Sets the strategy used to create files that are copied unchanged to the
+	 * build directory and sync directories. Supported values are "copy", 
+	 * "hardlink", and "reflink". Files are copied when the file system does 
+	 * not support the configured strategy.
+	 */
+	public void setLinkStrategy(String linkStrategy) {
+		if (!FileLinker.LINK_STRATEGIES.contains(linkStrategy)) {
+			throw new IllegalArgumentException("Invalid link strategy: " + linkStrategy);
+		}
+		this.linkStrategy.set(linkStrategy);
+	}
+	
+	public String getLinkStrategy() {
+		return linkStrategy.get();
+	}
+	
+	/**
+	 * Sets the time in milliseconds that the "watchWebApp" task waits for
+	 * additional changes, before repackaging the web application. 
+	 */
+	public void setWatchDebounceTime(int watchDebounceTime) {
+		this.watchDebounceTime.set(watchDebounceTime);
+	}
+	
+	public int getWatchDebounceTime() {
+		return watchDebounceTime.get();
 	}
 	
 	public boolean getCombineJavaScriptEnabled() {
-		return combineJavaScriptEnabled;
+		return combineJavaScriptEnabled.get();
 	}
 	
 	public void setCombineJavaScriptEnabled(boolean combineJavaScriptEnabled) {
-		this.combineJavaScriptEnabled = combineJavaScriptEnabled;
+		this.combineJavaScriptEnabled.set(combineJavaScriptEnabled);
 	}
-
+	
 	public void setCombinedJavaScriptFileName(String combinedJavaScriptFileName) {
-		this.combinedJavaScriptFileName = combinedJavaScriptFileName;
+		this.combinedJavaScriptFileName.set(combinedJavaScriptFileName);
+	}
+	
+	public void setCombinedJavaScriptFileName(Provider<String> combinedJavaScriptFileName) {
+		this.combinedJavaScriptFileName.set(combinedJavaScriptFileName);
 	}
 	
 	public String getCombinedJavaScriptFileName() {
-		return combinedJavaScriptFileName;
+		return combinedJavaScriptFileName.getOrNull();
 	}
-
+	
 	public File getCombinedJavaScriptFile(Project project) {
-		String fileName = combinedCSSFileName;
+		return getCombinedJavaScriptFile(new ProjectPaths(project));
+	}
+	
+	public File getCombinedJavaScriptFile(ProjectPaths paths) {
+		String fileName = combinedJavaScriptFileName.getOrNull();
 		if (fileName == null) {
-			Project rootProject = (Project) project.getProperties().get("rootProject");
-			fileName = toGeneratedFileName(rootProject.getName(), "js");
+			fileName = toGeneratedFileName(paths.getRootProjectName(), "js");
 		}
-		return new File(getBuildDir(project), fileName);
+		return new File(getBuildDir(paths), fileName);
 	}
 	
 	public List<String> getCombineJavaScriptExcludes() {
-		return combineJavaScriptExcludes;
+		return combineJavaScriptExcludes.get();
 	}
 	
 	public void setCombineJavaScriptExcludes(List<String> combineJavaScriptExcludes) {
-		this.combineJavaScriptExcludes = combineJavaScriptExcludes;
+		this.combineJavaScriptExcludes.set(combineJavaScriptExcludes);
 	}
-
+	
 	public void setCombineJavaScriptLibraries(boolean combineJavaScriptLibraries) {
-		this.combineJavaScriptLibraries = combineJavaScriptLibraries;
+		this.combineJavaScriptLibraries.set(combineJavaScriptLibraries);
 	}
 	
 	public boolean getCombineJavaScriptLibraries() {
-		return combineJavaScriptLibraries;
+		return combineJavaScriptLibraries.get();
 	}
 	
 	public Closure<String> getRewriteJavaScriptFilter() {
-		return rewriteJavaScriptFilter;
+		return rewriteJavaScriptFilter.getOrNull();
 	}
 	
 	public void setRewriteJavaScriptFilter(Closure<String> rewriteJavaScriptFilter) {
-		this.rewriteJavaScriptFilter = rewriteJavaScriptFilter;
+		this.rewriteJavaScriptFilter.set(rewriteJavaScriptFilter);
+	}
+	
+	/**
+	 * Adds a rule that replaces all occurrences of a literal string in the
+	 * combined JavaScript file. All literal rules are applied in a single pass,
+	 * which is considerably faster than using {@link #setRewriteJavaScriptFilter}.
+	 */
+	public void rewriteJavaScript(String search, String replacement) {
+		rewriteJavaScriptRules.add(RewriteRule.literal(search, replacement));
+	}
+	
+	/**
+	 * Adds a rule that replaces all matches of a regular expression in the
+	 * combined JavaScript file. The replacement can refer to groups in the
+	 * regular expression using "$1".
+	 */
+	public void rewriteJavaScriptPattern(String regex, String replacement) {
+		rewriteJavaScriptRules.add(RewriteRule.pattern(regex, replacement));
+	}
+	
+	public List<RewriteRule> getRewriteJavaScriptRules() {
+		return rewriteJavaScriptRules.get();
+	}
+	
+	public void setRewriteJavaScriptRules(List<RewriteRule> rewriteJavaScriptRules) {
+		this.rewriteJavaScriptRules.set(rewriteJavaScriptRules);
+	}
+	
+	/**
+	 * Sets an operator that is applied to every line in the combined JavaScript
+	 * file. Unlike closures, the operator may be called from multiple threads
+	 * at the same time, and should therefore be thread-safe.
+	 */
+	public void setRewriteJavaScriptOperator(UnaryOperator<CharSequence> rewriteJavaScriptOperator) {
+		this.rewriteJavaScriptOperator.set(rewriteJavaScriptOperator);
+	}
+	
+	public UnaryOperator<CharSequence> getRewriteJavaScriptOperator() {
+		return rewriteJavaScriptOperator.getOrNull();
+	}
+	
+	/**
+	 * When enabled, comments and unnecessary whitespace are removed from the
+	 * combined JavaScript file.
+	 */
+	public void setMinifyJavaScript(boolean minifyJavaScript) {
+		this.minifyJavaScript.set(minifyJavaScript);
+	}
+	
+	public boolean getMinifyJavaScript() {
+		return minifyJavaScript.get();
 	}
 	
 	public boolean getCombineCSSEnabled() {
-		return combineCSSEnabled;
+		return combineCSSEnabled.get();
 	}
 	
 	public void setCombineCSSEnabled(boolean combineCSSEnabled) {
-		this.combineCSSEnabled = combineCSSEnabled;
+		this.combineCSSEnabled.set(combineCSSEnabled);
 	}
-
+	
 	public String getCombinedCSSFileName() {
-		return combinedCSSFileName;
+		return combinedCSSFileName.getOrNull();
 	}
 	
 	public File getCombinedCSSFile(Project project) {
-		String fileName = combinedCSSFileName;
+		return getCombinedCSSFile(new ProjectPaths(project));
+	}
+	
+	public File getCombinedCSSFile(ProjectPaths paths) {
+		String fileName = combinedCSSFileName.getOrNull();
 		if (fileName == null) {
-			Project rootProject = (Project) project.getProperties().get("rootProject");
-			fileName = toGeneratedFileName(rootProject.getName(), "css");
+			fileName = toGeneratedFileName(paths.getRootProjectName(), "css");
 		}
-		return new File(getBuildDir(project), fileName);
-	} 
-
+		return new File(getBuildDir(paths), fileName);
+	}
+	
 	public void setCombinedCSSFileName(String combinedCSSFileName) {
-		this.combinedCSSFileName = combinedCSSFileName;
+		this.combinedCSSFileName.set(combinedCSSFileName);
+	}
+	
+	public void setCombinedCSSFileName(Provider<String> combinedCSSFileName) {
+		this.combinedCSSFileName.set(combinedCSSFileName);
 	}
 	
 	public List<String> getCombineCSSExcludes() {
-		return combineCSSExcludes;
+		return combineCSSExcludes.get();
 	}
 	
 	public void setCombineCSSExcludes(List<String> combineCSSExcludes) {
-		this.combineCSSExcludes = combineCSSExcludes;
+		this.combineCSSExcludes.set(combineCSSExcludes);
 	}
-
+	
+	/**
+	 * When enabled, the combined CSS file is minified.
+	 */
+	public void setMinifyCSS(boolean minifyCSS) {
+		this.minifyCSS.set(minifyCSS);
+	}
+	
+	public boolean getMinifyCSS() {
+		return minifyCSS.get();
+	}
+	
+	/**
+	 * Defines a named bundle. Combinable JavaScript and CSS files matching the
+	 * bundle's patterns are combined into separate files, and HTML files that
+	 * refer to them will refer to the bundle instead. Files are assigned to the
+	 * first bundle they match, files that do not match any bundle end up in the
+	 * main combined files, which therefore act as the shared bundle.
+	 */
+	public WebAppBundle bundle(String name, Action<? super WebAppBundle> configure) {
+		for (WebAppBundle bundle : bundles) {
+			if (bundle.getName().equals(name)) {
+				throw new IllegalArgumentException("Bundle already exists: " + name);
+			}
+		}
+		
+		WebAppBundle bundle = new WebAppBundle(name);
+		configure.execute(bundle);
+		bundles.add(bundle);
+		return bundle;
+	}
+	
+	public List<WebAppBundle> getBundles() {
+		return bundles;
+	}
+	
+	public void setBundles(List<WebAppBundle> bundles) {
+		this.bundles = new ArrayList<>(bundles);
+	}
+	
+	/**
+	 * Returns the combined file for the bundle with the specified name, which
+	 * is derived from the name of the main combined file. Passing {@code null}
+	 * as the bundle name will return the main combined file itself.
+	 */
+	public File toBundleFile(File combinedFile, String bundleName) {
+		if (bundleName == null) {
+			return combinedFile;
+		}
+		
+		String name = combinedFile.getName();
+		int extIndex = name.lastIndexOf('.') == -1 ? name.length() : name.lastIndexOf('.');
+		String bundleFileName = name.substring(0, extIndex) + "-" + bundleName + name.substring(extIndex);
+		return new File(combinedFile.getParentFile(), bundleFileName);
+	}
+	
+	/**
+	 * Returns the bundle names for all combined files, with {@code null} 
+	 * representing the main combined file.
+	 */
+	public List<String> getBundleNames() {
+		List<String> bundleNames = new ArrayList<>();
+		bundleNames.add(null);
+		for (WebAppBundle bundle : bundles) {
+			bundleNames.add(bundle.getName());
+		}
+		return bundleNames;
+	}
+	
+	/**
+	 * When enabled, the names of the combined JavaScript and CSS files will 
+	 * include a hash of their contents. This means browsers will load the new
+	 * files when their contents change, rather than using a cached version.
+	 */
+	public void setContentHashNaming(boolean contentHashNaming) {
+		this.contentHashNaming.set(contentHashNaming);
+	}
+	
+	public boolean getContentHashNaming() {
+		return contentHashNaming.get();
+	}
+	
+	/**
+	 * When enabled, references to small images and fonts in the combined CSS
+	 * files and in HTML image tags are replaced with {@code data:} URIs. This
+	 * reduces the number of requests needed to load a page.
+	 */
+	public void setInlineAssetsEnabled(boolean inlineAssetsEnabled) {
+		this.inlineAssetsEnabled.set(inlineAssetsEnabled);
+	}
+	
+	public boolean getInlineAssetsEnabled() {
+		return inlineAssetsEnabled.get();
+	}
+	
+	/**
+	 * Sets the maximum size in bytes for files to be inlined. Inlined files
+	 * are included in every file that refers to them, so inlining larger 
+	 * files is usually not worth it.
+	 */
+	public void setInlineAssetsMaxSize(int inlineAssetsMaxSize) {
+		this.inlineAssetsMaxSize.set(inlineAssetsMaxSize);
+	}
+	
+	public int getInlineAssetsMaxSize() {
+		return inlineAssetsMaxSize.get();
+	}
+	
+	/**
+	 * When enabled, gzip compressed versions are created for the text files in
+	 * the packaged web application. These can be served by web servers instead
+	 * of compressing the files for every request.
+	 */
+	public void setCompressEnabled(boolean compressEnabled) {
+		this.compressEnabled.set(compressEnabled);
+	}
+	
+	public boolean getCompressEnabled() {
+		return compressEnabled.get();
+	}
+	
+	/**
+	 * Sets the minimum size in bytes for files to be compressed. Compressing
+	 * small files is not worth the overhead.
+	 */
+	public void setCompressMinSize(int compressMinSize) {
+		this.compressMinSize.set(compressMinSize);
+	}
+	
+	public int getCompressMinSize() {
+		return compressMinSize.get();
+	}
+	
+	public void setCompressExtensions(List<String> compressExtensions) {
+		this.compressExtensions.set(compressExtensions);
+	}
+	
+	public List<String> getCompressExtensions() {
+		return compressExtensions.get();
+	}
+	
+	/**
+	 * Sets the TypeScript configuration files that should be compiled, relative
+	 * to the project directory. When multiple configuration files are used 
+	 * they are compiled in parallel.
+	 */
+	public void setTypeScriptConfigs(List<String> typeScriptConfigs) {
+		this.typeScriptConfigs.set(typeScriptConfigs);
+	}
+	
+	public List<String> getTypeScriptConfigs() {
+		return typeScriptConfigs.get();
+	}
+	
+	/**
+	 * Sets the TypeScript compiler executable. This is either the name of an
+	 * executable on the PATH, or a path to the executable.
+	 */
+	public void setTypeScriptCompiler(String typeScriptCompiler) {
+		this.typeScriptCompiler.set(typeScriptCompiler);
+	}
+	
+	public String getTypeScriptCompiler() {
+		return typeScriptCompiler.get();
+	}
+	
 	/**
 	 * Returns the path of the specified file relative to the project directory.
 	 * @throws IllegalArgumentException if the file is located in a directory
 	 *         outside of the source directory.
 	 */
 	public String toRelativePath(Project project, File sourceFile) {
-		return toRelativePath(sourceFile, project.file(sourceDir));
+		return toRelativePath(new ProjectPaths(project), sourceFile);
 	}
 	
+	public String toRelativePath(ProjectPaths paths, File sourceFile) {
+		return toRelativePath(sourceFile, getSourceDir(paths));
+	}
+	
+	/**
+	 * Returns the default name for a combined file, which is based on the
+	 * project name. The name does not depend on the build, so that it does
+	 * not prevent the task from being up-to-date or loaded from the build
+	 * cache.
+	 */
 	private String toGeneratedFileName(String name, String ext) {
 		if (name == null) {
 			throw new NullPointerException();
@@ -224,16 +643,72 @@ public class WebAppExtension {
 		String normalizedName = name;
 		normalizedName = normalizedName.toLowerCase();
 		normalizedName = normalizedName.replaceAll("\\s+", "-");
-		return normalizedName + "-" + build + "." + ext;
+		return normalizedName + "." + ext;
 	}
-
+	
+	/**
+	 * Returns the file that should be used for the combined file with the
+	 * specified contents, when using content hash naming. The hash is inserted
+	 * into the file name, before the file extension.
+	 */
+	public File toContentHashFile(File combinedFile, String contentHash) {
+		String name = combinedFile.getName();
+		int extIndex = name.lastIndexOf('.') == -1 ? name.length() : name.lastIndexOf('.');
+		String hashedName = name.substring(0, extIndex) + "-" + contentHash + name.substring(extIndex);
+		return new File(combinedFile.getParentFile(), hashedName);
+	}
+	
+	/**
+	 * Returns all files that were previously created for the specified combined
+	 * file when using content hash naming. 
+	 */
+	public List<File> findContentHashFiles(File combinedFile) {
+		String name = combinedFile.getName();
+		int extIndex = name.lastIndexOf('.') == -1 ? name.length() : name.lastIndexOf('.');
+		Pattern pattern = Pattern.compile(Pattern.quote(name.substring(0, extIndex)) + 
+				"-[0-9a-f]{" + CONTENT_HASH_LENGTH + "}" + Pattern.quote(name.substring(extIndex)));
+		
+		File[] files = combinedFile.getParentFile().listFiles();
+		if (files == null) {
+			return Collections.emptyList();
+		}
+		
+		return Arrays.stream(files)
+			.filter(file -> pattern.matcher(file.getName()).matches())
+			.sorted()
+			.collect(Collectors.toList());
+	}
+	
+	/**
+	 * Returns all files in the build directory that are generated by the build,
+	 * rather than being copied from the source directory. This includes the
+	 * combined JavaScript and CSS files created by previous builds, and the
+	 * combined files for all bundles.
+	 */
+	public List<File> findGeneratedFiles(Project project) {
+		return findGeneratedFiles(new ProjectPaths(project));
+	}
+	
+	public List<File> findGeneratedFiles(ProjectPaths paths) {
+		List<File> generatedFiles = new ArrayList<>();
+		for (String bundleName : getBundleNames()) {
+			File javaScriptFile = toBundleFile(getCombinedJavaScriptFile(paths), bundleName);
+			File cssFile = toBundleFile(getCombinedCSSFile(paths), bundleName);
+			generatedFiles.add(javaScriptFile);
+			generatedFiles.add(cssFile);
+			generatedFiles.addAll(findContentHashFiles(javaScriptFile));
+			generatedFiles.addAll(findContentHashFiles(cssFile));
+		}
+		return generatedFiles;
+	}
+	
 	/**
 	 * Returns the path of the specified file relative to the build directory.
 	 * @throws IllegalArgumentException if the file is located in a directory
 	 *         outside of the build directory.
 	 */
 	public String toBuildRelativePath(Project project, File sourceFile) {
-		return toRelativePath(sourceFile, project.getBuildDir());
+		return toRelativePath(sourceFile, project.getLayout().getBuildDirectory().get().getAsFile());
 	}
 	
 	public String toRelativePath(File sourceFile, File dir) {
@@ -262,16 +737,81 @@ public class WebAppExtension {
 		}
 	}
 	
+	/**
+	 * Scans the web application's source directory and classifies all files
+	 * that are in scope according to this configuration. The returned index
+	 * is a snapshot, it will not reflect changes made after it was created.
+	 */
+	public WebAppFileIndex indexFiles(Project project) {
+		return indexFiles(getWebAppFileTree(project));
+	}
+	
+	/**
+	 * Classifies all files in the specified file tree, which should have been
+	 * obtained from {@link #getWebAppFileTree(ObjectFactory, ProjectPaths)}.
+	 */
+	public WebAppFileIndex indexFiles(FileTree webAppFileTree) {
+		PatternSet combinableJavaScript = null;
+		if (getCombineJavaScriptEnabled()) {
+			combinableJavaScript = new PatternSet();
+			combinableJavaScript.include("**/*.js");
+			combinableJavaScript.exclude(getExcludedJavaScriptPatterns());
+		}
+		
+		PatternSet combinableCSS = null;
+		if (getCombineCSSEnabled()) {
+			combinableCSS = new PatternSet();
+			combinableCSS.include("**/*.css");
+			combinableCSS.exclude(getExcludedCSSPatterns());
+		}
+		
+		PatternSet javaScriptLibraries = new PatternSet();
+		javaScriptLibraries.include(JAVASCRIPT_LIBRARY_PATTERNS);
+		
+		Map<String, PatternSet> bundlePatterns = new LinkedHashMap<>();
+		for (WebAppBundle bundle : bundles) {
+			if (!bundle.getIncludes().isEmpty()) {
+				bundlePatterns.put(bundle.getName(), bundle.toPatternSet());
+			}
+		}
+		
+		WebAppFileIndex index = new WebAppFileIndex(combinableJavaScript, combinableCSS, 
+				javaScriptLibraries, bundlePatterns);
+		webAppFileTree.visit(element -> {
+			if (!element.isDirectory()) {
+				index.add(element);
+			}
+		});
+		index.sort();
+		return index;
+	}
+	
 	/**
 	 * Finds all web application files in the project that are in scope according
 	 * to this configuration. Note that this includes JavaScript files. 
+	 * @deprecated Scans the source directory every time this is called. Use
+	 *             {@link #indexFiles(Project)} once and query the returned
+	 *             {@link WebAppFileIndex} instead.
 	 */
+	@Deprecated
 	public List<File> findWebAppFiles(Project project) {
-		ConfigurableFileTree fileTree = project.fileTree(sourceDir);
+		return indexFiles(project).getWebAppFiles();
+	}
+	
+	/**
+	 * Returns the file tree containing all web application files that are in
+	 * scope according to this configuration. Unlike {@link #indexFiles(Project)},
+	 * the returned tree is evaluated lazily.
+	 */
+	public ConfigurableFileTree getWebAppFileTree(Project project) {
+		return getWebAppFileTree(project.getObjects(), new ProjectPaths(project));
+	}
+	
+	public ConfigurableFileTree getWebAppFileTree(ObjectFactory objects, ProjectPaths paths) {
+		ConfigurableFileTree fileTree = objects.fileTree().from(getSourceDir(paths));
 		fileTree.exclude(DEFAULT_EXCLUDES);
-		fileTree.exclude(excludes);
-		
-		return new ArrayList<File>(fileTree.getFiles());
+		fileTree.exclude(getExcludes());
+		return fileTree;
 	}
 	
 	/**
@@ -279,62 +819,59 @@ public class WebAppExtension {
 	 * that should be combined. The returned list will not contain any JavaScript 
 	 * files produced by the build itself, files that have been excluded, or
 	 * files that should not be combined.
+	 * @deprecated Scans the source directory every time this is called. Use
+	 *             {@link #indexFiles(Project)} once and query the returned
+	 *             {@link WebAppFileIndex} instead.
 	 */
+	@Deprecated
 	public List<File> findCombinableJavaScriptFiles(Project project) {
-		if (!combineJavaScriptEnabled) {
+		if (!getCombineJavaScriptEnabled()) {
 			return Collections.emptyList();
 		}
 		
-		ConfigurableFileTree fileTree = project.fileTree(sourceDir);
-		fileTree.include("**/*.js");
-		fileTree.exclude(getExcludedJavaScriptPatterns());
-		
-		return new ArrayList<File>(fileTree.getFiles());
+		return indexFiles(project).getCombinableJavaScriptFiles();
 	}
 	
 	private List<String> getExcludedJavaScriptPatterns() {
 		List<String> excluded = new ArrayList<>();
-		excluded.addAll(DEFAULT_EXCLUDES);
-		excluded.addAll(excludes);
-		if (!combineJavaScriptLibraries) {
+		if (!getCombineJavaScriptLibraries()) {
 			excluded.addAll(JAVASCRIPT_LIBRARY_PATTERNS);
 		}
-		excluded.addAll(combineJavaScriptExcludes);
+		excluded.addAll(getCombineJavaScriptExcludes());
 		return excluded;
 	}
 	
+	/**
+	 * @deprecated Scans the source directory every time this is called. Use
+	 *             {@link #indexFiles(Project)} once and query the returned
+	 *             {@link WebAppFileIndex} instead.
+	 */
+	@Deprecated
 	protected List<File> findJavaScriptLibraryFiles(Project project) {
-		ConfigurableFileTree fileTree = project.fileTree(sourceDir);
-		fileTree.include(JAVASCRIPT_LIBRARY_PATTERNS);
-		fileTree.exclude(DEFAULT_EXCLUDES);
-		fileTree.exclude(excludes);
-		
-		return new ArrayList<File>(fileTree.getFiles());
+		return indexFiles(project).getJavaScriptLibraryFiles();
 	}
 	
 	/**
 	 * Finds all CSS source files that should be combined.
+	 * @deprecated Scans the source directory every time this is called. Use
+	 *             {@link #indexFiles(Project)} once and query the returned
+	 *             {@link WebAppFileIndex} instead.
 	 */
+	@Deprecated
 	public List<File> findCombinableCSSFiles(Project project) {
-		if (!combineCSSEnabled) {
+		if (!getCombineCSSEnabled()) {
 			return Collections.emptyList();
 		}
 		
-		List<String> cssExcludes = new ArrayList<>();
-		cssExcludes.addAll(DEFAULT_EXCLUDES);
-		cssExcludes.addAll(excludes);
-		cssExcludes.addAll(combineCSSExcludes);
-		// Some JavaScript libraries come with their own stylesheets.
-		// By default these will not end up in the combined CSS file.
-		cssExcludes.addAll(JAVASCRIPT_LIBRARY_PATTERNS);
-		
-		ConfigurableFileTree fileTree = project.fileTree(sourceDir);
-		fileTree.include("**/*.css");
-		fileTree.exclude(cssExcludes);
-		return new ArrayList<File>(fileTree.getFiles());
+		return indexFiles(project).getCombinableCSSFiles();
 	}
 	
-	protected String getBuild() {
-		return build;
+	private List<String> getExcludedCSSPatterns() {
+		List<String> excluded = new ArrayList<>();
+		excluded.addAll(getCombineCSSExcludes());
+		// Some JavaScript libraries come with their own stylesheets.
+		// By default these will not end up in the combined CSS file.
+		excluded.addAll(JAVASCRIPT_LIBRARY_PATTERNS);
+		return excluded;
 	}
 }
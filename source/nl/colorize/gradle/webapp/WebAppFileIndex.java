@@ -0,0 +1,244 @@
+//-----------------------------------------------------------------------------
+// Colorize Gradle tasks
+// Copyright 2010-2017 Colorize
+// Apache license (http://www.colorize.nl/code_license.txt)
+//-----------------------------------------------------------------------------
+
+package nl.colorize.gradle.webapp;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.gradle.api.file.FileTreeElement;
+import org.gradle.api.specs.Spec;
+import org.gradle.api.tasks.util.PatternSet;
+
+/**
+ * Snapshot of the files in the web application's source directory. The source
+ * directory is scanned once when the index is created, and each file is then
+ * classified according to the configuration. This allows the different types
+ * of files to be looked up without scanning the source directory again.
+ * <p>
+ * Files are sorted by their relative path, so that the order in which files
+ * are processed (and combined) is not dependent on the file system.
+ * <p>
+ * Combinable files are also assigned to a bundle, if they match the patterns
+ * of one of the configured bundles. Files that do not belong to any bundle
+ * are part of the main combined files.
+ */
+public class WebAppFileIndex {
+	
+	private List<File> webAppFiles;
+	private Map<File, String> relativePaths;
+	private Set<File> combinableJavaScriptFiles;
+	private Set<File> combinableCSSFiles;
+	private Set<File> javaScriptLibraryFiles;
+	private Set<File> typeScriptFiles;
+	private Set<File> htmlFiles;
+	private Map<File, String> bundles;
+	
+	private Spec<FileTreeElement> combinableJavaScriptSpec;
+	private Spec<FileTreeElement> combinableCSSSpec;
+	private Spec<FileTreeElement> javaScriptLibrarySpec;
+	private Map<String, Spec<FileTreeElement>> bundleSpecs;
+	
+	protected WebAppFileIndex(PatternSet combinableJavaScript, PatternSet combinableCSS,
+			PatternSet javaScriptLibraries) {
+		this(combinableJavaScript, combinableCSS, javaScriptLibraries, Collections.emptyMap());
+	}
+	
+	/**
+	 * Creates an index that also assigns combinable files to bundles. The 
+	 * bundle patterns are matched in iteration order, files are assigned to
+	 * the first bundle they match.
+	 */
+	protected WebAppFileIndex(PatternSet combinableJavaScript, PatternSet combinableCSS,
+			PatternSet javaScriptLibraries, Map<String, PatternSet> bundlePatterns) {
+		webAppFiles = new ArrayList<>();
+		relativePaths = new HashMap<>();
+		combinableJavaScriptFiles = new LinkedHashSet<>();
+		combinableCSSFiles = new LinkedHashSet<>();
+		javaScriptLibraryFiles = new LinkedHashSet<>();
+		typeScriptFiles = new LinkedHashSet<>();
+		htmlFiles = new LinkedHashSet<>();
+		bundles = new HashMap<>();
+		
+		combinableJavaScriptSpec = combinableJavaScript == null ? null : combinableJavaScript.getAsSpec();
+		combinableCSSSpec = combinableCSS == null ? null : combinableCSS.getAsSpec();
+		javaScriptLibrarySpec = javaScriptLibraries.getAsSpec();
+		
+		bundleSpecs = new LinkedHashMap<>();
+		for (Map.Entry<String, PatternSet> entry : bundlePatterns.entrySet()) {
+			bundleSpecs.put(entry.getKey(), entry.getValue().getAsSpec());
+		}
+	}
+	
+	/**
+	 * Adds a file to the index. Files can be added in any order, {@link #sort()}
+	 * should be called after all files have been added.
+	 */
+	protected void add(FileTreeElement element) {
+		File file = element.getFile();
+		String name = element.getName();
+		
+		webAppFiles.add(file);
+		relativePaths.put(file, element.getRelativePath().getPathString());
+		
+		if (combinableJavaScriptSpec != null && combinableJavaScriptSpec.isSatisfiedBy(element)) {
+			combinableJavaScriptFiles.add(file);
+		}
+		
+		if (combinableCSSSpec != null && combinableCSSSpec.isSatisfiedBy(element)) {
+			combinableCSSFiles.add(file);
+		}
+		
+		if (combinableJavaScriptFiles.contains(file) || combinableCSSFiles.contains(file)) {
+			addToBundle(element);
+		}
+		
+		if (javaScriptLibrarySpec.isSatisfiedBy(element)) {
+			javaScriptLibraryFiles.add(file);
+		}
+		
+		if (name.endsWith(".ts") || name.endsWith(".tsx")) {
+			typeScriptFiles.add(file);
+		}
+		
+		if (name.endsWith(".html")) {
+			htmlFiles.add(file);
+		}
+	}
+	
+	private void addToBundle(FileTreeElement element) {
+		for (Map.Entry<String, Spec<FileTreeElement>> bundleSpec : bundleSpecs.entrySet()) {
+			if (bundleSpec.getValue().isSatisfiedBy(element)) {
+				bundles.put(element.getFile(), bundleSpec.getKey());
+				return;
+			}
+		}
+	}
+	
+	/**
+	 * Sorts all files in the index by their relative path.
+	 */
+	protected void sort() {
+		webAppFiles.sort(Comparator.comparing(file -> relativePaths.get(file)));
+		combinableJavaScriptFiles = sort(combinableJavaScriptFiles);
+		combinableCSSFiles = sort(combinableCSSFiles);
+		javaScriptLibraryFiles = sort(javaScriptLibraryFiles);
+		typeScriptFiles = sort(typeScriptFiles);
+		htmlFiles = sort(htmlFiles);
+	}
+	
+	private Set<File> sort(Set<File> files) {
+		Set<File> sorted = new LinkedHashSet<>();
+		for (File file : webAppFiles) {
+			if (files.contains(file)) {
+				sorted.add(file);
+			}
+		}
+		return sorted;
+	}
+	
+	public List<File> getWebAppFiles() {
+		return webAppFiles;
+	}
+	
+	public boolean isWebAppFile(File file) {
+		return relativePaths.containsKey(file);
+	}
+	
+	/**
+	 * Returns the path of the specified file relative to the source directory,
+	 * or {@code null} if the file is not part of this index.
+	 */
+	public String getRelativePath(File file) {
+		return relativePaths.get(file);
+	}
+	
+	public List<File> getCombinableJavaScriptFiles() {
+		return new ArrayList<File>(combinableJavaScriptFiles);
+	}
+	
+	/**
+	 * Returns the combinable JavaScript files that are part of the specified
+	 * bundle, or the files that are not part of any bundle if the bundle name
+	 * is {@code null}.
+	 */
+	public List<File> getCombinableJavaScriptFiles(String bundleName) {
+		return filterBundle(combinableJavaScriptFiles, bundleName);
+	}
+	
+	public boolean isCombinableJavaScriptFile(File file) {
+		return combinableJavaScriptFiles.contains(file);
+	}
+	
+	public List<File> getCombinableCSSFiles() {
+		return new ArrayList<File>(combinableCSSFiles);
+	}
+	
+	public List<File> getCombinableCSSFiles(String bundleName) {
+		return filterBundle(combinableCSSFiles, bundleName);
+	}
+	
+	public boolean isCombinableCSSFile(File file) {
+		return combinableCSSFiles.contains(file);
+	}
+	
+	private List<File> filterBundle(Set<File> files, String bundleName) {
+		return files.stream()
+			.filter(file -> Objects.equals(bundles.get(file), bundleName))
+			.collect(Collectors.toList());
+	}
+	
+	/**
+	 * Returns the name of the bundle the specified file is part of, or 
+	 * {@code null} if the file is not part of a bundle.
+	 */
+	public String getBundle(File file) {
+		return bundles.get(file);
+	}
+	
+	public List<File> getJavaScriptLibraryFiles() {
+		return new ArrayList<File>(javaScriptLibraryFiles);
+	}
+	
+	public boolean isJavaScriptLibraryFile(File file) {
+		return javaScriptLibraryFiles.contains(file);
+	}
+	
+	public List<File> getTypeScriptFiles() {
+		return new ArrayList<File>(typeScriptFiles);
+	}
+	
+	public boolean isTypeScriptFile(File file) {
+		return typeScriptFiles.contains(file);
+	}
+	
+	public List<File> getHTMLFiles() {
+		return new ArrayList<File>(htmlFiles);
+	}
+	
+	public boolean isHTMLFile(File file) {
+		return htmlFiles.contains(file);
+	}
+	
+	/**
+	 * Returns true if the file is a "plain" asset, i.e. a file that is not
+	 * processed by the build and can be copied as-is.
+	 */
+	public boolean isAssetFile(File file) {
+		return isWebAppFile(file) && !isCombinableJavaScriptFile(file) &&
+				!isCombinableCSSFile(file) && !isTypeScriptFile(file) && !isHTMLFile(file);
+	}
+}
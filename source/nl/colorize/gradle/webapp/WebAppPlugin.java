@@ -6,54 +6,198 @@
 
 package nl.colorize.gradle.webapp;
 
+import java.io.File;
+
 import org.gradle.api.Plugin;
 import org.gradle.api.Project;
-import org.gradle.api.UnknownTaskException;
+import org.gradle.api.file.ProjectLayout;
 import org.gradle.api.plugins.BasePlugin;
 import org.gradle.api.tasks.TaskContainer;
+import org.gradle.api.tasks.TaskProvider;
+import org.gradle.api.tasks.bundling.War;
 
 /**
  * Gradle plugin for building HTML/CSS/JavaScript applications.
+ * <p>
+ * Tasks are registered lazily, so they are only created and configured when
+ * they are actually needed by the build. Integration with other plugins is
+ * configured when those plugins are applied, regardless of whether they are
+ * applied before or after this plugin. The tasks' properties are connected to
+ * the "webApp" extension, rather than the tasks accessing the extension.
  */
 public class WebAppPlugin implements Plugin<Project> {
-
+	
+	public static final String CLIENT_DEPENDENCIES_PLUGIN = "com.craigburke.client-dependencies";
+	
 	@Override
 	public void apply(Project project) {
 		// Ensure that the base plugin has been applied, so that the
 		// standard "clean" and "assemble" tasks are available.
-		if (!project.getPlugins().hasPlugin(BasePlugin.class)) {
-			project.getPlugins().apply(BasePlugin.class);
-		}
+		project.getPluginManager().apply(BasePlugin.class);
 		
-		project.getExtensions().create("webApp", WebAppExtension.class);
+		WebAppExtension config = project.getExtensions().create("webApp", WebAppExtension.class);
+		TaskProvider<PackageWebAppTask> packageTask = initTasks(project, config);
+		
+		// Operators are arbitrary Java objects, which cannot be stored in the
+		// configuration cache.
+		project.afterEvaluate(p -> {
+			if (config.getRewriteJavaScriptOperator() != null) {
+				packageTask.configure(task -> task.notCompatibleWithConfigurationCache(
+						"rewriteJavaScriptOperator cannot be stored in the configuration cache"));
+			}
+		});
 		
-		initTasks(project.getTasks());
-	
 		// Integrate with the WAR plugin.
-		if (hasTask(project, "war")) {
-			project.getTasks().getByName("war").dependsOn("packageWebApp");
-		}
+		project.getPluginManager().withPlugin("war", plugin -> {
+			project.getTasks().named("war").configure(war -> war.dependsOn(packageTask));
+			project.afterEvaluate(p -> configureWarPlugin(p, config, packageTask));
+		});
 		
 		// Integrate with the Client Dependencies plugin.
-		if (hasTask(project, "clientRefresh")) {
-			project.getTasks().getByName("packageWebApp").dependsOn("clientRefresh");
-		}
+		project.getPluginManager().withPlugin(CLIENT_DEPENDENCIES_PLUGIN, plugin -> {
+			project.getTasks().named("compileWebAppTypeScript").configure(task -> 
+					task.dependsOn("clientRefresh"));
+			packageTask.configure(task -> task.dependsOn("clientRefresh"));
+		});
 	}
-
-	private void initTasks(TaskContainer tasks) {
-		tasks.create("packageWebApp", PackageWebAppTask.class);
-		tasks.create("syncWebApp", SyncWebAppTask.class);
+	
+	private TaskProvider<PackageWebAppTask> initTasks(Project project, WebAppExtension config) {
+		TaskContainer tasks = project.getTasks();
+		ProjectPaths paths = new ProjectPaths(project);
 		
-		tasks.getByName("syncWebApp").dependsOn("packageWebApp");
-		tasks.getByName("assemble").dependsOn("packageWebApp", "syncWebApp");
+		TaskProvider<CompileTypeScriptTask> compileTask = tasks.register("compileWebAppTypeScript",
+				CompileTypeScriptTask.class, task -> configureCompileTask(task, project, config, paths));
+		TaskProvider<PackageWebAppTask> packageTask = tasks.register("packageWebApp", PackageWebAppTask.class, 
+				task -> {
+					task.dependsOn(compileTask);
+					configurePackageTask(task, project, config, paths);
+				});
+		TaskProvider<SyncWebAppTask> syncTask = tasks.register("syncWebApp", SyncWebAppTask.class, task -> {
+			task.dependsOn(packageTask);
+			configureSyncTask(task, project, config, paths);
+		});
+		tasks.register("watchWebApp", WatchWebAppTask.class, task -> {
+			task.dependsOn(packageTask);
+			task.getPackageTask().convention(packageTask);
+			task.getCompileTask().convention(compileTask);
+			task.getDebounceTime().convention(project.provider(config::getWatchDebounceTime));
+			task.notCompatibleWithConfigurationCache("Keeps running until the build is cancelled");
+		});
+		
+		tasks.named("assemble").configure(task -> task.dependsOn(packageTask, syncTask));
+		return packageTask;
+	}
+	
+	/**
+	 * Connects the properties of the "compileWebAppTypeScript" task to the
+	 * "webApp" extension. Like the properties of the other tasks, these are 
+	 * conventions that are resolved when the task needs them, so they reflect
+	 * changes made to the extension after the task has been created.
+	 */
+	private void configureCompileTask(CompileTypeScriptTask task, Project project, WebAppExtension config,
+			ProjectPaths paths) {
+		ProjectLayout layout = project.getLayout();
+		task.getSourceDir().convention(layout.dir(project.provider(() -> config.getSourceDir(paths))));
+		task.getExcludes().convention(project.provider(config::getExcludes));
+		task.getCharset().convention(project.provider(config::getCharset));
+		task.getParallelism().convention(project.provider(config::getParallelism));
+		task.getTypeScriptConfigs().convention(project.provider(config::getTypeScriptConfigs));
+		task.getCompiler().convention(project.provider(config::getTypeScriptCompiler));
 	}
 	
-	private boolean hasTask(Project project, String taskName) {
-		try {
-			project.getTasks().getByName(taskName);
-			return true;
-		} catch (UnknownTaskException e) {
-			return false;
+	private void configurePackageTask(PackageWebAppTask task, Project project, WebAppExtension config,
+			ProjectPaths paths) {
+		ProjectLayout layout = project.getLayout();
+		task.getSourceDir().convention(layout.dir(project.provider(() -> config.getSourceDir(paths))));
+		task.getBuildDir().convention(layout.dir(project.provider(() -> config.getBuildDir(paths))));
+		task.getBuildDirEnabled().convention(project.provider(config::getBuildDirEnabled));
+		task.getArchiveFile().convention(layout.file(project.provider(() -> config.getArchiveFile(paths))));
+		task.getExcludes().convention(project.provider(config::getExcludes));
+		task.getCharset().convention(project.provider(config::getCharset));
+		task.getParallelism().convention(project.provider(config::getParallelism));
+		task.getLinkStrategy().convention(project.provider(config::getLinkStrategy));
+		
+		task.getCombineJavaScriptEnabled().convention(project.provider(config::getCombineJavaScriptEnabled));
+		task.getCombinedJavaScriptFileName().convention(project.provider(() -> 
+				config.getCombinedJavaScriptFile(paths).getName()));
+		task.getCombineJavaScriptExcludes().convention(project.provider(config::getCombineJavaScriptExcludes));
+		task.getCombineJavaScriptLibraries().convention(project.provider(config::getCombineJavaScriptLibraries));
+		task.getRewriteJavaScriptFilter().convention(project.provider(config::getRewriteJavaScriptFilter));
+		task.getRewriteJavaScriptRules().convention(project.provider(config::getRewriteJavaScriptRules));
+		task.getRewriteJavaScriptOperator().convention(project.provider(config::getRewriteJavaScriptOperator));
+		task.getMinifyJavaScript().convention(project.provider(config::getMinifyJavaScript));
+		
+		task.getCombineCSSEnabled().convention(project.provider(config::getCombineCSSEnabled));
+		task.getCombinedCSSFileName().convention(project.provider(() -> 
+				config.getCombinedCSSFile(paths).getName()));
+		task.getCombineCSSExcludes().convention(project.provider(config::getCombineCSSExcludes));
+		task.getMinifyCSS().convention(project.provider(config::getMinifyCSS));
+		
+		task.getBundles().convention(project.provider(config::getBundles));
+		task.getContentHashNaming().convention(project.provider(config::getContentHashNaming));
+		task.getInlineAssetsEnabled().convention(project.provider(config::getInlineAssetsEnabled));
+		task.getInlineAssetsMaxSize().convention(project.provider(config::getInlineAssetsMaxSize));
+		task.getCompressEnabled().convention(project.provider(config::getCompressEnabled));
+		task.getCompressMinSize().convention(project.provider(config::getCompressMinSize));
+		task.getCompressExtensions().convention(project.provider(config::getCompressExtensions));
+	}
+	
+	private void configureSyncTask(SyncWebAppTask task, Project project, WebAppExtension config, 
+			ProjectPaths paths) {
+		ProjectLayout layout = project.getLayout();
+		task.getBuildDir().convention(layout.dir(project.provider(() -> config.getBuildDir(paths))));
+		task.getBuildDirEnabled().convention(project.provider(config::getBuildDirEnabled));
+		task.getSyncDirs().convention(project.provider(config::getSyncDirs));
+		task.getLinkStrategy().convention(project.provider(config::getLinkStrategy));
+		task.getCombinedJavaScriptFileName().convention(project.provider(() -> 
+				config.getCombinedJavaScriptFile(paths).getName()));
+		task.getCombinedCSSFileName().convention(project.provider(() -> 
+				config.getCombinedCSSFile(paths).getName()));
+		task.getBundles().convention(project.provider(config::getBundles));
+	}
+	
+	/**
+	 * Configures the WAR plugin to use the packaged web app, by pointing the
+	 * "war" task's web app directory to the build dir. This is done while 
+	 * configuring the project rather than when packaging the web app, since 
+	 * the latter is skipped if the packaged web app is up-to-date or loaded 
+	 * from the cache.
+	 * <p>
+	 * When the web app is packaged into an archive, the archive replaces the
+	 * WAR file instead. The "war" task cannot add files that were compressed
+	 * in advance, so the contents of the WAR file are added to the archive by
+	 * the "packageWebApp" task, and the "war" task is disabled.
+	 */
+	private void configureWarPlugin(Project project, WebAppExtension config,
+			TaskProvider<PackageWebAppTask> packageTask) {
+		if (config.getArchiveFile() != null) {
+			configureWarArchive(project, config, packageTask);
+			return;
 		}
+		
+		if (config.getSourceDir(project).exists()) {
+			File buildDir = config.getBuildDir(project);
+			project.getTasks().named("war", War.class).configure(war -> war.getWebAppDirectory().set(buildDir));
+		}
+	}
+	
+	private void configureWarArchive(Project project, WebAppExtension config,
+			TaskProvider<PackageWebAppTask> packageTask) {
+		TaskProvider<War> warTask = project.getTasks().named("war", War.class);
+		File archiveFile = config.getArchiveFile(project);
+		
+		packageTask.configure(task -> {
+			War war = warTask.get();
+			task.setWarClasspath(war.getClasspath());
+			task.setWebXml(war.getWebXml());
+		});
+		
+		// The WAR file's location is used by other plugins, for example to
+		// publish the WAR file, so it is changed to refer to the archive.
+		warTask.configure(war -> {
+			war.getDestinationDirectory().set(archiveFile.getParentFile());
+			war.getArchiveFileName().set(archiveFile.getName());
+			war.setEnabled(false);
+		});
 	}
 }
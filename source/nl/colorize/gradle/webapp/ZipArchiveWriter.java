@@ -0,0 +1,490 @@
+//-----------------------------------------------------------------------------
+// Colorize Gradle tasks
+// Copyright 2010-2017 Colorize
+// Apache license (http://www.colorize.nl/code_license.txt)
+//-----------------------------------------------------------------------------
+
+package nl.colorize.gradle.webapp;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes a ZIP archive, compressing the entries in parallel. Entries are first
+ * added to the writer, and are read, compressed, and written to the archive
+ * when {@link #write()} is called. Entries are written in the order of their
+ * paths, so that the archive does not depend on the order in which they were
+ * added, and all entries use the same timestamp so that the archive's contents
+ * only change when the entries change.
+ * <p>
+ * Files that are already compressed, such as images and fonts, are stored
+ * without compressing them again, which is slow and rarely makes them smaller.
+ * Entries that would become larger when compressed are stored as well. ZIP64
+ * extensions are used when the archive contains more than 65535 entries, or
+ * becomes larger than 4 GB.
+ * <p>
+ * The java.util.zip classes cannot be used for this, since they do not allow
+ * entries that were compressed in advance to be written to the archive.
+ */
+public class ZipArchiveWriter {
+	
+	private File archiveFile;
+	private int parallelism;
+	private Map<String, Object> entries;
+	private long bytesRead;
+	private long bytesWritten;
+	
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final List<String> COMPRESSED_EXTENSIONS = Arrays.asList(
+			"png", "jpg", "jpeg", "gif", "webp", "ico", "woff", "woff2", "gz", "br", "zip", "jar",
+			"war", "mp3", "mp4", "m4a", "ogg", "webm", "pdf");
+	
+	// Larger entries are streamed to the archive instead of being compressed
+	// in memory, so that memory usage does not depend on the file size.
+	private static final long STREAMED_ENTRY_SIZE = 4 * 1024 * 1024;
+	private static final int BUFFER_SIZE = 65536;
+	
+	private static final int LOCAL_HEADER = 0x04034b50;
+	private static final int CENTRAL_HEADER = 0x02014b50;
+	private static final int END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+	private static final int ZIP64_END_OF_CENTRAL_DIRECTORY = 0x06064b50;
+	private static final int ZIP64_LOCATOR = 0x07064b50;
+	private static final short ZIP64_EXTRA = 0x0001;
+	private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+	private static final int ZIP64_MAGIC_COUNT = 0xFFFF;
+	private static final short VERSION = 20;
+	private static final short VERSION_ZIP64 = 45;
+	private static final short UTF8_FLAG = 0x0800;
+	private static final short STORED = 0;
+	private static final short DEFLATED = 8;
+	// 1980-02-01 00:00, which is also used by Gradle for reproducible archives.
+	private static final short DOS_TIME = 0;
+	private static final short DOS_DATE = (2 << 5) | 1;
+	
+	public ZipArchiveWriter(File archiveFile, int parallelism) {
+		this.archiveFile = archiveFile;
+		this.parallelism = parallelism;
+		this.entries = new ConcurrentHashMap<>();
+	}
+	
+	/**
+	 * Adds a file to the archive. The file is not read until the archive is
+	 * written. This method can be called from multiple threads.
+	 */
+	public void addFile(String path, File file) {
+		entries.put(normalizePath(path), file);
+	}
+	
+	/**
+	 * Adds an entry with the specified contents to the archive. This method
+	 * can be called from multiple threads.
+	 */
+	public void addBytes(String path, byte[] contents) {
+		entries.put(normalizePath(path), contents);
+	}
+	
+	private String normalizePath(String path) {
+		String normalized = path.replace('\\', '/');
+		while (normalized.startsWith("/")) {
+			normalized = normalized.substring(1);
+		}
+		return normalized;
+	}
+	
+	public int getEntryCount() {
+		return entries.size();
+	}
+	
+	public long getBytesRead() {
+		return bytesRead;
+	}
+	
+	public long getBytesWritten() {
+		return bytesWritten;
+	}
+	
+	/**
+	 * Writes all entries to the archive, replacing the archive if it already
+	 * exists. Directory entries are added for the parent directories of all
+	 * entries.
+	 */
+	public void write() {
+		TreeMap<String, Object> sortedEntries = new TreeMap<>(entries);
+		for (String path : entries.keySet()) {
+			for (int i = path.indexOf('/'); i != -1; i = path.indexOf('/', i + 1)) {
+				sortedEntries.putIfAbsent(path.substring(0, i + 1), new byte[0]);
+			}
+		}
+		
+		archiveFile.getParentFile().mkdirs();
+		ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+		List<CentralEntry> centralDirectory = new ArrayList<>();
+		
+		try (FileChannel output = FileChannel.open(archiveFile.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+			Deque<PendingEntry> pending = new ArrayDeque<>();
+			int maxPending = parallelism * 2;
+			
+			for (Map.Entry<String, Object> entry : sortedEntries.entrySet()) {
+				pending.add(submit(entry.getKey(), entry.getValue(), executor));
+				if (pending.size() >= maxPending) {
+					centralDirectory.add(writeEntry(pending.poll(), output));
+				}
+			}
+			
+			while (!pending.isEmpty()) {
+				centralDirectory.add(writeEntry(pending.poll(), output));
+			}
+			
+			writeCentralDirectory(centralDirectory, output);
+			bytesWritten = output.size();
+		} catch (IOException e) {
+			throw new RuntimeException("Cannot write archive " + archiveFile.getAbsolutePath(), e);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+	
+	private PendingEntry submit(String path, Object source, ExecutorService executor) {
+		PendingEntry pending = new PendingEntry();
+		pending.path = path;
+		pending.source = source;
+		if (source instanceof byte[] || ((File) source).length() < STREAMED_ENTRY_SIZE) {
+			pending.result = executor.submit(() -> compress(path, source));
+		}
+		return pending;
+	}
+	
+	/**
+	 * Reads and compresses an entry in memory. This is performed by the thread
+	 * pool, so that multiple entries can be compressed in parallel.
+	 */
+	private CompressedEntry compress(String path, Object source) throws IOException {
+		byte[] contents = source instanceof File ? Files.readAllBytes(((File) source).toPath()) : (byte[]) source;
+		
+		CompressedEntry entry = new CompressedEntry();
+		entry.size = contents.length;
+		entry.crc = crc(contents);
+		entry.method = STORED;
+		entry.data = contents;
+		
+		if (contents.length > 0 && isCompressible(path)) {
+			byte[] deflated = deflate(contents);
+			if (deflated.length < contents.length) {
+				entry.method = DEFLATED;
+				entry.data = deflated;
+			}
+		}
+		return entry;
+	}
+	
+	private long crc(byte[] contents) {
+		CRC32 crc = new CRC32();
+		crc.update(contents);
+		return crc.getValue();
+	}
+	
+	private byte[] deflate(byte[] contents) {
+		Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+		try {
+			deflater.setInput(contents);
+			deflater.finish();
+			
+			byte[] buffer = new byte[Math.max(64, contents.length + contents.length / 1000 + 64)];
+			int length = 0;
+			while (!deflater.finished()) {
+				if (length == buffer.length) {
+					buffer = Arrays.copyOf(buffer, buffer.length * 2);
+				}
+				length += deflater.deflate(buffer, length, buffer.length - length);
+			}
+			return Arrays.copyOf(buffer, length);
+		} finally {
+			deflater.end();
+		}
+	}
+	
+	private boolean isCompressible(String path) {
+		String name = path.toLowerCase(Locale.ROOT);
+		return !COMPRESSED_EXTENSIONS.contains(name.substring(name.lastIndexOf('.') + 1));
+	}
+	
+	private CentralEntry writeEntry(PendingEntry pending, FileChannel output) throws IOException {
+		if (pending.result == null) {
+			return writeStreamedEntry(pending.path, (File) pending.source, output);
+		}
+		
+		CompressedEntry entry = await(pending);
+		CentralEntry central = new CentralEntry(pending.path, output.position());
+		central.method = entry.method;
+		central.crc = entry.crc;
+		central.size = entry.size;
+		central.compressedSize = entry.data.length;
+		
+		writeFully(output, createLocalHeader(central, false));
+		writeFully(output, ByteBuffer.wrap(entry.data));
+		bytesRead += entry.size;
+		return central;
+	}
+	
+	private CompressedEntry await(PendingEntry pending) throws IOException {
+		try {
+			return pending.result.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while writing archive", e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException("Cannot add " + pending.path + " to archive: " +
+					e.getCause().getMessage(), e.getCause());
+		}
+	}
+	
+	/**
+	 * Writes a large entry by streaming the file to the archive. Since the CRC
+	 * and compressed size are not known in advance, the local header is
+	 * written with placeholders, which are replaced afterwards.
+	 */
+	private CentralEntry writeStreamedEntry(String path, File file, FileChannel output) throws IOException {
+		CentralEntry central = new CentralEntry(path, output.position());
+		central.method = isCompressible(path) ? DEFLATED : STORED;
+		writeFully(output, createLocalHeader(central, true));
+		long dataStart = output.position();
+		
+		CRC32 crc = new CRC32();
+		Deflater deflater = central.method == DEFLATED ? new Deflater(Deflater.DEFAULT_COMPRESSION, true) : null;
+		byte[] inputBuffer = new byte[BUFFER_SIZE];
+		byte[] outputBuffer = new byte[BUFFER_SIZE];
+		
+		try (FileChannel input = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			ByteBuffer buffer = ByteBuffer.wrap(inputBuffer);
+			int length = 0;
+			while ((length = input.read(buffer)) != -1) {
+				crc.update(inputBuffer, 0, length);
+				central.size += length;
+				if (deflater == null) {
+					writeFully(output, ByteBuffer.wrap(inputBuffer, 0, length));
+				} else {
+					deflater.setInput(inputBuffer, 0, length);
+					while (!deflater.needsInput()) {
+						int deflated = deflater.deflate(outputBuffer);
+						writeFully(output, ByteBuffer.wrap(outputBuffer, 0, deflated));
+					}
+				}
+				buffer.clear();
+			}
+			
+			if (deflater != null) {
+				deflater.finish();
+				while (!deflater.finished()) {
+					int deflated = deflater.deflate(outputBuffer);
+					writeFully(output, ByteBuffer.wrap(outputBuffer, 0, deflated));
+				}
+			}
+		} catch (IOException e) {
+			throw new RuntimeException("Cannot add " + path + " to archive", e);
+		} finally {
+			if (deflater != null) {
+				deflater.end();
+			}
+		}
+		
+		long dataEnd = output.position();
+		central.crc = crc.getValue();
+		central.compressedSize = dataEnd - dataStart;
+		output.position(central.offset);
+		writeFully(output, createLocalHeader(central, true));
+		output.position(dataEnd);
+		bytesRead += central.size;
+		return central;
+	}
+	
+	/**
+	 * Creates the local file header that precedes the entry's data. Streamed
+	 * entries always use a ZIP64 extra field, since it is not known in advance
+	 * whether the entry will need it.
+	 */
+	private ByteBuffer createLocalHeader(CentralEntry entry, boolean zip64) {
+		ByteBuffer header = allocate(30 + entry.name.length + (zip64 ? 20 : 0));
+		header.putInt(LOCAL_HEADER);
+		header.putShort(zip64 ? VERSION_ZIP64 : VERSION);
+		header.putShort(UTF8_FLAG);
+		header.putShort(entry.method);
+		header.putShort(DOS_TIME);
+		header.putShort(DOS_DATE);
+		header.putInt((int) entry.crc);
+		header.putInt(zip64 ? (int) ZIP64_MAGIC : (int) entry.compressedSize);
+		header.putInt(zip64 ? (int) ZIP64_MAGIC : (int) entry.size);
+		header.putShort((short) entry.name.length);
+		header.putShort((short) (zip64 ? 20 : 0));
+		header.put(entry.name);
+		if (zip64) {
+			header.putShort(ZIP64_EXTRA);
+			header.putShort((short) 16);
+			header.putLong(entry.size);
+			header.putLong(entry.compressedSize);
+		}
+		header.flip();
+		return header;
+	}
+	
+	private void writeCentralDirectory(List<CentralEntry> centralDirectory, FileChannel output)
+			throws IOException {
+		long centralDirectoryOffset = output.position();
+		for (CentralEntry entry : centralDirectory) {
+			writeFully(output, createCentralHeader(entry));
+		}
+		long centralDirectorySize = output.position() - centralDirectoryOffset;
+		int count = centralDirectory.size();
+		
+		if (count >= ZIP64_MAGIC_COUNT || centralDirectoryOffset >= ZIP64_MAGIC ||
+				centralDirectorySize >= ZIP64_MAGIC) {
+			long zip64Offset = output.position();
+			ByteBuffer zip64End = allocate(56 + 20);
+			zip64End.putInt(ZIP64_END_OF_CENTRAL_DIRECTORY);
+			zip64End.putLong(44);
+			zip64End.putShort(VERSION_ZIP64);
+			zip64End.putShort(VERSION_ZIP64);
+			zip64End.putInt(0);
+			zip64End.putInt(0);
+			zip64End.putLong(count);
+			zip64End.putLong(count);
+			zip64End.putLong(centralDirectorySize);
+			zip64End.putLong(centralDirectoryOffset);
+			zip64End.putInt(ZIP64_LOCATOR);
+			zip64End.putInt(0);
+			zip64End.putLong(zip64Offset);
+			zip64End.putInt(1);
+			zip64End.flip();
+			writeFully(output, zip64End);
+		}
+		
+		ByteBuffer end = allocate(22);
+		end.putInt(END_OF_CENTRAL_DIRECTORY);
+		end.putShort((short) 0);
+		end.putShort((short) 0);
+		end.putShort((short) Math.min(count, ZIP64_MAGIC_COUNT));
+		end.putShort((short) Math.min(count, ZIP64_MAGIC_COUNT));
+		end.putInt((int) Math.min(centralDirectorySize, ZIP64_MAGIC));
+		end.putInt((int) Math.min(centralDirectoryOffset, ZIP64_MAGIC));
+		end.putShort((short) 0);
+		end.flip();
+		writeFully(output, end);
+	}
+	
+	private ByteBuffer createCentralHeader(CentralEntry entry) {
+		boolean zip64Size = entry.size >= ZIP64_MAGIC;
+		boolean zip64CompressedSize = entry.compressedSize >= ZIP64_MAGIC;
+		boolean zip64Offset = entry.offset >= ZIP64_MAGIC;
+		int extraLength = (zip64Size ? 8 : 0) + (zip64CompressedSize ? 8 : 0) + (zip64Offset ? 8 : 0);
+		boolean zip64 = extraLength > 0;
+		
+		ByteBuffer header = allocate(46 + entry.name.length + (zip64 ? 4 + extraLength : 0));
+		header.putInt(CENTRAL_HEADER);
+		header.putShort(VERSION_ZIP64);
+		header.putShort(zip64 ? VERSION_ZIP64 : VERSION);
+		header.putShort(UTF8_FLAG);
+		header.putShort(entry.method);
+		header.putShort(DOS_TIME);
+		header.putShort(DOS_DATE);
+		header.putInt((int) entry.crc);
+		header.putInt((int) Math.min(entry.compressedSize, ZIP64_MAGIC));
+		header.putInt((int) Math.min(entry.size, ZIP64_MAGIC));
+		header.putShort((short) entry.name.length);
+		header.putShort((short) (zip64 ? 4 + extraLength : 0));
+		header.putShort((short) 0);
+		header.putShort((short) 0);
+		header.putShort((short) 0);
+		header.putInt(0);
+		header.putInt((int) Math.min(entry.offset, ZIP64_MAGIC));
+		header.put(entry.name);
+		if (zip64) {
+			header.putShort(ZIP64_EXTRA);
+			header.putShort((short) extraLength);
+			if (zip64Size) {
+				header.putLong(entry.size);
+			}
+			if (zip64CompressedSize) {
+				header.putLong(entry.compressedSize);
+			}
+			if (zip64Offset) {
+				header.putLong(entry.offset);
+			}
+		}
+		header.flip();
+		return header;
+	}
+	
+	private ByteBuffer allocate(int size) {
+		return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+	}
+	
+	private void writeFully(FileChannel output, ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			output.write(buffer);
+		}
+	}
+	
+	/**
+	 * Entry that has been added to the archive, but has not been written yet.
+	 * Entries that are compressed in memory have a result, streamed entries
+	 * are processed when they are written.
+	 */
+	private static class PendingEntry {
+		
+		private String path;
+		private Object source;
+		private Future<CompressedEntry> result;
+	}
+	
+	/**
+	 * Contents of an entry after it has been compressed, or the original
+	 * contents if the entry is stored without compression.
+	 */
+	private static class CompressedEntry {
+		
+		private short method;
+		private long crc;
+		private long size;
+		private byte[] data;
+	}
+	
+	/**
+	 * Information about an entry that has been written, which is needed for
+	 * the central directory at the end of the archive.
+	 */
+	private static class CentralEntry {
+		
+		private byte[] name;
+		private long offset;
+		private short method;
+		private long crc;
+		private long size;
+		private long compressedSize;
+		
+		public CentralEntry(String path, long offset) {
+			this.name = path.getBytes(UTF8);
+			this.offset = offset;
+		}
+	}
+}